@@ -0,0 +1,81 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleField;
+import com.addthis.bundle.core.list.ListBundle;
+import com.addthis.bundle.value.ValueFactory;
+import com.addthis.hydra.data.filter.util.BundleCalculator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the interpreted and compiled modes of {@link BundleCalculator}
+ * on definitions taken from typical "num" filters.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BundleCalculatorBenchmark {
+
+    @Param({"c0,c1,sub,v1000,ddiv,toint,v2,set",
+            "c0,c1,mult,v2,set",
+            "c0,n10,gt,c1,n0,gteq,c0,c1,+,v2,set",
+            "c0,c1,c2,vector,+,v3,set"})
+    String define;
+
+    @Param({"false", "true"})
+    boolean compiled;
+
+    BundleCalculator calculator;
+
+    Bundle bundle;
+
+    BundleField c0;
+
+    long counter;
+
+    @Setup
+    public void setup() {
+        calculator = new BundleCalculator(define, compiled);
+        bundle = new ListBundle();
+        c0 = bundle.getFormat().getField("c0");
+        bundle.setValue(c0, ValueFactory.create(123456));
+        bundle.setValue(bundle.getFormat().getField("c1"), ValueFactory.create(789));
+        bundle.setValue(bundle.getFormat().getField("c2"), ValueFactory.create(42));
+        bundle.setValue(bundle.getFormat().getField("c3"), ValueFactory.create(0));
+    }
+
+    @Benchmark
+    public Bundle calculate() {
+        bundle.setValue(c0, ValueFactory.create(100000 + (counter++ & 1023)));
+        return calculator.calculate(bundle);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.bench;
+
+import java.io.File;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.addthis.basis.util.Files;
+
+import com.addthis.hydra.data.tree.concurrent.Builder;
+import com.addthis.hydra.data.tree.concurrent.ConcurrentTree;
+import com.addthis.hydra.data.tree.concurrent.ConcurrentTreeNode;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Many threads creating and leasing children of a single parent node. A small
+ * {@code keySpace} keeps the node cache hot and measures contention on the
+ * cache and lease counters. A large {@code keySpace} with a small
+ * {@code nodeCacheSize} adds the cost of page loads and evictions.
+ * Use the {@code -t} option of the runner to vary the number of threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrentTreeBenchmark {
+
+    static final int keyCount = 1 << 16;
+
+    @Param({"SEQUENTIAL", "UNIFORM", "ZIPFIAN"})
+    KeyDistribution distribution;
+
+    @Param({"1000", "1000000"})
+    int keySpace;
+
+    @Param("10000")
+    int nodeCacheSize;
+
+    File dir;
+
+    ConcurrentTree tree;
+
+    ConcurrentTreeNode parent;
+
+    String[] names;
+
+    @Setup
+    public void setup() throws Exception {
+        dir = Files.createTempDir();
+        tree = new Builder(dir).nodeCacheSize(nodeCacheSize).build();
+        parent = (ConcurrentTreeNode) tree.getRootNode().getOrCreateEditableNode("bench");
+        int[] keys = distribution.generate(keyCount, keySpace, new Random(keySpace));
+        names = new String[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            names[i] = Integer.toString(keys[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        parent.release();
+        tree.close();
+        Files.deleteDir(dir);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public ConcurrentTreeNode getOrCreateNode(KeyCursor cursor) {
+        ConcurrentTreeNode node = tree.getOrCreateNode(parent, names[cursor.next(keyCount - 1)], null);
+        node.release();
+        return node;
+    }
+}
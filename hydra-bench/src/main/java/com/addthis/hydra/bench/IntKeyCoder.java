@@ -0,0 +1,62 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.bench;
+
+import com.addthis.basis.util.Bytes;
+
+import com.addthis.hydra.store.kv.KeyCoder;
+
+/**
+ * Integer keys are encoded with the sign bit flipped so
+ * that the byte ordering matches the integer ordering.
+ */
+public class IntKeyCoder implements KeyCoder<Integer, LongValue> {
+
+    private static final byte[] zero = new byte[0];
+
+    @Override
+    public Integer negInfinity() {
+        return Integer.MIN_VALUE;
+    }
+
+    @Override
+    public byte[] keyEncode(Integer key) {
+        return key != null ? Bytes.toBytes(key ^ Integer.MIN_VALUE) : zero;
+    }
+
+    @Override
+    public byte[] valueEncode(LongValue value, EncodeType encodeType) {
+        return value == null ? zero : value.bytesEncode(encodeType.ordinal());
+    }
+
+    @Override
+    public Integer keyDecode(byte[] key) {
+        return (key != null && key.length > 0) ? (Bytes.toInt(key) ^ Integer.MIN_VALUE) : null;
+    }
+
+    @Override
+    public LongValue valueDecode(byte[] value, EncodeType encodeType) {
+        if (value.length == 0) {
+            return null;
+        }
+        LongValue longValue = new LongValue();
+        longValue.bytesDecode(value, encodeType.ordinal());
+        return longValue;
+    }
+
+    @Override
+    public boolean nullRawValueInternal(byte[] value) {
+        return value.length == 0;
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.bench;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Per-thread position into a pre-generated key array. Each thread
+ * starts at a random offset so that concurrent threads do not walk
+ * the key array in lock step.
+ */
+@State(Scope.Thread)
+public class KeyCursor {
+
+    private int position;
+
+    @Setup
+    public void setup() {
+        position = ThreadLocalRandom.current().nextInt(1 << 20);
+    }
+
+    /**
+     * Returns the next index into an array whose length is a power of two.
+     */
+    public int next(int mask) {
+        return (position++) & mask;
+    }
+}
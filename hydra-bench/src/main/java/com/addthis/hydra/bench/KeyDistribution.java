@@ -0,0 +1,96 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.bench;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Synthetic key distributions used to drive the benchmark suites.
+ * Each distribution produces a fixed array of integer keys in the
+ * range [0, keySpace) so that the benchmark loop only pays for
+ * an array lookup.
+ */
+public enum KeyDistribution {
+
+    /** keys are visited in ascending order and wrap around */
+    SEQUENTIAL {
+        @Override
+        public int[] generate(int count, int keySpace, Random random) {
+            int[] keys = new int[count];
+            for (int i = 0; i < count; i++) {
+                keys[i] = i % keySpace;
+            }
+            return keys;
+        }
+    },
+
+    /** every key is equally likely */
+    UNIFORM {
+        @Override
+        public int[] generate(int count, int keySpace, Random random) {
+            int[] keys = new int[count];
+            for (int i = 0; i < count; i++) {
+                keys[i] = random.nextInt(keySpace);
+            }
+            return keys;
+        }
+    },
+
+    /**
+     * a small number of hot keys receive most of the accesses. Hot keys are
+     * scattered across the key space so that they do not share a single page.
+     */
+    ZIPFIAN {
+        @Override
+        public int[] generate(int count, int keySpace, Random random) {
+            double[] cdf = new double[keySpace];
+            double sum = 0;
+            for (int i = 0; i < keySpace; i++) {
+                sum += 1.0 / Math.pow(i + 1, zipfExponent);
+                cdf[i] = sum;
+            }
+            int[] scatter = new int[keySpace];
+            for (int i = 0; i < keySpace; i++) {
+                scatter[i] = i;
+            }
+            for (int i = keySpace - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int tmp = scatter[i];
+                scatter[i] = scatter[j];
+                scatter[j] = tmp;
+            }
+            int[] keys = new int[count];
+            for (int i = 0; i < count; i++) {
+                int rank = Arrays.binarySearch(cdf, random.nextDouble() * sum);
+                if (rank < 0) {
+                    rank = ~rank;
+                }
+                keys[i] = scatter[Math.min(rank, keySpace - 1)];
+            }
+            return keys;
+        }
+    };
+
+    static final double zipfExponent = 0.99;
+
+    /**
+     * Returns {@code count} keys drawn from this distribution.
+     *
+     * @param count    number of keys to generate
+     * @param keySpace keys are in the range [0, keySpace)
+     * @param random   source of randomness. Use a fixed seed for repeatable runs.
+     */
+    public abstract int[] generate(int count, int keySpace, Random random);
+}
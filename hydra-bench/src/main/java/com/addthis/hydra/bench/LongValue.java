@@ -0,0 +1,47 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.bench;
+
+import java.nio.ByteBuffer;
+
+import com.addthis.codec.codables.BytesCodable;
+
+/**
+ * Minimal eight byte value for the key-value store benchmarks.
+ */
+public class LongValue implements BytesCodable {
+
+    private long val;
+
+    public LongValue() {
+    }
+
+    public LongValue(long val) {
+        this.val = val;
+    }
+
+    public long getVal() {
+        return val;
+    }
+
+    @Override
+    public byte[] bytesEncode(long version) {
+        return ByteBuffer.allocate(8).putLong(val).array();
+    }
+
+    @Override
+    public void bytesDecode(byte[] b, long version) {
+        val = ByteBuffer.wrap(b).getLong();
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.bench;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import com.addthis.hydra.store.kv.ByteStore;
+
+import com.google.common.primitives.UnsignedBytes;
+
+/**
+ * Heap resident {@link ByteStore} so that the cache benchmarks
+ * measure the cache and page codecs rather than the disk.
+ */
+public class MemoryByteStore implements ByteStore {
+
+    private final ConcurrentSkipListMap<byte[], byte[]> map =
+            new ConcurrentSkipListMap<>(UnsignedBytes.lexicographicalComparator());
+
+    @Override
+    public boolean hasKey(byte[] key) {
+        return map.containsKey(key);
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return false;
+    }
+
+    @Override
+    public byte[] firstKey() {
+        return map.isEmpty() ? null : map.firstKey();
+    }
+
+    @Override
+    public byte[] lastKey() {
+        return map.isEmpty() ? null : map.lastKey();
+    }
+
+    @Override
+    public byte[] delete(byte[] key) {
+        map.remove(key);
+        return map.lowerKey(key);
+    }
+
+    @Override
+    public void put(byte[] key, byte[] val) {
+        map.put(key, val);
+    }
+
+    @Override
+    public byte[] get(byte[] key) {
+        return map.get(key);
+    }
+
+    @Override
+    public byte[] higherKey(byte[] key) {
+        return map.higherKey(key);
+    }
+
+    @Override
+    public byte[] lowerKey(byte[] key) {
+        return map.lowerKey(key);
+    }
+
+    @Override
+    public byte[] floorKey(byte[] key) {
+        return map.floorKey(key);
+    }
+
+    @Override
+    public Map.Entry<byte[], byte[]> floorEntry(byte[] key) {
+        return map.floorEntry(key);
+    }
+
+    @Override
+    public byte[] firstEntry() {
+        Map.Entry<byte[], byte[]> entry = map.firstEntry();
+        return entry == null ? null : entry.getValue();
+    }
+
+    @Override
+    public Iterator<byte[]> keyIterator(byte[] start) {
+        return map.tailMap(start, true).keySet().iterator();
+    }
+
+    @Override
+    public void close() {
+        map.clear();
+    }
+
+    @Override
+    public void close(boolean cleanLog) {
+        close();
+    }
+
+    @Override
+    public long count() {
+        return map.size();
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.bench;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.addthis.hydra.store.kv.KeyCoder;
+import com.addthis.hydra.store.skiplist.Page;
+import com.addthis.hydra.store.skiplist.SkipListCache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.PooledByteBufAllocator;
+
+/**
+ * Encodes and decodes a single page for each of the {@code eps.gz.type} compressors.
+ * The dictionary compressor (6) is not included because it needs a trained dictionary.
+ * <p/>
+ * The compressor is read into a static field when {@link Page} is initialized.
+ * JMH runs every parameter combination in a fresh fork so the system property is
+ * assigned before the first reference to {@link Page}. Running this benchmark
+ * with forks disabled measures whichever compressor was selected first.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PageCodecBenchmark {
+
+    @Param({"0", "1", "2", "3", "4", "5"})
+    int gzType;
+
+    @Param({"50", "500"})
+    int pageEntries;
+
+    SkipListCache<Integer, LongValue> cache;
+
+    Page<Integer, LongValue> page;
+
+    Integer firstKey;
+
+    byte[] encoded;
+
+    ByteBufOutputStream out;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        System.setProperty("eps.gz.type", Integer.toString(gzType));
+        cache = new SkipListCache.Builder<>(new IntKeyCoder(), new MemoryByteStore(),
+                pageEntries, 10).build();
+        Random random = new Random(pageEntries);
+        ArrayList<Integer> keys = new ArrayList<>(pageEntries);
+        ArrayList<LongValue> values = new ArrayList<>(pageEntries);
+        ArrayList<byte[]> rawValues = new ArrayList<>(pageEntries);
+        int key = 0;
+        for (int i = 0; i < pageEntries; i++) {
+            key += 1 + random.nextInt(16);
+            keys.add(key);
+            values.add(new LongValue(random.nextInt(1 << 20)));
+            rawValues.add(null);
+        }
+        firstKey = keys.get(0);
+        page = Page.DefaultPageFactory.singleton.generateSiblingPage(cache, firstKey, null,
+                pageEntries, keys, values, rawValues, KeyCoder.EncodeType.SPARSE);
+        out = new ByteBufOutputStream(PooledByteBufAllocator.DEFAULT.heapBuffer());
+        encoded = page.encode(out, false);
+    }
+
+    @TearDown
+    public void tearDown() {
+        out.buffer().release();
+        cache.close();
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return page.encode(out, false);
+    }
+
+    /**
+     * Encodes into the pooled buffer without copying the page out of it.
+     * This is the path taken by the eviction threads.
+     */
+    @Benchmark
+    public int encodeToBuffer() {
+        ByteBuf buffer = page.encodeToBuffer(out, false);
+        int length = buffer.readableBytes();
+        buffer.clear();
+        return length;
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public Page<Integer, LongValue> decode() {
+        Page<Integer, LongValue> target = Page.DefaultPageFactory.singleton.generateEmptyPage(cache,
+                firstKey, KeyCoder.EncodeType.SPARSE);
+        target.decode(encoded);
+        return target;
+    }
+}
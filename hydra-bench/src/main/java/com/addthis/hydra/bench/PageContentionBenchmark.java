@@ -0,0 +1,118 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.bench;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.addthis.hydra.store.skiplist.SkipListCache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Many threads reading a small set of hot pages, with and without
+ * optimistic page reads. All keys fit in memory so the benchmark
+ * measures only the cost of the page locks.
+ * <p/>
+ * The {@code hotRead} benchmarks run with 16 reader threads. The
+ * {@code mixed} group adds a single writer that updates the same
+ * pages so that some optimistic reads fail validation and fall
+ * back to the read lock.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PageContentionBenchmark {
+
+    @Param({"false", "true"})
+    boolean optimisticReads;
+
+    /**
+     * Number of keys that are read. Must be a power of two. With the default page size
+     * these keys are spread across two pages.
+     */
+    @Param("64")
+    int hotKeys;
+
+    @Param("50")
+    int maxPageSize;
+
+    @Param("16")
+    int rangeLength;
+
+    SkipListCache<Integer, LongValue> cache;
+
+    @Setup
+    public void setup() {
+        cache = new SkipListCache.Builder<>(new IntKeyCoder(), new MemoryByteStore(), maxPageSize, 1000)
+                .optimisticReads(optimisticReads).build();
+        for (int i = 0; i < hotKeys; i++) {
+            cache.put(i, new LongValue(i));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        cache.close();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public LongValue hotRead(KeyCursor cursor) {
+        return cache.get(cursor.next(hotKeys - 1));
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void hotRange(KeyCursor cursor, Blackhole blackhole) {
+        Iterator<Map.Entry<Integer, LongValue>> iterator = cache.range(cursor.next(hotKeys - 1), true);
+        for (int i = 0; i < rangeLength && iterator.hasNext(); i++) {
+            blackhole.consume(iterator.next());
+        }
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(15)
+    public LongValue mixedRead(KeyCursor cursor) {
+        return cache.get(cursor.next(hotKeys - 1));
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public LongValue mixedWrite(KeyCursor cursor) {
+        int key = cursor.next(hotKeys - 1);
+        return cache.put(key, new LongValue(key));
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.bench;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.addthis.basis.util.Bytes;
+import com.addthis.basis.util.Files;
+
+import com.addthis.hydra.store.db.DBKey;
+import com.addthis.hydra.store.db.IPageDB;
+import com.addthis.hydra.store.db.PageDB;
+import com.addthis.hydra.store.util.Raw;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Range scans over a {@link PageDB} stored on disk in the default byte store.
+ * The scan start positions are drawn from the key distribution and each scan
+ * reads {@code scanLength} entries within a single database id, the access
+ * pattern used when iterating the children of a tree node.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PageDBBenchmark {
+
+    static final int keyCount = 1 << 16;
+
+    static final int dbId = 1;
+
+    @Param({"SEQUENTIAL", "UNIFORM", "ZIPFIAN"})
+    KeyDistribution distribution;
+
+    @Param("100000")
+    int keySpace;
+
+    @Param({"10", "1000"})
+    int scanLength;
+
+    @Param("100")
+    int maxPageSize;
+
+    @Param("200")
+    int maxPages;
+
+    File dir;
+
+    PageDB<LongValue> db;
+
+    DBKey[] keys;
+
+    DBKey end;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDir();
+        db = new PageDB<>(dir, LongValue.class, maxPageSize, maxPages);
+        for (int i = 0; i < keySpace; i++) {
+            db.put(dbKey(i), new LongValue(i));
+        }
+        int[] positions = distribution.generate(keyCount, keySpace, new Random(keySpace));
+        keys = new DBKey[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = dbKey(positions[i]);
+        }
+        end = new DBKey(dbId + 1);
+    }
+
+    private static DBKey dbKey(int key) {
+        return new DBKey(dbId, Raw.get(Bytes.toBytes(key)));
+    }
+
+    @TearDown
+    public void tearDown() {
+        db.close();
+        Files.deleteDir(dir);
+    }
+
+    @Benchmark
+    public void range(KeyCursor cursor, Blackhole blackhole) {
+        IPageDB.Range<DBKey, LongValue> range = db.range(keys[cursor.next(keyCount - 1)], end);
+        try {
+            Iterator<Map.Entry<DBKey, LongValue>> iterator = range.iterator();
+            for (int i = 0; i < scanLength && iterator.hasNext(); i++) {
+                blackhole.consume(iterator.next());
+            }
+        } finally {
+            range.close();
+        }
+    }
+}
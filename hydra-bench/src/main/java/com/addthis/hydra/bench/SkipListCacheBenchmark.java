@@ -0,0 +1,130 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.bench;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import com.addthis.hydra.store.skiplist.SkipListCache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Point lookups, updates and short range scans against a {@link SkipListCache}
+ * backed by a heap resident byte store. With {@code maxPages} smaller than the
+ * number of pages the benchmark includes the cost of eviction and page decoding.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SkipListCacheBenchmark {
+
+    static final int keyCount = 1 << 16;
+
+    @Param({"SEQUENTIAL", "UNIFORM", "ZIPFIAN"})
+    KeyDistribution distribution;
+
+    @Param("100000")
+    int keySpace;
+
+    @Param("50")
+    int maxPageSize;
+
+    @Param({"100", "10000"})
+    int maxPages;
+
+    @Param("100")
+    int rangeLength;
+
+    /**
+     * Number of consecutive keys written by {@link #putAll(KeyCursor)}
+     * and {@link #putEach(KeyCursor)}.
+     */
+    @Param("32")
+    int batchSize;
+
+    SkipListCache<Integer, LongValue> cache;
+
+    int[] keys;
+
+    @Setup
+    public void setup() {
+        cache = new SkipListCache.Builder<>(new IntKeyCoder(), new MemoryByteStore(),
+                maxPageSize, maxPages).build();
+        for (int i = 0; i < keySpace; i++) {
+            cache.put(i, new LongValue(i));
+        }
+        keys = distribution.generate(keyCount, keySpace, new Random(keySpace));
+    }
+
+    @TearDown
+    public void tearDown() {
+        cache.close();
+    }
+
+    @Benchmark
+    public LongValue get(KeyCursor cursor) {
+        return cache.get(keys[cursor.next(keyCount - 1)]);
+    }
+
+    @Benchmark
+    public LongValue put(KeyCursor cursor) {
+        int key = keys[cursor.next(keyCount - 1)];
+        return cache.put(key, new LongValue(key));
+    }
+
+    @Benchmark
+    public void putEach(KeyCursor cursor) {
+        int start = keys[cursor.next(keyCount - 1)];
+        for (int key = start; key < start + batchSize; key++) {
+            cache.put(key, new LongValue(key));
+        }
+    }
+
+    @Benchmark
+    public void putAll(KeyCursor cursor) {
+        int start = keys[cursor.next(keyCount - 1)];
+        TreeMap<Integer, LongValue> batch = new TreeMap<>();
+        for (int key = start; key < start + batchSize; key++) {
+            batch.put(key, new LongValue(key));
+        }
+        cache.putAll(batch);
+    }
+
+    @Benchmark
+    public void range(KeyCursor cursor, Blackhole blackhole) {
+        Iterator<Map.Entry<Integer, LongValue>> iterator = cache.range(keys[cursor.next(keyCount - 1)], true);
+        for (int i = 0; i < rangeLength && iterator.hasNext(); i++) {
+            blackhole.consume(iterator.next());
+        }
+    }
+}
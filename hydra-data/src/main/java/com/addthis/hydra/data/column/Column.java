@@ -0,0 +1,175 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.column;
+
+import javax.annotation.Nullable;
+
+import java.util.Arrays;
+
+import com.addthis.bundle.value.ValueObject;
+
+/**
+ * A single typed column of a {@link ColumnBatch}.
+ * <p/>
+ * Every column carries a bitmap that records which rows hold a value.
+ * Rows that were never written, or were written with null, are null.
+ * Subclasses store the values themselves in a primitive array where
+ * the type allows it so that kernels can operate without boxing.
+ */
+public abstract class Column {
+
+    private long[] present;
+    private int capacity;
+    private int size;
+
+    protected Column(int capacity) {
+        this.capacity = Math.max(capacity, 1);
+        this.present = new long[words(this.capacity)];
+    }
+
+    /**
+     * Returns a new column that can store {@code value} without promotion.
+     */
+    public static Column forValue(ValueObject value, int capacity) {
+        switch (value.getObjectType()) {
+            case INT:
+                return new LongColumn(capacity);
+            case FLOAT:
+                return new DoubleColumn(capacity);
+            case STRING:
+                return new StringColumn(capacity);
+            default:
+                return new ValueColumn(capacity);
+        }
+    }
+
+    /**
+     * Stores {@code value} at {@code row} of {@code column}. A new column
+     * is created when {@code column} is null and the column is promoted to
+     * a {@link ValueColumn} when it cannot store the type of {@code value}.
+     *
+     * @return the column that now holds the value
+     */
+    public static Column put(@Nullable Column column, int row, @Nullable ValueObject value) {
+        if (column == null) {
+            if (value == null) {
+                return null;
+            }
+            column = forValue(value, row + 1);
+        } else if (!column.accepts(value)) {
+            column = column.toValueColumn();
+        }
+        column.set(row, value);
+        return column;
+    }
+
+    private static int words(int rows) {
+        return (rows + 63) >>> 6;
+    }
+
+    /**
+     * Returns one more than the highest row that has been written.
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isNull(int row) {
+        return (row >= size) || ((present[row >>> 6] & (1L << row)) == 0);
+    }
+
+    /**
+     * Returns the number of rows below {@code rows} that are null.
+     */
+    public int nullCount(int rows) {
+        int count = 0;
+        for (int i = 0; i < rows; i++) {
+            if (isNull(i)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Nullable public abstract ValueObject get(int row);
+
+    /**
+     * Returns true if {@code value} can be stored in this column without promotion.
+     */
+    public abstract boolean accepts(@Nullable ValueObject value);
+
+    public final void set(int row, @Nullable ValueObject value) {
+        if (value == null) {
+            setNull(row);
+        } else {
+            prepare(row);
+            store(row, value);
+            markPresent(row);
+        }
+    }
+
+    public final void setNull(int row) {
+        prepare(row);
+        present[row >>> 6] &= ~(1L << row);
+        clear(row);
+    }
+
+    /**
+     * Returns a copy of this column that can hold any value.
+     */
+    public ValueColumn toValueColumn() {
+        ValueColumn copy = new ValueColumn(size);
+        for (int i = 0; i < size; i++) {
+            if (!isNull(i)) {
+                copy.set(i, get(i));
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Returns a new column holding rows {@code rows[0]} through
+     * {@code rows[count - 1]} of this column in that order.
+     */
+    public abstract Column select(int[] rows, int count);
+
+    protected abstract void store(int row, ValueObject value);
+
+    /**
+     * Releases any value held at {@code row} after it has been set to null.
+     */
+    protected void clear(int row) {}
+
+    protected abstract void resize(int capacity);
+
+    /**
+     * Grows the column so that {@code row} is addressable. Subclasses
+     * call this before writing to their primitive arrays.
+     */
+    protected final void prepare(int row) {
+        if (row >= capacity) {
+            int newCapacity = Math.max(row + 1, capacity * 2);
+            present = Arrays.copyOf(present, words(newCapacity));
+            resize(newCapacity);
+            capacity = newCapacity;
+        }
+        if (row >= size) {
+            size = row + 1;
+        }
+    }
+
+    protected final void markPresent(int row) {
+        present[row >>> 6] |= (1L << row);
+    }
+}
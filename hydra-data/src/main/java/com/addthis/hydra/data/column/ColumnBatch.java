@@ -0,0 +1,287 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.column;
+
+import javax.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleException;
+import com.addthis.bundle.core.BundleField;
+import com.addthis.bundle.core.BundleFormat;
+import com.addthis.bundle.core.BundleFormatted;
+import com.addthis.bundle.core.list.ListBundle;
+import com.addthis.bundle.core.list.ListBundleFormat;
+import com.addthis.bundle.value.ValueObject;
+
+/**
+ * A batch of rows stored column by column.
+ * <p/>
+ * Column types are inferred from the first non-null value written to each
+ * field: longs, doubles and strings get {@link LongColumn}, {@link DoubleColumn}
+ * and {@link StringColumn} respectively and everything else is stored in a
+ * {@link ValueColumn}. A typed column is promoted to a {@link ValueColumn}
+ * when a value of a different type is written to it.
+ * <p/>
+ * {@link #fromBundles(List)} and {@link #toBundles()} convert at the edges.
+ * Code that is written against {@link Bundle} can visit the rows in place
+ * through a {@link #cursor() cursor} without materializing a bundle per row.
+ * Fields passed to the cursor or to {@link #getValue(int, BundleField)} must
+ * come from the {@link #getFormat() format} of this batch.
+ */
+public final class ColumnBatch implements BundleFormatted {
+
+    private final ListBundleFormat format;
+    private final ArrayList<Column> columns = new ArrayList<>();
+    private int rows;
+
+    // cached mapping from the fields of the last source format to the fields of this batch
+    private BundleFormat sourceFormat;
+    private BundleField[] sourceFields = new BundleField[0];
+
+    public ColumnBatch() {
+        this(new ListBundleFormat());
+    }
+
+    public ColumnBatch(ListBundleFormat format) {
+        this.format = format;
+    }
+
+    public static ColumnBatch fromBundles(List<Bundle> bundles) {
+        return fromBundles(bundles, new ListBundleFormat());
+    }
+
+    /**
+     * Returns a batch of {@code bundles} on {@code format}. Batches that share a
+     * format can be passed to ops that bind their fields once.
+     */
+    public static ColumnBatch fromBundles(List<Bundle> bundles, ListBundleFormat format) {
+        ColumnBatch batch = new ColumnBatch(format);
+        for (Bundle bundle : bundles) {
+            batch.append(bundle);
+        }
+        return batch;
+    }
+
+    /**
+     * Returns the rows of this batch as bundles that share the format of this batch.
+     */
+    public List<Bundle> toBundles() {
+        List<Bundle> bundles = new ArrayList<>(rows);
+        int width = columns.size();
+        BundleField[] fields = new BundleField[width];
+        for (int i = 0; i < width; i++) {
+            fields[i] = format.getField(i);
+        }
+        for (int row = 0; row < rows; row++) {
+            Bundle bundle = new ListBundle(format);
+            for (int i = 0; i < width; i++) {
+                Column column = columns.get(i);
+                if ((column != null) && !column.isNull(row)) {
+                    bundle.setValue(fields[i], column.get(row));
+                }
+            }
+            bundles.add(bundle);
+        }
+        return bundles;
+    }
+
+    /**
+     * Returns a new batch with the same format holding rows {@code rows[0]}
+     * through {@code rows[count - 1]} of this batch in that order.
+     */
+    public ColumnBatch select(int[] rows, int count) {
+        ColumnBatch result = new ColumnBatch(format);
+        for (int i = 0; i < columns.size(); i++) {
+            Column column = columns.get(i);
+            result.columns.add((column != null) ? column.select(rows, count) : null);
+        }
+        result.rows = count;
+        return result;
+    }
+
+    /**
+     * Appends the values of {@code bundle} as a new row. Fields are matched by name.
+     */
+    public void append(Bundle bundle) {
+        int row = rows++;
+        BundleFormat bundleFormat = bundle.getFormat();
+        if (bundleFormat != sourceFormat) {
+            sourceFormat = bundleFormat;
+            sourceFields = new BundleField[bundleFormat.getFieldCount()];
+            // map in source order so leading null columns keep their position
+            for (BundleField field : bundleFormat) {
+                mapField(field);
+            }
+        }
+        for (BundleField field : bundle) {
+            BundleField mapped = mapField(field);
+            ValueObject value = bundle.getValue(field);
+            if (value != null) {
+                setValue(row, mapped, value);
+            }
+        }
+    }
+
+    private BundleField mapField(BundleField field) {
+        if (sourceFormat == format) {
+            return field;
+        }
+        int pos = field.getIndex();
+        if (pos >= sourceFields.length) {
+            BundleField[] grown = new BundleField[Math.max(pos + 1, sourceFields.length * 2)];
+            System.arraycopy(sourceFields, 0, grown, 0, sourceFields.length);
+            sourceFields = grown;
+        }
+        BundleField mapped = sourceFields[pos];
+        if (mapped == null) {
+            mapped = format.getField(field.getName());
+            sourceFields[pos] = mapped;
+        }
+        return mapped;
+    }
+
+    @Override
+    public ListBundleFormat getFormat() {
+        return format;
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    /**
+     * Returns the number of non-null cells in the batch.
+     */
+    public long cellCount() {
+        long cells = 0;
+        for (Column column : columns) {
+            if (column != null) {
+                cells += rows - column.nullCount(rows);
+            }
+        }
+        return cells;
+    }
+
+    /**
+     * Returns the column for {@code field} or null if no value has been written to it.
+     */
+    @Nullable public Column getColumn(BundleField field) {
+        int pos = field.getIndex();
+        return (pos < columns.size()) ? columns.get(pos) : null;
+    }
+
+    @Nullable public Column getColumn(String name) {
+        return format.hasField(name) ? getColumn(format.getField(name)) : null;
+    }
+
+    /**
+     * Replaces the column for {@code field}. Rows beyond the
+     * size of {@code column} are null.
+     */
+    public void setColumn(BundleField field, @Nullable Column column) {
+        int pos = field.getIndex();
+        while (columns.size() <= pos) {
+            columns.add(null);
+        }
+        columns.set(pos, column);
+        if (column != null) {
+            rows = Math.max(rows, column.size());
+        }
+    }
+
+    @Nullable public ValueObject getValue(int row, BundleField field) {
+        Column column = getColumn(field);
+        return (column != null) ? column.get(row) : null;
+    }
+
+    public void setValue(int row, BundleField field, @Nullable ValueObject value) {
+        Column column = getColumn(field);
+        Column result = Column.put(column, row, value);
+        if (result != column) {
+            setColumn(field, result);
+        }
+        rows = Math.max(rows, row + 1);
+    }
+
+    /**
+     * Returns a reusable view of one row of this batch. The cursor
+     * starts at row zero and is moved with {@link Cursor#moveTo(int)}.
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    public final class Cursor implements Bundle {
+
+        private int row;
+
+        public Cursor moveTo(int row) {
+            this.row = row;
+            return this;
+        }
+
+        public int getRow() {
+            return row;
+        }
+
+        @Override
+        public Iterator<BundleField> iterator() {
+            return format.iterator();
+        }
+
+        @Override
+        public ValueObject getValue(BundleField field) throws BundleException {
+            return ColumnBatch.this.getValue(row, field);
+        }
+
+        @Override
+        public void setValue(BundleField field, ValueObject value) throws BundleException {
+            ColumnBatch.this.setValue(row, field, value);
+        }
+
+        @Override
+        public void removeValue(BundleField field) throws BundleException {
+            ColumnBatch.this.setValue(row, field, null);
+        }
+
+        @Override
+        public BundleFormat getFormat() {
+            return format;
+        }
+
+        /**
+         * Returns one more than the position of the last non-null
+         * column of the current row, as a list bundle would.
+         */
+        @Override
+        public int getCount() {
+            for (int i = columns.size() - 1; i >= 0; i--) {
+                Column column = columns.get(i);
+                if ((column != null) && !column.isNull(row)) {
+                    return i + 1;
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public Bundle createBundle() {
+            return new ListBundle(format);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.column;
+
+import java.util.Arrays;
+
+import com.addthis.bundle.value.ValueFactory;
+import com.addthis.bundle.value.ValueObject;
+
+/**
+ * A column of double values.
+ */
+public final class DoubleColumn extends Column {
+
+    private double[] values;
+
+    public DoubleColumn(int capacity) {
+        super(capacity);
+        this.values = new double[Math.max(capacity, 1)];
+    }
+
+    /**
+     * Returns the value at {@code row}. The result is
+     * undefined when {@link #isNull(int)} is true.
+     */
+    public double getDouble(int row) {
+        return (row < values.length) ? values[row] : 0;
+    }
+
+    public void setDouble(int row, double value) {
+        prepare(row);
+        values[row] = value;
+        markPresent(row);
+    }
+
+    @Override
+    public ValueObject get(int row) {
+        return isNull(row) ? null : ValueFactory.create(values[row]);
+    }
+
+    @Override
+    public DoubleColumn select(int[] rows, int count) {
+        DoubleColumn result = new DoubleColumn(count);
+        for (int i = 0; i < count; i++) {
+            int row = rows[i];
+            if (!isNull(row)) {
+                result.setDouble(i, values[row]);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean accepts(ValueObject value) {
+        return (value == null) || (value.getObjectType() == ValueObject.TYPE.FLOAT);
+    }
+
+    @Override
+    protected void store(int row, ValueObject value) {
+        values[row] = value.asDouble().getDouble();
+    }
+
+    @Override
+    protected void resize(int capacity) {
+        values = Arrays.copyOf(values, capacity);
+    }
+}
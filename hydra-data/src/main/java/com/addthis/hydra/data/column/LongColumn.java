@@ -0,0 +1,78 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.column;
+
+import java.util.Arrays;
+
+import com.addthis.bundle.value.ValueFactory;
+import com.addthis.bundle.value.ValueObject;
+
+/**
+ * A column of long values.
+ */
+public final class LongColumn extends Column {
+
+    private long[] values;
+
+    public LongColumn(int capacity) {
+        super(capacity);
+        this.values = new long[Math.max(capacity, 1)];
+    }
+
+    /**
+     * Returns the value at {@code row}. The result is
+     * undefined when {@link #isNull(int)} is true.
+     */
+    public long getLong(int row) {
+        return (row < values.length) ? values[row] : 0;
+    }
+
+    public void setLong(int row, long value) {
+        prepare(row);
+        values[row] = value;
+        markPresent(row);
+    }
+
+    @Override
+    public ValueObject get(int row) {
+        return isNull(row) ? null : ValueFactory.create(values[row]);
+    }
+
+    @Override
+    public LongColumn select(int[] rows, int count) {
+        LongColumn result = new LongColumn(count);
+        for (int i = 0; i < count; i++) {
+            int row = rows[i];
+            if (!isNull(row)) {
+                result.setLong(i, values[row]);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean accepts(ValueObject value) {
+        return (value == null) || (value.getObjectType() == ValueObject.TYPE.INT);
+    }
+
+    @Override
+    protected void store(int row, ValueObject value) {
+        values[row] = value.asLong().getLong();
+    }
+
+    @Override
+    protected void resize(int capacity) {
+        values = Arrays.copyOf(values, capacity);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.column;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import com.addthis.bundle.value.ValueFactory;
+import com.addthis.bundle.value.ValueObject;
+import com.addthis.bundle.value.ValueString;
+
+/**
+ * A dictionary encoded column of string values.
+ * <p/>
+ * Each distinct string is stored once and rows hold an integer code into
+ * the dictionary. The boxed {@link ValueString} for each dictionary entry
+ * is created once and shared by all rows that reference it, and kernels
+ * that only depend on the value can be evaluated once per dictionary entry
+ * rather than once per row.
+ */
+public final class StringColumn extends Column {
+
+    private final HashMap<String, Integer> index = new HashMap<>();
+
+    private int[] codes;
+    private ValueString[] dictionary;
+    private int dictionarySize;
+
+    public StringColumn(int capacity) {
+        super(capacity);
+        this.codes = new int[Math.max(capacity, 1)];
+        this.dictionary = new ValueString[16];
+    }
+
+    /**
+     * Returns the dictionary code at {@code row}. The result is
+     * undefined when {@link #isNull(int)} is true.
+     */
+    public int getCode(int row) {
+        return (row < codes.length) ? codes[row] : 0;
+    }
+
+    public void setCode(int row, int code) {
+        if ((code < 0) || (code >= dictionarySize)) {
+            throw new IndexOutOfBoundsException("dictionary code " + code + " of " + dictionarySize);
+        }
+        prepare(row);
+        codes[row] = code;
+        markPresent(row);
+    }
+
+    public void setString(int row, String value) {
+        setCode(row, encode(value));
+    }
+
+    public int dictionarySize() {
+        return dictionarySize;
+    }
+
+    public ValueString dictionaryValue(int code) {
+        return dictionary[code];
+    }
+
+    /**
+     * Returns the dictionary code for {@code value}, adding it to the dictionary if necessary.
+     */
+    public int encode(String value) {
+        Integer code = index.get(value);
+        if (code == null) {
+            return add(ValueFactory.create(value));
+        }
+        return code;
+    }
+
+    private int encode(ValueString value) {
+        Integer code = index.get(value.asNative());
+        if (code == null) {
+            return add(value);
+        }
+        return code;
+    }
+
+    private int add(ValueString value) {
+        if (dictionarySize == dictionary.length) {
+            dictionary = Arrays.copyOf(dictionary, dictionarySize * 2);
+        }
+        int code = dictionarySize++;
+        dictionary[code] = value;
+        index.put(value.asNative(), code);
+        return code;
+    }
+
+    @Override
+    public ValueObject get(int row) {
+        return isNull(row) ? null : dictionary[codes[row]];
+    }
+
+    /**
+     * The selected column shares the dictionary codes of this column.
+     */
+    @Override
+    public StringColumn select(int[] rows, int count) {
+        StringColumn result = new StringColumn(count);
+        result.dictionary = Arrays.copyOf(dictionary, dictionary.length);
+        result.dictionarySize = dictionarySize;
+        result.index.putAll(index);
+        for (int i = 0; i < count; i++) {
+            int row = rows[i];
+            if (!isNull(row)) {
+                result.setCode(i, codes[row]);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean accepts(ValueObject value) {
+        return (value == null) || (value.getObjectType() == ValueObject.TYPE.STRING);
+    }
+
+    @Override
+    protected void store(int row, ValueObject value) {
+        codes[row] = encode(value.asString());
+    }
+
+    @Override
+    protected void resize(int capacity) {
+        codes = Arrays.copyOf(codes, capacity);
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.column;
+
+import java.util.Arrays;
+
+import com.addthis.bundle.value.ValueObject;
+
+/**
+ * A column of arbitrary values. This is used for types that have no
+ * specialized column and for columns whose rows have mixed types.
+ */
+public final class ValueColumn extends Column {
+
+    private ValueObject[] values;
+
+    public ValueColumn(int capacity) {
+        super(capacity);
+        this.values = new ValueObject[Math.max(capacity, 1)];
+    }
+
+    @Override
+    public ValueObject get(int row) {
+        return isNull(row) ? null : values[row];
+    }
+
+    @Override
+    public ValueColumn select(int[] rows, int count) {
+        ValueColumn result = new ValueColumn(count);
+        for (int i = 0; i < count; i++) {
+            int row = rows[i];
+            if (!isNull(row)) {
+                result.set(i, values[row]);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean accepts(ValueObject value) {
+        return true;
+    }
+
+    @Override
+    public ValueColumn toValueColumn() {
+        return this;
+    }
+
+    @Override
+    protected void store(int row, ValueObject value) {
+        values[row] = value;
+    }
+
+    @Override
+    protected void clear(int row) {
+        values[row] = null;
+    }
+
+    @Override
+    protected void resize(int capacity) {
+        values = Arrays.copyOf(values, capacity);
+    }
+}
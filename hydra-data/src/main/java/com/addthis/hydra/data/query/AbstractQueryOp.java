@@ -28,6 +28,7 @@ import com.addthis.bundle.util.ValueUtil;
 import com.addthis.bundle.value.ValueFactory;
 import com.addthis.bundle.value.ValueLong;
 import com.addthis.bundle.value.ValueString;
+import com.addthis.hydra.data.column.ColumnBatch;
 
 import io.netty.channel.ChannelProgressivePromise;
 
@@ -88,6 +89,13 @@ public abstract class AbstractQueryOp implements QueryOp {
         }
     }
 
+    @Override
+    public void sendBatch(ColumnBatch batch) {
+        for (Bundle bundle : batch.toBundles()) {
+            send(bundle);
+        }
+    }
+
     @Override
     public QueryMemTracker getMemTracker() {
         return memTracker;
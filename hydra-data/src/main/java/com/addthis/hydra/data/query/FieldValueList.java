@@ -63,6 +63,17 @@ public class FieldValueList implements BundleFormatted {
         }
     }
 
+    /**
+     * Returns a committed copy of the current values. Fields
+     * created by the copy are taken from {@code format}.
+     */
+    public FieldValueList copy(BundleFormat format) {
+        FieldValueList copy = new FieldValueList(format);
+        copy.list.addAll(list);
+        copy.lastCommit = copy.list.size();
+        return copy;
+    }
+
     public void commit() {
         lastCommit = list.size();
     }
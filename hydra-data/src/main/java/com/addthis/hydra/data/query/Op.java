@@ -47,6 +47,7 @@ import com.addthis.hydra.data.query.op.OpRemoveSingletons;
 import com.addthis.hydra.data.query.op.OpReverse;
 import com.addthis.hydra.data.query.op.OpRoll;
 import com.addthis.hydra.data.query.op.OpSeen;
+import com.addthis.hydra.data.query.op.OpSketch;
 import com.addthis.hydra.data.query.op.OpSkip;
 import com.addthis.hydra.data.query.op.OpSleep;
 import com.addthis.hydra.data.query.op.OpString;
@@ -370,6 +371,14 @@ enum Op {
             return new OpSeen(processor.tableFactory(), args, opPromise);
         }
     },
+    SKETCH {
+        @Override
+        QueryOp build(QueryOpProcessor processor,
+                      String args,
+                      ChannelProgressivePromise opPromise) {
+            return new OpSketch(args, opPromise);
+        }
+    },
     SKIP {
         @Override
         QueryOp build(QueryOpProcessor processor,
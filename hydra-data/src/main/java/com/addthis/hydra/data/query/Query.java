@@ -189,6 +189,14 @@ public class Query implements Codable {
         return ops;
     }
 
+    /**
+     * Drop the ops of this query. Used when the results have already been
+     * passed through the ops, such as results replayed from a cache.
+     */
+    public void clearOps() {
+        ops = null;
+    }
+
     /**
      * @return first a query suitable for the next query worker in the stack
      */
@@ -310,10 +310,12 @@ public class QueryElementNode implements Codable {
             if (match != null) {
                 if (regex()) {
                     if (regexPatterns == null) {
-                        regexPatterns = new Pattern[match.length];
+                        // publish the patterns only once they are compiled
+                        Pattern[] patterns = new Pattern[match.length];
                         for (int i = 0; i < match.length; i++) {
-                            regexPatterns[i] = Pattern.compile(match[i]);
+                            patterns[i] = Pattern.compile(match[i]);
                         }
+                        regexPatterns = patterns;
                     }
                     for (Iterator<DataTreeNode> iter = parent.getIterator(); iter.hasNext();) {
                         tmp = iter.next();
@@ -17,6 +17,7 @@ import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import com.addthis.basis.util.MemoryCounter;
+import com.addthis.basis.util.Parameter;
 
 import com.addthis.bundle.core.Bundle;
 
@@ -28,17 +29,38 @@ import com.addthis.bundle.core.Bundle;
  * Hitting soft limits starts blocking allocations and tracks.  Hitting
  * hard limits causes runtime/query exceptions to be thrown forcing the
  * cleanup of resources.
+ * <p/>
+ * Off-heap memory used by spilled result tables is accounted separately
+ * against a per-query and a global budget. A reservation that would exceed
+ * either budget is refused and the table moves its rows to disk instead.
  */
 public class QueryMemManager {
 
+    private static final long DEFAULT_MAX_OFF_HEAP = Parameter.longValue("query.offheap.max", 1024L * 1024 * 1024);
+    /** Default off-heap budget of a single query, also used when no memory manager tracks the query. */
+    static final long DEFAULT_QUERY_OFF_HEAP = Parameter.longValue("query.offheap.query", 256L * 1024 * 1024);
+
     private final AtomicLong usedMemory = new AtomicLong();
+    private final AtomicLong usedOffHeap = new AtomicLong();
     private final AtomicReference<QMTracker> winner = new AtomicReference<>();
     private final long maxMemHard;
     private final long maxMemSoft;
+    private final long maxOffHeap;
+    private final long maxQueryOffHeap;
 
     public QueryMemManager(long hardMaxMem, long softMaxMem) {
+        this(hardMaxMem, softMaxMem, DEFAULT_MAX_OFF_HEAP, DEFAULT_QUERY_OFF_HEAP);
+    }
+
+    public QueryMemManager(long hardMaxMem, long softMaxMem, long maxOffHeap, long maxQueryOffHeap) {
         this.maxMemHard = hardMaxMem;
         this.maxMemSoft = softMaxMem;
+        this.maxOffHeap = maxOffHeap;
+        this.maxQueryOffHeap = maxQueryOffHeap;
+    }
+
+    public long getUsedOffHeap() {
+        return usedOffHeap.get();
     }
 
     public QueryMemTracker allocateTracker() {
@@ -59,10 +81,12 @@ public class QueryMemManager {
 
         private long mem;
         private int bundles;
+        private long offHeap;
 
         @Override
         protected void finalize() {
             untrackAllBundles();
+            releaseOffHeap(offHeap);
         }
 
         /**
@@ -125,5 +149,24 @@ public class QueryMemManager {
                 winner.set(null);
             }
         }
+
+        @Override
+        public boolean reserveOffHeap(long bytes) {
+            if ((offHeap + bytes) > maxQueryOffHeap) {
+                return false;
+            }
+            if (usedOffHeap.addAndGet(bytes) > maxOffHeap) {
+                usedOffHeap.addAndGet(-bytes);
+                return false;
+            }
+            offHeap += bytes;
+            return true;
+        }
+
+        @Override
+        public void releaseOffHeap(long bytes) {
+            offHeap -= bytes;
+            usedOffHeap.addAndGet(-bytes);
+        }
     }
 }
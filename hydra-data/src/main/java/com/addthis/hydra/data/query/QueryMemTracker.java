@@ -32,4 +32,27 @@ public interface QueryMemTracker {
      * at the end of an op chain.
      */
     public void untrackAllBundles();
+
+    /**
+     * bytes of rows an op may buffer before it should spill to disk.
+     * zero or less means no budget was configured.
+     */
+    public default long spillBudget() {
+        return 0;
+    }
+
+    /**
+     * reserve bytes of off-heap memory for spilled rows. returns false
+     * if the reservation would exceed the budget, in which case nothing
+     * is reserved and the caller should move its rows to disk.
+     */
+    public default boolean reserveOffHeap(long bytes) {
+        return true;
+    }
+
+    /**
+     * return bytes reserved with {@link #reserveOffHeap(long)}
+     */
+    public default void releaseOffHeap(long bytes) {
+    }
 }
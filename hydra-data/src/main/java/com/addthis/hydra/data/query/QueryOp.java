@@ -17,6 +17,7 @@ import java.io.Closeable;
 
 import com.addthis.bundle.core.BundleOutput;
 import com.addthis.bundle.table.DataTable;
+import com.addthis.hydra.data.column.ColumnBatch;
 
 import io.netty.channel.ChannelProgressivePromise;
 
@@ -65,6 +66,12 @@ public interface QueryOp extends BundleOutput, Closeable {
      */
     public void sendTable(DataTable table);
 
+    /**
+     * Send a batch of rows in columnar form. Ops that cannot operate on
+     * columns convert the batch back into bundles.
+     */
+    public void sendBatch(ColumnBatch batch);
+
     /**
      * @return simple debugging name
      */
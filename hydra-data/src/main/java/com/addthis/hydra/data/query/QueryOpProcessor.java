@@ -32,8 +32,11 @@ import com.addthis.basis.util.Strings;
 import com.addthis.bundle.channel.DataChannelError;
 import com.addthis.bundle.channel.DataChannelOutput;
 import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleFormat;
+import com.addthis.bundle.core.list.ListBundleFormat;
 import com.addthis.bundle.table.DataTable;
 import com.addthis.bundle.table.DataTableFactory;
+import com.addthis.hydra.data.column.ColumnBatch;
 import com.addthis.hydra.data.util.BundleUtils;
 
 import org.slf4j.Logger;
@@ -65,6 +68,7 @@ public class QueryOpProcessor implements DataChannelOutput, QueryMemTracker, Clo
     private static final long   OP_TIPROW           = Parameter.longValue("query.tiprow", 0);
     private static final long   OP_MAXROWS          = Parameter.longValue("query.max.rows", 0);
     private static final long   OP_MAXCELLS         = Parameter.longValue("query.max.cells", 0);
+    private static final boolean OP_COLUMNAR        = Parameter.boolValue("query.columnar", false);
     private static final String TMP_SORT_DIR_STRING =
             Parameter.value("query.tmpdir", "query.tmpdir");
 
@@ -79,9 +83,13 @@ public class QueryOpProcessor implements DataChannelOutput, QueryMemTracker, Clo
 
     @Nonnull private QueryOp firstOp;
     private QueryOp lastOp;
+    private long    offHeap;
     private long    rowsin;
     private long    cellsin;
 
+    // ops bind their fields once, so every batch built here shares one format
+    private ListBundleFormat batchFormat;
+
     private QueryOpProcessor(Builder builder) {
         this(builder.output, builder.queryPromise, builder.tempDir,
              builder.memTip, builder.rowTip, builder.memTracker, builder.ops);
@@ -114,7 +122,8 @@ public class QueryOpProcessor implements DataChannelOutput, QueryMemTracker, Clo
                 try {
                     return new ResultTableTuned(QueryOpProcessor.this.tempDir,
                                                 QueryOpProcessor.this.rowTip,
-                                                QueryOpProcessor.this.memTip, this, expectedSize);
+                                                QueryOpProcessor.this.memTip, this, expectedSize,
+                                                QueryOpProcessor.this);
                 } catch (IOException e) {
                     throw new RuntimeException(e);
                 }
@@ -230,6 +239,36 @@ public class QueryOpProcessor implements DataChannelOutput, QueryMemTracker, Clo
         }
     }
 
+    /**
+     * append a batch of rows in columnar form. Every batch is built on the same
+     * format, which is the format of the first row when that is a list format.
+     * Ops that bound their fields on earlier rows or batches stay valid.
+     */
+    public void processBatch(List<Bundle> bundles) throws QueryException {
+        if (batchFormat == null) {
+            BundleFormat format = bundles.get(0).getFormat();
+            batchFormat = (format instanceof ListBundleFormat) ? (ListBundleFormat) format : new ListBundleFormat();
+        }
+        processBatch(ColumnBatch.fromBundles(bundles, batchFormat));
+    }
+
+    /**
+     * append a batch of rows in columnar form
+     */
+    public void processBatch(ColumnBatch batch) throws QueryException {
+        rowsin += batch.rows();
+        cellsin += batch.cellCount();
+        if ((opPromise != null) && !opPromise.isDone()) {
+            firstOp.sendBatch(batch);
+        }
+        if ((OP_MAXROWS > 0) && (rowsin > OP_MAXROWS)) {
+            throw new QueryException("query exceeded max input rows: " + OP_MAXROWS);
+        }
+        if ((OP_MAXCELLS > 0) && (cellsin > OP_MAXCELLS)) {
+            throw new QueryException("query exceeded max input cells: " + OP_MAXCELLS);
+        }
+    }
+
     /**
      * batch append a result set as opposed to a single row
      */
@@ -267,8 +306,12 @@ public class QueryOpProcessor implements DataChannelOutput, QueryMemTracker, Clo
     @Override
     public void send(List<Bundle> bundles) throws QueryException {
         if ((bundles != null) && !bundles.isEmpty()) {
-            for (Bundle bundle : bundles) {
-                processRow(bundle);
+            if (OP_COLUMNAR && (bundles.size() > 1)) {
+                processBatch(bundles);
+            } else {
+                for (Bundle bundle : bundles) {
+                    processRow(bundle);
+                }
             }
         }
     }
@@ -342,6 +385,39 @@ public class QueryOpProcessor implements DataChannelOutput, QueryMemTracker, Clo
         }
     }
 
+    @Override
+    public long spillBudget() {
+        if (memTip > 0) {
+            return memTip;
+        }
+        return (memTracker != null) ? memTracker.spillBudget() : 0;
+    }
+
+    /**
+     * off-heap rows are limited to memTip (or query.offheap.query when
+     * no memTip is set) per query in addition to any limit of the tracker.
+     */
+    @Override
+    public boolean reserveOffHeap(long bytes) {
+        long budget = (memTip > 0) ? memTip : QueryMemManager.DEFAULT_QUERY_OFF_HEAP;
+        if ((offHeap + bytes) > budget) {
+            return false;
+        }
+        if ((memTracker != null) && !memTracker.reserveOffHeap(bytes)) {
+            return false;
+        }
+        offHeap += bytes;
+        return true;
+    }
+
+    @Override
+    public void releaseOffHeap(long bytes) {
+        offHeap -= bytes;
+        if (memTracker != null) {
+            memTracker.releaseOffHeap(bytes);
+        }
+    }
+
     public static final class Builder {
 
         private final DataChannelOutput output;
@@ -0,0 +1,436 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.query;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.addthis.basis.util.Parameter;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleFormat;
+import com.addthis.bundle.core.list.ListBundle;
+import com.addthis.bundle.core.list.ListBundleFormat;
+import com.addthis.bundle.io.DataChannelCodec;
+import com.addthis.bundle.io.DataChannelCodec.ClassIndexMap;
+import com.addthis.bundle.io.DataChannelCodec.FieldIndexMap;
+import com.addthis.bundle.table.DataTable;
+import com.addthis.bundle.table.DataTableFactory;
+
+import com.google.common.base.Throwables;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.util.internal.PlatformDependent;
+
+/**
+ * A DataTable that stores encoded rows in large slabs outside of the java heap.
+ * <p/>
+ * Slabs are direct buffers reserved against the {@link QueryMemTracker} of the query.
+ * The first time a reservation is refused every direct slab is written to a
+ * temporary file and replaced by a read-only mapping of that file, and all later
+ * slabs are mapped regions of the same file. Rows are decoded one at a time when
+ * they are read, so iterating over the table does not bring every row onto the heap.
+ * <p/>
+ * Sorting reorders an index of row positions and never moves the encoded rows.
+ * Runs of rows that fit in query.spill.sort.run.bytes are decoded and sorted on the
+ * heap and the runs are then merged holding a single decoded row per run.
+ * <p/>
+ * Like {@link ResultTableDisk} this is designed to be temporary and never re-opened.
+ */
+public class ResultTableSpill extends AbstractList<Bundle> implements DataTable, DataTableFactory {
+
+    private static final Logger log = LoggerFactory.getLogger(ResultTableSpill.class);
+
+    private static final int  SLAB_BYTES      = Parameter.intValue("query.spill.slab.bytes", 4 * 1024 * 1024);
+    private static final long SORT_RUN_BYTES  = Parameter.longValue("query.spill.sort.run.bytes", 32 * 1024 * 1024);
+
+    private final FieldIndexMap fim = DataChannelCodec.createFieldIndexMap();
+    private final ClassIndexMap cim = DataChannelCodec.createClassIndexMap();
+    private final ListBundleFormat format = new ListBundleFormat();
+    private final ArrayList<Slab> slabs = new ArrayList<>();
+    private final DataTableFactory factory;
+    private final QueryMemTracker memTracker;
+    private final File diskFile;
+    private final int slabBytes;
+    private final long sortRunBytes;
+
+    /* slab number in the high 32 bits and offset within the slab in the low 32 bits */
+    private long[] index = new long[1024];
+    private int rows;
+    private Slab current;
+    private long reserved;
+    private FileChannel channel;
+    private long filePosition;
+    private boolean spilled;
+    private boolean closed;
+
+    public ResultTableSpill(DataTableFactory factory, File tmpFile, QueryMemTracker memTracker) {
+        this(factory, tmpFile, memTracker, SLAB_BYTES, SORT_RUN_BYTES);
+    }
+
+    ResultTableSpill(DataTableFactory factory, File tmpFile, QueryMemTracker memTracker,
+                     int slabBytes, long sortRunBytes) {
+        this.factory = factory;
+        this.diskFile = tmpFile;
+        this.memTracker = memTracker;
+        this.slabBytes = slabBytes;
+        this.sortRunBytes = sortRunBytes;
+    }
+
+    private static final class Slab {
+
+        ByteBuffer buffer;
+        boolean direct;
+
+        Slab(ByteBuffer buffer, boolean direct) {
+            this.buffer = buffer;
+            this.direct = direct;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "(RTS:" + diskFile + ":" + rows + ":slabs=" + slabs.size() + ":spilled=" + spilled + ")";
+    }
+
+    @Override protected void finalize() {
+        if (!closed) {
+            log.warn("finalizing ResultTableSpill via delete rows={} @ {}", rows, diskFile);
+            delete();
+        }
+    }
+
+    public void delete() {
+        close();
+        if (diskFile.exists()) {
+            diskFile.delete();
+        }
+    }
+
+    public void close() {
+        if (!closed) {
+            closed = true;
+            release();
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    log.warn("error closing spill file {}", diskFile, e);
+                }
+            }
+        }
+    }
+
+    /** frees the direct slabs and drops the mapped ones */
+    private void release() {
+        for (Slab slab : slabs) {
+            if (slab.direct) {
+                PlatformDependent.freeDirectBuffer(slab.buffer);
+            }
+        }
+        slabs.clear();
+        current = null;
+        releaseReserved(reserved);
+    }
+
+    private boolean reserve(long bytes) {
+        boolean granted;
+        if (memTracker != null) {
+            granted = memTracker.reserveOffHeap(bytes);
+        } else {
+            granted = (reserved + bytes) <= QueryMemManager.DEFAULT_QUERY_OFF_HEAP;
+        }
+        if (granted) {
+            reserved += bytes;
+        }
+        return granted;
+    }
+
+    private void releaseReserved(long bytes) {
+        if (bytes > 0) {
+            reserved -= bytes;
+            if (memTracker != null) {
+                memTracker.releaseOffHeap(bytes);
+            }
+        }
+    }
+
+    private Slab allocate(int need) throws IOException {
+        int capacity = Math.max(slabBytes, need);
+        Slab slab;
+        if (!spilled && reserve(capacity)) {
+            slab = new Slab(ByteBuffer.allocateDirect(capacity), true);
+        } else {
+            spill();
+            slab = new Slab(channel.map(FileChannel.MapMode.READ_WRITE, filePosition, capacity), false);
+            filePosition += capacity;
+        }
+        slabs.add(slab);
+        return slab;
+    }
+
+    /**
+     * Moves every direct slab into the spill file. Only the used part of each
+     * slab is written and slabs are never appended to once they are replaced.
+     */
+    private void spill() throws IOException {
+        if (spilled) {
+            return;
+        }
+        spilled = true;
+        channel = new RandomAccessFile(diskFile, "rw").getChannel();
+        for (Slab slab : slabs) {
+            if (!slab.direct) {
+                continue;
+            }
+            ByteBuffer used = slab.buffer.duplicate();
+            used.flip();
+            int length = used.remaining();
+            long start = filePosition;
+            while (used.hasRemaining()) {
+                filePosition += channel.write(used, filePosition);
+            }
+            PlatformDependent.freeDirectBuffer(slab.buffer);
+            releaseReserved(slab.buffer.capacity());
+            slab.buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.max(length, 1));
+            slab.direct = false;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("spilled {} slabs of {} rows to {}", slabs.size(), rows, diskFile);
+        }
+    }
+
+    private long write(Bundle row) {
+        if (closed) {
+            throw new IllegalStateException("spill table " + diskFile + " is closed");
+        }
+        try {
+            byte[] bytes = DataChannelCodec.encodeBundle(row, fim, cim);
+            int need = bytes.length + 4;
+            if ((current == null) || (current.buffer.remaining() < need)) {
+                current = allocate(need);
+            }
+            long pointer = ((long) (slabs.size() - 1) << 32) | current.buffer.position();
+            current.buffer.putInt(bytes.length);
+            current.buffer.put(bytes);
+            return pointer;
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    private int length(long pointer) {
+        return slabs.get((int) (pointer >>> 32)).buffer.getInt((int) pointer);
+    }
+
+    private Bundle read(long pointer) {
+        ByteBuffer buffer = slabs.get((int) (pointer >>> 32)).buffer.duplicate();
+        int offset = (int) pointer;
+        byte[] bytes = new byte[buffer.getInt(offset)];
+        buffer.position(offset + 4);
+        buffer.get(bytes);
+        try {
+            return DataChannelCodec.decodeBundle(createBundle(), bytes, fim, cim);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    private void checkIndex(int i, int limit) {
+        if ((i < 0) || (i >= limit)) {
+            throw new IndexOutOfBoundsException("index " + i + " size " + rows);
+        }
+    }
+
+    private void insertPointer(int i, long pointer) {
+        if (rows == index.length) {
+            index = Arrays.copyOf(index, rows * 2);
+        }
+        System.arraycopy(index, i, index, i + 1, rows - i);
+        index[i] = pointer;
+        rows++;
+        modCount++;
+    }
+
+    @Override
+    public int size() {
+        return rows;
+    }
+
+    @Override
+    public Bundle get(int i) {
+        checkIndex(i, rows);
+        return read(index[i]);
+    }
+
+    @Override
+    public boolean add(Bundle row) {
+        insertPointer(rows, write(row));
+        return true;
+    }
+
+    @Override
+    public void add(int i, Bundle row) {
+        checkIndex(i, rows + 1);
+        insertPointer(i, write(row));
+    }
+
+    /**
+     * The replaced row keeps its space in the slab until the table is closed.
+     */
+    @Override
+    public Bundle set(int i, Bundle row) {
+        checkIndex(i, rows);
+        Bundle previous = read(index[i]);
+        index[i] = write(row);
+        return previous;
+    }
+
+    @Override
+    public Bundle remove(int i) {
+        checkIndex(i, rows);
+        Bundle previous = read(index[i]);
+        System.arraycopy(index, i + 1, index, i, rows - i - 1);
+        rows--;
+        modCount++;
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        release();
+        rows = 0;
+        modCount++;
+    }
+
+    @Override
+    public void sort(Comparator<? super Bundle> comp) {
+        if (rows < 2) {
+            return;
+        }
+        ArrayList<int[]> runs = new ArrayList<>();
+        int from = 0;
+        while (from < rows) {
+            int to = from;
+            long bytes = 0;
+            while ((to < rows) && ((to == from) || (bytes < sortRunBytes))) {
+                bytes += length(index[to]) + 4;
+                to++;
+            }
+            sortRun(from, to, comp);
+            runs.add(new int[]{from, to});
+            from = to;
+        }
+        if (runs.size() > 1) {
+            mergeRuns(runs, comp);
+        }
+        modCount++;
+    }
+
+    private static final class Entry {
+
+        final Bundle row;
+        final long pointer;
+        final int run;
+
+        Entry(Bundle row, long pointer, int run) {
+            this.row = row;
+            this.pointer = pointer;
+            this.run = run;
+        }
+    }
+
+    private void sortRun(int from, int to, final Comparator<? super Bundle> comp) {
+        Entry[] entries = new Entry[to - from];
+        for (int i = from; i < to; i++) {
+            entries[i - from] = new Entry(read(index[i]), index[i], 0);
+        }
+        Arrays.sort(entries, (e1, e2) -> comp.compare(e1.row, e2.row));
+        for (int i = from; i < to; i++) {
+            index[i] = entries[i - from].pointer;
+        }
+    }
+
+    /**
+     * Merges the sorted runs into a new index. Ties are broken by run order so the sort is stable.
+     */
+    private void mergeRuns(ArrayList<int[]> runs, final Comparator<? super Bundle> comp) {
+        PriorityQueue<Entry> heads = new PriorityQueue<>(runs.size(), (e1, e2) -> {
+            int cmp = comp.compare(e1.row, e2.row);
+            return (cmp != 0) ? cmp : Integer.compare(e1.run, e2.run);
+        });
+        int[] next = new int[runs.size()];
+        for (int r = 0; r < runs.size(); r++) {
+            int start = runs.get(r)[0];
+            next[r] = start + 1;
+            heads.add(new Entry(read(index[start]), index[start], r));
+        }
+        long[] merged = new long[index.length];
+        int out = 0;
+        while (!heads.isEmpty()) {
+            Entry head = heads.poll();
+            merged[out++] = head.pointer;
+            int r = head.run;
+            if (next[r] < runs.get(r)[1]) {
+                long pointer = index[next[r]++];
+                heads.add(new Entry(read(pointer), pointer, r));
+            }
+        }
+        index = merged;
+    }
+
+    @Override
+    public Bundle createBundle() {
+        return new ListBundle(format);
+    }
+
+    @Override
+    public BundleFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public DataTable createTable(int sizeHint) {
+        return factory.createTable(sizeHint);
+    }
+
+    @Override
+    public void append(Bundle row) {
+        add(row);
+    }
+
+    @Override
+    public void insert(int index, Bundle row) {
+        add(index, row);
+    }
+
+    @Override
+    public void append(DataTable result) {
+        for (Bundle row : result) {
+            add(row);
+        }
+    }
+}
@@ -22,6 +22,7 @@ import java.util.List;
 import java.util.Random;
 
 import com.addthis.basis.util.MemoryCounter;
+import com.addthis.basis.util.Parameter;
 
 import com.addthis.bundle.core.Bundle;
 import com.addthis.bundle.core.BundleField;
@@ -41,14 +42,19 @@ import org.slf4j.LoggerFactory;
  * this package. TODO when not tipped keep a hash of added objects to prevent
  * double-counting TODO which can occur when 'depivot'ing a data set, for
  * example (row/col keys).
+ * <p/>
+ * Tipped rows go to a {@link ResultTableSpill} unless query.spill.legacy
+ * selects the older {@link ResultTableDisk}.
  */
 public class ResultTableTuned extends ForwardingList<Bundle> implements DataTable, DataTableFactory {
 
     private static final Random random = new Random(System.currentTimeMillis());
     private static final Logger log = LoggerFactory.getLogger(ResultTableTuned.class);
+    private static final boolean spillLegacy = Parameter.boolValue("query.spill.legacy", false);
 
     private DataTable result;
     private DataTableFactory factory;
+    private QueryMemTracker memTracker;
     private File tempDir;
     private boolean tipped;
     private boolean cantip;
@@ -61,8 +67,10 @@ public class ResultTableTuned extends ForwardingList<Bundle> implements DataTabl
                                long rowtip,
                                long memtip,
                                DataTableFactory factory,
-                               int sizeHint) throws IOException {
+                               int sizeHint,
+                               QueryMemTracker memTracker) throws IOException {
         this.tempDir = tempDir;
+        this.memTracker = memTracker;
         this.memTip = memtip;
         this.rowTip = rowtip;
         this.factory = factory;
@@ -74,7 +82,7 @@ public class ResultTableTuned extends ForwardingList<Bundle> implements DataTabl
         if (cantip && (sizeHint >= rowtip) && (rowtip > 0)) {
             File tmp = createTempFile();
             tipped = true;
-            result = new ResultTableDisk(factory, tmp);
+            result = createSpillTable(tmp);
             if (log.isDebugEnabled()) {
                 log.debug(hashCode() + " creating result disk backed to " + tmp + " tip=" + rowtip + " sizeHint=" + sizeHint);
             }
@@ -95,9 +103,18 @@ public class ResultTableTuned extends ForwardingList<Bundle> implements DataTabl
     protected void cleanup() {
         if (result instanceof ResultTableDisk) {
             ((ResultTableDisk) result).delete();
+        } else if (result instanceof ResultTableSpill) {
+            ((ResultTableSpill) result).delete();
         }
     }
 
+    private DataTable createSpillTable(File tmp) throws IOException {
+        if (spillLegacy) {
+            return new ResultTableDisk(factory, tmp);
+        }
+        return new ResultTableSpill(factory, tmp, memTracker);
+    }
+
     private void estimateRow(Bundle row) {
         for (BundleField f : row.getFormat()) {
             ValueObject qv = row.getValue(f);
@@ -121,7 +138,7 @@ public class ResultTableTuned extends ForwardingList<Bundle> implements DataTabl
                 if (log.isDebugEnabled()) {
                     log.debug(hashCode() + " tipping to " + tmp + " @ rows=" + result.size() + " cells=" + cells + " mem=" + estMem);
                 }
-                ResultTableDisk dbl = new ResultTableDisk(factory, tmp);
+                DataTable dbl = createSpillTable(tmp);
                 dbl.append(result);
                 result = dbl;
             } catch (Exception ex) {
@@ -62,10 +62,28 @@ class EngineLoader extends CacheLoader<String, QueryEngine> {
                                                              .setNameFormat("engineRefresher-%d")
                                                              .build());
 
+    /**
+     * replays warm snapshots of newly opened engines one at a time in the background
+     */
+    private final ExecutorService engineWarmerPool =
+            new ThreadPoolExecutor(1, 1, 5000L, TimeUnit.MILLISECONDS,
+                                   new LinkedBlockingQueue<Runnable>(),
+                                   new ThreadFactoryBuilder().setDaemon(true)
+                                                             .setNameFormat("engineWarmer-%d")
+                                                             .build());
+
     @Override
     public QueryEngine load(String dir) throws Exception {
-        QueryEngine qe = newQueryEngineDirectory(dir);
+        final QueryEngine qe = newQueryEngineDirectory(dir);
         newEnginesOpened.mark();
+        if (QueryEngineDirectory.WARM_SNAPSHOT_INTERVAL > 0) {
+            engineWarmerPool.submit(new Runnable() {
+                @Override
+                public void run() {
+                    ((QueryEngineDirectory) qe).warmFromSnapshot();
+                }
+            });
+        }
         return qe;
     }
 
@@ -96,7 +114,8 @@ class EngineLoader extends CacheLoader<String, QueryEngine> {
     protected QueryEngine newQueryEngineDirectory(String dir) throws Exception {
         String canonicalDirString = new File(dir).getCanonicalPath();
 
-        DataTree tree = new ReadTree(new File(canonicalDirString));
+        int trackedKeys = (QueryEngineDirectory.WARM_SNAPSHOT_INTERVAL > 0) ? QueryEngineDirectory.WARM_TRACKED_KEYS : 0;
+        DataTree tree = new ReadTree(new File(canonicalDirString), false, trackedKeys);
         try {
             return new QueryEngineDirectory(tree, canonicalDirString);
         } catch (Exception e) {
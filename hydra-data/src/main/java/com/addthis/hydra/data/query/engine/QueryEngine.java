@@ -15,17 +15,24 @@ package com.addthis.hydra.data.query.engine;
 
 import java.io.IOException;
 
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import com.addthis.basis.util.ClosableIterator;
+import com.addthis.basis.util.Parameter;
 
 import com.addthis.bundle.channel.DataChannelOutput;
+import com.addthis.bundle.core.Bundle;
 import com.addthis.bundle.core.kvp.KVBundleFormat;
 import com.addthis.hydra.data.query.FieldValueList;
 import com.addthis.hydra.data.query.Query;
@@ -34,6 +41,7 @@ import com.addthis.hydra.data.query.QueryException;
 import com.addthis.hydra.data.tree.DataTree;
 import com.addthis.hydra.data.tree.DataTreeNode;
 
+import com.google.common.base.Throwables;
 import com.google.common.collect.Iterators;
 
 import org.slf4j.Logger;
@@ -49,7 +57,32 @@ public class QueryEngine {
 
     private static final Logger log = LoggerFactory.getLogger(QueryEngine.class);
 
+    /**
+     * Index of the query path element below which the subtrees of each
+     * matching node are searched in parallel. A negative value disables
+     * parallel searches.
+     */
+    static final int defaultParallelDepth = Parameter.intValue("hydra.query.parallel.depth", -1);
+
+    /**
+     * Maximum number of subtree searches that are outstanding for a node.
+     * Results of subtrees are buffered until they can be sent in order.
+     */
+    static final int parallelWindow = Parameter.intValue("hydra.query.parallel.window", 32);
+
+    /**
+     * Maximum number of rows buffered by one subtree search. A search waits for
+     * its rows to be sent once the buffer is full, so the searches of a node hold
+     * at most parallelWindow times this many rows.
+     */
+    static final int defaultParallelBuffer = Parameter.intValue("hydra.query.parallel.buffer", 1000);
+
+    static final int parallelThreads = Parameter.intValue("hydra.query.parallel.threads",
+            Runtime.getRuntime().availableProcessors());
+
     protected final DataTree tree;
+    private final int parallelDepth;
+    private final int parallelBuffer;
     private final AtomicInteger used;
     private final AtomicBoolean isOpen;
     private final AtomicBoolean isClosed;
@@ -57,7 +90,22 @@ public class QueryEngine {
     private boolean closeWhenIdle;
 
     public QueryEngine(DataTree tree) {
+        this(tree, defaultParallelDepth);
+    }
+
+    /**
+     * @param parallelDepth index of the query path element below which subtrees
+     *                      are searched in parallel, or a negative value to search
+     *                      on the calling thread only
+     */
+    public QueryEngine(DataTree tree, int parallelDepth) {
+        this(tree, parallelDepth, defaultParallelBuffer);
+    }
+
+    QueryEngine(DataTree tree, int parallelDepth, int parallelBuffer) {
         this.tree = tree;
+        this.parallelDepth = parallelDepth;
+        this.parallelBuffer = Math.max(1, parallelBuffer);
         this.used = new AtomicInteger(0);
         this.isOpen = new AtomicBoolean(false);
         this.isClosed = new AtomicBoolean(false);
@@ -323,7 +371,11 @@ public class QueryEngine {
         if (pathIndex >= path.length) {
             log.debug("pathIndex>path.length, return root={}", root);
             if (!queryPromise.isDone()) {
-                sink.send(prefix.createBundle(sink));
+                if (sink instanceof SubtreeOutput) {
+                    ((SubtreeOutput) sink).add(prefix);
+                } else {
+                    sink.send(prefix.createBundle(sink));
+                }
             }
             return;
         }
@@ -332,6 +384,7 @@ public class QueryEngine {
         if (iter == null) {
             return;
         }
+        ArrayDeque<SubtreeSearch> pending = null;
         try {
             int skip = next.skip();
             int limit = next.limit();
@@ -375,6 +428,9 @@ public class QueryEngine {
                 prefix.pop(count);
                 return;
             }
+            if (pathIndex == parallelDepth && (pathIndex + 1) < path.length) {
+                pending = new ArrayDeque<>();
+            }
             while (iter.hasNext() && (next.limit() == 0 || limit > 0)) {
                 // Check for interruptions or cancellations
                 if (Thread.currentThread().isInterrupted()) {
@@ -400,7 +456,7 @@ public class QueryEngine {
                 DataTreeNode tn = iter.next();
                 if (next.hasData()) {
                     if (tn == null && !next.emptyok()) {
-                        return;
+                        break;
                     }
                     if (skip > 0) {
                         skip--;
@@ -409,7 +465,8 @@ public class QueryEngine {
                     int count = next.update(prefix, tn);
                     if (count > 0) {
                         if (!queryPromise.isDone()) {
-                            tableSearch(stack, tn, prefix, path, pathIndex + 1, sink, collect + count, queryPromise);
+                            descend(stack, tn, prefix, path, pathIndex + 1, sink, collect + count, queryPromise,
+                                    pending);
                         }
                         prefix.pop(count);
                         limit--;
@@ -420,12 +477,20 @@ public class QueryEngine {
                         continue;
                     }
                     if (!queryPromise.isDone()) {
-                        tableSearch(stack, tn, prefix, path, pathIndex + 1, sink, collect, queryPromise);
+                        descend(stack, tn, prefix, path, pathIndex + 1, sink, collect, queryPromise, pending);
                     }
                     limit--;
                 }
             }
+            while (pending != null && !pending.isEmpty()) {
+                pending.poll().sendTo(sink, queryPromise);
+            }
         } finally {
+            if (pending != null) {
+                for (SubtreeSearch search : pending) {
+                    search.abandon();
+                }
+            }
             if (log.isDebugEnabled()) {
                 log.debug("CLOSING: root={} pre={} path={} idx={} res={} coll={}",
                         root, prefix, Arrays.toString(path), pathIndex, sink, collect);
@@ -437,4 +502,200 @@ public class QueryEngine {
         }
     }
 
+    /**
+     * Search the subtree below {@code node}. If {@code pending} is non-null then the
+     * subtree is searched by the parallel pool and its results are sent by the caller
+     * in the order in which the subtrees were submitted.
+     */
+    private void descend(LinkedList<DataTreeNode> stack, DataTreeNode node, FieldValueList prefix,
+            QueryElement[] path, int pathIndex, DataChannelOutput sink, int collect,
+            ChannelProgressivePromise queryPromise, ArrayDeque<SubtreeSearch> pending) throws QueryException {
+        if (pending == null) {
+            tableSearch(stack, node, prefix, path, pathIndex, sink, collect, queryPromise);
+            return;
+        }
+        if (pending.size() >= parallelWindow) {
+            pending.poll().sendTo(sink, queryPromise);
+        }
+        LinkedList<DataTreeNode> subtreeStack = new LinkedList<>(stack);
+        subtreeStack.push(node);
+        SubtreeSearch search = new SubtreeSearch(subtreeStack, prefix.copy(new KVBundleFormat()),
+                path, pathIndex, collect, queryPromise);
+        pending.add(search);
+        ParallelPool.pool.execute(search);
+    }
+
+    private static final class ParallelPool {
+
+        static final ForkJoinPool pool = new ForkJoinPool(parallelThreads);
+    }
+
+    /**
+     * Searches one subtree on the parallel pool and buffers the results.
+     */
+    private final class SubtreeSearch extends RecursiveAction {
+
+        private final LinkedList<DataTreeNode> stack;
+        private final FieldValueList prefix;
+        private final QueryElement[] path;
+        private final int pathIndex;
+        private final int collect;
+        private final ChannelProgressivePromise queryPromise;
+        private final SubtreeOutput output = new SubtreeOutput(parallelBuffer);
+        private QueryException failure;
+
+        SubtreeSearch(LinkedList<DataTreeNode> stack, FieldValueList prefix, QueryElement[] path,
+                int pathIndex, int collect, ChannelProgressivePromise queryPromise) {
+            this.stack = stack;
+            this.prefix = prefix;
+            this.path = path;
+            this.pathIndex = pathIndex;
+            this.collect = collect;
+            this.queryPromise = queryPromise;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                tableSearch(stack, prefix, path, pathIndex, output, collect, queryPromise);
+            } catch (QueryException ex) {
+                failure = ex;
+            } finally {
+                output.complete();
+            }
+        }
+
+        /**
+         * Send the results of the search on the calling thread as they arrive
+         * and wait for the search to complete.
+         */
+        void sendTo(DataChannelOutput sink, ChannelProgressivePromise queryPromise) throws QueryException {
+            try {
+                FieldValueList row;
+                while ((row = output.take()) != null) {
+                    if (queryPromise.isDone()) {
+                        return;
+                    }
+                    sink.send(row.createBundle(sink));
+                }
+                get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new QueryException("query interrupted");
+            } catch (ExecutionException ex) {
+                throw Throwables.propagate(ex.getCause());
+            } finally {
+                output.abandon();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        /**
+         * Stop the search without sending its results.
+         */
+        void abandon() {
+            output.abandon();
+            cancel(false);
+        }
+    }
+
+    /**
+     * Passes the leaves of a subtree search to the thread that sends them to the
+     * real output. Bundles are created when the rows are sent. The search blocks
+     * while {@code capacity} rows are waiting to be sent.
+     */
+    private static final class SubtreeOutput implements DataChannelOutput, ForkJoinPool.ManagedBlocker {
+
+        private final int capacity;
+        private final ArrayDeque<FieldValueList> rows = new ArrayDeque<>();
+        private boolean complete;
+        private boolean abandoned;
+
+        SubtreeOutput(int capacity) {
+            this.capacity = capacity;
+        }
+
+        void add(FieldValueList prefix) throws QueryException {
+            FieldValueList row = prefix.copy(prefix.getFormat());
+            try {
+                ForkJoinPool.managedBlock(this);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new QueryException("query interrupted");
+            }
+            synchronized (this) {
+                if (abandoned) {
+                    throw new QueryException("subtree search abandoned");
+                }
+                rows.add(row);
+                notifyAll();
+            }
+        }
+
+        synchronized void complete() {
+            complete = true;
+            notifyAll();
+        }
+
+        /**
+         * Returns the next row, waiting for it if necessary, or null once the search is complete.
+         */
+        synchronized FieldValueList take() throws InterruptedException {
+            while (rows.isEmpty() && !complete) {
+                wait();
+            }
+            FieldValueList row = rows.poll();
+            notifyAll();
+            return row;
+        }
+
+        /**
+         * Drop the buffered rows and make the search fail on its next row.
+         */
+        synchronized void abandon() {
+            abandoned = true;
+            rows.clear();
+            notifyAll();
+        }
+
+        @Override
+        public synchronized boolean isReleasable() {
+            return abandoned || (rows.size() < capacity);
+        }
+
+        @Override
+        public synchronized boolean block() throws InterruptedException {
+            while (!abandoned && (rows.size() >= capacity)) {
+                wait();
+            }
+            return true;
+        }
+
+        @Override
+        public void send(Bundle bundle) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void send(List<Bundle> bundles) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void sendComplete() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void sourceError(Throwable er) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Bundle createBundle() {
+            throw new UnsupportedOperationException();
+        }
+    }
 }
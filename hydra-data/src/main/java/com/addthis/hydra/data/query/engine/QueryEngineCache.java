@@ -141,6 +141,28 @@ public class QueryEngineCache {
 
         //schedule maintenance runs
         maybeInitMaintenance();
+        maybeInitWarmSnapshots();
+    }
+
+    /**
+     * schedules periodic snapshots of the hot node keys of every cached engine so that a restarted
+     * query worker can warm its engines from them. See {@link QueryEngineDirectory#saveWarmSnapshot()}.
+     * Uses the maintenance thread. Disabled unless queryEngineCache.warmSnapshotInterval is positive.
+     */
+    private void maybeInitWarmSnapshots() {
+        long interval = QueryEngineDirectory.WARM_SNAPSHOT_INTERVAL;
+        if (interval > 0) {
+            queryEngineCacheMaintainer.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    for (QueryEngine engine : loadingEngineCache.asMap().values()) {
+                        if (engine instanceof QueryEngineDirectory) {
+                            ((QueryEngineDirectory) engine).saveWarmSnapshot();
+                        }
+                    }
+                }
+            }, interval, interval, TimeUnit.SECONDS);
+        }
     }
 
 
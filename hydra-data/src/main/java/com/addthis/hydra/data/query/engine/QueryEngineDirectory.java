@@ -18,8 +18,11 @@ import java.io.IOException;
 
 import java.util.concurrent.TimeUnit;
 
+import com.addthis.basis.util.Parameter;
+
 import com.addthis.hydra.data.tree.DataTree;
 import com.addthis.hydra.data.tree.ReadTree;
+import com.addthis.hydra.data.tree.ReadTreeSnapshot;
 
 import com.yammer.metrics.Metrics;
 import com.yammer.metrics.core.Counter;
@@ -49,6 +52,40 @@ public class QueryEngineDirectory extends QueryEngine {
     protected static final Meter engineCreations = Metrics.newMeter(QueryEngineCache.class, "engineCreations",
             "engineCreations", TimeUnit.MINUTES);
 
+    /**
+     * seconds between snapshots of the hot node keys of each open engine. A new engine
+     * replays the snapshot of its directory in the background. 0 disables snapshots.
+     */
+    static final long WARM_SNAPSHOT_INTERVAL = Parameter.longValue("queryEngineCache.warmSnapshotInterval", 0);
+
+    /**
+     * directory for snapshot files. By default the snapshot of a tree is stored next to it.
+     */
+    private static final String WARM_SNAPSHOT_DIR = Parameter.value("queryEngineCache.warmSnapshotDir", null);
+
+    /**
+     * maximum number of keys that are saved and replayed for each engine. 0, the default, uses the
+     * number of lean nodes that fit in the node cache of a tree, up to 100000.
+     */
+    static final int WARM_SNAPSHOT_KEYS = warmSnapshotKeys(Parameter.intValue("queryEngineCache.warmSnapshotKeys", 0));
+
+    /**
+     * Accesses are counted for more keys than are saved so that hot keys that are
+     * not resident when a snapshot is taken can still be found.
+     */
+    static final int WARM_TRACKED_KEYS = (int) Math.min(Integer.MAX_VALUE, 4L * WARM_SNAPSHOT_KEYS);
+
+    /**
+     * maximum milliseconds spent replaying a snapshot
+     */
+    private static final long WARM_SNAPSHOT_MILLIS = Parameter.longValue("queryEngineCache.warmSnapshotMillis", 30000);
+
+    private static final Meter snapshotsWritten = Metrics.newMeter(QueryEngineCache.class, "warmSnapshotsWritten",
+            "warmSnapshotsWritten", TimeUnit.MINUTES);
+
+    private static final Meter snapshotNodesWarmed = Metrics.newMeter(QueryEngineCache.class, "warmSnapshotNodes",
+            "warmSnapshotNodes", TimeUnit.MINUTES);
+
     private final String dir;
 
     public QueryEngineDirectory(DataTree tree, String dir) {
@@ -62,6 +99,10 @@ public class QueryEngineDirectory extends QueryEngine {
         ((ReadTree) tree).warmCacheFrom(((ReadTree) other.getTree()).getCacheIterable());
     }
 
+    private static int warmSnapshotKeys(int keys) {
+        return (keys > 0) ? keys : Math.min(ReadTree.nodeCacheCapacity(), 100000);
+    }
+
     public DataTree getTree() {
         return tree;
     }
@@ -87,6 +128,62 @@ public class QueryEngineDirectory extends QueryEngine {
         return dir;
     }
 
+    File warmSnapshotFile() {
+        File treeDir = new File(dir);
+        if (WARM_SNAPSHOT_DIR != null) {
+            return new File(WARM_SNAPSHOT_DIR, dir.replace(File.separatorChar, '_') + ".warm");
+        }
+        return new File(treeDir.getParentFile(), treeDir.getName() + ".warm");
+    }
+
+    /**
+     * Writes the hot node keys of this engine to its snapshot file. Does nothing if
+     * the engine is closed.
+     */
+    public void saveWarmSnapshot() {
+        if (!(tree instanceof ReadTree) || !lease()) {
+            return;
+        }
+        try {
+            int keys = ReadTreeSnapshot.write((ReadTree) tree, warmSnapshotFile(), WARM_SNAPSHOT_KEYS);
+            snapshotsWritten.mark();
+            log.debug("saved {} warm keys for {}", keys, dir);
+        } catch (Exception e) {
+            log.warn("Failed to save warm snapshot for {}", dir, e);
+        } finally {
+            releaseQuietly();
+        }
+    }
+
+    /**
+     * Loads the nodes recorded in the snapshot file into the cache of this engine.
+     * Does nothing if there is no snapshot or the engine is closed.
+     */
+    public void warmFromSnapshot() {
+        File file = warmSnapshotFile();
+        if (!(tree instanceof ReadTree) || !file.exists() || !lease()) {
+            return;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            int nodes = ReadTreeSnapshot.warm((ReadTree) tree, file, WARM_SNAPSHOT_KEYS, WARM_SNAPSHOT_MILLIS);
+            snapshotNodesWarmed.mark(nodes);
+            log.info("warmed {} nodes for {} in {}ms", nodes, dir, System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.warn("Failed to warm {} from snapshot", dir, e);
+        } finally {
+            releaseQuietly();
+        }
+    }
+
+    private void releaseQuietly() {
+        try {
+            release();
+        } catch (IOException e) {
+            log.warn("Error releasing engine {}", dir, e);
+        }
+    }
+
     @Override
     public String toString() {
         return "[QueryEngineDirectory:" + dir + ":" + super.toString() + "]";
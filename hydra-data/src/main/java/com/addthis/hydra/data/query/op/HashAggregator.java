@@ -0,0 +1,391 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.query.op;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import com.addthis.basis.util.MemoryCounter;
+import com.addthis.basis.util.Parameter;
+
+import com.addthis.bundle.channel.DataChannelError;
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleField;
+import com.addthis.bundle.core.list.ListBundle;
+import com.addthis.bundle.core.list.ListBundleFormat;
+import com.addthis.bundle.io.DataChannelReader;
+import com.addthis.bundle.io.DataChannelWriter;
+import com.addthis.hydra.data.query.QueryException;
+import com.addthis.hydra.data.query.QueryOp;
+import com.addthis.hydra.data.query.op.merge.MergeConfig;
+import com.addthis.hydra.data.query.op.merge.MergedValue;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.channel.ChannelProgressivePromise;
+
+/**
+ * Groups rows by the key columns of a {@link MergeConfig} in bounded memory.
+ * <p/>
+ * Groups are held in a hash table until the byte or row budget is exceeded.
+ * From then on rows whose group is already in the table are still merged in
+ * memory and rows of any other group are written to one of
+ * opgather.hash.partitions files chosen by a hash of the key. Every row of a
+ * group is therefore merged in one place and in input order, so order
+ * dependent merge types such as last, diff and join behave exactly as they do
+ * in memory. When the input is complete the in-memory groups are emitted and
+ * each partition is aggregated in turn with a fresh hash seed, spilling again
+ * if it still does not fit.
+ * <p/>
+ * Partitions are aggregated on up to opgather.hash.threads threads, each with
+ * an equal share of the budget and its own copy of the merge configuration.
+ * A partition that does not fit in its share is handed back and aggregated
+ * on the query thread with the full budget. Merged rows are always emitted
+ * on the query thread in partition order.
+ */
+final class HashAggregator implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(HashAggregator.class);
+
+    private static final int PARTITIONS = Math.max(2, Parameter.intValue("opgather.hash.partitions", 16));
+    private static final int MAX_DEPTH = Parameter.intValue("opgather.hash.depth", 4);
+    private static final int THREADS = Math.max(1, Parameter.intValue("opgather.hash.threads",
+            Math.min(4, Runtime.getRuntime().availableProcessors())));
+    private static final int WRITE_BUFFER = Parameter.intValue("opgather.hash.buffer", 64 * 1024);
+
+    /* what to do when the budget is exceeded */
+    enum OnLimit {
+        SPILL, FAIL, ABORT
+    }
+
+    private final String args;
+    private final MergeConfig mergeConfig;
+    private final ListBundleFormat format;
+    private final long maxBytes;
+    private final long maxRows;
+    private final Path tempDir;
+    private final int depth;
+    private final OnLimit onLimit;
+
+    private final HashMap<String, MergedRow> groups = new HashMap<>();
+    private long bytes;
+    private boolean unbounded;
+
+    private Path[] partitionFiles;
+    private DataChannelWriter[] partitions;
+    private ListBundleFormat spillFormat;
+
+    HashAggregator(String args, MergeConfig mergeConfig, ListBundleFormat format,
+                   long maxBytes, long maxRows, Path tempDir, OnLimit onLimit) {
+        this(args, mergeConfig, format, maxBytes, maxRows, tempDir, 0, onLimit);
+    }
+
+    private HashAggregator(String args, MergeConfig mergeConfig, ListBundleFormat format,
+                           long maxBytes, long maxRows, Path tempDir, int depth, OnLimit onLimit) {
+        this.args = args;
+        this.mergeConfig = mergeConfig;
+        this.format = format;
+        this.maxBytes = maxBytes;
+        this.maxRows = maxRows;
+        this.tempDir = tempDir;
+        this.depth = depth;
+        this.onLimit = onLimit;
+    }
+
+    /**
+     * @return false if the budget was exceeded by an aggregator that may not spill
+     */
+    boolean add(Bundle row) {
+        String key = mergeConfig.handleBindAndGetKey(row, format);
+        MergedRow merged = groups.get(key);
+        if (merged != null) {
+            long before = MemoryCounter.estimateSize(merged);
+            merged.merge(row);
+            bytes += MemoryCounter.estimateSize(merged) - before;
+            return checkLimit(row);
+        }
+        if (partitions != null) {
+            spill(key, row);
+            return true;
+        }
+        merged = new MergedRow(mergeConfig.conf, new ListBundle(format));
+        merged.merge(row);
+        groups.put(key, merged);
+        bytes += MemoryCounter.estimateSize(merged) + (2L * key.length());
+        return checkLimit(row);
+    }
+
+    /**
+     * Groups that grow as rows are merged into them (join, average) count
+     * against the budget, so the limit is checked after every merge.
+     */
+    private boolean checkLimit(Bundle row) {
+        if (((maxBytes > 0) && (bytes > maxBytes)) || ((maxRows > 0) && (groups.size() > maxRows))) {
+            return overLimit(row);
+        }
+        return true;
+    }
+
+    private boolean overLimit(Bundle row) {
+        switch (onLimit) {
+            case FAIL:
+                if ((maxRows > 0) && (groups.size() > maxRows)) {
+                    throw new DataChannelError("Number of gathered rows exceeds allowed " + maxRows);
+                }
+                throw new DataChannelError("Memory usage of gathered objects exceeds allowed " + maxBytes);
+            case ABORT:
+                return false;
+            default:
+                if (partitions != null) {
+                    // already spilling; groups in memory keep merging in place
+                    return true;
+                }
+                if (depth >= MAX_DEPTH) {
+                    if (!unbounded) {
+                        unbounded = true;
+                        log.warn("not spilling gather partition at depth {} with {} groups", depth, groups.size());
+                    }
+                    return true;
+                }
+                startSpill(row);
+                return true;
+        }
+    }
+
+    private void startSpill(Bundle row) {
+        spillFormat = new ListBundleFormat();
+        for (BundleField field : row.getFormat()) {
+            spillFormat.getField(field.getName());
+        }
+        partitionFiles = new Path[PARTITIONS];
+        partitions = new DataChannelWriter[PARTITIONS];
+        if (log.isDebugEnabled()) {
+            log.debug("spilling gather at depth {} after {} groups and {} bytes", depth, groups.size(), bytes);
+        }
+    }
+
+    private int partition(String key) {
+        int h = key.hashCode() ^ (depth * 0x9E3779B9);
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return (h & Integer.MAX_VALUE) % PARTITIONS;
+    }
+
+    private void spill(String key, Bundle row) {
+        int p = partition(key);
+        try {
+            if (partitions[p] == null) {
+                partitionFiles[p] = tempDir.resolve("gather-" + UUID.randomUUID() + "-" + depth + "-" + p);
+                partitions[p] = new DataChannelWriter(new BufferedOutputStream(
+                        Files.newOutputStream(partitionFiles[p]), WRITE_BUFFER));
+            }
+            partitions[p].write(row);
+        } catch (IOException e) {
+            throw new QueryException(e);
+        }
+    }
+
+    /**
+     * Emits every group to {@code next} and deletes the partition files.
+     */
+    void finish(QueryOp next, ChannelProgressivePromise promise) {
+        emitGroups(next, promise);
+        if (partitions == null) {
+            return;
+        }
+        try {
+            closeWriters();
+            aggregatePartitions(next, promise);
+        } catch (IOException e) {
+            throw new QueryException(e);
+        } finally {
+            close();
+        }
+    }
+
+    private void emitGroups(QueryOp next, ChannelProgressivePromise promise) {
+        for (MergedRow merged : groups.values()) {
+            if (promise.isDone()) {
+                break;
+            }
+            next.send(merged.emit());
+        }
+        groups.clear();
+        bytes = 0;
+    }
+
+    private void closeWriters() throws IOException {
+        for (DataChannelWriter writer : partitions) {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+    }
+
+    private void aggregatePartitions(QueryOp next, ChannelProgressivePromise promise) throws IOException {
+        ArrayDeque<Future<HashAggregator>> pending = new ArrayDeque<>();
+        ArrayDeque<Path> pendingFiles = new ArrayDeque<>();
+        for (Path file : partitionFiles) {
+            if (file == null) {
+                continue;
+            }
+            ListBundleFormat rowFormat = copyFormat(spillFormat);
+            pending.add(AggregatePool.pool.submit(() -> aggregateShare(file, rowFormat)));
+            pendingFiles.add(file);
+            while (pending.size() > THREADS) {
+                emitPartition(pending.removeFirst(), pendingFiles.removeFirst(), next, promise);
+            }
+        }
+        while (!pending.isEmpty()) {
+            emitPartition(pending.removeFirst(), pendingFiles.removeFirst(), next, promise);
+        }
+    }
+
+    private void emitPartition(Future<HashAggregator> future, Path file, QueryOp next,
+                               ChannelProgressivePromise promise) throws IOException {
+        HashAggregator child;
+        try {
+            child = future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw new QueryException(e);
+        } catch (ExecutionException e) {
+            throw new QueryException(e.getCause());
+        }
+        if (!promise.isDone()) {
+            if (child == null) {
+                ListBundleFormat rowFormat = copyFormat(spillFormat);
+                child = new HashAggregator(args, copyConfig(rowFormat), format, maxBytes, maxRows,
+                                           tempDir, depth + 1, OnLimit.SPILL);
+                child.read(file, rowFormat);
+            }
+            child.finish(next, promise);
+        }
+        Files.deleteIfExists(file);
+    }
+
+    /**
+     * Aggregates a partition on a pool thread with a share of the budget.
+     * Returns null if the partition does not fit in its share.
+     */
+    private HashAggregator aggregateShare(Path file, ListBundleFormat rowFormat) throws IOException {
+        HashAggregator child = new HashAggregator(args, copyConfig(rowFormat), format, share(maxBytes),
+                                                  share(maxRows), tempDir, depth + 1, OnLimit.ABORT);
+        return child.read(file, rowFormat) ? child : null;
+    }
+
+    private static long share(long limit) {
+        return (limit > 0) ? Math.max(1, limit / THREADS) : 0;
+    }
+
+    private boolean read(Path file, ListBundleFormat rowFormat) throws IOException {
+        DataChannelReader reader = new DataChannelReader(new ListBundle(rowFormat),
+                new BufferedInputStream(Files.newInputStream(file), WRITE_BUFFER));
+        try {
+            while (true) {
+                Bundle row;
+                try {
+                    row = reader.read();
+                } catch (EOFException ignored) {
+                    return true;
+                }
+                if (row == null) {
+                    return true;
+                }
+                if (!add(row)) {
+                    return false;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Each partition is read back into its own format because reading can add
+     * fields to a {@link ListBundleFormat}, and partitions are read concurrently.
+     */
+    private static ListBundleFormat copyFormat(ListBundleFormat source) {
+        ListBundleFormat copy = new ListBundleFormat();
+        for (BundleField field : source) {
+            copy.getField(field.getName());
+        }
+        return copy;
+    }
+
+    /**
+     * Merge values may keep per instance state so every partition gets its own
+     * copy. Input fields are bound by name to the format the partition is read
+     * with and output fields are shared with the original configuration.
+     */
+    private MergeConfig copyConfig(ListBundleFormat rowFormat) {
+        MergeConfig copy = new MergeConfig(args);
+        for (int i = 0; i < copy.conf.length; i++) {
+            MergedValue value = copy.conf[i];
+            if (value != null) {
+                BundleField from = mergeConfig.conf[i].getFrom();
+                value.setFrom((from != null) ? rowFormat.getField(from.getName()) : null);
+                value.setTo(mergeConfig.conf[i].getTo());
+            }
+        }
+        return copy;
+    }
+
+    @Override
+    public void close() {
+        if (partitions == null) {
+            return;
+        }
+        for (int i = 0; i < partitions.length; i++) {
+            try {
+                if (partitions[i] != null) {
+                    partitions[i].close();
+                    partitions[i] = null;
+                }
+                if (partitionFiles[i] != null) {
+                    Files.deleteIfExists(partitionFiles[i]);
+                }
+            } catch (IOException e) {
+                log.warn("error removing gather partition {}", partitionFiles[i], e);
+            }
+        }
+    }
+
+    private static final class AggregatePool {
+
+        static final ExecutorService pool = new ThreadPoolExecutor(THREADS, THREADS,
+                0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("gatherAggregate-%d").build());
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.query.op;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import java.util.Comparator;
+import java.util.List;
+
+import com.addthis.bundle.core.Bundle;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Merges k sorted sources with a tree of losers. Each internal node
+ * remembers the source that lost the match played at that node so that
+ * replacing the overall winner costs one comparison per tree level.
+ * Ties are broken by source index which keeps the merge stable when the
+ * sources are supplied in the order they were produced.
+ */
+final class LoserTree implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(LoserTree.class);
+
+    /**
+     * A sorted stream of bundles. {@link #next()} returns null once the source is exhausted.
+     */
+    interface Source extends Closeable {
+
+        Bundle next() throws IOException;
+    }
+
+    private final Source[] sources;
+    private final Bundle[] heads;
+    private final Comparator<Bundle> comparator;
+    private final int size;
+
+    /**
+     * tree[0] holds the current winner and tree[1..size-1] hold the losers.
+     */
+    private final int[] tree;
+
+    LoserTree(List<? extends Source> sources, Comparator<Bundle> comparator) throws IOException {
+        this.sources = sources.toArray(new Source[sources.size()]);
+        this.size = this.sources.length;
+        this.heads = new Bundle[size];
+        this.tree = new int[Math.max(size, 1)];
+        this.comparator = comparator;
+        try {
+            for (int i = 0; i < size; i++) {
+                heads[i] = this.sources[i].next();
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+        if (size > 0) {
+            tree[0] = play(1);
+        }
+    }
+
+    /**
+     * Returns the next bundle in merged order or null when all sources are exhausted.
+     */
+    Bundle next() throws IOException {
+        if (size == 0) {
+            return null;
+        }
+        int winner = tree[0];
+        Bundle result = heads[winner];
+        if (result == null) {
+            return null;
+        }
+        heads[winner] = sources[winner].next();
+        for (int node = (winner + size) >>> 1; node > 0; node >>>= 1) {
+            int loser = tree[node];
+            if (beats(loser, winner)) {
+                tree[node] = winner;
+                winner = loser;
+            }
+        }
+        tree[0] = winner;
+        return result;
+    }
+
+    /**
+     * Leaves are numbered size..2*size-1 and internal nodes 1..size-1.
+     * Returns the winner of the subtree rooted at {@code node}.
+     */
+    private int play(int node) {
+        if (node >= size) {
+            return node - size;
+        }
+        int left = play(node << 1);
+        int right = play((node << 1) + 1);
+        if (beats(left, right)) {
+            tree[node] = right;
+            return left;
+        } else {
+            tree[node] = left;
+            return right;
+        }
+    }
+
+    private boolean beats(int a, int b) {
+        Bundle ha = heads[a];
+        Bundle hb = heads[b];
+        if (ha == null) {
+            return (hb == null) && (a < b);
+        }
+        if (hb == null) {
+            return true;
+        }
+        int delta = comparator.compare(ha, hb);
+        return (delta < 0) || ((delta == 0) && (a < b));
+    }
+
+    @Override
+    public void close() {
+        for (Source source : sources) {
+            try {
+                source.close();
+            } catch (Exception ex) {
+                log.warn("exception while trying to close merge source", ex);
+            }
+        }
+    }
+}
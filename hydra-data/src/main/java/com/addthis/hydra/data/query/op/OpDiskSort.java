@@ -13,24 +13,32 @@
  */
 package com.addthis.hydra.data.query.op;
 
-import java.io.Closeable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
-import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.StringTokenizer;
-import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
+import com.addthis.basis.util.MemoryCounter;
 import com.addthis.basis.util.Parameter;
 import com.addthis.basis.util.Strings;
 
@@ -44,11 +52,10 @@ import com.addthis.bundle.util.BundleColumnBinder;
 import com.addthis.bundle.util.ValueUtil;
 import com.addthis.bundle.value.ValueObject;
 import com.addthis.hydra.data.query.AbstractRowOp;
-import com.addthis.muxy.WritableMuxFile;
-import com.addthis.muxy.MuxFileDirectory;
-import com.addthis.muxy.MuxyEventListener;
-import com.addthis.muxy.MuxyFileEvent;
-import com.addthis.muxy.MuxyStreamEvent;
+import com.addthis.hydra.data.query.QueryException;
+import com.addthis.hydra.data.query.QueryMemTracker;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import com.ning.compress.lzf.LZFInputStream;
 import com.ning.compress.lzf.LZFOutputStream;
@@ -90,24 +97,45 @@ import io.netty.channel.ChannelProgressivePromise;
 public class OpDiskSort extends AbstractRowOp {
 
     private static final Logger log = LoggerFactory.getLogger(OpDiskSort.class);
-    private static final int CHUNK_ROWS = Parameter.intValue("op.disksort.chunk.rows", 5000);
-    private static final int CHUNK_MERGES = Parameter.intValue("op.disksort.chunk.merges", 1000);
+
+    /**
+     * Memory budget for buffered rows when the query does not supply one.
+     * The budget is shared between the run being filled and the runs in flight.
+     */
+    private static final long RUN_BYTES = Parameter.longValue("op.disksort.run.bytes", 64L * 1024 * 1024);
+    private static final int CHUNK_MERGES = Math.max(2, Parameter.intValue("op.disksort.chunk.merges", 1000));
     private static final int GZTYPE = Parameter.intValue("op.disksort.gz.type", 0);
-    private static final MuxyEventListener DISCARDER = new SingleDirMuxyEventListener();
 
-    private final Bundle[] buffer = new Bundle[CHUNK_ROWS + 1];
-    private final BundleFactory factory = new ListBundle();
+    /**
+     * Number of runs that may be sorting or writing in the background
+     * before the query thread blocks on the oldest one.
+     */
+    private static final int RUNS_IN_FLIGHT = Math.max(1, Parameter.intValue("op.disksort.runs.inflight", 2));
+    private static final int SORT_THREADS = Math.max(1, Parameter.intValue("op.disksort.threads",
+            Math.min(4, Runtime.getRuntime().availableProcessors())));
+
+    /**
+     * Row size is re-estimated every sample rows and averaged in between.
+     */
+    private static final int SIZE_SAMPLE = Math.max(1, Parameter.intValue("op.disksort.size.sample", 64));
+    private static final int WRITE_BUFFER = Parameter.intValue("op.disksort.write.buffer", 64 * 1024);
+    private static final int READ_BUFFER = Parameter.intValue("op.disksort.read.buffer", 8 * 1024);
+    private static final int INITIAL_ROWS = 1024;
+
     private final ChannelProgressivePromise queryPromise;
+    private final List<Path> runs = new ArrayList<>();
+    private final LinkedList<Future<?>> pending = new LinkedList<>();
 
     private Path tempDir;
     private String[] cols;
     private char[] type;
     private char[] dir;
-    private MuxFileDirectory mfm;
+    private Bundle[] buffer = new Bundle[INITIAL_ROWS];
     private int bufferIndex = 0;
+    private long bufferBytes = 0;
+    private long rowBytes = 0;
+    private long runBytes = -1;
     private BundleComparator comparator;
-    private BundleComparator comparatorSS;
-    private int chunk = 0;
 
     public OpDiskSort(String args, String tempDirString, ChannelProgressivePromise queryPromise) {
         super(queryPromise);
@@ -126,9 +154,7 @@ public class OpDiskSort extends AbstractRowOp {
     private void init(String args) {
         try {
             Files.createDirectories(tempDir);
-            mfm = new MuxFileDirectory(tempDir, DISCARDER);
-            mfm.setDeleteFreed(true);
-            log.debug("tempDir={} mfm={}", tempDir, mfm);
+            log.debug("tempDir={}", tempDir);
         } catch (Exception ex) {
             throw new RuntimeException(ex);
         }
@@ -149,13 +175,12 @@ public class OpDiskSort extends AbstractRowOp {
         dir = ds.toCharArray();
 
         comparator = new BundleComparator();
-        comparatorSS = new BundleComparator();
     }
 
     @Override
     public void close() throws IOException {
         try {
-            mfm.waitForWriteClosure(0);
+            cancelPending();
         } finally {
             if (Files.exists(tempDir)) {
                 boolean success = com.addthis.basis.util.Files.deleteDir(tempDir.toFile());
@@ -168,34 +193,86 @@ public class OpDiskSort extends AbstractRowOp {
 
     @Override
     public Bundle rowOp(Bundle row) {
-        if (bufferIndex > CHUNK_ROWS) {
-            dumpBufferToMFM();
+        if (runBytes < 0) {
+            runBytes = runBudget();
+        }
+        if ((bufferIndex % SIZE_SAMPLE) == 0) {
+            long estimate = MemoryCounter.estimateSize(row);
+            rowBytes = (rowBytes == 0) ? estimate : (((rowBytes * 3) + estimate) / 4);
+        }
+        if (bufferIndex == buffer.length) {
+            buffer = Arrays.copyOf(buffer, bufferIndex * 2);
         }
         buffer[bufferIndex++] = row;
+        bufferBytes += rowBytes;
+        if (bufferBytes >= runBytes) {
+            spillRun();
+        }
         return null;
     }
 
-    private void dumpBufferToMFM() {
-        if (bufferIndex > 0) {
-            log.debug("dumpBufferToMFM buffer={} chunk={}", bufferIndex, chunk);
-            try {
-                Arrays.sort(buffer, 0, bufferIndex, comparator);
-                WritableMuxFile meta = mfm.openFile("l0-c" + (chunk++), true);
-                OutputStream out = wrapOutputStream(meta.append());
-                DataChannelWriter writer = new DataChannelWriter(out);
-                for (int i = 0; i < bufferIndex; i++) {
-                    writer.write(buffer[i]);
-                }
-                writer.close();
-                out.close();
-                meta.sync();
-                bufferIndex = 0;
-            } catch (Exception ex) {
-                throw new RuntimeException(ex);
+    /**
+     * Bytes of rows to collect before a run is spilled. The memory budget of
+     * the query is used when there is one so that runs grow with the memory
+     * the query may hold rather than with a fixed row count.
+     */
+    private long runBudget() {
+        QueryMemTracker memTracker = getMemTracker();
+        long budget = (memTracker != null) ? memTracker.spillBudget() : 0;
+        if (budget <= 0) {
+            budget = RUN_BYTES;
+        }
+        return Math.max(1, budget / (RUNS_IN_FLIGHT + 1));
+    }
+
+    /**
+     * Hands the buffered rows to the sort pool which sorts them and writes them
+     * out as a run. Blocks when too many runs are still in flight.
+     */
+    private void spillRun() {
+        final Bundle[] run = buffer;
+        final int rows = bufferIndex;
+        final Path file = tempDir.resolve("l0-c" + runs.size());
+        log.debug("spillRun rows={} bytes={} run={}", rows, bufferBytes, runs.size());
+        runs.add(file);
+        /* bind here: binding may add fields to the format that this thread goes on extending */
+        final BundleComparator sorter = new BundleComparator(run[0]);
+        pending.add(SortPool.pool.submit(() -> {
+            Arrays.sort(run, 0, rows, sorter);
+            writeRun(file, run, rows);
+            return null;
+        }));
+        buffer = new Bundle[Math.max(INITIAL_ROWS, rows)];
+        bufferIndex = 0;
+        bufferBytes = 0;
+        while (pending.size() > RUNS_IN_FLIGHT) {
+            await(pending.removeFirst());
+        }
+    }
+
+    private static void writeRun(Path file, Bundle[] rows, int count) throws IOException {
+        try (OutputStream out = openRun(file);
+             DataChannelWriter writer = new DataChannelWriter(out)) {
+            for (int i = 0; i < count; i++) {
+                writer.write(rows[i]);
+            }
+        }
+    }
+
+    private static void writeRun(Path file, LoserTree merge) throws IOException {
+        try (OutputStream out = openRun(file);
+             DataChannelWriter writer = new DataChannelWriter(out)) {
+            Bundle next;
+            while ((next = merge.next()) != null) {
+                writer.write(next);
             }
         }
     }
 
+    private static OutputStream openRun(Path file) throws IOException {
+        return wrapOutputStream(new BufferedOutputStream(Files.newOutputStream(file), WRITE_BUFFER));
+    }
+
     // TODO: We really need a canonical library place for this kind of logic
     private static OutputStream wrapOutputStream(OutputStream outputStream) throws IOException {
 
@@ -214,11 +291,55 @@ public class OpDiskSort extends AbstractRowOp {
         }
     }
 
-    // TODO disk cleanup
+    private void await(Future<?> future) {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new QueryException("interrupted while waiting for disk sort", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private void awaitPending() {
+        while (!pending.isEmpty()) {
+            await(pending.removeFirst());
+        }
+    }
+
+    /**
+     * Cancels queued runs and waits for the ones already running so that
+     * the temporary directory is not deleted underneath them.
+     */
+    private void cancelPending() {
+        for (Future<?> future : pending) {
+            future.cancel(false);
+        }
+        try {
+            for (Future<?> future : pending) {
+                if (!future.isCancelled()) {
+                    try {
+                        future.get();
+                    } catch (ExecutionException ignored) {
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pending.clear();
+        }
+    }
+
     @Override
     public void sendComplete() {
         /** optimization for when buffer hasn't yet spilled */
-        if (chunk == 0) {
+        if (runs.isEmpty()) {
             Arrays.sort(buffer, 0, bufferIndex, comparator);
             for (int i = 0; i < bufferIndex; i++) {
                 if (!queryPromise.isDone()) {
@@ -230,29 +351,30 @@ public class OpDiskSort extends AbstractRowOp {
             super.sendComplete();
             return;
         }
-        if (!queryPromise.isDone()) {
-            dumpBufferToMFM();
-        } else {
+        if (queryPromise.isDone()) {
             super.sendComplete();
             return;
         }
-        int level = 0;
-        /** progressively compact levels until only one chunk is emitted in a merge */
-        while (chunk > CHUNK_MERGES) {
-            chunk = mergeLevel(level++);
-            if (queryPromise.isDone()) {
-                break;
-            }
+        if (bufferIndex > 0) {
+            spillRun();
+        }
+        buffer = null;
+        awaitPending();
+        List<Path> level = runs;
+        int depth = 0;
+        /** progressively compact levels until the remaining runs fit in a single merge */
+        while ((level.size() > CHUNK_MERGES) && !queryPromise.isDone()) {
+            level = mergeLevel(level, ++depth);
         }
         if (queryPromise.isDone()) {
             super.sendComplete();
             return;
         }
         /** stream results from last round of merging */
-        try (SortedSource sortedSource = new SortedSource(level, 0, chunk)) {
-            Bundle next = null;
+        try (LoserTree merge = openMerge(level)) {
+            Bundle next;
             int bundles = 0;
-            while ((next = sortedSource.next()) != null) {
+            while ((next = merge.next()) != null) {
                 if (!queryPromise.isDone()) {
                     getNext().send(next);
                     bundles++;
@@ -260,50 +382,63 @@ public class OpDiskSort extends AbstractRowOp {
                     break;
                 }
             }
-            log.debug("finish read from level={} chunk=0 bundles={}", level, bundles);
+            log.debug("finish read from level={} runs={} bundles={}", depth, level.size(), bundles);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
         }
         super.sendComplete();
     }
 
     /**
-     * merge chunks in a level and return the number of resulting chunks
+     * Merges the runs of a level in groups of at most {@link #CHUNK_MERGES}
+     * runs. The groups are merged concurrently on the sort pool.
+     *
+     * @return the runs of the next level
      */
-    private int mergeLevel(int level) {
-        int chunkOut = 0;
-        int levelOut = level + 1;
-        int nextChunk = 0;
-        int merges = 0;
-        int bundles = 0;
-        while (true) {
-            int chunksRemaining = chunk - nextChunk;
-            int chunksToMerge = Math.min(chunksRemaining, CHUNK_MERGES);
-            try (SortedSource sortedSource = new SortedSource(level, nextChunk, chunksToMerge)) {
-                int readers = sortedSource.getReaderCount();
-                log.debug("SourceSource({},{},{}) = {}", level, nextChunk, CHUNK_MERGES, readers);
-                if (readers == 0) {
-                    log.debug("mergeLevel({})={} chunkIn={} bundles={}", level, merges, nextChunk, bundles);
-                    return merges;
+    private List<Path> mergeLevel(List<Path> level, int depth) {
+        List<Path> output = new ArrayList<>();
+        for (int start = 0; start < level.size(); start += CHUNK_MERGES) {
+            final List<Path> group = level.subList(start, Math.min(level.size(), start + CHUNK_MERGES));
+            final Path file = tempDir.resolve("l" + depth + "-c" + output.size());
+            output.add(file);
+            pending.add(SortPool.pool.submit(() -> {
+                try (LoserTree merge = openMerge(group)) {
+                    writeRun(file, merge);
                 }
-                nextChunk += readers;
-                merges++;
-                WritableMuxFile meta = mfm.openFile("l" + levelOut + "-c" + (chunkOut++), true);
-                log.debug(" output to level={} chunk={}", levelOut, chunkOut - 1);
-                try (OutputStream out = wrapOutputStream(meta.append());
-                     DataChannelWriter writer = new DataChannelWriter(out);) {
-                    Bundle next = null;
-                    while ((next = sortedSource.next()) != null) {
-                        writer.write(next);
-                        bundles++;
-                    }
+                return null;
+            }));
+        }
+        awaitPending();
+        log.debug("mergeLevel({}) runsIn={} runsOut={}", depth, level.size(), output.size());
+        return output;
+    }
+
+    /**
+     * Opens a merge over the given runs. Each merge reads into its own bundle
+     * format and uses its own comparator so that merges may run concurrently.
+     * Runs are deleted as soon as the merge is closed.
+     */
+    private LoserTree openMerge(List<Path> files) throws IOException {
+        BundleFactory factory = new ListBundle();
+        List<RunReader> readers = new ArrayList<>(files.size());
+        try {
+            for (Path file : files) {
+                readers.add(new RunReader(factory, file));
+            }
+        } catch (IOException | RuntimeException e) {
+            for (RunReader reader : readers) {
+                try {
+                    reader.close();
+                } catch (Exception ex) {
+                    log.warn("exception while trying to close disk sort readers", ex);
                 }
-                meta.sync();
-                log.debug(" output bundles={}", bundles);
-            } catch (Exception ex) {
-                throw new RuntimeException(ex);
             }
+            throw e;
         }
+        return new LoserTree(readers, new BundleComparator());
     }
 
+
     /**
      * @param s1
      * @param s2
@@ -387,6 +522,16 @@ public class OpDiskSort extends AbstractRowOp {
 
         private BundleField[] columns;
 
+        BundleComparator() {
+        }
+
+        /**
+         * Binds the sort columns to the format of {@code row} instead of the first compared row.
+         */
+        BundleComparator(Bundle row) {
+            columns = new BundleColumnBinder(row, cols).getFields();
+        }
+
         @Override
         public int compare(Bundle o1, Bundle o2) {
             if (columns == null) {
@@ -425,143 +570,43 @@ public class OpDiskSort extends AbstractRowOp {
         }
     }
 
-    private final class SortedSource implements Closeable {
+    /**
+     * Streams one run back from disk.
+     */
+    private static final class RunReader implements LoserTree.Source {
 
-        private final TreeSet<SourceBundle> sorted = new TreeSet<>(new SourceBundleComparator());
-        private final LinkedList<DataChannelReader> readers = new LinkedList<>();
-        private long bundleCounter = 0L;
+        private final Path file;
+        private final DataChannelReader reader;
 
-        SortedSource(final int level, int chunk, int count) {
-            while (count-- > 0) {
-                try {
-                    // TODO figure out how to delete these files after consuming them to keep the index small in mem
-                    WritableMuxFile meta = mfm.openFile("l" + level + "-c" + (chunk++), false);
-                    DataChannelReader reader = new DataChannelReader(factory, wrapInputStream(meta.read(0)));
-                    Bundle next = null;
-                    try {
-                        next = reader.read();
-                    } catch (Exception ignored) {
-                    }
-                    if (next != null) {
-                        log.debug("source source open level={} chunk={} next={} meta={}",
-                                level, chunk - 1, next, meta);
-                        readers.add(reader);
-                        sorted.add(new SourceBundle(next, reader, bundleCounter++));
-                    } else {
-                        reader.close();
-                    }
-                } catch (RuntimeException e) {
-                    close();
-                    throw e;
-                } catch (Exception e) {
-                    close();
-                    throw new RuntimeException(e);
-                }
-            }
-            log.debug("SortedSource seeded with {} entries", sorted.size());
+        RunReader(BundleFactory factory, Path file) throws IOException {
+            this.file = file;
+            this.reader = new DataChannelReader(factory, wrapInputStream(
+                    new BufferedInputStream(Files.newInputStream(file), READ_BUFFER)));
         }
 
         @Override
-        public void close() {
-            for (DataChannelReader reader : readers) {
-                try {
-                    reader.close();
-                } catch (Exception ex) {
-                    log.warn("exception while trying to close disk sort readers", ex);
-                }
-            }
-        }
-
-        public int getReaderCount() {
-            return readers.size();
-        }
-
-        /**
-         * each call to next re-populates the tree from the same source
-         */
-        public Bundle next() {
-            if (!sorted.isEmpty()) {
-                Iterator<SourceBundle> iter = sorted.iterator();
-                SourceBundle nextOrdered = iter.next();
-                iter.remove();
-                try {
-                    Bundle nextFromSource = nextOrdered.reader.read();
-                    if (nextFromSource != null) {
-                        sorted.add(new SourceBundle(nextFromSource, nextOrdered.reader, bundleCounter++));
-                    }
-                } catch (EOFException ignored) {
-                    log.debug("closing source on EOF size={}", sorted.size());
-                    try {
-                        nextOrdered.reader.close();
-                    } catch (Exception ex2) {
-                        // ignore
-                    }
-                } catch (Exception ex) {
-                    log.warn("swallowing mystery exception", ex);
-                }
-                return nextOrdered.bundle;
-            }
-            return null;
-        }
-
-        private class SourceBundle {
-
-            public final Bundle bundle;
-            public final DataChannelReader reader;
-            public final long uniqueID;
-
-            SourceBundle(Bundle bundle, DataChannelReader reader, long uniqueID) {
-                this.bundle = bundle;
-                this.reader = reader;
-                this.uniqueID = uniqueID;
+        public Bundle next() throws IOException {
+            try {
+                return reader.read();
+            } catch (EOFException ignored) {
+                return null;
             }
         }
 
-        private class SourceBundleComparator implements Comparator<SourceBundle> {
-
-            @Override
-            public int compare(SourceBundle o1, SourceBundle o2) {
-                int comp = comparatorSS.compare(o1.bundle, o2.bundle);
-                if (comp == 0) {
-                    // The following two comparisons are necessary to avoid overflow or underflow
-                    // that can result from using (o1.uniqueID - o2.uniqueID).
-                    // When support is dropped for Java 6, these comparisons can be replaced with
-                    /// Long.compare(o1.uniqueID, o2.uniqueID) (introduced in Java 7).
-                    if (o1.uniqueID > o2.uniqueID) {
-                        return 1;
-                    } else if (o1.uniqueID == o2.uniqueID) {
-                        return 0;
-                    } else {
-                        return -1;
-                    }
-                } else {
-                    return comp;
-                }
+        @Override
+        public void close() throws IOException {
+            try {
+                reader.close();
+            } finally {
+                Files.deleteIfExists(file);
             }
         }
-
     }
 
-    private static class SingleDirMuxyEventListener implements MuxyEventListener {
+    private static final class SortPool {
 
-        @Override
-        public void streamEvent(MuxyStreamEvent event, Object target) {
-            // ignored
-        }
-
-        @Override
-        public void fileEvent(MuxyFileEvent event, Object target) {
-            // ignored
-        }
-
-        @Override
-        public void reportWrite(long bytes) {
-            // ignored
-        }
-
-        @Override
-        public void reportStreams(long streams) {
-            // ignored
-        }
+        static final ExecutorService pool = new ThreadPoolExecutor(SORT_THREADS, SORT_THREADS,
+                0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("diskSort-%d").build());
     }
 }
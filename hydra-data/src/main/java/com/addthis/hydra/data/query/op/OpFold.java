@@ -28,6 +28,7 @@ import com.addthis.bundle.core.list.ListBundleFormat;
 import com.addthis.bundle.util.BundleColumnBinder;
 import com.addthis.bundle.value.ValueFactory;
 import com.addthis.bundle.value.ValueObject;
+import com.addthis.hydra.data.column.ColumnBatch;
 import com.addthis.hydra.data.query.AbstractBufferOp;
 
 import io.netty.channel.ChannelProgressivePromise;
@@ -108,6 +109,19 @@ public class OpFold extends AbstractBufferOp implements BundleFormatted {
         return folded != null ? createRows(folded) : null;
     }
 
+    /**
+     * Folded rows copy values out of their input so the
+     * rows of the batch can be visited through a cursor.
+     */
+    @Override
+    public void sendBatch(ColumnBatch batch) {
+        ColumnBatch.Cursor cursor = batch.cursor();
+        int rows = batch.rows();
+        for (int i = 0; i < rows; i++) {
+            send(next(cursor.moveTo(i)));
+        }
+    }
+
     @Override
     public List<Bundle> next(Bundle row) {
         BundleColumnBinder inputBinder = getSourceColumnBinder(row, inputFields);
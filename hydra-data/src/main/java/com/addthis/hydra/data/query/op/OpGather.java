@@ -21,6 +21,8 @@ import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
+import java.nio.file.Paths;
+
 import com.addthis.basis.util.MemoryCounter;
 import com.addthis.basis.util.Parameter;
 
@@ -51,6 +53,10 @@ import io.netty.channel.ChannelProgressivePromise;
  * It is an in-memory operation that spill over to disk when necessary. If the key
  * columns are already sorted then the {@link OpMerge merge} operation is
  * a much cheaper alternative.</p>
+ * <p>Unless a key topper is specified the rows are grouped by a hash aggregator
+ * that partitions rows of new keys to temporary files once the memory or row tip
+ * (or opgather.hash.bytes if no tip is set) is exceeded. The partitions are merged
+ * in parallel after all rows have been received.</p>
  * <p>The syntax for this operation is "gather=[column parameters] where
  * column parameters is a sequence of one or more of the following letters:
  * <ul>
@@ -63,6 +69,7 @@ import io.netty.channel.ChannelProgressivePromise;
  * <li>M - generate max values for this column</li>
  * <li>s - generate sum values for this column</li>
  * <li>j - append all values for this column using "," as a separator</li>
+ * <li>U - union the serialized hll.sketch or kll.sketch values for this column</li>
  * <li>p - packs repeating values (not sure this does anything)</li>
  * </ul>
  * <p/>
@@ -114,6 +121,11 @@ public class OpGather extends AbstractQueryOp {
     private boolean tippedToDisk = false;
     private boolean tipToDisk = Parameter.boolValue("opgather.tiptodisk", false);
 
+    private static final boolean HASH = Parameter.boolValue("opgather.hash", true);
+    private static final long HASH_BYTES = Parameter.longValue("opgather.hash.bytes", 256L * 1024 * 1024);
+
+    /* groups rows when there is no key topper, otherwise null */
+    private final HashAggregator aggregator;
 
     private static final Meter diskTips = Metrics.newMeter(OpGather.class, "diskTips", "diskTips", TimeUnit.SECONDS);
 
@@ -132,6 +144,19 @@ public class OpGather extends AbstractQueryOp {
         topper = mergeConfig.topper;
         topSize = mergeConfig.numericArg;
         conf = mergeConfig.conf;
+
+        if (HASH && (topColumn < 0)) {
+            HashAggregator.OnLimit onLimit;
+            if ((tipMem <= 0) && (tipRow <= 0)) {
+                onLimit = HashAggregator.OnLimit.SPILL;
+            } else {
+                onLimit = tipToDisk ? HashAggregator.OnLimit.SPILL : HashAggregator.OnLimit.FAIL;
+            }
+            aggregator = new HashAggregator(args, mergeConfig, format, (tipMem > 0) ? tipMem : HASH_BYTES,
+                                            tipRow, Paths.get(tmpDir), onLimit);
+        } else {
+            aggregator = null;
+        }
     }
 
     @Override
@@ -139,6 +164,10 @@ public class OpGather extends AbstractQueryOp {
         if (queryPromise.isDone()) {
             return;
         }
+        if (aggregator != null) {
+            aggregator.add(row);
+            return;
+        }
         String key = mergeConfig.handleBindAndGetKey(row, format);
         MergedRow merge = resultTable.get(key);
         if (merge == null) {
@@ -212,6 +241,11 @@ public class OpGather extends AbstractQueryOp {
     @Override
     public void sendComplete() {
         QueryOp next = getNext();
+        if (aggregator != null) {
+            aggregator.finish(next, queryPromise);
+            next.sendComplete();
+            return;
+        }
         for (MergedRow mergedRow : resultTable.values()) {
             if (!queryPromise.isDone()) {
                 next.send(mergedRow.emit());
@@ -224,6 +258,9 @@ public class OpGather extends AbstractQueryOp {
 
     @Override
     public void close() throws IOException {
+        if (aggregator != null) {
+            aggregator.close();
+        }
         if (resultTable instanceof Closeable) {
             ((Closeable) resultTable).close();
         }
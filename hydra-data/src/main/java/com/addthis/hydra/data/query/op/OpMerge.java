@@ -39,6 +39,7 @@ import io.netty.channel.ChannelProgressivePromise;
  * <li>s - generate sum values for this column</li>
  * <li>l - keep last value for this column</li>
  * <li>j - append all values for this column using "," as a separator</li>
+ * <li>U - union the serialized hll.sketch or kll.sketch values for this column</li>
  * <li>p - packs repeating values (not sure this does anything)</li>
  * </ul>
  * <p/>
@@ -14,6 +14,7 @@
 package com.addthis.hydra.data.query.op;
 
 import com.addthis.bundle.core.Bundle;
+import com.addthis.hydra.data.column.ColumnBatch;
 import com.addthis.hydra.data.filter.util.BundleCalculator;
 import com.addthis.hydra.data.query.AbstractRowOp;
 
@@ -345,4 +346,26 @@ public class OpNumber extends AbstractRowOp {
     public Bundle rowOp(Bundle line) {
         return calculator.calculate(line);
     }
+
+    /**
+     * The calculator reads and writes the columns of the batch in place
+     * through a cursor. Rows rejected by a comparison are dropped.
+     */
+    @Override
+    public void sendBatch(ColumnBatch batch) {
+        ColumnBatch.Cursor cursor = batch.cursor();
+        int rows = batch.rows();
+        int[] kept = new int[rows];
+        int count = 0;
+        for (int i = 0; i < rows; i++) {
+            if (calculator.calculate(cursor.moveTo(i)) != null) {
+                kept[count++] = i;
+            }
+        }
+        if (count == rows) {
+            getNext().sendBatch(batch);
+        } else if (count > 0) {
+            getNext().sendBatch(batch.select(kept, count));
+        }
+    }
 }
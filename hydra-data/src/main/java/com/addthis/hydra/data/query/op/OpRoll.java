@@ -17,10 +17,16 @@ import com.addthis.basis.util.Strings;
 
 import com.addthis.bundle.core.Bundle;
 import com.addthis.bundle.core.BundleField;
+import com.addthis.bundle.core.BundleFormatted;
 import com.addthis.bundle.util.BundleColumnBinder;
 import com.addthis.bundle.util.ValueUtil;
 import com.addthis.bundle.value.Numeric;
+import com.addthis.bundle.value.ValueFactory;
 import com.addthis.bundle.value.ValueObject;
+import com.addthis.hydra.data.column.Column;
+import com.addthis.hydra.data.column.ColumnBatch;
+import com.addthis.hydra.data.column.DoubleColumn;
+import com.addthis.hydra.data.column.LongColumn;
 import com.addthis.hydra.data.query.AbstractRowOp;
 
 import io.netty.channel.ChannelProgressivePromise;
@@ -254,24 +260,151 @@ public class OpRoll extends AbstractRowOp {
         }
     }
 
+    private void bind(BundleFormatted row) {
+        colIn = new BundleColumnBinder(row, Strings.splitArray(args[0], ",")).getFields();
+        colKeys = args.length > 1 ? new BundleColumnBinder(row, Strings.splitArray(args[1], ",")).getFields() : null;
+        state = new Numeric[colIn.length];
+        oldvals = new Numeric[colIn.length];
+        if (inPlace || summary) {
+            colOut = colIn;
+            if (summary) {
+                lastRow = row.getFormat().createBundle();
+            }
+        } else {
+            colOut = new BundleField[colIn.length];
+            for (int i = 0; i < colOut.length; i++) {
+                colOut[i] = row.getFormat().getField("op_".concat(colIn[i].getName()));
+            }
+        }
+    }
+
+    /**
+     * Without key columns the running min, max, sum or delta of long (or float)
+     * input columns with no null rows is computed directly over the primitive
+     * column values. Any other batch is converted into rows.
+     */
     @Override
-    public Bundle rowOp(Bundle row) {
+    public void sendBatch(ColumnBatch batch) {
         if (state == null) {
-            colIn = new BundleColumnBinder(row, Strings.splitArray(args[0], ",")).getFields();
-            colKeys = args.length > 1 ? new BundleColumnBinder(row, Strings.splitArray(args[1], ",")).getFields() : null;
-            state = new Numeric[colIn.length];
-            oldvals = new Numeric[colIn.length];
-            if (inPlace || summary) {
-                colOut = colIn;
-                if (summary) {
-                    lastRow = row.createBundle();
+            bind(batch);
+        }
+        if (!rollColumns(batch)) {
+            super.sendBatch(batch);
+            return;
+        }
+        getNext().sendBatch(batch);
+    }
+
+    private boolean rollColumns(ColumnBatch batch) {
+        if ((colKeys != null) || (op == OP.AVG)) {
+            return false;
+        }
+        int count = batch.rows();
+        Column[] in = new Column[colIn.length];
+        for (int i = 0; i < colIn.length; i++) {
+            in[i] = batch.getColumn(colIn[i]);
+            boolean typed = asInt ? (in[i] instanceof LongColumn) : (in[i] instanceof DoubleColumn);
+            if (!typed || (in[i].nullCount(count) > 0)) {
+                return false;
+            }
+        }
+        for (int i = 0; i < colIn.length; i++) {
+            if (asInt) {
+                rollLong(batch, (LongColumn) in[i], i, count);
+            } else {
+                rollDouble(batch, (DoubleColumn) in[i], i, count);
+            }
+        }
+        rows += count;
+        return true;
+    }
+
+    private void rollLong(ColumnBatch batch, LongColumn in, int i, int count) {
+        LongColumn out = summary ? null : (inPlace ? in : new LongColumn(count));
+        boolean started = (state[i] != null);
+        long value = started ? state[i].asLong().getLong() : 0;
+        long old = started ? oldvals[i].asLong().getLong() : 0;
+        for (int row = 0; row < count; row++) {
+            long next = in.getLong(row);
+            if (!started) {
+                value = next;
+                old = next;
+                started = true;
+            } else {
+                switch (op) {
+                    case DELTA:
+                        value = next - old;
+                        old = next;
+                        break;
+                    case MIN:
+                        value = Math.min(value, next);
+                        break;
+                    case MAX:
+                        value = Math.max(value, next);
+                        break;
+                    case SUM:
+                        value += next;
+                        break;
                 }
+            }
+            if (out != null) {
+                out.setLong(row, value);
+            }
+        }
+        if (started) {
+            state[i] = ValueFactory.create(value);
+            oldvals[i] = ValueFactory.create(old);
+        }
+        if ((out != null) && (out != in)) {
+            batch.setColumn(colOut[i], out);
+        }
+    }
+
+    private void rollDouble(ColumnBatch batch, DoubleColumn in, int i, int count) {
+        DoubleColumn out = summary ? null : (inPlace ? in : new DoubleColumn(count));
+        boolean started = (state[i] != null);
+        double value = started ? state[i].asDouble().getDouble() : 0;
+        double old = started ? oldvals[i].asDouble().getDouble() : 0;
+        for (int row = 0; row < count; row++) {
+            double next = in.getDouble(row);
+            if (!started) {
+                value = next;
+                old = next;
+                started = true;
             } else {
-                colOut = new BundleField[colIn.length];
-                for (int i = 0; i < colOut.length; i++) {
-                    colOut[i] = row.getFormat().getField("op_".concat(colIn[i].getName()));
+                switch (op) {
+                    case DELTA:
+                        value = next - old;
+                        old = next;
+                        break;
+                    case MIN:
+                        value = Math.min(value, next);
+                        break;
+                    case MAX:
+                        value = Math.max(value, next);
+                        break;
+                    case SUM:
+                        value += next;
+                        break;
                 }
             }
+            if (out != null) {
+                out.setDouble(row, value);
+            }
+        }
+        if (started) {
+            state[i] = ValueFactory.create(value);
+            oldvals[i] = ValueFactory.create(old);
+        }
+        if ((out != null) && (out != in)) {
+            batch.setColumn(colOut[i], out);
+        }
+    }
+
+    @Override
+    public Bundle rowOp(Bundle row) {
+        if (state == null) {
+            bind(row);
         }
         rows++;
         if (colKeys != null) {
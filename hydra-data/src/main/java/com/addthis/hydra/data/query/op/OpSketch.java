@@ -0,0 +1,79 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.query.op;
+
+import com.addthis.basis.util.Strings;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.util.BundleColumnBinder;
+import com.addthis.bundle.value.ValueObject;
+import com.addthis.hydra.data.query.AbstractRowOp;
+import com.addthis.hydra.data.util.MergeableSketch;
+
+import io.netty.channel.ChannelProgressivePromise;
+
+
+/**
+ * <p>This query operation <span class="hydra-summary">evaluates serialized sketches</span>.
+ * <p/>
+ * <p>The hll.sketch and kll.sketch data attachments return their serialized sketch
+ * by default. Those columns can be unioned across tasks with the "U" column type of the
+ * merge or gather operations and then replaced with an estimate by this operation.
+ * The syntax is "sketch=column:command[,column:command]..." where command is any of
+ * the query path commands supported by the sketch, for example "count" or
+ * "quantile(0.99)".</p>
+ * <p/>
+ * <p>Example:</p>
+ * <pre>
+ * /+$+ips$+latency
+ *
+ * merge=UU;sketch=0:count,1:quantile(0.5)
+ * </pre>
+ *
+ * @user-reference
+ * @hydra-name sketch
+ */
+public class OpSketch extends AbstractRowOp {
+
+    private final int[] columns;
+    private final String[] commands;
+
+    public OpSketch(String args, ChannelProgressivePromise queryPromise) {
+        super(queryPromise);
+        String[] pairs = Strings.splitArray(args, ",");
+        columns = new int[pairs.length];
+        commands = new String[pairs.length];
+        for (int i = 0; i < pairs.length; i++) {
+            int split = pairs[i].indexOf(':');
+            if (split < 0) {
+                throw new IllegalArgumentException("expected column:command for sketch op but got " + pairs[i]);
+            }
+            columns[i] = Integer.parseInt(pairs[i].substring(0, split));
+            commands[i] = pairs[i].substring(split + 1);
+        }
+    }
+
+    @Override
+    public Bundle rowOp(Bundle row) {
+        BundleColumnBinder binder = getSourceColumnBinder(row);
+        for (int i = 0; i < columns.length; i++) {
+            ValueObject value = binder.getColumn(row, columns[i]);
+            if (value != null) {
+                MergeableSketch sketch = MergeableSketch.fromBytes(value.asBytes().asNative());
+                binder.setColumn(row, columns[i], sketch.evaluate(commands[i]));
+            }
+        }
+        return row;
+    }
+}
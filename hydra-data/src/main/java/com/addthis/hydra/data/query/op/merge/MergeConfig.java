@@ -89,6 +89,10 @@ public class MergeConfig {
                 case 's':
                     op = new SumValue();
                     break;
+                // union of serialized sketches
+                case 'U':
+                    op = new SketchValue();
+                    break;
                 // add merged row count
                 case 'u':
                     mergeCount = true;
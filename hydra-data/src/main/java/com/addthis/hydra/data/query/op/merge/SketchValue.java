@@ -0,0 +1,45 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.addthis.hydra.data.query.op.merge;
+
+import com.addthis.bundle.value.ValueBytes;
+import com.addthis.bundle.value.ValueFactory;
+import com.addthis.bundle.value.ValueObject;
+import com.addthis.hydra.data.util.MergeableSketch;
+
+/**
+ * Unions serialized {@link MergeableSketch sketches}. The sketch
+ * decoded for the last merged value is kept so that merging a run of
+ * rows into the same output row decodes each input only once.
+ */
+public class SketchValue extends AbstractMergedValue<ValueBytes> {
+
+    private ValueBytes lastMerged;
+    private MergeableSketch lastSketch;
+
+    @Override
+    protected ValueBytes doMerge(ValueBytes nextValue, ValueBytes value) {
+        MergeableSketch sketch = (value == lastMerged) ? lastSketch : MergeableSketch.fromBytes(value.asNative());
+        sketch.merge(MergeableSketch.fromBytes(nextValue.asNative()));
+        lastSketch = sketch;
+        lastMerged = ValueFactory.create(sketch.toBytes());
+        return lastMerged;
+    }
+
+    @Override
+    protected ValueBytes convert(ValueObject nextValue) {
+        return nextValue.asBytes();
+    }
+}
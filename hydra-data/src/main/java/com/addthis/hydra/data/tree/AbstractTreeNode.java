@@ -13,11 +13,16 @@
  */
 package com.addthis.hydra.data.tree;
 
+import javax.annotation.Nullable;
+
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 
 import java.nio.charset.Charset;
 
+import com.addthis.basis.util.Parameter;
 import com.addthis.basis.util.Varint;
 
 import com.addthis.codec.annotations.FieldConfig;
@@ -25,13 +30,15 @@ import com.addthis.codec.codables.BytesCodable;
 import com.addthis.codec.codables.ConcurrentCodable;
 import com.addthis.codec.codables.SuperCodable;
 import com.addthis.codec.reflection.Fields;
+import com.addthis.hydra.store.kv.DictionaryCodable;
+import com.addthis.hydra.store.kv.ValueDictionary;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.buffer.Unpooled;
 
 public abstract class AbstractTreeNode implements DataTreeNode, SuperCodable, ConcurrentCodable,
-                                                  BytesCodable {
+                                                  BytesCodable, DictionaryCodable {
 
     @FieldConfig(codable = true)
     protected long hits;
@@ -45,31 +52,176 @@ public abstract class AbstractTreeNode implements DataTreeNode, SuperCodable, Co
     @FieldConfig(codable = true)
     protected HashMap<String, TreeNodeData> data;
 
+    /**
+     * If true then attachments are kept as encoded bytes when a node
+     * is decoded and are only decoded when they are first accessed.
+     */
+    static final boolean LAZY_ATTACHMENTS = Parameter.boolValue("hydra.tree.lazy.attachments", true);
+
+    /**
+     * Attachments that have been read from a page but not decoded.
+     * Subclasses must access attachments through {@link #decodeData(String)}
+     * or {@link #decodeData()} rather than {@link #data} directly.
+     * Decoding an attachment replaces both maps instead of modifying them
+     * so that concurrent readers never observe a map that is being modified.
+     * {@link #data} is written before this field and this field is
+     * read before {@link #data}.
+     */
+    private volatile HashMap<String, EncodedAttachment> encoded;
+
+    /**
+     * Decode the attachment stored under {@code key} if it has not been decoded.
+     *
+     * @return the decoded attachments. The map may not contain every attachment.
+     */
+    protected final HashMap<String, TreeNodeData> decodeData(String key) {
+        HashMap<String, EncodedAttachment> pending = encoded;
+        if (pending == null || !pending.containsKey(key)) {
+            return data;
+        }
+        return materialize(key);
+    }
+
+    /**
+     * Decode all attachments that have not been decoded.
+     *
+     * @return the decoded attachments
+     */
+    protected final HashMap<String, TreeNodeData> decodeData() {
+        if (encoded == null) {
+            return data;
+        }
+        return materialize(null);
+    }
+
+    /**
+     * Returns the names of all attachments without decoding them or null if there are none.
+     */
+    protected final Collection<String> dataFields() {
+        HashMap<String, TreeNodeData> decoded;
+        HashMap<String, EncodedAttachment> pending;
+        synchronized (this) {
+            pending = encoded;
+            decoded = data;
+        }
+        if (pending == null) {
+            return (decoded == null || decoded.isEmpty()) ? null : decoded.keySet();
+        }
+        HashSet<String> fields = new HashSet<>(pending.keySet());
+        if (decoded != null) {
+            fields.addAll(decoded.keySet());
+        }
+        return fields;
+    }
+
+    private synchronized HashMap<String, TreeNodeData> materialize(@Nullable String key) {
+        HashMap<String, EncodedAttachment> pending = encoded;
+        if (pending == null || (key != null && !pending.containsKey(key))) {
+            return data;
+        }
+        HashMap<String, TreeNodeData> decoded = (data != null) ? new HashMap<>(data) : new HashMap<>();
+        HashMap<String, EncodedAttachment> remaining = null;
+        for (Map.Entry<String, EncodedAttachment> entry : pending.entrySet()) {
+            if (key == null || key.equals(entry.getKey())) {
+                TreeNodeData attachment = entry.getValue().decode();
+                attachment.setBoundNode(this);
+                decoded.put(entry.getKey(), attachment);
+            } else {
+                if (remaining == null) {
+                    remaining = new HashMap<>();
+                }
+                remaining.put(entry.getKey(), entry.getValue());
+            }
+        }
+        data = decoded;
+        encoded = remaining;
+        return decoded;
+    }
+
+    /**
+     * An attachment that has been read but not decoded. The bytes are
+     * written back unchanged if the node is encoded before the attachment
+     * is accessed.
+     */
+    private static final class EncodedAttachment {
+
+        final String className;
+        final byte[] bytes;
+        final long version;
+
+        EncodedAttachment(String className, byte[] bytes, long version) {
+            this.className = className;
+            this.bytes = bytes;
+            this.version = version;
+        }
+
+        TreeNodeData decode() {
+            try {
+                TreeNodeData attachment = (TreeNodeData) Fields.getClassFieldMap(TreeNodeData.class)
+                                                               .getClass(className).newInstance();
+                attachment.bytesDecode(bytes, version);
+                return attachment;
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
 
     @Override
     public byte[] bytesEncode(long version) {
+        return encode(version, null);
+    }
+
+    /**
+     * Encodes the node with the attachment keys and class names
+     * replaced by their ids in {@code dictionary}.
+     */
+    @Override
+    public byte[] bytesEncode(long version, ValueDictionary dictionary) {
+        return encode(version, dictionary);
+    }
+
+    @Override
+    public void bytesDecode(byte[] b, long version) {
+        decode(b, version, null);
+    }
+
+    @Override
+    public void bytesDecode(byte[] b, long version, ValueDictionary dictionary) {
+        decode(b, version, dictionary);
+    }
+
+    private byte[] encode(long version, @Nullable ValueDictionary dictionary) {
         preEncode();
         byte[] returnBytes;
         ByteBuf b = PooledByteBufAllocator.DEFAULT.buffer();
         encodeLock();
         try {
+            HashMap<String, TreeNodeData> decoded;
+            HashMap<String, EncodedAttachment> pending;
+            synchronized (this) {
+                decoded = data;
+                pending = encoded;
+            }
             Varint.writeUnsignedVarLong(hits, b);
             Varint.writeSignedVarInt(nodedb == null ? -1 : nodedb, b);
-            if (data != null && data.size() > 0) {
-                int numAttachments = data.size();
+            int numAttachments = (decoded != null ? decoded.size() : 0) + (pending != null ? pending.size() : 0);
+            if (numAttachments > 0) {
                 Varint.writeSignedVarInt(numAttachments, b);
-                for (Map.Entry<String, TreeNodeData> entry : data.entrySet()) {
-
-                    byte[] keyBytes = entry.getKey().getBytes(Charset.forName("UTF-8"));
-                    Varint.writeUnsignedVarInt(keyBytes.length, b);
-                    b.writeBytes(keyBytes);
-                    String classInfo = Fields.getClassFieldMap(entry.getValue().getClass()).getClassName(entry.getValue());
-                    byte[] classNameBytes = classInfo.getBytes(Charset.forName("UTF-8"));
-                    Varint.writeUnsignedVarInt(classNameBytes.length, b);
-                    b.writeBytes(classNameBytes);
-                    byte[] bytes = entry.getValue().bytesEncode(version);
-                    Varint.writeUnsignedVarInt(bytes.length, b);
-                    b.writeBytes(bytes);
+                if (decoded != null) {
+                    for (Map.Entry<String, TreeNodeData> entry : decoded.entrySet()) {
+                        String classInfo = Fields.getClassFieldMap(entry.getValue().getClass()).getClassName(entry.getValue());
+                        encodeAttachment(b, dictionary, entry.getKey(), classInfo, entry.getValue().bytesEncode(version));
+                    }
+                }
+                if (pending != null) {
+                    for (Map.Entry<String, EncodedAttachment> entry : pending.entrySet()) {
+                        EncodedAttachment attachment = entry.getValue();
+                        encodeAttachment(b, dictionary, entry.getKey(), attachment.className, attachment.bytes);
+                    }
                 }
             } else {
                 Varint.writeSignedVarInt(-1, b);
@@ -89,8 +241,24 @@ public abstract class AbstractTreeNode implements DataTreeNode, SuperCodable, Co
         return returnBytes;
     }
 
-    @Override
-    public void bytesDecode(byte[] b, long version) {
+    private static void encodeAttachment(ByteBuf b, @Nullable ValueDictionary dictionary,
+            String key, String classInfo, byte[] bytes) {
+        if (dictionary != null) {
+            Varint.writeUnsignedVarInt(dictionary.idFor(key), b);
+            Varint.writeUnsignedVarInt(dictionary.idFor(classInfo), b);
+        } else {
+            byte[] keyBytes = key.getBytes(Charset.forName("UTF-8"));
+            Varint.writeUnsignedVarInt(keyBytes.length, b);
+            b.writeBytes(keyBytes);
+            byte[] classNameBytes = classInfo.getBytes(Charset.forName("UTF-8"));
+            Varint.writeUnsignedVarInt(classNameBytes.length, b);
+            b.writeBytes(classNameBytes);
+        }
+        Varint.writeUnsignedVarInt(bytes.length, b);
+        b.writeBytes(bytes);
+    }
+
+    private void decode(byte[] b, long version, @Nullable ValueDictionary dictionary) {
         ByteBuf buf = Unpooled.wrappedBuffer(b);
         try {
             hits = Varint.readUnsignedVarLong(buf);
@@ -98,20 +266,35 @@ public abstract class AbstractTreeNode implements DataTreeNode, SuperCodable, Co
             int numAttachments = Varint.readSignedVarInt(buf);
             if (numAttachments > 0) {
                 HashMap<String, TreeNodeData> dataMap = new HashMap<>();
+                HashMap<String, EncodedAttachment> pending = LAZY_ATTACHMENTS ? new HashMap<>() : null;
                 for (int i = 0; i < numAttachments; i++) {
-                    int kl = Varint.readUnsignedVarInt(buf);
-                    if (kl == 0) {
-                        continue;
+                    String key;
+                    String className;
+                    if (dictionary != null) {
+                        key = dictionary.get(Varint.readUnsignedVarInt(buf));
+                        className = dictionary.get(Varint.readUnsignedVarInt(buf));
+                    } else {
+                        int kl = Varint.readUnsignedVarInt(buf);
+                        if (kl == 0) {
+                            continue;
+                        }
+                        key = new String(buf.readBytes(kl).array(), Charset.forName("UTF-8"));
+                        int cl = Varint.readUnsignedVarInt(buf);
+                        className = new String(buf.readBytes(cl).array(), Charset.forName("UTF-8"));
                     }
-                    String key = new String(buf.readBytes(kl).array(), Charset.forName("UTF-8"));
-                    int cl = Varint.readUnsignedVarInt(buf);
-                    String className = new String(buf.readBytes(cl).array(), Charset.forName("UTF-8"));
-                    TreeNodeData tn = (TreeNodeData) Fields.getClassFieldMap(TreeNodeData.class).getClass(className).newInstance();
                     int vl = Varint.readUnsignedVarInt(buf);
-                    tn.bytesDecode(buf.readBytes(vl).array(), version);
-                    dataMap.put(key, tn);
+                    byte[] bytes = new byte[vl];
+                    buf.readBytes(bytes);
+                    if (pending != null) {
+                        pending.put(key, new EncodedAttachment(className, bytes, version));
+                    } else {
+                        TreeNodeData tn = (TreeNodeData) Fields.getClassFieldMap(TreeNodeData.class).getClass(className).newInstance();
+                        tn.bytesDecode(bytes, version);
+                        dataMap.put(key, tn);
+                    }
                 }
                 data = dataMap;
+                encoded = (pending != null && !pending.isEmpty()) ? pending : null;
             }
             if (nodedb > 0) {
                 nodes = Varint.readUnsignedVarInt(buf);
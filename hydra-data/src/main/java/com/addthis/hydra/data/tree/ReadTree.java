@@ -16,11 +16,14 @@ package com.addthis.hydra.data.tree;
 import java.io.File;
 import java.io.IOException;
 
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.addthis.basis.util.ClosableIterator;
 import com.addthis.basis.util.Parameter;
@@ -30,6 +33,7 @@ import com.addthis.hydra.store.db.DBKey;
 import com.addthis.hydra.store.db.IPageDB.Range;
 import com.addthis.hydra.store.db.ReadPageDB;
 import com.addthis.hydra.store.kv.ReadExternalPagedStore;
+import com.addthis.hydra.store.kv.SharedReadCache;
 import com.addthis.hydra.store.util.Raw;
 
 import com.google.common.cache.CacheBuilder;
@@ -44,7 +48,9 @@ import org.slf4j.LoggerFactory;
  * Read-only Tree (for querying)
  * <p/>
  * Has a root file where it locates a database to use as its backing source.
- * Keeps a cache of tree nodes to save on loading frequently used nodes.
+ * Keeps a cache of tree nodes to save on loading frequently used nodes. When
+ * hydra.tree.cache.sharedBytes is set the nodes (and the pages of the backing
+ * store) are kept in the {@link SharedReadCache} shared by all read only trees.
  * <p/>
  * MUST BE CLOSED. It is not okay to simply dereference. (due to the bdb instance it uses).
  */
@@ -63,6 +69,12 @@ public final class ReadTree implements DataTree {
         If set to zero, then nodeCacheSize will be used and nodes will be unweighted */
     private static final int nodeCacheWeight = Parameter.intValue("hydra.tree.cache.nodeCacheWeight", nodeCacheSize * 24);
 
+    // weight of an average lean node. Used to estimate how many nodes fit in the node cache
+    static final int LEAN_NODE_WEIGHT = 24;
+
+    // open trees that keep their nodes in the shared cache. Each tree is budgeted an equal share of it
+    private static final AtomicInteger sharedTrees = new AtomicInteger();
+
 
     /*  max number of pages allowed to reside in memory. When pageCacheWeight is default, this value
         is used to calculate pageCacheWeight. With a default pageCacheWeight or with pageCacheWeight == 0,
@@ -80,15 +92,31 @@ public final class ReadTree implements DataTree {
     private final ReadPageDB<ReadTreeNode> source;
     private final ReadTreeNode treeRootNode;
     private final LoadingCache<CacheKey, ReadTreeNode> loadingNodeCache;
+    // used instead of loadingNodeCache when hydra.tree.cache.sharedBytes is set
+    private final SharedReadCache.Segment<CacheKey, ReadTreeNode> sharedNodeCache;
     private final AtomicBoolean closed = new AtomicBoolean(false);
     private final boolean metrics;
+    // node access counts since the last snapshot. null unless tracking is enabled
+    private final ConcurrentHashMap<CacheKey, AtomicInteger> accessCounts;
+    private final int trackedKeys;
 
     public ReadTree(File root) throws Exception {
         this(root, false);
     }
 
     public ReadTree(File root, boolean metrics) throws Exception {
+        this(root, metrics, 0);
+    }
+
+    /**
+     * @param trackedKeys if positive then count node accesses for up to this many
+     *                    keys so that {@link ReadTreeSnapshot snapshots} can record
+     *                    access frequencies
+     */
+    public ReadTree(File root, boolean metrics, int trackedKeys) throws Exception {
         this.metrics = metrics;
+        this.trackedKeys = trackedKeys;
+        this.accessCounts = (trackedKeys > 0) ? new ConcurrentHashMap<>() : null;
 
         if (!root.isDirectory()) {
             throw new IOException("Unable to open root directory '" + root + "'");
@@ -96,8 +124,17 @@ public final class ReadTree implements DataTree {
 
         this.root = root;
         source = initSource();
+        if (SharedReadCache.isEnabled()) {
+            sharedNodeCache = SharedReadCache.instance().segment("nodes:" + root.getPath(), this::loadNode,
+                                                                 ReadTreeNode::getWeight);
+            sharedTrees.incrementAndGet();
+        } else {
+            sharedNodeCache = null;
+        }
         try {
-            if (nodeCacheWeight != 0) {
+            if (sharedNodeCache != null) {
+                loadingNodeCache = null;
+            } else if (nodeCacheWeight != 0) {
                 // limit by weight
                 loadingNodeCache = CacheBuilder.newBuilder()
                         .maximumWeight(nodeCacheWeight)
@@ -116,13 +153,7 @@ public final class ReadTree implements DataTree {
                         .build(
                                 new CacheLoader<CacheKey, ReadTreeNode>() {
                                     public ReadTreeNode load(CacheKey key) throws Exception {
-                                        ReadTreeNode node = sourceGet(key.dbkey());
-                                        if (node != null) {
-                                            node.init(ReadTree.this, key.name);
-                                            return node;
-                                        } else {
-                                            throw new ExecutionException("Source did not have node", new NullPointerException());
-                                        }
+                                        return loadNode(key);
                                     }
                                 });
             } else {
@@ -132,13 +163,7 @@ public final class ReadTree implements DataTree {
                         .build(
                                 new CacheLoader<CacheKey, ReadTreeNode>() {
                                     public ReadTreeNode load(CacheKey key) throws Exception {
-                                        ReadTreeNode node = sourceGet(key.dbkey());
-                                        if (node != null) {
-                                            node.init(ReadTree.this, key.name);
-                                            return node;
-                                        } else {
-                                            throw new ExecutionException("Source did not have node", new NullPointerException());
-                                        }
+                                        return loadNode(key);
                                     }
                                 });
             }
@@ -147,11 +172,25 @@ public final class ReadTree implements DataTree {
                 throw new RuntimeException("missing root in readonly tree");
             }
         } catch (Exception e) {
+            if (sharedNodeCache != null) {
+                sharedNodeCache.close();
+                sharedTrees.decrementAndGet();
+            }
             source.close();
             throw e;
         }
     }
 
+    private ReadTreeNode loadNode(CacheKey key) throws Exception {
+        ReadTreeNode node = sourceGet(key.dbkey());
+        if (node != null) {
+            node.init(this, key.name);
+            return node;
+        } else {
+            throw new ExecutionException("Source did not have node", new NullPointerException());
+        }
+    }
+
     /**
      * Creates the ReadPageDB source object and also emits some timing metrics for that operation.
      *
@@ -176,6 +215,16 @@ public final class ReadTree implements DataTree {
      * be better than nothing.
      */
     public void warmCacheFrom(Iterable<CacheKey> keys) {
+        if (sharedNodeCache != null) {
+            for (CacheKey key : keys) {
+                try {
+                    sharedNodeCache.get(key);
+                } catch (ExecutionException e) {
+                    // expected if the node was deleted/pruned when job last ran
+                }
+            }
+            return;
+        }
         try {
             loadingNodeCache.getAll(keys);
         } catch (ExecutionException e) {
@@ -190,6 +239,9 @@ public final class ReadTree implements DataTree {
      * @return the iterable object
      */
     public Iterable<CacheKey> getCacheIterable() {
+        if (sharedNodeCache != null) {
+            return sharedNodeCache.keys();
+        }
         return loadingNodeCache.asMap().keySet();
     }
 
@@ -204,7 +256,10 @@ public final class ReadTree implements DataTree {
     protected ReadTreeNode getNode(int parentID, final String childName) {
         try {
             CacheKey key = new CacheKey(parentID, childName);
-            ReadTreeNode node = loadingNodeCache.get(key);
+            if (accessCounts != null) {
+                countAccess(key);
+            }
+            ReadTreeNode node = (sharedNodeCache != null) ? sharedNodeCache.get(key) : loadingNodeCache.get(key);
             if (log.isTraceEnabled()) {
                 log.trace("[node.get] " + parentID + " --> " + childName + " --> " + node);
             }
@@ -217,6 +272,82 @@ public final class ReadTree implements DataTree {
         }
     }
 
+    /**
+     * Returns the total weight of nodes that the node cache of a tree can hold.
+     * When the cache is limited by count every node weighs {@link #LEAN_NODE_WEIGHT}.
+     * When the cache is shared each open tree gets an equal share of it, so that
+     * warming one tree does not evict the nodes warmed for the others.
+     * Returns Long.MAX_VALUE if the cache is unbounded.
+     */
+    static long nodeCacheBudget() {
+        if (SharedReadCache.isEnabled()) {
+            return SharedReadCache.maxWeight() / Math.max(1, sharedTrees.get());
+        } else if (nodeCacheWeight != 0) {
+            return nodeCacheWeight;
+        } else if (nodeCacheSize > 0) {
+            return (long) nodeCacheSize * LEAN_NODE_WEIGHT;
+        } else {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Returns the weight that {@code node} counts against {@link #nodeCacheBudget()}.
+     */
+    static int cacheWeight(ReadTreeNode node) {
+        return (SharedReadCache.isEnabled() || (nodeCacheWeight != 0)) ? node.getWeight() : LEAN_NODE_WEIGHT;
+    }
+
+    /**
+     * Returns an estimate of the number of lean nodes that fit in the node cache of a tree.
+     */
+    public static int nodeCacheCapacity() {
+        return (int) Math.min(Integer.MAX_VALUE, nodeCacheBudget() / LEAN_NODE_WEIGHT);
+    }
+
+    private void countAccess(CacheKey key) {
+        AtomicInteger count = accessCounts.get(key);
+        if (count == null) {
+            if (accessCounts.size() >= trackedKeys) {
+                return;
+            }
+            count = accessCounts.computeIfAbsent(key, k -> new AtomicInteger());
+        }
+        count.incrementAndGet();
+    }
+
+    /**
+     * Adds {@code count} to the access count of {@code key}. Used to restore
+     * the counts recorded in a snapshot.
+     */
+    void seedAccessCount(CacheKey key, int count) {
+        if ((accessCounts != null) && (accessCounts.size() < trackedKeys)) {
+            accessCounts.computeIfAbsent(key, k -> new AtomicInteger()).addAndGet(count);
+        }
+    }
+
+    /**
+     * Returns the access count of every tracked key and halves the counts so that
+     * older accesses decay. Keys whose count reaches zero stop being tracked.
+     * Returns an empty map if tracking is not enabled.
+     */
+    Map<CacheKey, Integer> decayAccessCounts() {
+        Map<CacheKey, Integer> counts = new HashMap<>();
+        if (accessCounts == null) {
+            return counts;
+        }
+        Iterator<Map.Entry<CacheKey, AtomicInteger>> iterator = accessCounts.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<CacheKey, AtomicInteger> entry = iterator.next();
+            int count = entry.getValue().get();
+            counts.put(entry.getKey(), count);
+            if (entry.getValue().addAndGet(-((count + 1) / 2)) <= 0) {
+                iterator.remove();
+            }
+        }
+        return counts;
+    }
+
     /**
      * Returns a DataTreeNode given a ReadTreeNode parent node and the name of the child. Just
      * extracts the integer parent id from the parent node and then calls getNode(int, string).
@@ -299,6 +430,10 @@ public final class ReadTree implements DataTree {
         if (log.isDebugEnabled()) {
             log.debug("closing " + this);
         }
+        if (sharedNodeCache != null) {
+            sharedNodeCache.close();
+            sharedTrees.decrementAndGet();
+        }
         try {//source is final in read-tree
             source.close();
         } catch (Exception ex)  {
@@ -343,6 +478,14 @@ public final class ReadTree implements DataTree {
             return new DBKey(parentID, Raw.get(name));
         }
 
+        int parentID() {
+            return parentID;
+        }
+
+        String name() {
+            return name;
+        }
+
         @Override
         public boolean equals(Object key) {
             CacheKey ck = (CacheKey) key;
@@ -13,6 +13,7 @@
  */
 package com.addthis.hydra.data.tree;
 
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -24,6 +25,7 @@ import com.addthis.basis.util.MemoryCounter.Mem;
 import com.addthis.hydra.store.db.DBKey;
 import com.addthis.hydra.store.db.IPageDB.Range;
 import com.addthis.hydra.store.db.IReadWeighable;
+import com.addthis.hydra.store.kv.ValueDictionary;
 
 
 /**
@@ -77,7 +79,7 @@ public class ReadTreeNode extends AbstractTreeNode implements IReadWeighable {
         tn.nodes = nodes;
         tn.nodedb = nodedb;
         tn.bits = bits;
-        tn.data = data;
+        tn.data = decodeData();
         tn.tree = tree;
         return tn;
     }
@@ -164,13 +166,14 @@ public class ReadTreeNode extends AbstractTreeNode implements IReadWeighable {
 
     @Override
     public Map<String, TreeNodeData> getDataMap() {
-        return data;
+        return decodeData();
     }
 
     // TODO concurrent broken -- data classes should be responsible for their
     // own get/update sync
     @Override public DataTreeNodeActor getData(String key) {
-        return data != null ? data.get(key) : null;
+        HashMap<String, TreeNodeData> decoded = decodeData(key);
+        return decoded != null ? decoded.get(key) : null;
     }
 
     @Override
@@ -339,4 +342,9 @@ public class ReadTreeNode extends AbstractTreeNode implements IReadWeighable {
     public byte[] bytesEncode(long version) {
         throw new UnsupportedOperationException("ReadTreeNode cannot be encoded");
     }
+
+    @Override
+    public byte[] bytesEncode(long version, ValueDictionary dictionary) {
+        throw new UnsupportedOperationException("ReadTreeNode cannot be encoded");
+    }
 }
@@ -0,0 +1,161 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.tree;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import com.addthis.hydra.data.tree.ReadTree.CacheKey;
+import com.addthis.hydra.store.db.DBKey;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Saves and restores the hot node keys of a {@link ReadTree}.
+ * <p/>
+ * A snapshot lists the keys in the node cache and the keys with recent
+ * accesses, each with an access frequency. Only the most frequently used
+ * keys are kept. Replaying a snapshot loads only the hottest keys that fit
+ * in the node cache. They are loaded in batches from hottest to coldest so
+ * that a time limit drops the coldest keys. Within a batch nodes are loaded
+ * in key order, which is the order of the pages in the backing store, so
+ * that consecutive nodes are usually served from a page that was just read.
+ */
+public final class ReadTreeSnapshot {
+
+    private static final Logger log = LoggerFactory.getLogger(ReadTreeSnapshot.class);
+
+    private static final int MAGIC = 0x57524d31;
+
+    // number of keys replayed in page order before moving on to colder keys
+    private static final int REPLAY_BATCH = 1024;
+
+    private ReadTreeSnapshot() {
+    }
+
+    private static final class Entry {
+
+        final CacheKey key;
+        final int count;
+        DBKey dbkey;
+
+        Entry(CacheKey key, int count) {
+            this.key = key;
+            this.count = count;
+        }
+    }
+
+    /**
+     * Atomically replaces {@code file} with the up to {@code maxKeys}
+     * most frequently used keys of {@code tree}.
+     *
+     * @return the number of keys written
+     */
+    public static int write(ReadTree tree, File file, int maxKeys) throws IOException {
+        Map<CacheKey, Integer> counts = tree.decayAccessCounts();
+        Map<CacheKey, Integer> hot = new HashMap<>(counts);
+        for (CacheKey key : tree.getCacheIterable()) {
+            // being resident counts as one access
+            hot.merge(key, 1, Integer::sum);
+        }
+        List<Entry> entries = new ArrayList<>(hot.size());
+        for (Map.Entry<CacheKey, Integer> entry : hot.entrySet()) {
+            entries.add(new Entry(entry.getKey(), entry.getValue()));
+        }
+        entries.sort((a, b) -> Integer.compare(b.count, a.count));
+        int size = Math.min(maxKeys, entries.size());
+        Path target = file.toPath();
+        Path temp = target.resolveSibling(file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(size);
+            for (int i = 0; i < size; i++) {
+                Entry entry = entries.get(i);
+                byte[] name = entry.key.name().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(entry.key.parentID());
+                out.writeInt(name.length);
+                out.write(name);
+                out.writeInt(entry.count);
+            }
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return size;
+    }
+
+    /**
+     * Loads the most frequently used nodes listed in {@code file} into the
+     * cache of {@code tree} and restores their access counts. Loads at most
+     * {@code maxKeys} nodes and no more than fit in the node cache. Stops
+     * when {@code maxMillis} have elapsed.
+     *
+     * @return the number of nodes that were loaded
+     */
+    public static int warm(ReadTree tree, File file, int maxKeys, long maxMillis) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            if (in.readInt() != MAGIC) {
+                log.warn("ignoring snapshot {} with unknown format", file);
+                return 0;
+            }
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                int parentID = in.readInt();
+                byte[] name = new byte[in.readInt()];
+                in.readFully(name);
+                entries.add(new Entry(new CacheKey(parentID, new String(name, StandardCharsets.UTF_8)), in.readInt()));
+            }
+        }
+        entries.sort((a, b) -> Integer.compare(b.count, a.count));
+        int limit = Math.min(Math.min(maxKeys, ReadTree.nodeCacheCapacity()), entries.size());
+        long budget = ReadTree.nodeCacheBudget();
+        long weight = 0;
+        long deadline = System.currentTimeMillis() + maxMillis;
+        int loaded = 0;
+        for (int start = 0; start < limit; start += REPLAY_BATCH) {
+            List<Entry> batch = new ArrayList<>(entries.subList(start, Math.min(limit, start + REPLAY_BATCH)));
+            for (Entry entry : batch) {
+                entry.dbkey = entry.key.dbkey();
+            }
+            batch.sort((a, b) -> a.dbkey.compareTo(b.dbkey));
+            for (Entry entry : batch) {
+                if ((System.currentTimeMillis() > deadline) || (weight >= budget)) {
+                    return loaded;
+                }
+                ReadTreeNode node = tree.getNode(entry.key.parentID(), entry.key.name());
+                if (node != null) {
+                    loaded++;
+                    weight += ReadTree.cacheWeight(node);
+                    // getNode counted one access
+                    tree.seedAccessCount(entry.key, entry.count - 1);
+                }
+            }
+        }
+        return loaded;
+    }
+}
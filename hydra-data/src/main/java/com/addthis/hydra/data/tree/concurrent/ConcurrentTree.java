@@ -22,6 +22,7 @@ import java.io.UnsupportedEncodingException;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -83,6 +84,10 @@ public final class ConcurrentTree implements DataTree, MeterDataSource {
     @Configuration.Parameter
     static final int deletionLogInterval = Parameter.intValue("hydra.tree.clean.logging", 100000);
 
+    // maximum number of changed nodes written to the page db in a single batch by sync()
+    @Configuration.Parameter
+    static final int syncBatchSize = Parameter.intValue("hydra.tree.sync.batch", 1000);
+
     private static final AtomicInteger scopeGenerator = new AtomicInteger();
 
     private final String scope = "ConcurrentTree" + Integer.toString(scopeGenerator.getAndIncrement());
@@ -421,11 +426,19 @@ public final class ConcurrentTree implements DataTree, MeterDataSource {
     @Override
     public void sync() throws IOException {
         log.debug("[sync] start");
+        TreeMap<DBKey, ConcurrentTreeNode> batch = new TreeMap<>();
         for (ConcurrentTreeNode node : cache.values()) {
             if (!node.isDeleted() && node.isChanged()) {
-                source.put(node.dbkey, node);
+                batch.put(node.dbkey, node);
+                if (batch.size() >= syncBatchSize) {
+                    source.putAll(batch);
+                    batch.clear();
+                }
             }
         }
+        if (!batch.isEmpty()) {
+            source.putAll(batch);
+        }
         log.debug("[sync] end nextdb={}", nextDBID);
         Files.write(idFile, Bytes.toBytes(nextDBID.toString()), false);
     }
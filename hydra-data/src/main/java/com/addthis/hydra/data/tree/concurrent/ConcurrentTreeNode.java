@@ -126,7 +126,7 @@ public class ConcurrentTreeNode extends AbstractTreeNode {
 
     @Override @SuppressWarnings("unchecked")
     public Map<String, TreeNodeData> getDataMap() {
-        return data;
+        return decodeData();
     }
 
     public boolean hasNodes() {
@@ -380,6 +380,7 @@ public class ConcurrentTreeNode extends AbstractTreeNode {
     }
 
     HashMap<String, TreeNodeData> createMap() {
+        decodeData();
         if (data == null) {
             data = new HashMap<>();
         }
@@ -405,6 +406,7 @@ public class ConcurrentTreeNode extends AbstractTreeNode {
                 updated = true;
             }
             if (dataconf != null) {
+                decodeData();
                 if (data == null) {
                     data = new HashMap<>(dataconf.size());
                 }
@@ -436,7 +438,7 @@ public class ConcurrentTreeNode extends AbstractTreeNode {
         List<TreeNodeDataDeferredOperation> deferredOps = null;
         lock.writeLock().lock();
         try {
-            if (child != null && data != null) {
+            if (child != null && decodeData() != null) {
                 deferredOps = new ArrayList<>(1);
                 for (TreeNodeData<?> tnd : data.values()) {
                     if (isnew && tnd.updateParentNewChild(state, this, child, deferredOps)) {
@@ -462,7 +464,8 @@ public class ConcurrentTreeNode extends AbstractTreeNode {
     @Override public DataTreeNodeActor getData(String key) {
         lock.readLock().lock();
         try {
-            return data != null ? data.get(key) : null;
+            HashMap<String, TreeNodeData> decoded = decodeData(key);
+            return decoded != null ? decoded.get(key) : null;
         } finally {
             lock.readLock().unlock();
         }
@@ -473,10 +476,7 @@ public class ConcurrentTreeNode extends AbstractTreeNode {
     public Collection<String> getDataFields() {
         lock.readLock().lock();
         try {
-            if (data == null || data.size() == 0) {
-                return null;
-            }
-            return data.keySet();
+            return dataFields();
         } finally {
             lock.readLock().unlock();
         }
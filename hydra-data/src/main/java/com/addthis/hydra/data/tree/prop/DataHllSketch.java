@@ -0,0 +1,149 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.tree.prop;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleField;
+import com.addthis.bundle.value.ValueFactory;
+import com.addthis.bundle.value.ValueMapEntry;
+import com.addthis.bundle.value.ValueObject;
+import com.addthis.codec.annotations.FieldConfig;
+import com.addthis.codec.codables.SuperCodable;
+import com.addthis.hydra.data.tree.DataTreeNode;
+import com.addthis.hydra.data.tree.DataTreeNodeUpdater;
+import com.addthis.hydra.data.tree.TreeDataParameters;
+import com.addthis.hydra.data.tree.TreeNodeData;
+import com.addthis.hydra.data.util.HllSketch;
+
+public class DataHllSketch extends TreeNodeData<DataHllSketch.Config> implements SuperCodable {
+
+    /**
+     * This data attachment keeps a <span class="hydra-summary">mergeable HyperLogLog++
+     * cardinality sketch of a field</span>.
+     * <p/>
+     * <p>Unlike the {@link DataCounting count} attachment the default query output is the
+     * serialized sketch. Sketches from different tasks can be combined on the query master
+     * with the "U" column type of the merge, gather and sketch query operations, so that a
+     * distinct count across all tasks is computed without shipping the distinct keys.</p>
+     * <p/>
+     * <p>Job Configuration Example:</p>
+     * <pre>
+     * {type : "value", key : "DATE_YMD", data : {
+     *   ips : {type : "hll.sketch", key : "IP"},
+     * }},</pre>
+     *
+     * <p><b>Query Path Directives</b>
+     *
+     * <pre>"$" operations support the following commands in the format $+{attachment}={command}:
+     *
+     *   count : the cardinality estimation.</pre>
+     *
+     * <p>If no command is specified then the serialized sketch is returned as bytes.
+     *
+     * <p>"%" operations are not supported.
+     *
+     * <p>Query Path Example:</p>
+     * <pre>
+     *     /+130101$+ips
+     * </pre>
+     *
+     * @user-reference
+     * @hydra-name hll.sketch
+     */
+    public static final class Config extends TreeDataParameters<DataHllSketch> {
+
+        /**
+         * Field to estimate the cardinality of. This field is required.
+         */
+        @FieldConfig(codable = true, required = true)
+        private String key;
+
+        /**
+         * The number of bits of precision used in the normal mode of the estimator.
+         * Sketches can only be merged if they use the same precision. Default is 14.
+         */
+        @FieldConfig(codable = true)
+        private int p = 14;
+
+        /**
+         * The number of bits of precision used in the sparse mode of the estimator.
+         * Default is 25.
+         */
+        @FieldConfig(codable = true)
+        private int sp = 25;
+
+        @Override
+        public DataHllSketch newInstance() {
+            DataHllSketch sketch = new DataHllSketch();
+            sketch.sketch = new HllSketch(p, sp);
+            return sketch;
+        }
+    }
+
+    @FieldConfig(codable = true)
+    private byte[] raw;
+
+    private HllSketch sketch;
+    private BundleField keyAccess;
+
+    @Override
+    public boolean updateChildData(DataTreeNodeUpdater state, DataTreeNode tn, Config conf) {
+        Bundle p = state.getBundle();
+        if (keyAccess == null) {
+            keyAccess = p.getFormat().getField(conf.key);
+        }
+        return offer(p.getValue(keyAccess));
+    }
+
+    private boolean offer(ValueObject value) {
+        if (value == null) {
+            return false;
+        }
+        switch (value.getObjectType()) {
+            case ARRAY:
+                boolean updated = false;
+                for (ValueObject o : value.asArray()) {
+                    updated |= offer(o);
+                }
+                return updated;
+            case MAP:
+                for (ValueMapEntry o : value.asMap()) {
+                    sketch.offer(o.getKey());
+                }
+                return true;
+            default:
+                sketch.offer(value.toString());
+                return true;
+        }
+    }
+
+    @Override
+    public ValueObject getValue(String key) {
+        if (key == null || key.isEmpty()) {
+            return ValueFactory.create(sketch.toBytes());
+        }
+        return sketch.evaluate(key);
+    }
+
+    @Override
+    public void postDecode() {
+        sketch = HllSketch.fromBytes(raw);
+        raw = null;
+    }
+
+    @Override
+    public void preEncode() {
+        raw = sketch.toBytes();
+    }
+}
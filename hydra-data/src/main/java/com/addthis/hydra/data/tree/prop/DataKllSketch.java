@@ -0,0 +1,125 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.tree.prop;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleField;
+import com.addthis.bundle.util.ValueUtil;
+import com.addthis.bundle.value.Numeric;
+import com.addthis.bundle.value.ValueFactory;
+import com.addthis.bundle.value.ValueObject;
+import com.addthis.codec.annotations.FieldConfig;
+import com.addthis.codec.codables.SuperCodable;
+import com.addthis.hydra.data.tree.DataTreeNode;
+import com.addthis.hydra.data.tree.DataTreeNodeUpdater;
+import com.addthis.hydra.data.tree.TreeDataParameters;
+import com.addthis.hydra.data.tree.TreeNodeData;
+import com.addthis.hydra.data.util.KllSketch;
+
+public class DataKllSketch extends TreeNodeData<DataKllSketch.Config> implements SuperCodable {
+
+    /**
+     * This data attachment keeps a <span class="hydra-summary">mergeable KLL
+     * quantile sketch of a numeric field</span>.
+     * <p/>
+     * <p>The default query output is the serialized sketch. Sketches from different tasks
+     * can be combined on the query master with the "U" column type of the merge, gather
+     * and sketch query operations, so that quantiles across all tasks are computed without
+     * shipping the individual values.</p>
+     * <p/>
+     * <p>Job Configuration Example:</p>
+     * <pre>
+     *     {type:"counts", value:"service", data:{
+     *         latency:{type:"kll.sketch", key:"TIME", k:200},
+     *     }}
+     * </pre>
+     *
+     * <p><b>Query Path Directives</b></p>
+     *
+     * <pre>"$" operations support the following commands in the format $+{attachment}={command}:
+     *  count : the number of values inserted into the sketch
+     *  min : the smallest value inserted into the sketch
+     *  max : the largest value inserted into the sketch
+     *  quantile(x) : the approximate value at quantile x (x must be between 0 and 1)
+     *  cdf(x) : the approximate fraction of values that are less than or equal to x
+     * </pre>
+     *
+     * <p>If no command is specified then the serialized sketch is returned as bytes.
+     *
+     * @user-reference
+     * @hydra-name kll.sketch
+     */
+    public static final class Config extends TreeDataParameters<DataKllSketch> {
+
+        /**
+         * Bundle field name from which to insert values into the sketch.
+         * This field is required.
+         */
+        @FieldConfig(codable = true, required = true)
+        private String key;
+
+        /**
+         * Trades accuracy for size. The rank error is roughly 1.7 / k
+         * and the sketch keeps about 3 k values. Default is 200.
+         */
+        @FieldConfig(codable = true)
+        private int k = KllSketch.DEFAULT_K;
+
+        @Override
+        public DataKllSketch newInstance() {
+            DataKllSketch sketch = new DataKllSketch();
+            sketch.sketch = new KllSketch(k);
+            return sketch;
+        }
+    }
+
+    @FieldConfig(codable = true)
+    private byte[] raw;
+
+    private KllSketch sketch;
+    private BundleField valueAccess;
+
+    @Override
+    public boolean updateChildData(DataTreeNodeUpdater state, DataTreeNode childNode, Config conf) {
+        Bundle p = state.getBundle();
+        if (valueAccess == null) {
+            valueAccess = p.getFormat().getField(conf.key);
+        }
+        Numeric o = ValueUtil.asNumberOrParseDouble(p.getValue(valueAccess));
+        if (o != null) {
+            sketch.offer(o.asDouble().getDouble());
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public ValueObject getValue(String key) {
+        if (key == null || key.isEmpty()) {
+            return ValueFactory.create(sketch.toBytes());
+        }
+        return sketch.evaluate(key);
+    }
+
+    @Override
+    public void postDecode() {
+        sketch = KllSketch.fromBytes(raw);
+        raw = null;
+    }
+
+    @Override
+    public void preEncode() {
+        raw = sketch.toBytes();
+    }
+}
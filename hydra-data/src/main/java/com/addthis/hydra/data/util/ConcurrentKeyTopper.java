@@ -15,13 +15,9 @@ package com.addthis.hydra.data.util;
 
 import javax.annotation.Nonnull;
 
-import java.io.UnsupportedEncodingException;
-
-import java.util.Arrays;
-import java.util.Comparator;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicReference;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import java.nio.charset.StandardCharsets;
 
 import com.addthis.basis.collect.ConcurrentHashMapV8;
 import com.addthis.basis.util.MemoryCounter;
@@ -38,6 +34,10 @@ import io.netty.buffer.Unpooled;
 /**
  * Class that helps maintain a top N list for any String Map TODO should move
  * into basis libraries
+ * <p/>
+ * The keys and counts are held in a {@link HeapKeyTopper} so that
+ * increments do not box the counts and evicting the smallest key
+ * does not scan the map. All methods synchronize on the topper.
  */
 public final class ConcurrentKeyTopper implements SuperCodable, BytesCodable {
 
@@ -46,8 +46,11 @@ public final class ConcurrentKeyTopper implements SuperCodable, BytesCodable {
     public ConcurrentKeyTopper() {
     }
 
+    /**
+     * Only populated around codec serialization. The
+     * counts are stored in {@link #heap} at all other times.
+     */
     @FieldConfig(codable = true, required = true)
-//  @MemoryCounter.Mem(estimate = false, size = 50000)
     private ConcurrentHashMapV8<String, Long> map;
 
     @SuppressWarnings("unused")
@@ -61,29 +64,24 @@ public final class ConcurrentKeyTopper implements SuperCodable, BytesCodable {
     @FieldConfig(codable = true)
     private boolean lossy;
 
-    // If maxSizeLimit is true then map.size() >= maxSize
-    private volatile boolean maxSizeLimit = false;
-
     @MemoryCounter.Mem(estimate = false, size = 64)
-    private final AtomicReference<String> staging = new AtomicReference<>();
+    private HeapKeyTopper heap = new HeapKeyTopper();
 
-    @MemoryCounter.Mem(estimate = false, size = 64)
-    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private String staging;
 
     @Override
-    public String toString() {
-        return "topper(map:" + map.toString() + ",lossy:" + lossy + ")";
+    public synchronized String toString() {
+        return "topper(map:" + heap.toString() + ",lossy:" + lossy + ")";
     }
 
-    public ConcurrentKeyTopper init(int size) {
-        map = new ConcurrentHashMapV8<>(size + 16, 0.75f, 4);
+    public synchronized ConcurrentKeyTopper init(int size) {
+        heap = new HeapKeyTopper(size);
         this.lossy = true;
-
         return this;
     }
 
-    public ConcurrentKeyTopper init() {
-        map = new ConcurrentHashMapV8<>(16, 0.75f, 4);
+    public synchronized ConcurrentKeyTopper init() {
+        heap = new HeapKeyTopper();
         this.lossy = true;
         return this;
     }
@@ -93,102 +91,19 @@ public final class ConcurrentKeyTopper implements SuperCodable, BytesCodable {
         return lossy;
     }
 
-    public int size() {
-        return map.size();
+    public synchronized int size() {
+        return heap.size();
     }
 
-    public Long get(String key) {
-        return map.get(key);
-    }
-
-    private String findMinKey() {
-        String minKey = null;
-        long minValue = Long.MAX_VALUE;
-        for (Map.Entry<String, Long> entry : map.entrySet()) {
-            long value = entry.getValue();
-            if (value < minValue) {
-                minValue = value;
-                minKey = entry.getKey();
-            }
-        }
-
-        return minKey;
+    public synchronized Long get(String key) {
+        return heap.containsKey(key) ? heap.get(key, 0) : null;
     }
 
     /**
      * returns the list sorted by greatest to least count.
      */
-    @SuppressWarnings("unchecked")
-    public Map.Entry<String, Long>[] getSortedEntries() {
-        lock.readLock().lock();
-
-        try {
-            int size = map.size();
-            Map.Entry[] e = new Map.Entry[size];
-            e = map.entrySet().toArray(e);
-            Arrays.sort(e, new Comparator() {
-                public int compare(Object arg0, Object arg1) {
-                    return Long.compare(
-                            ((Map.Entry<String, Long>) arg1).getValue(),
-                            ((Map.Entry<String, Long>) arg0).getValue());
-                }
-            });
-            return e;
-        } finally {
-            lock.readLock().unlock();
-        }
-    }
-
-    /**
-     * Precondition: the readlock is held
-     * Postcondition: the readlock is held
-     */
-    private String evictAnotherKey(@Nonnull String newKey, int weight) {
-        assert (weight > 0);
-
-        lock.readLock().unlock();
-        boolean writeLock = false;
-
-        try {
-            lock.writeLock().lock();
-            writeLock = true;
-
-            if (map.containsKey(newKey)) {
-                return null;
-            }
-
-            // the staging area is only used when weight is one
-            if (weight == 1) {
-                String currentStage = staging.get();
-
-                if (!newKey.equals(currentStage)) {
-                    return null;
-                }
-            }
-
-            String key = findMinKey();
-
-            long minValue = map.get(key);
-
-            map.remove(key);
-
-            // if weight is one then we used the staging area
-            // and that should be counted as an instance
-            if (weight == 1) {
-                map.put(newKey, minValue + 1);
-                staging.set(null);
-            } else {
-                map.put(newKey, minValue + weight - 1);
-            }
-
-            return key;
-        } finally {
-            lock.readLock().lock();
-
-            if (writeLock) {
-                lock.writeLock().unlock();
-            }
-        }
+    public synchronized Map.Entry<String, Long>[] getSortedEntries() {
+        return heap.getSortedEntries();
     }
 
     /**
@@ -210,43 +125,28 @@ public final class ConcurrentKeyTopper implements SuperCodable, BytesCodable {
      * @return element dropped from top or null if accepted into top with no
      * drops
      */
-    public String increment(@Nonnull String id, int weight, int maxSize) {
+    public synchronized String increment(@Nonnull String id, int weight, int maxSize) {
         assert (weight > 0);
 
-        lock.readLock().lock();
-
-        try {
-            while (true) {
-                Long currentValue = map.get(id);
-                if (currentValue == null) {
-                    if (!maxSizeLimit && map.size() < maxSize) {
-                        if (map.putIfAbsent(id, (long) weight) == null) {
-                            return null;
-                        }
-                    } else {
-                        maxSizeLimit = true;
-                        if (weight == 1) {
-                            String currentStage = staging.get();
-                            if (!id.equals(currentStage)) {
-                                if (staging.compareAndSet(currentStage, id)) {
-                                    return currentStage;
-                                } else {
-                                    continue;
-                                }
-                            }
-                        }
-                        String evicted = evictAnotherKey(id, weight);
-                        if (evicted != null) {
-                            return evicted;
-                        }
-                    }
-                } else if (map.replace(id, currentValue, currentValue + weight)) {
-                    return null;
-                }
+        if (heap.incrementExisting(id, weight)) {
+            return null;
+        }
+        if (heap.size() < maxSize) {
+            heap.add(id, weight);
+            return null;
+        }
+        // the staging area is only used when weight is one. A key
+        // must be seen twice in a row before it evicts the smallest key.
+        if (weight == 1) {
+            if (!id.equals(staging)) {
+                String previous = staging;
+                staging = id;
+                return previous;
             }
-        } finally {
-            lock.readLock().unlock();
+            staging = null;
+            return heap.replaceMin(id, 1);
         }
+        return heap.replaceMin(id, weight - 1);
     }
 
     /**
@@ -259,100 +159,75 @@ public final class ConcurrentKeyTopper implements SuperCodable, BytesCodable {
      * @return whether the element was in the map
      */
     @SuppressWarnings("unused")
-    public boolean incrementExisting(String id) {
-        lock.readLock().lock();
-
-        try {
-            while (true) {
-                Long currentValue = map.get(id);
-                if (currentValue == null) {
-                    return false;
-                } else if (map.replace(id, currentValue, currentValue + 1)) {
-                    return true;
-                }
-            }
-        } finally {
-            lock.readLock().unlock();
-        }
+    public synchronized boolean incrementExisting(String id) {
+        return heap.incrementExisting(id, 1);
     }
 
     @Override
-    public void postDecode() {
+    public synchronized void postDecode() {
+        if (map != null) {
+            heap = new HeapKeyTopper(map.size());
+            for (Map.Entry<String, Long> entry : map.entrySet()) {
+                heap.add(entry.getKey(), entry.getValue());
+            }
+            map = null;
+        }
     }
 
     @Override
-    public void preEncode() {
-        String key = findMinKey();
-
-        if (key != null) {
-            minKey = key;
-            minVal = map.get(key);
+    public synchronized void preEncode() {
+        map = new ConcurrentHashMapV8<>(heap.size() + 16, 0.75f, 4);
+        heap.forEach(map::put);
+        if (!heap.isEmpty()) {
+            minKey = heap.minKey();
+            minVal = heap.minCount();
         }
     }
 
     @Override
-    public byte[] bytesEncode(long version) {
-        preEncode();
-        if (map.size() == 0) {
+    public synchronized byte[] bytesEncode(long version) {
+        if (heap.isEmpty()) {
             return EMPTY;
         }
-        byte[] retBytes = null;
         ByteBuf byteBuf = PooledByteBufAllocator.DEFAULT.buffer();
         try {
-            Varint.writeUnsignedVarInt(map.size(), byteBuf);
-            for (Map.Entry<String, Long> mapEntry : map.entrySet()) {
-                String key = mapEntry.getKey();
-                if (key == null) {
-                    throw new IllegalStateException("ConcurrentKeyTopper decoded null key");
-                }
-                byte[] keyBytes = key.getBytes("UTF-8");
+            Varint.writeUnsignedVarInt(heap.size(), byteBuf);
+            heap.forEach((key, count) -> {
+                byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
                 Varint.writeUnsignedVarInt(keyBytes.length, byteBuf);
                 byteBuf.writeBytes(keyBytes);
-                Varint.writeUnsignedVarLong(mapEntry.getValue(), byteBuf);
-            }
-            retBytes = new byte[byteBuf.readableBytes()];
+                Varint.writeUnsignedVarLong(count, byteBuf);
+            });
+            byte[] retBytes = new byte[byteBuf.readableBytes()];
             byteBuf.readBytes(retBytes);
-        } catch (UnsupportedEncodingException e) {
-            e.printStackTrace();
-            throw new RuntimeException(e);
+            return retBytes;
         } finally {
             byteBuf.release();
         }
-        return retBytes;
-
     }
 
     @Override
-    public void bytesDecode(byte[] b, long version) {
+    public synchronized void bytesDecode(byte[] b, long version) {
+        map = null;
         if (b.length == 0) {
-            map = new ConcurrentHashMapV8<>(16, 0.75f, 4);
+            heap = new HeapKeyTopper();
             return;
         }
         ByteBuf byteBuf = Unpooled.wrappedBuffer(b);
         try {
             int mapSize = Varint.readUnsignedVarInt(byteBuf);
-            int i;
-            try {
-                if (mapSize > 0) {
-                    map = new ConcurrentHashMapV8<>(mapSize + 16, 0.75f, 4);
-                    for (i = 0; i < mapSize; i++) {
-                        int keyLength = Varint.readUnsignedVarInt(byteBuf);
-                        byte[] keybytes = new byte[keyLength];
-                        byteBuf.readBytes(keybytes);
-                        String k = new String(keybytes, "UTF-8");
-                        long value = Varint.readUnsignedVarLong(byteBuf);
-                        map.put(k, value);
-                    }
-                } else {
-                    map = new ConcurrentHashMapV8<>(16, 0.75f, 4);
-                }
-            } catch (Exception e) {
-                throw new RuntimeException(e);
+            heap = new HeapKeyTopper(mapSize);
+            for (int i = 0; i < mapSize; i++) {
+                int keyLength = Varint.readUnsignedVarInt(byteBuf);
+                String k = byteBuf.toString(byteBuf.readerIndex(), keyLength, StandardCharsets.UTF_8);
+                byteBuf.skipBytes(keyLength);
+                long value = Varint.readUnsignedVarLong(byteBuf);
+                heap.add(k, value);
             }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
         } finally {
             byteBuf.release();
         }
-        postDecode();
-
     }
 }
@@ -0,0 +1,300 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.util;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Counts for a bounded number of string keys. Keys are held in an open
+ * addressing table with linear probing and the counts in a parallel
+ * {@code long[]} so that updating a count neither boxes nor allocates.
+ * An indexed min-heap over the entries yields the smallest count in
+ * constant time and restores its order in O(log n) after an update
+ * or after the smallest entry is replaced.
+ * <p/>
+ * This class is not thread safe.
+ */
+public final class HeapKeyTopper {
+
+    private static final int MIN_ENTRIES = 8;
+
+    /**
+     * Entries are stored densely in [0, size).
+     */
+    private String[] keys;
+    private int[] hashes;
+    private long[] counts;
+
+    /**
+     * heap[i] is the entry at heap position i. position[e] is the heap position of entry e.
+     */
+    private int[] heap;
+    private int[] position;
+
+    /**
+     * Open addressing table of entry index + 1. Zero marks an empty slot.
+     */
+    private int[] table;
+    private int size;
+
+    public HeapKeyTopper() {
+        this(MIN_ENTRIES);
+    }
+
+    public HeapKeyTopper(int expectedSize) {
+        allocate(Math.max(MIN_ENTRIES, expectedSize));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(String key) {
+        return find(key) >= 0;
+    }
+
+    /**
+     * Returns the count of {@code key} or {@code absent} if the key is not present.
+     */
+    public long get(String key, long absent) {
+        int entry = find(key);
+        return (entry >= 0) ? counts[entry] : absent;
+    }
+
+    /**
+     * Adds {@code delta} to the count of {@code key} if it is present.
+     *
+     * @return true if the key was present
+     */
+    public boolean incrementExisting(String key, long delta) {
+        int entry = find(key);
+        if (entry < 0) {
+            return false;
+        }
+        update(entry, counts[entry] + delta);
+        return true;
+    }
+
+    /**
+     * Adds {@code key} with {@code count}. The key must not be present.
+     */
+    public void add(String key, long count) {
+        if (size == keys.length) {
+            allocate(size * 2);
+        }
+        int entry = size++;
+        keys[entry] = key;
+        hashes[entry] = hash(key);
+        counts[entry] = count;
+        tableInsert(entry);
+        heap[entry] = entry;
+        position[entry] = entry;
+        siftUp(entry);
+    }
+
+    /**
+     * Returns the key with the smallest count or null if empty.
+     */
+    public String minKey() {
+        return (size > 0) ? keys[heap[0]] : null;
+    }
+
+    /**
+     * Returns the smallest count or zero if empty.
+     */
+    public long minCount() {
+        return (size > 0) ? counts[heap[0]] : 0;
+    }
+
+    /**
+     * Replaces the key with the smallest count with {@code key}. The new key
+     * starts with the count of the replaced key plus {@code delta}. The new
+     * key must not be present and the topper must not be empty.
+     *
+     * @return the key that was removed
+     */
+    public String replaceMin(String key, long delta) {
+        int entry = heap[0];
+        String removed = keys[entry];
+        tableRemove(entry);
+        keys[entry] = key;
+        hashes[entry] = hash(key);
+        tableInsert(entry);
+        update(entry, counts[entry] + delta);
+        return removed;
+    }
+
+    /**
+     * Calls {@code consumer} for every entry in no particular order.
+     */
+    public void forEach(ObjLongConsumer<String> consumer) {
+        for (int i = 0; i < size; i++) {
+            consumer.accept(keys[i], counts[i]);
+        }
+    }
+
+    /**
+     * Returns the entries sorted by greatest to least count.
+     */
+    @SuppressWarnings("unchecked")
+    public Map.Entry<String, Long>[] getSortedEntries() {
+        Map.Entry<String, Long>[] entries = new Map.Entry[size];
+        for (int i = 0; i < size; i++) {
+            entries[i] = new AbstractMap.SimpleImmutableEntry<>(keys[i], counts[i]);
+        }
+        Arrays.sort(entries, (a, b) -> Long.compare(b.getValue(), a.getValue()));
+        return entries;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(keys[i]).append('=').append(counts[i]);
+        }
+        return builder.append('}').toString();
+    }
+
+    private void update(int entry, long count) {
+        long previous = counts[entry];
+        counts[entry] = count;
+        if (count > previous) {
+            siftDown(position[entry]);
+        } else if (count < previous) {
+            siftUp(position[entry]);
+        }
+    }
+
+    private void siftUp(int pos) {
+        int entry = heap[pos];
+        long count = counts[entry];
+        while (pos > 0) {
+            int parent = (pos - 1) >>> 1;
+            int parentEntry = heap[parent];
+            if (counts[parentEntry] <= count) {
+                break;
+            }
+            heap[pos] = parentEntry;
+            position[parentEntry] = pos;
+            pos = parent;
+        }
+        heap[pos] = entry;
+        position[entry] = pos;
+    }
+
+    private void siftDown(int pos) {
+        int entry = heap[pos];
+        long count = counts[entry];
+        int half = size >>> 1;
+        while (pos < half) {
+            int child = (pos << 1) + 1;
+            int childEntry = heap[child];
+            int right = child + 1;
+            if (right < size && counts[heap[right]] < counts[childEntry]) {
+                child = right;
+                childEntry = heap[child];
+            }
+            if (count <= counts[childEntry]) {
+                break;
+            }
+            heap[pos] = childEntry;
+            position[childEntry] = pos;
+            pos = child;
+        }
+        heap[pos] = entry;
+        position[entry] = pos;
+    }
+
+    private static int hash(String key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int find(String key) {
+        int h = hash(key);
+        int mask = table.length - 1;
+        for (int slot = h & mask; ; slot = (slot + 1) & mask) {
+            int entry = table[slot] - 1;
+            if (entry < 0) {
+                return -1;
+            }
+            if (hashes[entry] == h && keys[entry].equals(key)) {
+                return entry;
+            }
+        }
+    }
+
+    private void tableInsert(int entry) {
+        int mask = table.length - 1;
+        int slot = hashes[entry] & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = entry + 1;
+    }
+
+    /**
+     * Remove an entry from the table and shift back the entries
+     * that follow it so that no tombstones are needed.
+     */
+    private void tableRemove(int entry) {
+        int mask = table.length - 1;
+        int slot = hashes[entry] & mask;
+        while (table[slot] != entry + 1) {
+            slot = (slot + 1) & mask;
+        }
+        int hole = slot;
+        for (int next = (hole + 1) & mask; table[next] != 0; next = (next + 1) & mask) {
+            int home = hashes[table[next] - 1] & mask;
+            // move the entry into the hole unless its home slot lies cyclically in (hole, next]
+            boolean stays = (hole <= next) ? (hole < home && home <= next) : (hole < home || home <= next);
+            if (!stays) {
+                table[hole] = table[next];
+                hole = next;
+            }
+        }
+        table[hole] = 0;
+    }
+
+    private void allocate(int capacity) {
+        if (keys == null) {
+            keys = new String[capacity];
+            hashes = new int[capacity];
+            counts = new long[capacity];
+            heap = new int[capacity];
+            position = new int[capacity];
+        } else {
+            keys = Arrays.copyOf(keys, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            heap = Arrays.copyOf(heap, capacity);
+            position = Arrays.copyOf(position, capacity);
+        }
+        // keep the table at most half full
+        table = new int[Integer.highestOneBit(capacity * 2 - 1) << 1];
+        for (int i = 0; i < size; i++) {
+            tableInsert(i);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.util;
+
+import java.io.IOException;
+
+import java.util.Arrays;
+
+import com.addthis.bundle.value.ValueFactory;
+import com.addthis.bundle.value.ValueObject;
+
+import com.clearspring.analytics.stream.cardinality.CardinalityMergeException;
+import com.clearspring.analytics.stream.cardinality.HyperLogLogPlus;
+
+/**
+ * Cardinality sketch backed by a HyperLogLog++ estimator.
+ * The only supported command is "count".
+ */
+public final class HllSketch implements MergeableSketch {
+
+    private final HyperLogLogPlus hll;
+
+    public HllSketch(int p, int sp) {
+        this(new HyperLogLogPlus(p, sp));
+    }
+
+    private HllSketch(HyperLogLogPlus hll) {
+        this.hll = hll;
+    }
+
+    public void offer(Object value) {
+        hll.offer(value);
+    }
+
+    public long cardinality() {
+        return hll.cardinality();
+    }
+
+    @Override
+    public void merge(MergeableSketch other) {
+        if (!(other instanceof HllSketch)) {
+            throw new IllegalArgumentException("cannot merge " + other.getClass().getSimpleName() + " into hll");
+        }
+        try {
+            hll.addAll(((HllSketch) other).hll);
+        } catch (CardinalityMergeException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    @Override
+    public byte[] toBytes() {
+        try {
+            byte[] raw = hll.getBytes();
+            byte[] bytes = new byte[raw.length + 1];
+            bytes[0] = TYPE_HLL;
+            System.arraycopy(raw, 0, bytes, 1, raw.length);
+            return bytes;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public ValueObject evaluate(String command) {
+        if ("count".equals(command)) {
+            return ValueFactory.create(hll.cardinality());
+        }
+        throw new IllegalArgumentException("unsupported hll command " + command);
+    }
+
+    public static HllSketch fromBytes(byte[] bytes) {
+        if (bytes[0] != TYPE_HLL) {
+            throw new IllegalArgumentException("not an hll sketch");
+        }
+        try {
+            return new HllSketch(HyperLogLogPlus.Builder.build(Arrays.copyOfRange(bytes, 1, bytes.length)));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.util;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.addthis.basis.util.Varint;
+
+import com.addthis.bundle.value.ValueFactory;
+import com.addthis.bundle.value.ValueObject;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+
+/**
+ * Quantile sketch following Karnin, Lang and Liberty, "Optimal Quantile
+ * Approximation in Streams". Values are kept in a stack of compactors.
+ * An item at level h stands for 2^h input values. When the sketch is full
+ * the lowest full compactor is sorted and every other item is promoted to
+ * the next level. Capacities shrink geometrically towards the bottom of the
+ * stack so the size of the sketch is dominated by {@code k}.
+ * <p/>
+ * Supported commands are "count", "min", "max", "quantile(q)" and "cdf(x)".
+ */
+public final class KllSketch implements MergeableSketch {
+
+    public static final int DEFAULT_K = 200;
+
+    private static final double CAPACITY_DECAY = 2.0 / 3.0;
+
+    private final int k;
+    private long n;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    private double[][] levels = new double[0][];
+    private int[] sizes = new int[0];
+    private int numLevels;
+    private int totalSize;
+    private int maxSize;
+
+    public KllSketch() {
+        this(DEFAULT_K);
+    }
+
+    public KllSketch(int k) {
+        if (k < 8) {
+            throw new IllegalArgumentException("k must be at least 8");
+        }
+        this.k = k;
+        grow();
+    }
+
+    public long count() {
+        return n;
+    }
+
+    public void offer(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        append(0, value);
+        n++;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        if (++totalSize >= maxSize) {
+            compress();
+        }
+    }
+
+    /**
+     * Returns an approximation of the value at rank {@code q * count()} or NaN if empty.
+     */
+    public double quantile(double q) {
+        if (n == 0) {
+            return Double.NaN;
+        }
+        if (q <= 0) {
+            return min;
+        }
+        if (q >= 1) {
+            return max;
+        }
+        Sorted sorted = sorted();
+        double target = q * sorted.cumulative[sorted.values.length - 1];
+        for (int i = 0; i < sorted.values.length; i++) {
+            if (sorted.cumulative[i] >= target) {
+                return sorted.values[i];
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Returns an approximation of the fraction of values that are less than or equal to {@code x}.
+     */
+    public double cdf(double x) {
+        if (n == 0) {
+            return Double.NaN;
+        }
+        long below = 0;
+        long total = 0;
+        for (int h = 0; h < numLevels; h++) {
+            double[] level = levels[h];
+            for (int i = 0; i < sizes[h]; i++) {
+                if (level[i] <= x) {
+                    below += 1L << h;
+                }
+            }
+            total += (long) sizes[h] << h;
+        }
+        return (double) below / total;
+    }
+
+    @Override
+    public void merge(MergeableSketch other) {
+        if (!(other instanceof KllSketch)) {
+            throw new IllegalArgumentException("cannot merge " + other.getClass().getSimpleName() + " into kll");
+        }
+        KllSketch sketch = (KllSketch) other;
+        if (sketch.n == 0) {
+            return;
+        }
+        while (numLevels < sketch.numLevels) {
+            grow();
+        }
+        for (int h = 0; h < sketch.numLevels; h++) {
+            for (int i = 0; i < sketch.sizes[h]; i++) {
+                append(h, sketch.levels[h][i]);
+            }
+            totalSize += sketch.sizes[h];
+        }
+        n += sketch.n;
+        min = Math.min(min, sketch.min);
+        max = Math.max(max, sketch.max);
+        while (totalSize >= maxSize) {
+            compress();
+        }
+    }
+
+    @Override
+    public byte[] toBytes() {
+        ByteBuf buf = PooledByteBufAllocator.DEFAULT.buffer(32 + totalSize * 8);
+        try {
+            buf.writeByte(TYPE_KLL);
+            Varint.writeUnsignedVarInt(k, buf);
+            Varint.writeUnsignedVarLong(n, buf);
+            buf.writeDouble(min);
+            buf.writeDouble(max);
+            Varint.writeUnsignedVarInt(numLevels, buf);
+            for (int h = 0; h < numLevels; h++) {
+                Varint.writeUnsignedVarInt(sizes[h], buf);
+                for (int i = 0; i < sizes[h]; i++) {
+                    buf.writeDouble(levels[h][i]);
+                }
+            }
+            byte[] bytes = new byte[buf.readableBytes()];
+            buf.readBytes(bytes);
+            return bytes;
+        } finally {
+            buf.release();
+        }
+    }
+
+    @Override
+    public ValueObject evaluate(String command) {
+        switch (command) {
+            case "count":
+                return ValueFactory.create(n);
+            case "min":
+                return ValueFactory.create(min);
+            case "max":
+                return ValueFactory.create(max);
+        }
+        String arg;
+        if ((arg = MergeableSketch.argument(command, "quantile")) != null) {
+            return ValueFactory.create(quantile(Double.parseDouble(arg)));
+        } else if ((arg = MergeableSketch.argument(command, "cdf")) != null) {
+            return ValueFactory.create(cdf(Double.parseDouble(arg)));
+        }
+        throw new IllegalArgumentException("unsupported kll command " + command);
+    }
+
+    public static KllSketch fromBytes(byte[] bytes) {
+        if (bytes[0] != TYPE_KLL) {
+            throw new IllegalArgumentException("not a kll sketch");
+        }
+        ByteBuf buf = Unpooled.wrappedBuffer(bytes);
+        buf.skipBytes(1);
+        KllSketch sketch = new KllSketch(Varint.readUnsignedVarInt(buf));
+        sketch.n = Varint.readUnsignedVarLong(buf);
+        sketch.min = buf.readDouble();
+        sketch.max = buf.readDouble();
+        int levels = Varint.readUnsignedVarInt(buf);
+        while (sketch.numLevels < levels) {
+            sketch.grow();
+        }
+        for (int h = 0; h < levels; h++) {
+            int size = Varint.readUnsignedVarInt(buf);
+            for (int i = 0; i < size; i++) {
+                sketch.append(h, buf.readDouble());
+            }
+            sketch.totalSize += size;
+        }
+        return sketch;
+    }
+
+    private int capacity(int h) {
+        int depth = numLevels - h - 1;
+        return Math.max(2, (int) Math.ceil(k * Math.pow(CAPACITY_DECAY, depth))) + 1;
+    }
+
+    private void grow() {
+        numLevels++;
+        levels = Arrays.copyOf(levels, numLevels);
+        sizes = Arrays.copyOf(sizes, numLevels);
+        levels[numLevels - 1] = new double[8];
+        maxSize = 0;
+        for (int h = 0; h < numLevels; h++) {
+            maxSize += capacity(h);
+        }
+    }
+
+    private void append(int h, double value) {
+        double[] level = levels[h];
+        if (sizes[h] == level.length) {
+            level = levels[h] = Arrays.copyOf(level, level.length * 2);
+        }
+        level[sizes[h]++] = value;
+    }
+
+    /**
+     * Compact the lowest compactor that is at capacity. The sum of the
+     * capacities is the maximum size so at least one compactor is full
+     * whenever the sketch is.
+     */
+    private void compress() {
+        for (int h = 0; h < numLevels; h++) {
+            if (sizes[h] >= capacity(h)) {
+                if (h + 1 >= numLevels) {
+                    grow();
+                }
+                double[] level = levels[h];
+                int size = sizes[h];
+                Arrays.sort(level, 0, size);
+                // an odd item out stays behind as the smallest value in the level
+                int start = (size & 1) + (ThreadLocalRandom.current().nextBoolean() ? 1 : 0);
+                int promoted = 0;
+                for (int i = start; i < size; i += 2) {
+                    append(h + 1, level[i]);
+                    promoted++;
+                }
+                sizes[h] = size & 1;
+                totalSize += promoted - size + sizes[h];
+                return;
+            }
+        }
+    }
+
+    private Sorted sorted() {
+        double[] values = new double[0];
+        long[] weights = new long[0];
+        for (int h = 0; h < numLevels; h++) {
+            double[] level = Arrays.copyOf(levels[h], sizes[h]);
+            Arrays.sort(level);
+            double[] mergedValues = new double[values.length + level.length];
+            long[] mergedWeights = new long[mergedValues.length];
+            int i = 0;
+            int j = 0;
+            for (int m = 0; m < mergedValues.length; m++) {
+                if (j >= level.length || (i < values.length && values[i] <= level[j])) {
+                    mergedValues[m] = values[i];
+                    mergedWeights[m] = weights[i++];
+                } else {
+                    mergedValues[m] = level[j++];
+                    mergedWeights[m] = 1L << h;
+                }
+            }
+            values = mergedValues;
+            weights = mergedWeights;
+        }
+        for (int i = 1; i < weights.length; i++) {
+            weights[i] += weights[i - 1];
+        }
+        return new Sorted(values, weights);
+    }
+
+    private static final class Sorted {
+
+        final double[] values;
+        final long[] cumulative;
+
+        Sorted(double[] values, long[] cumulative) {
+            this.values = values;
+            this.cumulative = cumulative;
+        }
+    }
+}
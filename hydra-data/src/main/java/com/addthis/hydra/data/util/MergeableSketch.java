@@ -0,0 +1,74 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.util;
+
+import com.addthis.bundle.value.ValueObject;
+
+/**
+ * A summary of a stream of values that can be combined with a summary
+ * of the same kind built elsewhere. Sketches are exchanged as byte
+ * arrays whose first byte identifies the kind of sketch so that
+ * query operations can union them without knowing how they were
+ * configured.
+ */
+public interface MergeableSketch {
+
+    byte TYPE_HLL = 1;
+    byte TYPE_KLL = 2;
+
+    /**
+     * Add the contents of {@code other} to this sketch.
+     *
+     * @throws IllegalArgumentException if the sketches cannot be merged
+     */
+    void merge(MergeableSketch other);
+
+    /**
+     * Returns the serialized sketch. The first byte is the sketch type.
+     */
+    byte[] toBytes();
+
+    /**
+     * Evaluate a query path command such as "count" or "quantile(0.9)".
+     *
+     * @throws IllegalArgumentException if the command is not supported
+     */
+    ValueObject evaluate(String command);
+
+    static MergeableSketch fromBytes(byte[] bytes) {
+        if (bytes.length == 0) {
+            throw new IllegalArgumentException("empty sketch");
+        }
+        switch (bytes[0]) {
+            case TYPE_HLL:
+                return HllSketch.fromBytes(bytes);
+            case TYPE_KLL:
+                return KllSketch.fromBytes(bytes);
+            default:
+                throw new IllegalArgumentException("unknown sketch type " + bytes[0]);
+        }
+    }
+
+    /**
+     * Returns the argument of a command of the form "name(argument)"
+     * or null if the command does not have that form.
+     */
+    static String argument(String command, String name) {
+        if (command.startsWith(name) && command.length() > name.length() + 1 &&
+            command.charAt(name.length()) == '(' && command.endsWith(")")) {
+            return command.substring(name.length() + 1, command.length() - 1);
+        }
+        return null;
+    }
+}
@@ -132,6 +132,13 @@ public class Tokenizer implements Codable {
         return group;
     }
 
+    /**
+     * @return the escape string (the first character is the escape character)
+     */
+    public String getEscape() {
+        return escape;
+    }
+
     /**
      * @return will all fields be packed into one?
      */
@@ -0,0 +1,116 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.column;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleField;
+import com.addthis.bundle.core.BundleFormat;
+import com.addthis.bundle.core.list.ListBundle;
+import com.addthis.bundle.core.list.ListBundleFormat;
+import com.addthis.bundle.value.ValueFactory;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestColumnBatch {
+
+    private static List<Bundle> rows() {
+        BundleFormat format = new ListBundleFormat();
+        List<Bundle> rows = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Bundle row = new ListBundle(format);
+            row.setValue(format.getField("id"), ValueFactory.create(i));
+            row.setValue(format.getField("score"), ValueFactory.create(i / 2.0));
+            row.setValue(format.getField("name"), ValueFactory.create(" n" + (i % 3) + " "));
+            if (i % 10 == 0) {
+                row.setValue(format.getField("sparse"), ValueFactory.create(i));
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    @Test
+    public void roundTrip() {
+        List<Bundle> rows = rows();
+        ColumnBatch batch = ColumnBatch.fromBundles(rows);
+        assertEquals(100, batch.rows());
+        assertTrue(batch.getColumn("id") instanceof LongColumn);
+        assertTrue(batch.getColumn("score") instanceof DoubleColumn);
+        assertTrue(batch.getColumn("name") instanceof StringColumn);
+        assertEquals(3, ((StringColumn) batch.getColumn("name")).dictionarySize());
+        assertEquals(90, batch.getColumn("sparse").nullCount(100));
+        assertEquals(310, batch.cellCount());
+        List<Bundle> out = batch.toBundles();
+        assertEquals(100, out.size());
+        for (int i = 0; i < 100; i++) {
+            Bundle expect = rows.get(i);
+            Bundle got = out.get(i);
+            for (String name : new String[]{"id", "score", "name", "sparse"}) {
+                assertEquals(expect.getValue(expect.getFormat().getField(name)),
+                             got.getValue(got.getFormat().getField(name)));
+            }
+        }
+    }
+
+    @Test
+    public void promotion() {
+        ColumnBatch batch = ColumnBatch.fromBundles(rows());
+        ColumnBatch.Cursor cursor = batch.cursor();
+        cursor.moveTo(5).setValue(batch.getFormat().getField("id"), ValueFactory.create("five"));
+        assertTrue(batch.getColumn("id") instanceof ValueColumn);
+        assertEquals(ValueFactory.create(4), cursor.moveTo(4).getValue(batch.getFormat().getField("id")));
+        assertEquals(ValueFactory.create("five"), cursor.moveTo(5).getValue(batch.getFormat().getField("id")));
+        cursor.removeValue(batch.getFormat().getField("id"));
+        assertNull(batch.getValue(5, batch.getFormat().getField("id")));
+    }
+
+    @Test
+    public void select() {
+        ColumnBatch batch = ColumnBatch.fromBundles(rows());
+        ColumnBatch selected = batch.select(new int[]{10, 11, 20}, 3);
+        assertEquals(3, selected.rows());
+        assertEquals(ValueFactory.create(11), selected.getValue(1, batch.getFormat().getField("id")));
+        assertEquals(ValueFactory.create(" n2 "), selected.getValue(2, batch.getFormat().getField("name")));
+        assertEquals(1, selected.getColumn("sparse").nullCount(3));
+    }
+
+    @Test
+    public void leadingNullColumn() {
+        BundleFormat format = new ListBundleFormat();
+        BundleField first = format.getField("first");
+        BundleField second = format.getField("second");
+        List<Bundle> rows = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Bundle row = new ListBundle(format);
+            if (i > 0) {
+                row.setValue(first, ValueFactory.create(i));
+            }
+            row.setValue(second, ValueFactory.create("s" + i));
+            rows.add(row);
+        }
+        ColumnBatch batch = ColumnBatch.fromBundles(rows);
+        assertEquals("first", batch.getFormat().getField(0).getName());
+        assertEquals("second", batch.getFormat().getField(1).getName());
+        assertNull(batch.getValue(0, batch.getFormat().getField(0)));
+        assertEquals(ValueFactory.create(2), batch.getValue(2, batch.getFormat().getField(0)));
+        assertEquals(ValueFactory.create("s0"), batch.getValue(0, batch.getFormat().getField(1)));
+    }
+}
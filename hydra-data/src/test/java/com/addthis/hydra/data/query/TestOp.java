@@ -13,7 +13,9 @@
  */
 package com.addthis.hydra.data.query;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
 import com.addthis.basis.util.Strings;
 
@@ -22,6 +24,7 @@ import com.addthis.bundle.core.BundleField;
 import com.addthis.bundle.table.DataTable;
 import com.addthis.bundle.value.ValueObject;
 import com.addthis.hydra.data.channel.BlockingBufferedConsumer;
+import com.addthis.hydra.data.column.ColumnBatch;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -70,6 +73,52 @@ public abstract class TestOp {
         qp.close();
     }
 
+    /**
+     * Sends the input to the ops as a single columnar batch.
+     */
+    public static void doBatchOpTest(DataTable in, String ops, DataTable out) throws Exception {
+        BlockingBufferedConsumer buffer = new BlockingBufferedConsumer();
+        QueryOpProcessor qp = new QueryOpProcessor.Builder(buffer, ops).build();
+        List<Bundle> rows = new ArrayList<>();
+        for (Bundle row : in) {
+            rows.add(row);
+        }
+        qp.processBatch(ColumnBatch.fromBundles(rows));
+        qp.sendComplete();
+        Iterator<Bundle> got = buffer.getTable().iterator();
+        Iterator<Bundle> expect = out.iterator();
+        while (expect.hasNext()) {
+            assertTrue("missing results", got.hasNext());
+            compareBundles(expect.next(), got.next());
+        }
+        assertFalse("got hadNext() when it should not", got.hasNext());
+        qp.close();
+    }
+
+    /**
+     * Sends the input to the ops as columnar batches of at most {@code batchSize} rows.
+     */
+    public static void doBatchOpTest(DataTable in, String ops, DataTable out, int batchSize) throws Exception {
+        BlockingBufferedConsumer buffer = new BlockingBufferedConsumer();
+        QueryOpProcessor qp = new QueryOpProcessor.Builder(buffer, ops).build();
+        List<Bundle> rows = new ArrayList<>();
+        for (Bundle row : in) {
+            rows.add(row);
+        }
+        for (int i = 0; i < rows.size(); i += batchSize) {
+            qp.processBatch(rows.subList(i, Math.min(rows.size(), i + batchSize)));
+        }
+        qp.sendComplete();
+        Iterator<Bundle> got = buffer.getTable().iterator();
+        Iterator<Bundle> expect = out.iterator();
+        while (expect.hasNext()) {
+            assertTrue("missing results", got.hasNext());
+            compareBundles(expect.next(), got.next());
+        }
+        assertFalse("got hadNext() when it should not", got.hasNext());
+        qp.close();
+    }
+
     public static void doOpTest(DataTable in, String ops, DataTable out) throws Exception {
         doOpTest(in, ops, out, -1);
     }
@@ -33,4 +33,19 @@ public class TestOpFold extends TestOp {
                         tr().td("dog").td("a", "6", "0").td("b", "7", "1").td("c", "8", "0")
         );
     }
+
+    @Test
+    public void testFoldBatch() throws Exception {
+        doBatchOpTest(
+                new DataTableHelper().
+                        tr().td("cat", "a", "1", "2").
+                        tr().td("cat", "b", "2", "3").
+                        tr().td("dog", "a", "6", "0").
+                        tr().td("dog", "c", "8", "0"),
+                "fold=0:1:a,b,c:2,3",
+                new DataTableHelper().
+                        tr().td("cat").td("a", "1", "2").td("b", "2", "3").td("c").tdNull().tdNull().
+                        tr().td("dog").td("a", "6", "0").td("b").tdNull().tdNull().td("c", "8", "0")
+        );
+    }
 }
@@ -13,6 +13,8 @@
  */
 package com.addthis.hydra.data.query;
 
+import com.addthis.bundle.channel.DataChannelError;
+
 import org.junit.Test;
 
 public class TestOpGather extends TestOp {
@@ -105,7 +107,7 @@ public class TestOpGather extends TestOp {
                         tr().td("b", "1", "2", "3").
                         tr().td("c", "1", "2", "3").
                         tr().td("a", "1", "2", "3"),
-                "gather=ksssu",
+                "gather=ksssu;sort",
                 new DataTableHelper().
                         tr().td("a", "3", "6", "9", "3").
                         tr().td("b", "2", "4", "6", "2").
@@ -121,7 +123,7 @@ public class TestOpGather extends TestOp {
                         tr().td("b", "3", "2", "3").
                         tr().td("c", "1", "2", "5").
                         tr().td("a", "1", "2", "3"),
-                "gather=kaaa",
+                "gather=kaaa;sort",
                 new DataTableHelper().
                         tr().td("a", "1", "3", "3").
                         tr().td("b", "4", "5", "3").
@@ -137,7 +139,7 @@ public class TestOpGather extends TestOp {
                         tr().td("b", "3").td().td("3").
                         tr().td("c", "1", "2").
                         tr().td("a", "1", "2", "3"),
-                "gather=ksss",
+                "gather=ksss;sort",
                 new DataTableHelper().
                         tr().td("a", "3", "9", "6").
                         tr().td("b", "8", "8", "6").
@@ -153,7 +155,7 @@ public class TestOpGather extends TestOp {
                         tr().td("b", "1", "2", "3").
                         tr().td("c", "1", "2", "3").
                         tr().td("a", "1", "2", "3"),
-                "gather=kiss",
+                "gather=kiss;sort",
                 new DataTableHelper().
                         tr().td("a", "6", "9").
                         tr().td("b", "4", "6").
@@ -174,6 +176,39 @@ public class TestOpGather extends TestOp {
         );
     }
 
+    @Test
+    public void testGatherSpillPartitions() throws Exception {
+        System.setProperty("opgather.tiptodisk", "true");
+
+        DataTableHelper in = new DataTableHelper();
+        DataTableHelper out = new DataTableHelper();
+        for (int i = 0; i < 40; i++) {
+            in.tr().td("k" + (i % 10), Integer.toString(i), Integer.toString(i));
+        }
+        for (int k = 0; k < 10; k++) {
+            out.tr().td("k" + k, Integer.toString(4 * k + 60), k + "," + (k + 10) + "," + (k + 20) + "," + (k + 30));
+        }
+        doOpTest(in, "gather=ksj;sort", out, 3, 1);
+        doOpTest(in, "gather=ksj;sort", out, 0, 1);
+    }
+
+    /**
+     * A single group that grows with every merged row must trip the memory tip.
+     */
+    @Test(expected = DataChannelError.class)
+    public void testGatherGrowingGroupExceedsTip() throws Exception {
+        System.setProperty("opgather.tiptodisk", "false");
+        try {
+            DataTableHelper in = new DataTableHelper();
+            for (int i = 0; i < 5000; i++) {
+                in.tr().td("a", "value-" + i);
+            }
+            doOpTest(in, "gather=kj", new DataTableHelper(), 0, 64 * 1024);
+        } finally {
+            System.clearProperty("opgather.tiptodisk");
+        }
+    }
+
     //@Test
     public void comparePerformance() throws Exception {
         long inMemoryTime = 0;
@@ -57,5 +57,24 @@ public class TestOpNumber extends TestOp {
         doOpTest(parse(inputTable), "num=h0,c1,add,v2,set", parse(expected));
 
     }
-}
 
+    @Test
+    public void testNumberBatch() throws Exception {
+        doBatchOpTest(parse("A 1 4 0|B 2 8 0|C 3 12 0|D 4 16 0"), "num=c1,c2,add,v3,set",
+                parse("A 1 4 5|B 2 8 10|C 3 12 15|D 4 16 20"));
+        doBatchOpTest(parse("A 1 art|B 2 bot|C 3 cog|D 4 din"), "num=c1,n1,gt,c1,n3,lteq", parse("B 2 bot|C 3 cog"));
+    }
+
+    @Test
+    public void testNumberBatches() throws Exception {
+        DataTableHelper in = new DataTableHelper();
+        DataTableHelper out = new DataTableHelper();
+        long sum = 0;
+        for (long i = 1; i <= 5; i++) {
+            sum += 5 * i;
+            in.tr().td(i).td(4 * i).td(0L);
+            out.tr().td(i).td(4 * i).td(5 * i).td(sum);
+        }
+        doBatchOpTest(in, "num=c0,c1,add,v2,set;sum=2", out, 2);
+    }
+}
@@ -101,4 +101,39 @@ public class TestOpRoll extends TestOp {
                         tr().td("dog", "c", "27", "10")
         );
     }
+
+    @Test
+    public void testRollBatch() throws Exception {
+        DataTableHelper in = new DataTableHelper().
+                tr().td(1L).td(2L).td(0.5).
+                tr().td(2L).td(3L).td(1.5).
+                tr().td(3L).td(4L).td(2.0);
+        doBatchOpTest(in, "sum=0,1",
+                new DataTableHelper().
+                        tr().td(1L).td(2L).td(0.5).td(1L).td(2L).
+                        tr().td(2L).td(3L).td(1.5).td(3L).td(5L).
+                        tr().td(3L).td(4L).td(2.0).td(6L).td(9L));
+        doBatchOpTest(in, "delta=fs2",
+                new DataTableHelper().
+                        tr().td(1L).td(2L).td(0.5).
+                        tr().td(2L).td(3L).td(1.0).
+                        tr().td(3L).td(4L).td(0.5));
+    }
+
+    @Test
+    public void testRollBatches() throws Exception {
+        DataTableHelper in = new DataTableHelper().
+                tr().td(1L).td(2L).
+                tr().td(2L).td(3L).
+                tr().td(3L).td(4L).
+                tr().td(4L).td(5L).
+                tr().td(5L).td(6L);
+        doBatchOpTest(in, "sum=0,1",
+                new DataTableHelper().
+                        tr().td(1L).td(2L).td(1L).td(2L).
+                        tr().td(2L).td(3L).td(3L).td(5L).
+                        tr().td(3L).td(4L).td(6L).td(9L).
+                        tr().td(4L).td(5L).td(10L).td(14L).
+                        tr().td(5L).td(6L).td(15L).td(20L), 2);
+    }
 }
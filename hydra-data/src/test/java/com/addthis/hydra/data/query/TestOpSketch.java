@@ -0,0 +1,69 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.query;
+
+import com.addthis.bundle.value.ValueFactory;
+import com.addthis.bundle.value.ValueObject;
+import com.addthis.hydra.data.util.HllSketch;
+import com.addthis.hydra.data.util.KllSketch;
+
+import org.junit.Test;
+
+public class TestOpSketch extends TestOp {
+
+    private static ValueObject hll(String... values) {
+        HllSketch sketch = new HllSketch(14, 25);
+        for (String value : values) {
+            sketch.offer(value);
+        }
+        return ValueFactory.create(sketch.toBytes());
+    }
+
+    private static ValueObject kll(int from, int to) {
+        KllSketch sketch = new KllSketch();
+        for (int i = from; i < to; i++) {
+            sketch.offer(i);
+        }
+        return ValueFactory.create(sketch.toBytes());
+    }
+
+    @Test
+    public void testMergeCount() throws Exception {
+        DataTableHelper t1 = new DataTableHelper().
+                tr().td("cat").td(hll("a", "b", "c")).
+                tr().td("cat").td(hll("c", "d")).
+                tr().td("dog").td(hll("x")).
+                tr().td("dog").td(hll("x", "y"));
+        doOpTest(t1, "merge=kU;sketch=1:count",
+                new DataTableHelper().
+                        tr().td("cat").td(4L).
+                        tr().td("dog").td(2L));
+    }
+
+    @Test
+    public void testGatherQuantile() throws Exception {
+        DataTableHelper t1 = new DataTableHelper().
+                tr().td("a").td(kll(0, 50)).
+                tr().td("b").td(kll(0, 10)).
+                tr().td("a").td(kll(50, 100));
+        doOpTest(t1, "gather=kU;sort=0;sketch=1:count",
+                new DataTableHelper().
+                        tr().td("a").td(100L).
+                        tr().td("b").td(10L));
+        doOpTest(t1, "gather=kU;sort=0;sketch=1:max",
+                new DataTableHelper().
+                        tr().td("a").td(99.0).
+                        tr().td("b").td(9.0));
+    }
+}
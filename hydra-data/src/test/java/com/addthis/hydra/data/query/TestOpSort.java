@@ -38,4 +38,21 @@ public class TestOpSort extends TestOp {
         doOpTest(dataTable2, "sort", parse("1 X|2 B|3 A|4 C"));
         doOpTest(dataTableDecimals, "sort=1:d:a", parse("D .102392|B .8282|A .9|C .95"));
     }
+
+    @Test
+    public void testSpilledSort() throws Exception {
+        StringBuilder in = new StringBuilder();
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            if (i > 0) {
+                in.append('|');
+                out.append('|');
+            }
+            int value = (i * 7919) % 2000;
+            in.append(value).append(' ').append(value % 3);
+            out.append(1999 - i).append(' ').append((1999 - i) % 3);
+        }
+        // a tiny memory budget forces many runs through the merge
+        doOpTest(parse(in.toString()), "sort=0:n:d", parse(out.toString()), 0, 4096);
+    }
 }
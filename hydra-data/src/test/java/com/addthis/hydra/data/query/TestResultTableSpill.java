@@ -0,0 +1,137 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.query;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import java.nio.file.Files;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleField;
+import com.addthis.bundle.util.ValueUtil;
+import com.addthis.bundle.value.ValueFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestResultTableSpill {
+
+    private File dir;
+
+    @Before
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("spill").toFile();
+    }
+
+    @After
+    public void cleanup() {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    private static final class Budget implements QueryMemTracker {
+
+        private final long limit;
+        private long used;
+
+        Budget(long limit) {
+            this.limit = limit;
+        }
+
+        @Override public void trackBundle(Bundle bundle) {}
+
+        @Override public void untrackBundle(Bundle bundle) {}
+
+        @Override public void untrackAllBundles() {}
+
+        @Override public boolean reserveOffHeap(long bytes) {
+            if ((used + bytes) > limit) {
+                return false;
+            }
+            used += bytes;
+            return true;
+        }
+
+        @Override public void releaseOffHeap(long bytes) {
+            used -= bytes;
+        }
+    }
+
+    private static void fill(ResultTableSpill table, int count) {
+        for (int i = 0; i < count; i++) {
+            Bundle row = table.createBundle();
+            row.setValue(table.getFormat().getField("key"), ValueFactory.create((i * 7919) % 1000));
+            row.setValue(table.getFormat().getField("seq"), ValueFactory.create(i));
+            table.add(row);
+        }
+    }
+
+    private static long value(Bundle row, String name) {
+        BundleField field = row.getFormat().getField(name);
+        return ValueUtil.asNumberOrParseLong(row.getValue(field), 10).asLong().getLong();
+    }
+
+    @Test
+    public void spillToFile() {
+        Budget budget = new Budget(4096);
+        File file = new File(dir, "rows.tmp");
+        ResultTableSpill table = new ResultTableSpill(null, file, budget, 1024, 1 << 20);
+        fill(table, 5000);
+        assertEquals(5000, table.size());
+        assertTrue(file.exists());
+        assertEquals(0, budget.used);
+        for (int i = 0; i < 5000; i += 97) {
+            assertEquals(i, value(table.get(i), "seq"));
+        }
+        Bundle row = table.remove(10);
+        assertEquals(10, value(row, "seq"));
+        table.add(0, row);
+        assertEquals(10, value(table.get(0), "seq"));
+        assertEquals(0, value(table.get(1), "seq"));
+        table.delete();
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void stableSortAcrossRuns() {
+        Budget budget = new Budget(1 << 20);
+        ResultTableSpill table = new ResultTableSpill(null, new File(dir, "sort.tmp"), budget, 1024, 2048);
+        fill(table, 5000);
+        assertTrue(budget.used > 0);
+        table.sort(Comparator.comparingLong(b -> value(b, "key")));
+        List<Bundle> sorted = new ArrayList<>(table);
+        for (int i = 1; i < sorted.size(); i++) {
+            long k0 = value(sorted.get(i - 1), "key");
+            long k1 = value(sorted.get(i), "key");
+            assertTrue(k0 <= k1);
+            if (k0 == k1) {
+                assertTrue(value(sorted.get(i - 1), "seq") < value(sorted.get(i), "seq"));
+            }
+        }
+        table.close();
+        assertEquals(0, budget.used);
+    }
+}
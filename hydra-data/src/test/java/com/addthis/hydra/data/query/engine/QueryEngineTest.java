@@ -0,0 +1,117 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.query.engine;
+
+import java.io.File;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.addthis.basis.util.Files;
+
+import com.addthis.bundle.channel.DataChannelOutput;
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleField;
+import com.addthis.bundle.core.list.ListBundle;
+import com.addthis.bundle.core.list.ListBundleFormat;
+import com.addthis.hydra.data.query.Query;
+import com.addthis.hydra.data.query.QueryElement;
+import com.addthis.hydra.data.tree.concurrent.Builder;
+import com.addthis.hydra.data.tree.concurrent.ConcurrentTree;
+import com.addthis.hydra.data.tree.concurrent.ConcurrentTreeNode;
+
+import org.junit.Test;
+
+import io.netty.channel.DefaultChannelProgressivePromise;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+
+import static org.junit.Assert.assertEquals;
+
+public class QueryEngineTest {
+
+    private static class Collector implements DataChannelOutput {
+
+        private final ListBundleFormat format = new ListBundleFormat();
+        final List<String> rows = new ArrayList<>();
+
+        @Override
+        public void send(Bundle bundle) {
+            StringBuilder builder = new StringBuilder();
+            for (BundleField field : bundle) {
+                builder.append(bundle.getValue(field)).append('/');
+            }
+            rows.add(builder.toString());
+        }
+
+        @Override
+        public void send(List<Bundle> bundles) {
+            for (Bundle bundle : bundles) {
+                send(bundle);
+            }
+        }
+
+        @Override
+        public void sendComplete() {
+        }
+
+        @Override
+        public void sourceError(Throwable er) {
+        }
+
+        @Override
+        public Bundle createBundle() {
+            return new ListBundle(format);
+        }
+    }
+
+    private static List<String> search(QueryEngine engine, String path) throws Exception {
+        QueryElement[] elements = new Query("test", new String[]{path}, null).getQueryPaths().get(0);
+        Collector collector = new Collector();
+        engine.search(elements, collector, new DefaultChannelProgressivePromise(null, ImmediateEventExecutor.INSTANCE));
+        return collector.rows;
+    }
+
+    @Test
+    public void parallelSearch() throws Exception {
+        File dir = Files.createTempDir();
+        try {
+            ConcurrentTree tree = new Builder(dir).build();
+            ConcurrentTreeNode root = tree.getRootNode();
+            for (int i = 0; i < 50; i++) {
+                ConcurrentTreeNode parent = tree.getOrCreateNode(root, Integer.toString(i), null);
+                for (int j = 0; j < i % 7; j++) {
+                    ConcurrentTreeNode child = tree.getOrCreateNode(parent, Integer.toString(j), null);
+                    ConcurrentTreeNode leaf = tree.getOrCreateNode(child, "leaf", null);
+                    leaf.release();
+                    child.release();
+                }
+                parent.release();
+            }
+            QueryEngine serial = new QueryEngine(tree, -1);
+            QueryEngine parallel = new QueryEngine(tree, 0);
+            QueryEngine nested = new QueryEngine(tree, 1);
+            // subtree searches wait for the query thread after every row
+            QueryEngine buffered = new QueryEngine(tree, 0, 1);
+            for (String path : new String[]{"+/+", "+/+/+", "+/+:+hits", "+/+/leaf"}) {
+                List<String> expected = search(serial, path);
+                assertEquals(path, expected, search(parallel, path));
+                assertEquals(path, expected, search(nested, path));
+                assertEquals(path, expected, search(buffered, path));
+            }
+            serial.close();
+        } finally {
+            Files.deleteDir(dir);
+        }
+    }
+}
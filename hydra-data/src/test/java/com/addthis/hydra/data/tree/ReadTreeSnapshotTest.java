@@ -0,0 +1,126 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.tree;
+
+import java.io.File;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import com.addthis.basis.util.Files;
+
+import com.addthis.hydra.data.tree.concurrent.ConcurrentTree;
+import com.addthis.hydra.data.tree.concurrent.ConcurrentTreeNode;
+import com.addthis.hydra.store.db.CloseOperation;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReadTreeSnapshotTest {
+
+    @Test
+    public void saveAndWarm() throws Exception {
+        File dir = Files.createTempDir();
+        File snapshot = new File(Files.createTempDir(), "tree.warm");
+        try {
+            ConcurrentTree writeTree = new ConcurrentTree(dir);
+            ConcurrentTreeNode root = writeTree.getRootNode();
+            for (int i = 0; i < 100; i++) {
+                writeTree.getOrCreateNode(root, Integer.toString(i), null).release();
+            }
+            writeTree.close(false, CloseOperation.NONE);
+
+            ReadTree readTree = new ReadTree(dir, false, 1000);
+            try {
+                for (int i = 0; i < 10; i++) {
+                    readTree.getNode(Integer.toString(i));
+                    readTree.getNode(Integer.toString(i));
+                }
+                // the 10 accessed nodes and the root
+                assertEquals(11, ReadTreeSnapshot.write(readTree, snapshot, 1000));
+                assertEquals(5, ReadTreeSnapshot.write(readTree, snapshot, 5));
+            } finally {
+                readTree.close();
+            }
+
+            ReadTree warmTree = new ReadTree(dir, false, 1000);
+            try {
+                assertEquals(5, ReadTreeSnapshot.warm(warmTree, snapshot, 1000, 60000));
+                int cached = 0;
+                for (ReadTree.CacheKey key : warmTree.getCacheIterable()) {
+                    cached++;
+                }
+                // the warmed nodes and the root
+                assertEquals(6, cached);
+                assertTrue(snapshot.exists());
+            } finally {
+                warmTree.close();
+            }
+        } finally {
+            Files.deleteDir(dir);
+            Files.deleteDir(snapshot.getParentFile());
+        }
+    }
+
+    /**
+     * Replay loads the most frequently used keys, not the first keys in page order.
+     */
+    @Test
+    public void warmHottestKeys() throws Exception {
+        File dir = Files.createTempDir();
+        File snapshot = new File(Files.createTempDir(), "tree.warm");
+        try {
+            ConcurrentTree writeTree = new ConcurrentTree(dir);
+            ConcurrentTreeNode root = writeTree.getRootNode();
+            for (int i = 0; i < 100; i++) {
+                writeTree.getOrCreateNode(root, Integer.toString(i), null).release();
+            }
+            writeTree.close(false, CloseOperation.NONE);
+
+            ReadTree readTree = new ReadTree(dir, false, 1000);
+            try {
+                for (int i = 0; i < 100; i++) {
+                    readTree.getNode(Integer.toString(i));
+                }
+                for (int i = 90; i < 100; i++) {
+                    for (int j = 0; j < 5; j++) {
+                        readTree.getNode(Integer.toString(i));
+                    }
+                }
+                ReadTreeSnapshot.write(readTree, snapshot, 1000);
+            } finally {
+                readTree.close();
+            }
+
+            ReadTree warmTree = new ReadTree(dir, false, 1000);
+            try {
+                assertEquals(10, ReadTreeSnapshot.warm(warmTree, snapshot, 10, 60000));
+                Set<String> cached = new HashSet<>();
+                for (ReadTree.CacheKey key : warmTree.getCacheIterable()) {
+                    cached.add(key.name());
+                }
+                for (int i = 90; i < 100; i++) {
+                    assertTrue(cached.contains(Integer.toString(i)));
+                }
+            } finally {
+                warmTree.close();
+            }
+        } finally {
+            Files.deleteDir(dir);
+            Files.deleteDir(snapshot.getParentFile());
+        }
+    }
+}
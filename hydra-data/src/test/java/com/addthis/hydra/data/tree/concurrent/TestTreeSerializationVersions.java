@@ -23,13 +23,17 @@ import com.addthis.basis.util.Files;
 import com.addthis.hydra.data.tree.TreeNodeData;
 import com.addthis.hydra.data.tree.prop.DataTime;
 import com.addthis.hydra.store.db.CloseOperation;
+import com.addthis.hydra.store.kv.KeyCoder;
+import com.addthis.hydra.store.kv.ValueDictionary;
 import com.addthis.hydra.store.skiplist.LegacyPage;
 import com.addthis.hydra.store.skiplist.Page;
 
 import org.junit.Test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 public class TestTreeSerializationVersions {
@@ -143,5 +147,55 @@ public class TestTreeSerializationVersions {
         }
     }
 
+    @Test
+    public void testDictionaryEncoding() throws Exception {
+        ValueDictionary dictionary = new ValueDictionary(null, false);
+        ConcurrentTreeNode node = new ConcurrentTreeNode();
+        node.setCounter(42);
+        DataTime attachment = new DataTime();
+        attachment.setFirst(7);
+        attachment.setLast(11);
+        node.createMap().put("time", attachment);
+        byte[] sparse = node.bytesEncode(KeyCoder.EncodeType.SPARSE.ordinal());
+        byte[] compact = node.bytesEncode(KeyCoder.EncodeType.DICTIONARY.ordinal(), dictionary);
+        assertTrue(compact.length < sparse.length);
+        assertEquals(2, dictionary.size());
+
+        ConcurrentTreeNode fromSparse = new ConcurrentTreeNode();
+        fromSparse.bytesDecode(sparse, KeyCoder.EncodeType.SPARSE.ordinal());
+        ConcurrentTreeNode fromCompact = new ConcurrentTreeNode();
+        fromCompact.bytesDecode(compact, KeyCoder.EncodeType.DICTIONARY.ordinal(), dictionary);
+        for (ConcurrentTreeNode decoded : new ConcurrentTreeNode[]{fromSparse, fromCompact}) {
+            assertEquals(42, decoded.getCounter());
+            DataTime decodedTime = (DataTime) decoded.getDataMap().get("time");
+            assertNotNull(decodedTime);
+            assertEquals(7, decodedTime.first());
+            assertEquals(11, decodedTime.last());
+        }
+    }
 
+    @Test
+    public void testLazyAttachments() throws Exception {
+        ConcurrentTreeNode node = new ConcurrentTreeNode();
+        node.setCounter(3);
+        DataTime attachment = new DataTime();
+        attachment.setFirst(5);
+        attachment.setLast(9);
+        node.createMap().put("time", attachment);
+        byte[] encoded = node.bytesEncode(KeyCoder.EncodeType.SPARSE.ordinal());
+
+        ConcurrentTreeNode decoded = new ConcurrentTreeNode();
+        decoded.bytesDecode(encoded, KeyCoder.EncodeType.SPARSE.ordinal());
+        assertEquals(3, decoded.getCounter());
+        assertTrue(decoded.getDataFields().contains("time"));
+        // untouched attachments are written back unchanged
+        assertArrayEquals(encoded, decoded.bytesEncode(KeyCoder.EncodeType.SPARSE.ordinal()));
+        DataTime decodedTime = (DataTime) decoded.getData("time");
+        assertNotNull(decodedTime);
+        assertEquals(5, decodedTime.first());
+        assertEquals(9, decodedTime.last());
+        assertNull(decoded.getData("missing"));
+        assertEquals(1, decoded.getDataMap().size());
+        assertArrayEquals(encoded, decoded.bytesEncode(KeyCoder.EncodeType.SPARSE.ordinal()));
+    }
 }
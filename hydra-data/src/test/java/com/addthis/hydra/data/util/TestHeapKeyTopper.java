@@ -0,0 +1,95 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestHeapKeyTopper {
+
+    @Test
+    public void testMinimum() {
+        HeapKeyTopper topper = new HeapKeyTopper();
+        assertNull(topper.minKey());
+        topper.add("a", 5);
+        topper.add("b", 3);
+        topper.add("c", 7);
+        assertEquals("b", topper.minKey());
+        assertEquals(3, topper.minCount());
+        assertTrue(topper.incrementExisting("b", 10));
+        assertFalse(topper.incrementExisting("d", 10));
+        assertEquals("a", topper.minKey());
+        assertEquals("a", topper.replaceMin("d", 1));
+        assertFalse(topper.containsKey("a"));
+        assertEquals(6, topper.get("d", -1));
+        assertEquals("d", topper.minKey());
+        assertEquals(3, topper.size());
+    }
+
+    @Test
+    public void testSortedEntries() {
+        HeapKeyTopper topper = new HeapKeyTopper();
+        for (int i = 0; i < 100; i++) {
+            topper.add(Integer.toString(i), i);
+        }
+        Map.Entry<String, Long>[] entries = topper.getSortedEntries();
+        assertEquals(100, entries.length);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Integer.toString(99 - i), entries[i].getKey());
+            assertEquals(99 - i, (long) entries[i].getValue());
+        }
+    }
+
+    @Test
+    public void testRandomOperations() {
+        Random random = new Random(7);
+        HeapKeyTopper topper = new HeapKeyTopper(4);
+        Map<String, Long> expected = new HashMap<>();
+        for (int i = 0; i < 20000; i++) {
+            String key = Integer.toString(random.nextInt(500));
+            long delta = random.nextInt(10) + 1;
+            if (expected.containsKey(key)) {
+                assertTrue(topper.incrementExisting(key, delta));
+                expected.put(key, expected.get(key) + delta);
+            } else if (expected.size() < 200) {
+                topper.add(key, delta);
+                expected.put(key, delta);
+            } else {
+                long min = Long.MAX_VALUE;
+                for (long value : expected.values()) {
+                    min = Math.min(min, value);
+                }
+                assertEquals(min, topper.minCount());
+                String removed = topper.replaceMin(key, delta);
+                assertEquals(min, (long) expected.remove(removed));
+                expected.put(key, min + delta);
+            }
+            assertEquals(expected.size(), topper.size());
+        }
+        for (Map.Entry<String, Long> entry : expected.entrySet()) {
+            assertEquals((long) entry.getValue(), topper.get(entry.getKey(), -1));
+        }
+        Map<String, Long> actual = new HashMap<>();
+        topper.forEach(actual::put);
+        assertEquals(expected, actual);
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestHllSketch {
+
+    @Test
+    public void testHllMerge() {
+        HllSketch left = new HllSketch(14, 25);
+        HllSketch right = new HllSketch(14, 25);
+        for (int i = 0; i < 100000; i++) {
+            left.offer(Integer.toString(i));
+            right.offer(Integer.toString(i + 50000));
+        }
+        MergeableSketch merged = MergeableSketch.fromBytes(left.toBytes());
+        merged.merge(MergeableSketch.fromBytes(right.toBytes()));
+        assertEquals(150000, merged.evaluate("count").asLong().getLong(), 3000);
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestKllSketch {
+
+    @Test
+    public void testQuantiles() {
+        KllSketch sketch = new KllSketch();
+        for (int i = 0; i < 100000; i++) {
+            sketch.offer(i);
+        }
+        assertEquals(100000, sketch.count());
+        assertEquals(0.0, sketch.quantile(0), 0);
+        assertEquals(99999.0, sketch.quantile(1), 0);
+        assertEquals(50000, sketch.quantile(0.5), 2000);
+        assertEquals(99000, sketch.quantile(0.99), 2000);
+        assertEquals(0.25, sketch.cdf(25000), 0.02);
+    }
+
+    @Test
+    public void testMergeAndSerialize() {
+        KllSketch left = new KllSketch();
+        KllSketch right = new KllSketch();
+        for (int i = 0; i < 50000; i++) {
+            left.offer(i);
+            right.offer(50000 + i);
+        }
+        MergeableSketch merged = MergeableSketch.fromBytes(left.toBytes());
+        merged.merge(KllSketch.fromBytes(right.toBytes()));
+        KllSketch result = (KllSketch) merged;
+        assertEquals(100000, result.count());
+        assertEquals(50000, result.quantile(0.5), 2000);
+        assertEquals(90000, result.quantile(0.9), 2000);
+        assertTrue(result.toBytes().length < 16 * 1024);
+    }
+}
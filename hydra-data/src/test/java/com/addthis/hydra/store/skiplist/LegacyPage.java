@@ -44,7 +44,7 @@ public class LegacyPage<K, V extends BytesCodable> extends Page<K, V> {
     }
 
     @Override
-    public byte[] encode(ByteBufOutputStream out, boolean record) {
+    public ByteBuf encodeToBuffer(ByteBufOutputStream out, boolean record) {
         SkipListCacheMetrics metrics = parent.metrics;
         parent.numPagesEncoded.getAndIncrement();
         try {
@@ -110,14 +110,9 @@ public class LegacyPage<K, V extends BytesCodable> extends Page<K, V> {
 
             ByteBuf buffer = out.buffer();
 
-            byte[] returnValue = new byte[out.writtenBytes()];
-
-            buffer.readBytes(returnValue);
-            buffer.clear();
-
             updateHistogram(metrics.numberKeysPerPage, size, record);
-            updateHistogram(metrics.encodePageSize, returnValue.length, record);
-            return returnValue;
+            updateHistogram(metrics.encodePageSize, buffer.readableBytes(), record);
+            return buffer;
         } catch (RuntimeException ex) {
             throw ex;
         } catch (Exception ex) {
@@ -13,6 +13,7 @@
  */
 package com.addthis.hydra.data.filter.bundle;
 
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.addthis.bundle.core.Bundle;
@@ -87,4 +88,31 @@ public abstract class BundleFilter implements Codable {
         initOnceOnly();
         return filterExec(row);
     }
+
+    /**
+     * Filter a batch of rows. Rows for which the filter returns false
+     * are removed from the list and the order of the remaining rows is kept.
+     */
+    public final void filter(final List<Bundle> rows) {
+        initOnceOnly();
+        filterExec(rows);
+    }
+
+    /* removes rejected rows in place. override if a batch can be filtered more cheaply than row by row */
+    protected void filterExec(List<Bundle> rows) {
+        int kept = 0;
+        int size = rows.size();
+        for (int i = 0; i < size; i++) {
+            Bundle row = rows.get(i);
+            if (filterExec(row)) {
+                if (kept != i) {
+                    rows.set(kept, row);
+                }
+                kept++;
+            }
+        }
+        if (kept < size) {
+            rows.subList(kept, size).clear();
+        }
+    }
 }
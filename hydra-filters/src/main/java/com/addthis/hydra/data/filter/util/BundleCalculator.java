@@ -23,6 +23,7 @@ import java.util.List;
 import java.text.NumberFormat;
 import java.text.ParseException;
 
+import com.addthis.basis.util.Parameter;
 import com.addthis.basis.util.Strings;
 
 import com.addthis.bundle.core.Bundle;
@@ -40,7 +41,13 @@ public class BundleCalculator {
 
     private static final BundleCalculatorVector vector = BundleCalculatorVector.getSingleton();
 
-    private static enum Operation {
+    /**
+     * If true then the operations are compiled into a
+     * {@link CompiledCalculator} that evaluates them on primitive stacks.
+     */
+    private static final boolean defaultCompiled = Parameter.boolValue("hydra.calculator.compiled", false);
+
+    static enum Operation {
         OP_ADD,
         OP_SUB,
         OP_DIV,
@@ -87,8 +94,13 @@ public class BundleCalculator {
     private List<MathOp> ops;
     private boolean diverr;
     private BundleColumnBinder sourceBinder;
+    private final CompiledCalculator compiled;
 
     public BundleCalculator(String args) {
+        this(args, defaultCompiled);
+    }
+
+    public BundleCalculator(String args, boolean compile) {
         String[] op = Strings.splitArray(args, ",");
         ops = new ArrayList<>(op.length);
         for (String o : op) {
@@ -267,6 +279,7 @@ public class BundleCalculator {
                 }
             }
         }
+        compiled = compile ? new CompiledCalculator(this, ops, diverr) : null;
     }
 
     /**
@@ -305,6 +318,9 @@ public class BundleCalculator {
     }
 
     public Bundle calculate(Bundle line) {
+        if (compiled != null) {
+            return compiled.calculate(line);
+        }
         LinkedList<Numeric> stack = new LinkedList<>();
         long maxcol = line.getCount() - 1;
         for (MathOp op : ops) {
@@ -614,14 +630,12 @@ public class BundleCalculator {
     }
 
     /** */
-    private static class MathOp {
+    static class MathOp {
 
-        private
         @Nonnull
-        Operation type;
-        private
+        final Operation type;
         @Nullable
-        ValueObject val;
+        final ValueObject val;
 
         MathOp(Operation type, ValueObject val) {
             this.type = type;
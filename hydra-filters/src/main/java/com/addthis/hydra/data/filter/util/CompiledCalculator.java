@@ -0,0 +1,710 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.filter.util;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import java.text.NumberFormat;
+import java.text.ParseException;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.util.ValueUtil;
+import com.addthis.bundle.value.Numeric;
+import com.addthis.bundle.value.ValueArray;
+import com.addthis.bundle.value.ValueFactory;
+import com.addthis.bundle.value.ValueObject;
+import com.addthis.bundle.value.ValueString;
+import com.addthis.hydra.common.hash.PluggableHashFunction;
+import com.addthis.hydra.data.filter.util.BundleCalculator.MathOp;
+
+/**
+ * Evaluates the operations of a {@link BundleCalculator} without allocating
+ * a value object for every intermediate result. The operations are compiled
+ * once into an array of instructions that operate on a per-thread {@link Frame}.
+ * Integer and floating point values are stored in primitive arrays. Any other
+ * value type is stored as a reference and is operated on with the same
+ * {@link Numeric} methods that the interpreter uses. The results are identical
+ * to those of {@link BundleCalculator#calculate(Bundle)} in interpreted mode.
+ */
+final class CompiledCalculator {
+
+    private static final BundleCalculatorVector vector = BundleCalculatorVector.getSingleton();
+
+    private static final ThreadLocal<Frame> frames = new ThreadLocal<Frame>() {
+        @Override
+        protected Frame initialValue() {
+            return new Frame();
+        }
+    };
+
+    /**
+     * A single compiled operation. Returns false if the
+     * calculation should terminate and produce no result.
+     */
+    @FunctionalInterface
+    private interface Instruction {
+
+        boolean execute(Frame frame, Bundle line);
+    }
+
+    private final BundleCalculator calculator;
+    private final Instruction[] program;
+
+    CompiledCalculator(BundleCalculator calculator, List<MathOp> ops, boolean diverr) {
+        this.calculator = calculator;
+        this.program = new Instruction[ops.size()];
+        for (int i = 0; i < program.length; i++) {
+            program[i] = compile(ops.get(i), diverr);
+        }
+    }
+
+    Bundle calculate(Bundle line) {
+        Frame frame = frames.get();
+        frame.reset(line.getCount() - 1);
+        for (Instruction instruction : program) {
+            if (!instruction.execute(frame, line)) {
+                frame.reset(0);
+                return null;
+            }
+        }
+        frame.reset(0);
+        return line;
+    }
+
+    private ValueObject column(Bundle line, MathOp op) {
+        return calculator.getSourceColumnBinder(line).getColumn(line, (int) op.val.asLong().getLong());
+    }
+
+    private Instruction compile(MathOp op, boolean diverr) {
+        switch (op.type) {
+            case OP_ADD:
+                return (frame, line) -> {
+                    int v1 = frame.pop();
+                    if (frame.isVector(v1)) {
+                        int acc = frame.pop();
+                        while (frame.size > 0) {
+                            int next = frame.pop();
+                            frame.sum(acc, next, next);
+                            acc = next;
+                        }
+                        frame.size++;
+                    } else {
+                        int v2 = frame.pop();
+                        frame.sum(v1, v2, v2);
+                        frame.size++;
+                    }
+                    return true;
+                };
+            case OP_SUB:
+                return (frame, line) -> {
+                    int v1 = frame.pop();
+                    int v2 = frame.pop();
+                    frame.diff(v2, v1, v2);
+                    frame.size++;
+                    return true;
+                };
+            case OP_MULT:
+                return (frame, line) -> {
+                    int v1 = frame.pop();
+                    long mult;
+                    if (frame.isVector(v1)) {
+                        mult = frame.asLong(frame.pop());
+                        while (frame.size > 0) {
+                            mult *= frame.asLong(frame.pop());
+                        }
+                    } else {
+                        int v2 = frame.pop();
+                        mult = frame.asLong(v1) * frame.asLong(v2);
+                    }
+                    frame.pushLong(mult);
+                    return true;
+                };
+            case OP_DMULT:
+                return (frame, line) -> {
+                    int v1 = frame.pop();
+                    double mult;
+                    if (frame.isVector(v1)) {
+                        mult = frame.asDouble(frame.pop());
+                        while (frame.size > 0) {
+                            mult *= frame.asDouble(frame.pop());
+                        }
+                    } else {
+                        int v2 = frame.pop();
+                        mult = frame.asDouble(v1) * frame.asDouble(v2);
+                    }
+                    frame.pushDouble(mult);
+                    return true;
+                };
+            case OP_DIV:
+                return (frame, line) -> {
+                    long v1 = frame.asLong(frame.pop());
+                    int v2 = frame.pop();
+                    frame.pushLong((!diverr && v1 == 0) ? 0 : (frame.asLong(v2) / v1));
+                    return true;
+                };
+            case OP_DDIV:
+                return (frame, line) -> {
+                    double v1 = frame.asDouble(frame.pop());
+                    int v2 = frame.pop();
+                    if (!diverr && v1 == 0d) {
+                        frame.pushLong(0);
+                    } else {
+                        frame.pushDouble(frame.asDouble(v2) / v1);
+                    }
+                    return true;
+                };
+            case OP_REM:
+                return (frame, line) -> {
+                    long v1 = frame.asLong(frame.pop());
+                    int v2 = frame.pop();
+                    frame.pushLong((!diverr && v1 == 0) ? 0 : (frame.asLong(v2) % v1));
+                    return true;
+                };
+            case OP_LOG:
+                return (frame, line) -> {
+                    frame.pushDouble(Math.log10(frame.asDouble(frame.pop())));
+                    return true;
+                };
+            case OP_SQRT:
+                return (frame, line) -> {
+                    frame.pushDouble(Math.sqrt(frame.asDouble(frame.pop())));
+                    return true;
+                };
+            case OP_VAL:
+                return compileValue(op.val);
+            case OP_COLVAL:
+                return (frame, line) -> {
+                    frame.insertNumbers(column(line, op));
+                    return true;
+                };
+            case OP_COLARRAY:
+                return (frame, line) -> {
+                    ValueArray array = column(line, op).asArray();
+                    int size = array.size();
+                    for (int i = 0; i < size; i++) {
+                        frame.push(array.get(i).asNumeric());
+                    }
+                    return true;
+                };
+            case OP_COLNAMEVAL: {
+                String name = op.val.toString();
+                return (frame, line) -> {
+                    frame.insertNumbers(line.getValue(line.getFormat().getField(name)));
+                    return true;
+                };
+            }
+            case OP_DUP:
+                return (frame, line) -> {
+                    if (frame.size == 0) {
+                        frame.pushRef(null);
+                    } else {
+                        int top = frame.size - 1;
+                        frame.copy(top, frame.grow());
+                    }
+                    return true;
+                };
+            case OP_TOINT:
+                return (frame, line) -> {
+                    int v1 = frame.pop();
+                    if (frame.types[v1] != Frame.LONG) {
+                        frame.set(v1, ValueUtil.asNumberOrParseLong(frame.box(v1), 10).asLong());
+                    }
+                    frame.size++;
+                    return true;
+                };
+            case OP_TOFLOAT:
+                return (frame, line) -> {
+                    int v1 = frame.pop();
+                    if (frame.types[v1] != Frame.DOUBLE) {
+                        frame.set(v1, ValueUtil.asNumberOrParseDouble(frame.box(v1)).asDouble());
+                    }
+                    frame.size++;
+                    return true;
+                };
+            case OP_BITS_TOINT:
+                return (frame, line) -> {
+                    frame.pushLong(Double.doubleToLongBits(frame.asDouble(frame.pop())));
+                    return true;
+                };
+            case OP_BITS_TOFLOAT:
+                return (frame, line) -> {
+                    frame.pushDouble(Double.longBitsToDouble(frame.asLong(frame.pop())));
+                    return true;
+                };
+            case OP_DGT:
+                return (frame, line) -> {
+                    double v1 = frame.asDouble(frame.pop());
+                    return frame.asDouble(frame.pop()) > v1;
+                };
+            case OP_DGT_EQ:
+                return (frame, line) -> {
+                    double v1 = frame.asDouble(frame.pop());
+                    return frame.asDouble(frame.pop()) >= v1;
+                };
+            case OP_DLT:
+                return (frame, line) -> {
+                    double v1 = frame.asDouble(frame.pop());
+                    return frame.asDouble(frame.pop()) < v1;
+                };
+            case OP_DLT_EQ:
+                return (frame, line) -> {
+                    double v1 = frame.asDouble(frame.pop());
+                    return frame.asDouble(frame.pop()) <= v1;
+                };
+            case OP_DEQ:
+                return (frame, line) -> {
+                    double v1 = frame.asDouble(frame.pop());
+                    return frame.asDouble(frame.pop()) == v1;
+                };
+            case OP_GT:
+                return (frame, line) -> {
+                    long v1 = frame.asLong(frame.pop());
+                    return frame.asLong(frame.pop()) > v1;
+                };
+            case OP_GT_EQ:
+                return (frame, line) -> {
+                    long v1 = frame.asLong(frame.pop());
+                    return frame.asLong(frame.pop()) >= v1;
+                };
+            case OP_LT:
+                return (frame, line) -> {
+                    long v1 = frame.asLong(frame.pop());
+                    return frame.asLong(frame.pop()) < v1;
+                };
+            case OP_LT_EQ:
+                return (frame, line) -> {
+                    long v1 = frame.asLong(frame.pop());
+                    return frame.asLong(frame.pop()) <= v1;
+                };
+            case OP_EQ:
+                return (frame, line) -> {
+                    long v1 = frame.asLong(frame.pop());
+                    return frame.asLong(frame.pop()) == v1;
+                };
+            case OP_SWAP:
+                return (frame, line) -> {
+                    int v1 = frame.pop();
+                    int v2 = frame.pop();
+                    frame.swap(v1, v2);
+                    frame.size += 2;
+                    return true;
+                };
+            case OP_SHIFTOUT:
+                return (frame, line) -> {
+                    calculator.getSourceColumnBinder(line).appendColumn(line, frame.box(frame.pop()));
+                    return true;
+                };
+            case OP_SET:
+                return (frame, line) -> {
+                    int col = (int) frame.asLong(frame.pop());
+                    Numeric val = frame.box(frame.pop());
+                    if (col < 0 || col > frame.maxcol) {
+                        calculator.getSourceColumnBinder(line).appendColumn(line, val);
+                    } else {
+                        calculator.getSourceColumnBinder(line).setColumn(line, col, val);
+                    }
+                    return true;
+                };
+            case OP_POP:
+                return (frame, line) -> {
+                    frame.pop();
+                    return true;
+                };
+            case OP_MIN:
+                return (frame, line) -> {
+                    int v1 = frame.pop();
+                    if (frame.isVector(v1)) {
+                        int acc = frame.pop();
+                        while (frame.size > 0) {
+                            int next = frame.pop();
+                            frame.min(acc, next, next);
+                            acc = next;
+                        }
+                    } else {
+                        int v2 = frame.pop();
+                        frame.min(v1, v2, v2);
+                    }
+                    frame.size++;
+                    return true;
+                };
+            case OP_MAX:
+                return (frame, line) -> {
+                    int v1 = frame.pop();
+                    if (frame.isVector(v1)) {
+                        int acc = frame.pop();
+                        while (frame.size > 0) {
+                            int next = frame.pop();
+                            frame.max(acc, next, next);
+                            acc = next;
+                        }
+                    } else {
+                        int v2 = frame.pop();
+                        frame.max(v1, v2, v2);
+                    }
+                    frame.size++;
+                    return true;
+                };
+            case OP_MINIF:
+                return (frame, line) -> {
+                    int v1 = frame.pop();
+                    int v2 = frame.pop();
+                    frame.selectIf(v1, v2, true);
+                    frame.size++;
+                    return true;
+                };
+            case OP_MAXIF:
+                return (frame, line) -> {
+                    int v1 = frame.pop();
+                    int v2 = frame.pop();
+                    frame.selectIf(v1, v2, false);
+                    frame.size++;
+                    return true;
+                };
+            case OP_MEAN:
+                return (frame, line) -> {
+                    long count = 0;
+                    double mean = 0.0;
+                    while (frame.size > 0) {
+                        count++;
+                        double num = frame.asDouble(frame.pop());
+                        double delta = num - mean;
+                        mean += delta / count;
+                    }
+                    frame.pushDouble(mean);
+                    return true;
+                };
+            case OP_VARIANCE:
+                return (frame, line) -> {
+                    long count = 0;
+                    double mean = 0.0;
+                    double m2 = 0.0;
+                    while (frame.size > 0) {
+                        count++;
+                        double num = frame.asDouble(frame.pop());
+                        double delta = num - mean;
+                        mean += delta / count;
+                        m2 += delta * (num - mean);
+                    }
+                    frame.pushDouble((count < 2) ? 0.0 : (m2 / count));
+                    return true;
+                };
+            case OP_VECTOR:
+                return (frame, line) -> {
+                    frame.pushRef(vector);
+                    return true;
+                };
+            case OP_ABS:
+                return (frame, line) -> {
+                    frame.pushDouble(Math.abs(frame.asDouble(frame.pop())));
+                    return true;
+                };
+            case OP_HASH:
+                return (frame, line) -> {
+                    frame.pushLong(PluggableHashFunction.hash(column(line, op).asString().toString()));
+                    return true;
+                };
+            default:
+                return (frame, line) -> true;
+        }
+    }
+
+    /**
+     * Constants are converted once if their conversion succeeds. Otherwise they
+     * are converted for every row so that the interpreter's exception is preserved.
+     */
+    private static Instruction compileValue(ValueObject val) {
+        Numeric numeric;
+        try {
+            numeric = val.asNumeric();
+        } catch (RuntimeException ex) {
+            return (frame, line) -> {
+                frame.push(val.asNumeric());
+                return true;
+            };
+        }
+        if (numeric != null && numeric.getObjectType() == ValueObject.TYPE.INT) {
+            long constant = numeric.asLong().getLong();
+            return (frame, line) -> {
+                frame.pushLong(constant);
+                return true;
+            };
+        } else if (numeric != null && numeric.getObjectType() == ValueObject.TYPE.FLOAT) {
+            double constant = numeric.asDouble().getDouble();
+            return (frame, line) -> {
+                frame.pushDouble(constant);
+                return true;
+            };
+        } else {
+            return (frame, line) -> {
+                frame.pushRef(numeric);
+                return true;
+            };
+        }
+    }
+
+    /**
+     * The calculation stack. Slot {@code i} holds a value of type {@code types[i]}
+     * in {@code longs[i]}, {@code doubles[i]} or {@code refs[i]}. Popping a slot
+     * leaves its contents in place until the slot is pushed again, so operations
+     * pop their operands and then write the result over the lowest popped slot.
+     */
+    static final class Frame {
+
+        static final byte LONG = 0;
+        static final byte DOUBLE = 1;
+        static final byte REF = 2;
+
+        byte[] types = new byte[16];
+        long[] longs = new long[16];
+        double[] doubles = new double[16];
+        Numeric[] refs = new Numeric[16];
+        int size;
+        long maxcol;
+        private int refHighWater;
+
+        void reset(long maxcol) {
+            this.maxcol = maxcol;
+            this.size = 0;
+            if (refHighWater > 0) {
+                Arrays.fill(refs, 0, refHighWater, null);
+                refHighWater = 0;
+            }
+        }
+
+        int pop() {
+            if (size == 0) {
+                throw new NoSuchElementException();
+            }
+            return --size;
+        }
+
+        /**
+         * Push an uninitialized slot and return its index.
+         */
+        int grow() {
+            if (size == types.length) {
+                int length = size * 2;
+                types = Arrays.copyOf(types, length);
+                longs = Arrays.copyOf(longs, length);
+                doubles = Arrays.copyOf(doubles, length);
+                refs = Arrays.copyOf(refs, length);
+            }
+            return size++;
+        }
+
+        void pushLong(long value) {
+            int slot = grow();
+            types[slot] = LONG;
+            longs[slot] = value;
+        }
+
+        void pushDouble(double value) {
+            int slot = grow();
+            types[slot] = DOUBLE;
+            doubles[slot] = value;
+        }
+
+        void pushRef(Numeric value) {
+            int slot = grow();
+            setRef(slot, value);
+        }
+
+        void push(Numeric value) {
+            set(grow(), value);
+        }
+
+        private void setRef(int slot, Numeric value) {
+            types[slot] = REF;
+            refs[slot] = value;
+            refHighWater = Math.max(refHighWater, slot + 1);
+        }
+
+        void set(int slot, Numeric value) {
+            if (value == null) {
+                setRef(slot, null);
+            } else if (value.getObjectType() == ValueObject.TYPE.INT) {
+                types[slot] = LONG;
+                longs[slot] = value.asLong().getLong();
+            } else if (value.getObjectType() == ValueObject.TYPE.FLOAT) {
+                types[slot] = DOUBLE;
+                doubles[slot] = value.asDouble().getDouble();
+            } else {
+                setRef(slot, value);
+            }
+        }
+
+        void copy(int from, int to) {
+            types[to] = types[from];
+            longs[to] = longs[from];
+            doubles[to] = doubles[from];
+            if (types[from] == REF) {
+                setRef(to, refs[from]);
+            }
+        }
+
+        void swap(int a, int b) {
+            byte type = types[a];
+            long l = longs[a];
+            double d = doubles[a];
+            Numeric ref = refs[a];
+            types[a] = types[b];
+            longs[a] = longs[b];
+            doubles[a] = doubles[b];
+            refs[a] = refs[b];
+            types[b] = type;
+            longs[b] = l;
+            doubles[b] = d;
+            refs[b] = ref;
+            refHighWater = Math.max(refHighWater, Math.max(a, b) + 1);
+        }
+
+        boolean isVector(int slot) {
+            return types[slot] == REF && refs[slot] == vector;
+        }
+
+        Numeric box(int slot) {
+            switch (types[slot]) {
+                case LONG:
+                    return ValueFactory.create(longs[slot]);
+                case DOUBLE:
+                    return ValueFactory.create(doubles[slot]);
+                default:
+                    return refs[slot];
+            }
+        }
+
+        long asLong(int slot) {
+            switch (types[slot]) {
+                case LONG:
+                    return longs[slot];
+                case DOUBLE:
+                    return ValueFactory.create(doubles[slot]).asLong().getLong();
+                default:
+                    return refs[slot].asLong().getLong();
+            }
+        }
+
+        double asDouble(int slot) {
+            switch (types[slot]) {
+                case LONG:
+                    return longs[slot];
+                case DOUBLE:
+                    return doubles[slot];
+                default:
+                    return refs[slot].asDouble().getDouble();
+            }
+        }
+
+        /** Store {@code a.sum(b)} in {@code target}. */
+        void sum(int a, int b, int target) {
+            if (types[a] == LONG && types[b] == LONG) {
+                longs[target] = longs[a] + longs[b];
+                types[target] = LONG;
+            } else if (types[a] == DOUBLE && types[b] == DOUBLE) {
+                doubles[target] = doubles[a] + doubles[b];
+                types[target] = DOUBLE;
+            } else {
+                set(target, box(a).sum(box(b)));
+            }
+        }
+
+        /** Store {@code a.diff(b)} in {@code target}. */
+        void diff(int a, int b, int target) {
+            if (types[a] == LONG && types[b] == LONG) {
+                longs[target] = longs[a] - longs[b];
+                types[target] = LONG;
+            } else if (types[a] == DOUBLE && types[b] == DOUBLE) {
+                doubles[target] = doubles[a] - doubles[b];
+                types[target] = DOUBLE;
+            } else {
+                set(target, box(a).diff(box(b)));
+            }
+        }
+
+        /** Store {@code a.min(b)} in {@code target}. */
+        void min(int a, int b, int target) {
+            if (types[a] == LONG && types[b] == LONG) {
+                longs[target] = Math.min(longs[a], longs[b]);
+                types[target] = LONG;
+            } else {
+                set(target, box(a).min(box(b)));
+            }
+        }
+
+        /** Store {@code a.max(b)} in {@code target}. */
+        void max(int a, int b, int target) {
+            if (types[a] == LONG && types[b] == LONG) {
+                longs[target] = Math.max(longs[a], longs[b]);
+                types[target] = LONG;
+            } else {
+                set(target, box(a).max(box(b)));
+            }
+        }
+
+        /**
+         * Implements "minif" ({@code v1.max(v2).equals(v1) ? v1 : v2}) and
+         * "maxif" ({@code v1.min(v2).equals(v1) ? v1 : v2}). The result is stored in {@code v2}.
+         */
+        void selectIf(int v1, int v2, boolean minif) {
+            boolean first;
+            if (types[v1] == LONG && types[v2] == LONG) {
+                first = minif ? (longs[v1] >= longs[v2]) : (longs[v1] <= longs[v2]);
+            } else {
+                Numeric n1 = box(v1);
+                Numeric n2 = box(v2);
+                first = (minif ? n1.max(n2) : n1.min(n2)).equals(n1);
+                if (first) {
+                    set(v2, n1);
+                }
+                return;
+            }
+            if (first) {
+                copy(v1, v2);
+            }
+        }
+
+        /**
+         * If the value object contains one or more "," characters then attempt
+         * to parse it as an array. Otherwise assume the input is a number.
+         */
+        void insertNumbers(ValueObject input) {
+            try {
+                if (input instanceof ValueString) {
+                    String targetString = input.asString().toString();
+                    if (targetString.indexOf(',') >= 0) {
+                        String[] targets = targetString.split(",");
+                        for (int i = 0; i < targets.length; i++) {
+                            Number number = NumberFormat.getInstance().parse(targets[i]);
+                            if (number instanceof Long) {
+                                pushLong(number.longValue());
+                            } else if (number instanceof Double) {
+                                pushDouble(number.doubleValue());
+                            } else {
+                                throw new IllegalStateException(number + " is neither Long nor Double");
+                            }
+                        }
+                    } else {
+                        push(input.asNumeric());
+                    }
+                } else {
+                    push(input.asNumeric());
+                }
+            } catch (ParseException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+    }
+}
@@ -13,11 +13,17 @@
  */
 package com.addthis.hydra.data.filter.bundle;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.addthis.bundle.core.Bundle;
 import com.addthis.bundle.util.CachingField;
 import com.addthis.bundle.util.map.MapBundle;
 
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -37,5 +43,15 @@ public class TestBundleFilterNot {
         assertFalse(bff.filter(bundle));
     }
 
+    @Test
+    public void batchTest() {
+        BundleFilterNot bff = new BundleFilterNot(new CachingField("foo"));
+        MapBundle first = MapBundle.createBundle(new String[]{"dog", "food"});
+        MapBundle second = MapBundle.createBundle(new String[]{"dog", "food", "foo", "bar"});
+        MapBundle third = MapBundle.createBundle(new String[]{"cat", "food"});
+        List<Bundle> batch = new ArrayList<>(Arrays.asList(first, second, third));
+        bff.filter(batch);
+        assertEquals(Arrays.asList(first, third), batch);
+    }
 
 }
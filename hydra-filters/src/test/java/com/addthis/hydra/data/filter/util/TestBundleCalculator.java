@@ -0,0 +1,128 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.filter.util;
+
+import java.util.Random;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleField;
+import com.addthis.bundle.core.list.ListBundle;
+import com.addthis.bundle.value.ValueArray;
+import com.addthis.bundle.value.ValueFactory;
+import com.addthis.bundle.value.ValueObject;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestBundleCalculator {
+
+    private static final String[] definitions = {
+            "c0,c1,+,v3,set",
+            "c0,c1,-,v3,set",
+            "c0,c1,*,v3,set",
+            "c0,c2,dmult,v3,set",
+            "c0,c1,/,v3,set",
+            "c0,c1,/,v3,set,diverr",
+            "c2,c1,ddiv,v3,set",
+            "c2,c1,ddiv,diverr,v3,set",
+            "c0,c1,%,v3,set",
+            "c0,c2,+,c1,-,v3,set",
+            "c0,c2,min,c1,max,v3,set",
+            "c2,c0,minif,v3,set,c2,c0,maxif,v4,set",
+            "c0,c1,minif,v3,set,c0,c1,maxif,v4,set",
+            "c0,c1,gt,c0,v3,set",
+            "c0,c1,lteq,c1,v3,set",
+            "c2,c0,dgt,c2,v3,set",
+            "c2,n0.5,dlteq,c2,v3,set",
+            "c0,c1,eq,n1,v3,set",
+            "c0,c1,c2,vector,+,v3,set",
+            "c0,c1,c2,vector,*,v3,set",
+            "c0,c1,c2,vector,dmult,v3,set",
+            "c0,c1,c2,vector,min,v3,set",
+            "c0,c1,c2,vector,max,v3,set",
+            "c0,c1,c2,mean,v3,set",
+            "c0,c1,c2,variance,v3,set",
+            "c2,log,c2,sqrt,+,abs,v3,set",
+            "c2,toint,v3,set,c0,tofloat,v4,set",
+            "c2,tobits,btof,v3,set",
+            "c0,dup,*,x,pop,v3,set",
+            "c0,c1,swap,-,out",
+            "a5,mean,v3,set",
+            "c6,+,v3,set",
+            "Cc0,Cc2,+,v3,set",
+            "h6,v3,set",
+            "n3:4.5,+,v9,set",
+    };
+
+    private static Bundle createBundle(Random random) {
+        Bundle bundle = new ListBundle();
+        set(bundle, "c0", ValueFactory.create(random.nextInt(21) - 10));
+        set(bundle, "c1", ValueFactory.create(random.nextInt(5)));
+        set(bundle, "c2", ValueFactory.create((random.nextInt(40) - 20) / 4.0));
+        set(bundle, "c3", ValueFactory.create(0));
+        set(bundle, "c4", ValueFactory.create(0));
+        ValueArray array = ValueFactory.createArray(3);
+        for (int i = 0; i < 3; i++) {
+            array.add(ValueFactory.create(random.nextInt(100)));
+        }
+        set(bundle, "c5", array);
+        set(bundle, "c6", ValueFactory.create(random.nextInt(10) + "," + random.nextInt(10)));
+        return bundle;
+    }
+
+    private static void set(Bundle bundle, String name, ValueObject value) {
+        bundle.setValue(bundle.getFormat().getField(name), value);
+    }
+
+    private static String calculate(String definition, boolean compile, Bundle bundle) {
+        try {
+            if (new BundleCalculator(definition, compile).calculate(bundle) == null) {
+                return "null";
+            }
+        } catch (RuntimeException ex) {
+            return ex.getClass().getName();
+        }
+        StringBuilder builder = new StringBuilder();
+        for (BundleField field : bundle) {
+            ValueObject value = bundle.getValue(field);
+            builder.append(field.getName()).append('=');
+            if (value != null) {
+                builder.append(value.getObjectType()).append(':').append(value);
+            }
+            builder.append(' ');
+        }
+        return builder.toString();
+    }
+
+    @Test
+    public void compiledMatchesInterpreter() {
+        Random random = new Random(11);
+        for (String definition : definitions) {
+            for (int i = 0; i < 200; i++) {
+                long seed = random.nextLong();
+                String expected = calculate(definition, false, createBundle(new Random(seed)));
+                String observed = calculate(definition, true, createBundle(new Random(seed)));
+                assertEquals(definition, expected, observed);
+            }
+        }
+    }
+
+    @Test
+    public void stackUnderflow() {
+        Bundle bundle = createBundle(new Random(0));
+        assertEquals(calculate("+", false, bundle), calculate("+", true, bundle));
+        assertEquals(calculate("dup,abs", false, bundle), calculate("dup,abs", true, bundle));
+    }
+}
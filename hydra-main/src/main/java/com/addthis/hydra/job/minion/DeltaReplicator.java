@@ -0,0 +1,196 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.job.minion;
+
+import javax.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import java.nio.charset.StandardCharsets;
+
+import com.addthis.basis.util.Files;
+
+import com.google.common.base.Joiner;
+import com.google.common.hash.Hashing;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Prepares an incremental replication of a task's live directory.
+ * <p/>
+ * The manifest of the local live directory is compared against the manifest
+ * that the previous replication left on the replica. Only new and changed
+ * files, plus the log directory, are shipped. They are copied into a staging
+ * directory on the replica in a single transfer. The replica then runs the
+ * generated commit script. It checks that its live directory is still in the
+ * state described by the manifest the delta was computed from, verifies the
+ * md5 checksum of every staged file, and only then moves the files into place.
+ * Files that no longer exist locally are deleted and the new manifest is
+ * installed last. A transfer that fails verification leaves the replica's
+ * live directory untouched.
+ * <p/>
+ * The control files for a replica are written to
+ * {@code config/replicate/<replica>} under the task root. All paths in the
+ * transfer list are relative to the task root.
+ */
+final class DeltaReplicator {
+
+    private static final Logger log = LoggerFactory.getLogger(DeltaReplicator.class);
+
+    /**
+     * Staging directory on the replica, relative to the task root.
+     */
+    static final String STAGING_DIR = ".replicate";
+
+    static final String FILES = "files";
+    static final String SUMS = "sums";
+    static final String MANIFEST = "manifest";
+    static final String COMMIT = "commit.sh";
+
+    private DeltaReplicator() {}
+
+    /**
+     * Write the control files that replicate {@code local} to a replica whose
+     * live directory is described by {@code remoteText}.
+     *
+     * @param taskRoot   local task root directory
+     * @param replica    name of the replica, used for the control directory
+     * @param local      manifest of the local live directory
+     * @param remoteBase task root directory on the replica
+     * @param remoteText contents of the manifest on the replica
+     * @return the control directory or null if the replica must be copied in full
+     */
+    @Nullable static File prepare(File taskRoot, String replica, TaskManifest local, String remoteBase,
+                                  @Nullable String remoteText) throws IOException {
+        if ((remoteText == null) || remoteText.isEmpty()) {
+            log.info("[replicate] no manifest on replica {}; copying all files", replica);
+            return null;
+        }
+        if (!TaskManifest.isSafePath(replica) || !TaskManifest.isSafePath(remoteBase.replaceFirst("^/", "")) ||
+            !local.isSafe()) {
+            log.warn("[replicate] unsupported path for incremental replication to {}", replica);
+            return null;
+        }
+        TaskManifest remote;
+        try {
+            remote = TaskManifest.parse(remoteText);
+        } catch (IllegalArgumentException ex) {
+            log.warn("[replicate] invalid manifest on replica {}; copying all files", replica, ex);
+            return null;
+        }
+        String controlPath = "config/replicate/" + replica;
+        File control = new File(taskRoot, controlPath);
+        if (control.exists()) {
+            Files.deleteDir(control);
+        }
+        Files.initDirectory(control);
+        File manifestFile = new File(control, MANIFEST);
+        local.write(manifestFile);
+
+        List<TaskManifest.Entry> changed = local.changedSince(remote);
+        List<String> removed = local.removedSince(remote);
+        List<String> logs = new ArrayList<>();
+        listLogs(new File(taskRoot, "live/" + TaskManifest.LOG_DIR), TaskManifest.LOG_DIR, logs);
+
+        List<String> files = new ArrayList<>();
+        StringBuilder sums = new StringBuilder();
+        SortedSet<String> dirs = new TreeSet<>();
+        long bytes = 0;
+        for (TaskManifest.Entry entry : changed) {
+            files.add("live/" + entry.path);
+            sums.append(entry.md5).append("  live/").append(entry.path).append('\n');
+            addParent(dirs, entry.path);
+            bytes += entry.size;
+        }
+        for (String path : logs) {
+            files.add("live/" + path);
+            addParent(dirs, path);
+        }
+        String manifestSum = com.google.common.io.Files.asByteSource(manifestFile).hash(Hashing.md5()).toString();
+        sums.append(manifestSum).append("  ").append(controlPath).append('/').append(MANIFEST).append('\n');
+        files.add(controlPath + "/" + MANIFEST);
+        files.add(controlPath + "/" + SUMS);
+        files.add(controlPath + "/" + COMMIT);
+
+        String baseSum = Hashing.md5().hashString(remote.encode(), StandardCharsets.UTF_8).toString();
+        StringBuilder commit = new StringBuilder("#!/bin/sh\nset -e\n");
+        commit.append("cd ").append(remoteBase).append('\n');
+        commit.append("echo '").append(baseSum).append("  live/").append(TaskManifest.MANIFEST_NAME)
+              .append("' | ").append(MacUtils.md5cmd).append(" -c --status\n");
+        commit.append("cd ").append(STAGING_DIR).append('\n');
+        commit.append(MacUtils.md5cmd).append(" -c --quiet ").append(controlPath).append('/').append(SUMS).append('\n');
+        commit.append("cd ..\n");
+        commit.append(MacUtils.rmcmd).append(" -f live/").append(TaskManifest.MANIFEST_NAME).append('\n');
+        for (String dir : dirs) {
+            commit.append("mkdir -p live/").append(dir).append('\n');
+        }
+        for (TaskManifest.Entry entry : changed) {
+            appendMove(commit, entry.path);
+        }
+        for (String path : logs) {
+            appendMove(commit, path);
+        }
+        for (String path : removed) {
+            commit.append(MacUtils.rmcmd).append(" -f live/").append(path).append('\n');
+        }
+        commit.append(MacUtils.mvcmd).append(" -f ").append(STAGING_DIR).append('/').append(controlPath).append('/')
+              .append(MANIFEST).append(" live/").append(TaskManifest.MANIFEST_NAME).append('\n');
+        commit.append(MacUtils.rmcmd).append(" -rf ").append(STAGING_DIR).append('\n');
+
+        Files.write(new File(control, SUMS), sums.toString().getBytes(StandardCharsets.UTF_8), false);
+        Files.write(new File(control, COMMIT), commit.toString().getBytes(StandardCharsets.UTF_8), false);
+        Files.write(new File(control, FILES), (Joiner.on('\n').join(files) + "\n").getBytes(StandardCharsets.UTF_8),
+                    false);
+        log.warn("[replicate] {} of {} files ({} bytes) changed and {} removed since last replication to {}",
+                 changed.size(), local.entries().size(), bytes, removed.size(), replica);
+        return control;
+    }
+
+    private static void listLogs(File dir, String prefix, List<String> logs) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String path = prefix + "/" + file.getName();
+            if (!TaskManifest.isSafePath(path)) {
+                continue;
+            }
+            if (file.isDirectory()) {
+                listLogs(file, path, logs);
+            } else if (file.isFile()) {
+                logs.add(path);
+            }
+        }
+    }
+
+    private static void addParent(SortedSet<String> dirs, String path) {
+        int slash = path.lastIndexOf('/');
+        if (slash > 0) {
+            dirs.add(path.substring(0, slash));
+        }
+    }
+
+    private static void appendMove(StringBuilder commit, String path) {
+        commit.append(MacUtils.mvcmd).append(" -f ").append(STAGING_DIR).append("/live/").append(path)
+              .append(" live/").append(path).append('\n');
+    }
+}
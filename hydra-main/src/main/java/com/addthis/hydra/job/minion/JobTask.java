@@ -14,6 +14,7 @@
 package com.addthis.hydra.job.minion;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import java.io.File;
 import java.io.IOException;
@@ -385,13 +386,15 @@ public class JobTask implements Codable {
         return true;
     }
 
-    private List<String> assembleReplicateCommandAndInformSpawn(ReplicaTarget replica, boolean replicateAllBackups) throws IOException {
+    private List<String> assembleReplicateCommandAndInformSpawn(ReplicaTarget replica, boolean replicateAllBackups,
+                                                                @Nullable TaskManifest manifest) throws IOException {
         List<String> rv = new ArrayList<>();
         if (replica == null || !shouldExecuteReplica(replica)) {
             return null;
         }
         try {
-            String target = ProcessUtils.getTaskBaseDir(replica.getBaseDir(), id, node);
+            String baseDir = ProcessUtils.getTaskBaseDir(replica.getBaseDir(), id, node);
+            String target = baseDir;
             if (!replicateAllBackups) {
                 target += "/live";
             }
@@ -418,8 +421,11 @@ public class JobTask implements Codable {
                 sb.append("\n" + createTouchCommand(false, userAT, target + "/live/replicate.complete", false));
                 rv.add(sb.toString());
             } else {
+                String copyCommand = (manifest != null) ?
+                                     createDeltaReplicateCommand(replica, userAT, baseDir, manifest) :
+                                     createRsyncCommand(userAT, jobDir.getAbsolutePath() + "/", target);
                 rv.add(createDeleteCommand(false, userAT, target + "/replicate.complete") +
-                                "\n" + createRsyncCommand(userAT, jobDir.getAbsolutePath() + "/", target) +
+                                "\n" + copyCommand +
                                 "\n" + createTouchCommand(false, userAT, target + "/replicate.complete", false)
                 );
             }
@@ -464,6 +470,39 @@ public class JobTask implements Codable {
         return "retry " + Minion.rsyncCommand + (Minion.copyBandwidthLimit > 0 ? " --bwlimit " + Minion.copyBandwidthLimit : "") + " -Hqa --exclude config --exclude gold --exclude replicate.complete --exclude backup.complete --delete-after -e \\'" + Minion.remoteConnectMethod + "\\' " + source + " " + userAT + ":" + target;
     }
 
+    /**
+     * Copy only the files of the live directory that changed since the last replication to {@code replica}.
+     * Falls back to a full rsync followed by an upload of the manifest when the replica has no manifest
+     * or when the incremental transfer fails or does not pass verification on the replica.
+     */
+    private String createDeltaReplicateCommand(ReplicaTarget replica, String userAT, String baseDir,
+                                               TaskManifest manifest) throws Exception {
+        String target = baseDir + "/live";
+        String remoteManifest = execCommandReturnStdOut(
+                Minion.remoteConnectMethod + " " + userAT + " cat " + target + "/" + TaskManifest.MANIFEST_NAME);
+        String fullCopy = createRsyncCommand(userAT, jobDir.getAbsolutePath() + "/", target) + "\n" +
+                          createRsyncCommand(userAT, new File(getConfigDir(), TaskManifest.MANIFEST_NAME).getAbsolutePath(),
+                                             target + "/" + TaskManifest.MANIFEST_NAME);
+        File control;
+        try {
+            control = DeltaReplicator.prepare(taskRoot, replica.getHostUuid(), manifest, baseDir, remoteManifest);
+        } catch (IOException ex) {
+            log.warn("[replicate] failed to prepare incremental replication of {}", getJobKey(), ex);
+            control = null;
+        }
+        if (control == null) {
+            return fullCopy;
+        }
+        String staging = baseDir + "/" + DeltaReplicator.STAGING_DIR;
+        String transfer = "retry " + Minion.rsyncCommand + (Minion.copyBandwidthLimit > 0 ? " --bwlimit " + Minion.copyBandwidthLimit : "") + " -qa --whole-file --files-from=" + new File(control, DeltaReplicator.FILES).getAbsolutePath() + " -e \\'" + Minion.remoteConnectMethod + "\\' " + taskRoot.getAbsolutePath() + "/ " + userAT + ":" + staging + "/";
+        String commit = Minion.remoteConnectMethod + " " + userAT + " sh " + staging + "/" +
+                        taskRoot.toPath().relativize(new File(control, DeltaReplicator.COMMIT).toPath());
+        // retry exits the script once it gives up, so run the transfer in a subshell to reach the fallback
+        return "( " + transfer + " ) && " + commit + " || {\n" +
+               Minion.echoWithDate_cmd + "Incremental replication failed, copying all files\n" +
+               createDeleteCommand(false, userAT, staging) + "\n" + fullCopy + "\n}";
+    }
+
     private String createBackupCommand(boolean local, String userAT, String baseDir, String source, String name) {
         String sourceDir = baseDir + "/" + source;
         String targetDir = baseDir + "/" + name;
@@ -982,13 +1021,37 @@ public class JobTask implements Codable {
         bash.append(Minion.echoWithDate_cmd + "Deleting environment lock files in preparation for replication\n");
         bash.append("find " + jobDir.getCanonicalPath() + " -name je.lck -print -exec rm {} \\;\n");
         bash.append("find " + jobDir.getCanonicalPath() + " -name je.info.0 -print -exec rm {} \\;\n");
-        appendReplicas(bash, failureRecoveryReplicas, true); // Add commands for any the failure-recovery replicas that definitely need full rsyncs
-        appendReplicas(bash, replicas, replicateAllBackups); // Add commands for the existing replicas
+        // a manifest left over from when this task was a replica must not be copied to other replicas
+        bash.append("rm -f " + new File(jobDir, TaskManifest.MANIFEST_NAME).getCanonicalPath() + "\n");
+        TaskManifest manifest = (Minion.deltaReplication && !replicateAllBackups) ? scanManifest() : null;
+        appendReplicas(bash, failureRecoveryReplicas, true, null); // Add commands for any the failure-recovery replicas that definitely need full rsyncs
+        appendReplicas(bash, replicas, replicateAllBackups, manifest); // Add commands for the existing replicas
         bash.append(Minion.echoWithDate_cmd + "Finished replicating successfully\n");
         return bash.toString();
     }
 
-    private void appendReplicas(StringBuilder bash, ReplicaTarget[] replicas, boolean replicateAllBackups) throws IOException {
+    /**
+     * Returns the manifest of the live directory or null if the task must be replicated with a full rsync.
+     * Checksums are reused from the manifest saved by the previous replication.
+     */
+    @Nullable private TaskManifest scanManifest() {
+        File saved = new File(getConfigDir(), TaskManifest.MANIFEST_NAME);
+        try {
+            TaskManifest manifest = TaskManifest.scan(jobDir, TaskManifest.read(saved));
+            if (!manifest.isSafe()) {
+                log.warn("[replicate] {} contains file names unsupported by incremental replication", getJobKey());
+                return null;
+            }
+            manifest.write(saved);
+            return manifest;
+        } catch (Exception ex) {
+            log.warn("[replicate] failed to build manifest for {}", getJobKey(), ex);
+            return null;
+        }
+    }
+
+    private void appendReplicas(StringBuilder bash, ReplicaTarget[] replicas, boolean replicateAllBackups,
+                                @Nullable TaskManifest manifest) throws IOException {
         if (replicas == null) {
             return;
         }
@@ -996,7 +1059,7 @@ public class JobTask implements Codable {
             if (replica.getHostUuid() == null || replica.getHostUuid().equals(minion.uuid)) {
                 return;
             }
-            List<String> replicateCommands = assembleReplicateCommandAndInformSpawn(replica, replicateAllBackups);
+            List<String> replicateCommands = assembleReplicateCommandAndInformSpawn(replica, replicateAllBackups, manifest);
             if (replicateCommands == null || replicateCommands.isEmpty()) {
                 return;
             }
@@ -27,6 +27,7 @@ final class MacUtils {
     static final String rmcmd;
     static final String mvcmd;
     static final String ducmd;
+    static final String md5cmd;
     static final boolean useMacFriendlyPSCommands;
     static final boolean linkBackup;
 
@@ -57,6 +58,7 @@ final class MacUtils {
             rmcmd = "grm";
             mvcmd = "gmv";
             ducmd = "gdu";
+            md5cmd = "gmd5sum";
             useMacFriendlyPSCommands = true;
         } else {
             cpcmd = "cp";
@@ -65,6 +67,7 @@ final class MacUtils {
             rmcmd = "rm";
             mvcmd = "mv";
             ducmd = "du";
+            md5cmd = "md5sum";
             useMacFriendlyPSCommands = false;
         }
     }
@@ -137,6 +137,8 @@ public class Minion implements MessageListener, Codable, AutoCloseable {
     static final String remoteConnectMethod = Parameter.value("minion.remote.connect.method",
                                                               "ssh -o StrictHostKeyChecking=no -o TCPKeepAlive=yes -o ServerAliveInterval=30");
     static final String rsyncCommand = Parameter.value("minion.rsync.command", "rsync");
+    /* If true, replicas of the live directory are updated with only the files that changed since the last replication. */
+    static final boolean deltaReplication = Parameter.boolValue("minion.replicate.delta", false);
     private static final int maxActiveTasks = Parameter.intValue("minion.max.active.tasks", 3);
     static final int copyRetryLimit = Parameter.intValue("minion.copy.retry.limit", 3);
     static final int copyRetryDelaySeconds = Parameter.intValue("minion.copy.retry.delay", 10);
@@ -0,0 +1,236 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.job.minion;
+
+import javax.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import java.nio.charset.StandardCharsets;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+/**
+ * The files of a task's live directory along with their size, modification
+ * time and md5 checksum.
+ * <p/>
+ * Store files are append-only and are never rewritten once they have been
+ * rolled, so between two runs of a task most files are unchanged. Comparing
+ * the manifest of the live directory against the manifest of a replica
+ * yields the small set of files that must be shipped for the replica to catch up.
+ * Checksums are only computed for files whose size or modification time
+ * differs from the previous manifest of the same directory.
+ * <p/>
+ * Files that are excluded from replication (see {@link JobTask}) and the
+ * {@code log} directory, which is written to while replication is in progress,
+ * are not tracked.
+ */
+final class TaskManifest {
+
+    static final String MANIFEST_NAME = "replicate.manifest";
+
+    static final String LOG_DIR = "log";
+
+    /**
+     * Path components that are never replicated.
+     */
+    private static final ImmutableSet<String> EXCLUDED = ImmutableSet.of(
+            "config", "gold", "replicate.complete", "backup.complete", MANIFEST_NAME, "je.lck", "je.info.0");
+
+    /**
+     * Paths that can be written into generated shell scripts without quoting.
+     */
+    private static final Pattern SAFE_PATH = Pattern.compile("[A-Za-z0-9_.,+=@:][A-Za-z0-9_.,+=@:/-]*");
+
+    static final class Entry {
+
+        final String path;
+        final long size;
+        final long modified;
+        final String md5;
+
+        Entry(String path, long size, long modified, String md5) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+            this.md5 = md5;
+        }
+
+        boolean sameFile(Entry other) {
+            return (size == other.size) && (modified == other.modified) && md5.equals(other.md5);
+        }
+    }
+
+    private final SortedMap<String, Entry> entries;
+
+    private TaskManifest(SortedMap<String, Entry> entries) {
+        this.entries = entries;
+    }
+
+    static TaskManifest empty() {
+        return new TaskManifest(new TreeMap<>());
+    }
+
+    /**
+     * Build the manifest of {@code dir}. Checksums are copied from
+     * {@code previous} for files whose size and modification time are unchanged.
+     */
+    static TaskManifest scan(File dir, @Nullable TaskManifest previous) throws IOException {
+        SortedMap<String, Entry> entries = new TreeMap<>();
+        scan(dir, "", previous, entries);
+        return new TaskManifest(entries);
+    }
+
+    private static void scan(File dir, String prefix, @Nullable TaskManifest previous,
+                             SortedMap<String, Entry> entries) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (EXCLUDED.contains(name) || (prefix.isEmpty() && name.equals(LOG_DIR))) {
+                continue;
+            }
+            String path = prefix + name;
+            if (file.isDirectory()) {
+                scan(file, path + "/", previous, entries);
+            } else if (file.isFile()) {
+                long size = file.length();
+                long modified = file.lastModified();
+                Entry prior = (previous != null) ? previous.entries.get(path) : null;
+                String md5;
+                if ((prior != null) && (prior.size == size) && (prior.modified == modified)) {
+                    md5 = prior.md5;
+                } else {
+                    md5 = Files.asByteSource(file).hash(Hashing.md5()).toString();
+                }
+                entries.put(path, new Entry(path, size, modified, md5));
+            }
+        }
+    }
+
+    /**
+     * Returns the manifest in the format written by {@link #encode()}.
+     * Returns an empty manifest if {@code text} is null or empty.
+     *
+     * @throws IllegalArgumentException if {@code text} is malformed
+     */
+    static TaskManifest parse(@Nullable String text) {
+        SortedMap<String, Entry> entries = new TreeMap<>();
+        if (text != null) {
+            for (String line : text.split("\n")) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] split = line.split(" ", 4);
+                if (split.length != 4) {
+                    throw new IllegalArgumentException("malformed manifest line: " + line);
+                }
+                Entry entry = new Entry(split[3], Long.parseLong(split[1]), Long.parseLong(split[2]), split[0]);
+                entries.put(entry.path, entry);
+            }
+        }
+        return new TaskManifest(entries);
+    }
+
+    static TaskManifest read(File file) throws IOException {
+        if (!file.exists()) {
+            return empty();
+        }
+        return parse(Files.asCharSource(file, StandardCharsets.UTF_8).read());
+    }
+
+    void write(File file) throws IOException {
+        Files.asCharSink(file, StandardCharsets.UTF_8).write(encode());
+    }
+
+    /**
+     * One line per file: {@code md5 size modified path}.
+     */
+    String encode() {
+        StringBuilder sb = new StringBuilder();
+        for (Entry entry : entries.values()) {
+            sb.append(entry.md5).append(' ').append(entry.size).append(' ')
+              .append(entry.modified).append(' ').append(entry.path).append('\n');
+        }
+        return sb.toString();
+    }
+
+    Collection<Entry> entries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    @Nullable Entry get(String path) {
+        return entries.get(path);
+    }
+
+    boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * Returns true if every path can be embedded in a shell script without quoting.
+     */
+    boolean isSafe() {
+        for (String path : entries.keySet()) {
+            if (!isSafePath(path)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean isSafePath(String path) {
+        return SAFE_PATH.matcher(path).matches() && !path.contains("..");
+    }
+
+    /**
+     * Returns the files of this manifest that are missing from {@code base} or differ from it.
+     */
+    List<Entry> changedSince(TaskManifest base) {
+        List<Entry> changed = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            Entry prior = base.entries.get(entry.path);
+            if ((prior == null) || !prior.sameFile(entry)) {
+                changed.add(entry);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Returns the paths of {@code base} that are not in this manifest.
+     */
+    List<String> removedSince(TaskManifest base) {
+        List<String> removed = new ArrayList<>();
+        for (String path : base.entries.keySet()) {
+            if (!entries.containsKey(path)) {
+                removed.add(path);
+            }
+        }
+        return removed;
+    }
+}
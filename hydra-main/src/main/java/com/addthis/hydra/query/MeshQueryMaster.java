@@ -83,6 +83,9 @@ public class MeshQueryMaster extends ChannelOutboundHandlerAdapter {
     private final WorkerTracker worky;
     private final DefaultTaskAllocators allocators;
 
+    /** Results of recent queries, or null if result caching is disabled */
+    private final QueryResultCache resultCache;
+
     public MeshQueryMaster(QueryTracker tracker) throws Exception {
         this.tracker = tracker;
 
@@ -107,6 +110,13 @@ public class MeshQueryMaster extends ChannelOutboundHandlerAdapter {
             spawnDataStoreHandler = null;
         }
 
+        // result caching needs the spawn datastore to detect new job runs
+        if (QueryResultCache.enabled && (spawnDataStoreHandler != null)) {
+            resultCache = new QueryResultCache();
+        } else {
+            resultCache = null;
+        }
+
         Runtime.getRuntime().addShutdownHook(new Thread() {
             public void run() {
                 shutdown();
@@ -178,6 +188,27 @@ public class MeshQueryMaster extends ChannelOutboundHandlerAdapter {
             spawnDataStoreHandler.validateJobForQuery(query);
         }
 
+        String cacheKey = null;
+        if (resultCache != null) {
+            String version = spawnDataStoreHandler.getDataVersion(query.getJob());
+            if (version != null) {
+                resultCache.updateVersion(query.getJob(), version);
+            }
+            cacheKey = QueryResultCache.key(query, version);
+            // null when there is no entry or its spilled file is gone; the query then goes to the workers
+            QueryResultCache.ReplayHandler cached = (cacheKey != null) ? resultCache.replay(cacheKey) : null;
+            if (cached != null) {
+                log.debug("answering query {} from the result cache", query.uuid());
+                // the cached results have already passed through the ops
+                query.clearOps();
+                ctx.pipeline().addLast(ctx.executor(), "cached result", cached);
+                ctx.pipeline().addLast(ctx.executor(), "query tracker", new TrackerHandler(tracker, opsLog));
+                ctx.pipeline().remove(this);
+                ctx.pipeline().write(query, promise);
+                return;
+            }
+        }
+
         // creates query for worker and updates local query ops (!mutates query!)
         // TODO: fix this pipeline interface
         Query remoteQuery = query.createPipelinedQuery();
@@ -227,7 +258,7 @@ public class MeshQueryMaster extends ChannelOutboundHandlerAdapter {
 
         MeshSourceAggregator aggregator = new MeshSourceAggregator(sourcesByTaskID, meshy, this, remoteQuery);
         ctx.pipeline().addLast(ctx.executor(), "query aggregator", aggregator);
-        TrackerHandler trackerHandler = new TrackerHandler(tracker, opsLog);
+        TrackerHandler trackerHandler = new TrackerHandler(tracker, opsLog, resultCache, cacheKey);
         ctx.pipeline().addLast(ctx.executor(), "query tracker", trackerHandler);
         ctx.pipeline().remove(this);
         ctx.pipeline().write(query, promise);
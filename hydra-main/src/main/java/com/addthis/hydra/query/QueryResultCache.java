@@ -0,0 +1,615 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.query;
+
+import javax.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.addthis.basis.util.Files;
+import com.addthis.basis.util.Parameter;
+
+import com.addthis.bundle.channel.DataChannelOutput;
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.list.ListBundle;
+import com.addthis.bundle.io.DataChannelReader;
+import com.addthis.bundle.io.DataChannelWriter;
+import com.addthis.hydra.data.query.Query;
+import com.addthis.hydra.data.util.BundleUtils;
+import com.addthis.hydra.query.aggregate.AggregateConfig;
+import com.addthis.hydra.query.aggregate.DetailedStatusTask;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelProgressivePromise;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.concurrent.EventExecutor;
+
+/**
+ * Caches the final results of queries on the query master so that repeated
+ * queries are answered without contacting the workers.
+ * <p/>
+ * Results are keyed by the job, the data version of the job, the query paths
+ * and the query ops. The data version is derived from the state of every task
+ * of the job in the spawn datastore and changes when the data of a task changes.
+ * Queries of jobs with active tasks are not cached. All entries of a job are
+ * dropped as soon as a new data version of the job is observed.
+ * <p/>
+ * Small results are held in memory. Results larger than {@code qmaster.cache.spill}
+ * bytes are written to files in the cache directory. The cache is bounded by
+ * the number of entries, the bytes held in memory and the bytes held on disk.
+ * The least recently used entries are evicted first.
+ */
+public class QueryResultCache {
+
+    private static final Logger log = LoggerFactory.getLogger(QueryResultCache.class);
+
+    static final boolean enabled = Parameter.boolValue("qmaster.cache.enabled", false);
+
+    private static final String defaultDirectory = Parameter.value("qmaster.cache.dir", "query.cache");
+    private static final int defaultMaxEntries = Parameter.intValue("qmaster.cache.entries", 1000);
+    private static final long defaultMaxMemoryBytes = Parameter.longValue("qmaster.cache.memory", 256L << 20);
+    private static final long defaultMaxDiskBytes = Parameter.longValue("qmaster.cache.disk", 4L << 30);
+    // results larger than this many bytes are written to disk
+    private static final long defaultSpillBytes = Parameter.longValue("qmaster.cache.spill", 1L << 20);
+    // results larger than this many bytes are not cached
+    private static final long defaultMaxResultBytes = Parameter.longValue("qmaster.cache.result.max", 256L << 20);
+
+    /* metrics */
+    static final Counter hits = Metrics.newCounter(QueryResultCache.class, "hits");
+    static final Counter misses = Metrics.newCounter(QueryResultCache.class, "misses");
+    static final Counter evictions = Metrics.newCounter(QueryResultCache.class, "evictions");
+
+    private final File directory;
+    private final int maxEntries;
+    private final long maxMemoryBytes;
+    private final long maxDiskBytes;
+    private final long spillBytes;
+    private final long maxResultBytes;
+    private final AtomicLong fileIds = new AtomicLong();
+
+    /* access ordered so that iteration begins with the least recently used entry */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, String> versions = new HashMap<>();
+    private long memoryBytes;
+    private long diskBytes;
+
+    public QueryResultCache() throws IOException {
+        this(new File(defaultDirectory), defaultMaxEntries, defaultMaxMemoryBytes, defaultMaxDiskBytes,
+             defaultSpillBytes, defaultMaxResultBytes);
+    }
+
+    QueryResultCache(File directory, int maxEntries, long maxMemoryBytes, long maxDiskBytes,
+            long spillBytes, long maxResultBytes) throws IOException {
+        this.directory = directory.getCanonicalFile();
+        this.maxEntries = maxEntries;
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.maxDiskBytes = maxDiskBytes;
+        this.spillBytes = spillBytes;
+        this.maxResultBytes = maxResultBytes;
+        // spilled results do not survive a restart
+        Files.deleteDir(this.directory);
+        Files.initDirectory(this.directory);
+    }
+
+    /**
+     * Returns the cache key for a query or null if the results of the query should not be cached.
+     * Must be called before the query is split by {@link Query#createPipelinedQuery()}.
+     *
+     * @param version data version of the job or null if it is unknown
+     */
+    @Nullable
+    public static String key(Query query, @Nullable String version) {
+        if ((version == null) || (query.getJob() == null) ||
+            "0".equals(query.getParameter("cache")) ||
+            Boolean.valueOf(query.getParameter("allowPartial"))) {
+            return null;
+        }
+        StringBuilder builder = new StringBuilder();
+        builder.append(query.getJob()).append('\n').append(version);
+        for (String path : query.getPaths()) {
+            builder.append("\npath:").append(normalize(path));
+        }
+        String[] ops = query.getOps();
+        if (ops != null) {
+            for (String op : ops) {
+                builder.append("\nops:").append(normalize(op));
+            }
+        }
+        return builder.toString();
+    }
+
+    private static String normalize(@Nullable String value) {
+        return (value == null) ? "" : value.trim();
+    }
+
+    /**
+     * Record the current data version of a job. If the version differs
+     * from the last recorded version then the entries of the job are dropped.
+     */
+    public synchronized void updateVersion(String job, String version) {
+        String previous = versions.put(job, version);
+        if ((previous != null) && !previous.equals(version)) {
+            log.debug("data version of {} changed from {} to {}", job, previous, version);
+            invalidate(job);
+        }
+    }
+
+    /**
+     * Drop all entries of a job.
+     */
+    public synchronized void invalidate(String job) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.job.equals(job)) {
+                iterator.remove();
+                release(entry);
+            }
+        }
+    }
+
+    @Nullable
+    public synchronized Entry get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses.inc();
+        } else {
+            hits.inc();
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the entry under {@code key} and pins it, or null if there is no such entry.
+     * The spilled file of a pinned entry is not deleted until the entry is unpinned,
+     * even if the entry is evicted in the meantime.
+     */
+    @Nullable
+    synchronized Entry pin(String key) {
+        Entry entry = get(key);
+        if (entry != null) {
+            entry.pins += 1;
+        }
+        return entry;
+    }
+
+    synchronized void unpin(Entry entry) {
+        entry.pins -= 1;
+        if ((entry.pins == 0) && entry.dropped) {
+            deleteFile(entry);
+        }
+    }
+
+    /**
+     * Returns a handler that answers a query from the entry under {@code key}, or null
+     * if there is no such entry or it can no longer be read. In the latter case the query
+     * should be sent to the workers. The entry stays pinned until the handler is done.
+     */
+    @Nullable
+    ReplayHandler replay(String key) {
+        Entry entry = pin(key);
+        if (entry == null) {
+            return null;
+        }
+        try {
+            return new ReplayHandler(this, entry, entry.open());
+        } catch (IOException ex) {
+            log.warn("unable to read cached query result for {}; sending the query to the workers", entry.job, ex);
+            synchronized (this) {
+                if (entries.remove(key, entry)) {
+                    release(entry);
+                }
+                hits.dec();
+                misses.inc();
+            }
+            unpin(entry);
+            return null;
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized void put(String key, Entry entry) {
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            release(previous);
+        }
+        if (entry.file == null) {
+            memoryBytes += entry.bytes;
+        } else {
+            diskBytes += entry.bytes;
+        }
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext() &&
+               ((entries.size() > maxEntries) || (memoryBytes > maxMemoryBytes) || (diskBytes > maxDiskBytes))) {
+            Entry eldest = iterator.next();
+            iterator.remove();
+            release(eldest);
+            evictions.inc();
+        }
+    }
+
+    private void release(Entry entry) {
+        entry.dropped = true;
+        if (entry.file == null) {
+            memoryBytes -= entry.bytes;
+        } else {
+            diskBytes -= entry.bytes;
+            if (entry.pins == 0) {
+                deleteFile(entry);
+            }
+        }
+    }
+
+    private static void deleteFile(Entry entry) {
+        if ((entry.file != null) && entry.file.exists() && !entry.file.delete()) {
+            log.warn("unable to delete cached query result {}", entry.file);
+        }
+    }
+
+    /**
+     * Returns an output that passes all bundles to {@code delegate} and stores them
+     * in the cache under {@code key} if the query completes successfully.
+     */
+    public DataChannelOutput record(String job, String key, DataChannelOutput delegate) {
+        return new Recorder(job, key, delegate);
+    }
+
+    /**
+     * The encoded results of a query.
+     */
+    public static final class Entry {
+
+        final String job;
+        final long bytes;
+        @Nullable final byte[] data;
+        @Nullable final File file;
+
+        /* guarded by the cache */
+        int pins;
+        boolean dropped;
+
+        Entry(String job, long bytes, @Nullable byte[] data, @Nullable File file) {
+            this.job = job;
+            this.bytes = bytes;
+            this.data = data;
+            this.file = file;
+        }
+
+        InputStream open() throws IOException {
+            return (file == null) ? new ByteArrayInputStream(data) :
+                   new BufferedInputStream(new FileInputStream(file));
+        }
+
+        /**
+         * Send the cached bundles to {@code output} followed by {@code sendComplete()}.
+         */
+        public void replay(DataChannelOutput output) throws IOException {
+            try (InputStream input = open()) {
+                DataChannelReader reader = new DataChannelReader(new ListBundle(), input);
+                while (true) {
+                    Bundle bundle;
+                    try {
+                        bundle = reader.read();
+                    } catch (EOFException eof) {
+                        break;
+                    }
+                    output.send(bundle);
+                }
+            }
+            output.sendComplete();
+        }
+    }
+
+    /**
+     * Answers a query from a cache entry in place of the aggregator. The query tracker
+     * sits in front of this handler as it does for queries that are sent to the workers,
+     * so replayed queries are tracked, logged, timed out and cancelled as usual.
+     */
+    static final class ReplayHandler extends ChannelDuplexHandler implements ChannelFutureListener, Runnable {
+
+        private final QueryResultCache cache;
+        private final Entry entry;
+        private final DataChannelReader reader;
+        // closed and unpinned once the handler is done with the entry
+        private InputStream input;
+
+        // set when added to a pipeline
+        private EventExecutor executor;
+
+        // set when write (query) is called
+        private ChannelProgressivePromise queryPromise;
+        private DataChannelOutput consumer;
+
+        private boolean channelWritable;
+        private boolean needScheduling;
+
+        ReplayHandler(QueryResultCache cache, Entry entry, InputStream input) {
+            this.cache = cache;
+            this.entry = entry;
+            this.input = input;
+            this.reader = new DataChannelReader(new ListBundle(), input);
+        }
+
+        @Override
+        public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+            executor = ctx.executor();
+        }
+
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+            if (msg instanceof DataChannelOutput) {
+                queryPromise = (ChannelProgressivePromise) promise;
+                consumer = (DataChannelOutput) msg;
+                queryPromise.addListener(this);
+                if (ctx.channel().isWritable()) {
+                    channelWritable = true;
+                    executor.execute(this);
+                } else {
+                    needScheduling = true;
+                }
+            } else if (msg instanceof DetailedStatusTask) {
+                ((DetailedStatusTask) msg).runWithoutSources();
+            } else {
+                super.write(ctx, msg, promise);
+            }
+        }
+
+        /**
+         * Sends up to {@link AggregateConfig#FRAME_READER_READS} bundles and reschedules itself
+         * until the entry is exhausted or the query is done.
+         */
+        @Override
+        public void run() {
+            try {
+                if (queryPromise.isDone()) {
+                    return;
+                }
+                if (!channelWritable) {
+                    needScheduling = true;
+                    return;
+                }
+                int bundlesProcessed = 0;
+                boolean exhausted = false;
+                while (bundlesProcessed < AggregateConfig.FRAME_READER_READS) {
+                    Bundle bundle;
+                    try {
+                        bundle = reader.read();
+                    } catch (EOFException eof) {
+                        exhausted = true;
+                        break;
+                    }
+                    consumer.send(bundle);
+                    bundlesProcessed += 1;
+                }
+                if (bundlesProcessed > 0) {
+                    queryPromise.tryProgress(0, bundlesProcessed);
+                }
+                if (exhausted) {
+                    queryPromise.trySuccess();
+                } else {
+                    executor.execute(this);
+                }
+            } catch (Throwable e) {
+                if (!queryPromise.tryFailure(e)) {
+                    log.warn("Tried to fail queryPromise {} , but failed", queryPromise, e);
+                }
+            }
+        }
+
+        @Override
+        public void operationComplete(ChannelFuture future) throws Exception {
+            closeInput();
+            if (future.isSuccess()) {
+                try {
+                    future.channel().pipeline().remove(this);
+                } catch (Exception e) {
+                    log.warn("unexpected error while trying to remove cached result from the pipeline", e);
+                }
+                consumer.sendComplete();
+            } else {
+                consumer.sourceError(BundleUtils.promoteHackForThrowables(future.cause()));
+            }
+        }
+
+        @Override
+        public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+            channelWritable = ctx.channel().isWritable();
+            if (channelWritable && needScheduling) {
+                needScheduling = false;
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+            closeInput();
+        }
+
+        private void closeInput() {
+            if (input != null) {
+                try {
+                    input.close();
+                } catch (IOException ex) {
+                    log.warn("", ex);
+                }
+                input = null;
+                cache.unpin(entry);
+            }
+        }
+    }
+
+    private final class Recorder implements DataChannelOutput {
+
+        private final String job;
+        private final String key;
+        private final DataChannelOutput delegate;
+        private final ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        private final CountingOutputStream counter = new CountingOutputStream();
+        private DataChannelWriter writer;
+        private File file;
+        private OutputStream fileOutput;
+        private boolean abandoned;
+
+        Recorder(String job, String key, DataChannelOutput delegate) {
+            this.job = job;
+            this.key = key;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void send(Bundle bundle) {
+            record(bundle);
+            delegate.send(bundle);
+        }
+
+        @Override
+        public void send(List<Bundle> bundles) {
+            if (bundles != null) {
+                for (Bundle bundle : bundles) {
+                    record(bundle);
+                }
+            }
+            delegate.send(bundles);
+        }
+
+        @Override
+        public void sendComplete() {
+            commit();
+            delegate.sendComplete();
+        }
+
+        @Override
+        public void sourceError(Throwable er) {
+            abandon();
+            delegate.sourceError(er);
+        }
+
+        @Override
+        public Bundle createBundle() {
+            return delegate.createBundle();
+        }
+
+        private void record(Bundle bundle) {
+            if (abandoned) {
+                return;
+            }
+            try {
+                if (writer == null) {
+                    writer = new DataChannelWriter(counter);
+                }
+                writer.write(bundle);
+                if (counter.count > maxResultBytes) {
+                    abandon();
+                } else if ((fileOutput == null) && (counter.count > spillBytes)) {
+                    file = new File(directory, fileIds.incrementAndGet() + ".result");
+                    fileOutput = new BufferedOutputStream(new FileOutputStream(file));
+                    memory.writeTo(fileOutput);
+                    memory.reset();
+                }
+            } catch (IOException ex) {
+                log.warn("unable to record query result for {}", job, ex);
+                abandon();
+            }
+        }
+
+        private void commit() {
+            if (abandoned) {
+                return;
+            }
+            try {
+                if (writer != null) {
+                    writer.close();
+                }
+                if (fileOutput != null) {
+                    fileOutput.close();
+                    put(key, new Entry(job, counter.count, null, file));
+                } else {
+                    put(key, new Entry(job, counter.count, memory.toByteArray(), null));
+                }
+            } catch (IOException ex) {
+                log.warn("unable to record query result for {}", job, ex);
+                abandon();
+            }
+        }
+
+        private void abandon() {
+            abandoned = true;
+            memory.reset();
+            if (fileOutput != null) {
+                try {
+                    fileOutput.close();
+                } catch (IOException ex) {
+                    log.warn("", ex);
+                }
+                fileOutput = null;
+                if (!file.delete()) {
+                    log.warn("unable to delete abandoned query result {}", file);
+                }
+            }
+        }
+
+        /**
+         * Counts the encoded bytes and forwards them to memory or to the spill file.
+         */
+        private final class CountingOutputStream extends OutputStream {
+
+            long count;
+
+            @Override
+            public void write(int b) throws IOException {
+                count++;
+                target().write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                count += len;
+                target().write(b, off, len);
+            }
+
+            private OutputStream target() {
+                return (fileOutput != null) ? fileOutput : memory;
+            }
+        }
+    }
+}
@@ -46,4 +46,12 @@ public class DetailedStatusTask implements Runnable {
         this.sourceAggregator = sourceAggregator;
         run();
     }
+
+    /**
+     * Answer for a query that does not read from any task, such as a query
+     * answered from the query result cache.
+     */
+    public void runWithoutSources() {
+        promise.trySuccess(new TaskSourceInfo[0]);
+    }
 }
@@ -24,11 +24,15 @@ import java.util.TreeMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
+import com.addthis.basis.util.Parameter;
+
 import com.addthis.hydra.data.query.Query;
 import com.addthis.hydra.data.query.QueryException;
 import com.addthis.hydra.job.IJob;
 import com.addthis.hydra.job.Job;
 import com.addthis.hydra.job.JobConfigManager;
+import com.addthis.hydra.job.JobTask;
+import com.addthis.hydra.job.JobTaskState;
 import com.addthis.hydra.job.store.DataStoreUtil;
 import com.addthis.hydra.job.store.SpawnDataStore;
 import com.addthis.meshy.service.file.FileReference;
@@ -40,6 +44,10 @@ import com.google.common.collect.Multimap;
 
 public class SpawnDataStoreHandler {
 
+    /* How long the data version of a job can be cached before it is fetched again */
+    private static final long dataVersionRefreshMillis =
+            Parameter.longValue("query.data.version.refresh.millis", 5000);
+
     /**
      * A ZooKeeper/Priam backed data structure that keeps track of
      * the Hydra jobs in the cluster.  We are specifically
@@ -81,6 +89,24 @@ public class SpawnDataStoreHandler {
                     }
             );
 
+    /**
+     * a short lived cache of job state, used to detect completed job runs
+     */
+    private final LoadingCache<String, String> dataVersionCache = CacheBuilder.newBuilder()
+            .maximumSize(2000)
+            .expireAfterWrite(dataVersionRefreshMillis, TimeUnit.MILLISECONDS)
+            .build(
+                    new CacheLoader<String, String>() {
+                        public String load(String jobId) throws IOException {
+                            IJob job = jobConfigManager.getJob(jobId);
+                            if (job == null) {
+                                throw new IOException("unable to find job " + jobId);
+                            }
+                            return dataVersion(job);
+                        }
+                    }
+            );
+
     public SpawnDataStoreHandler() throws Exception {
         spawnDataStore = DataStoreUtil.makeCanonicalSpawnDataStore();
         this.jobConfigManager = new JobConfigManager(spawnDataStore);
@@ -97,6 +123,38 @@ public class SpawnDataStoreHandler {
         return jobConfigManager.getJobs().values();
     }
 
+    /**
+     * Returns a marker that changes whenever the data of a task of the job changes,
+     * or null if the job can not be found or one of its tasks is active.
+     */
+    public String getDataVersion(String jobId) {
+        try {
+            String version = dataVersionCache.get(jobId);
+            return version.isEmpty() ? null : version;
+        } catch (ExecutionException ignored) {
+            return null;
+        }
+    }
+
+    /**
+     * Describes the run count and the size of the data of every task of a job.
+     * Returns an empty string if a task is active because its data may change
+     * at any time.
+     */
+    static String dataVersion(IJob job) {
+        StringBuilder version = new StringBuilder();
+        version.append(job.getRunCount()).append(':').append(job.getEndTime());
+        for (JobTask task : job.getCopyOfTasks()) {
+            JobTaskState state = task.getState();
+            if ((state == null) || state.isActiveState()) {
+                return "";
+            }
+            version.append(' ').append(task.getTaskID()).append(':').append(task.getRunCount())
+                   .append(':').append(task.getFileCount()).append(':').append(task.getByteCount());
+        }
+        return version.toString();
+    }
+
     public void validateJobForQuery(Query query) {
         if (!queryConfigWatcher.safeToQuery(query.getJob())) {
             throw new QueryException("job is not safe to query (are queries enabled for this job in spawn?): " + query.getJob());
@@ -14,10 +14,13 @@
 
 package com.addthis.hydra.query.tracker;
 
+import javax.annotation.Nullable;
+
 import java.util.Arrays;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
+import com.addthis.bundle.channel.DataChannelOutput;
 import com.addthis.bundle.core.Bundle;
 import com.addthis.bundle.core.BundleField;
 import com.addthis.bundle.core.BundleFormat;
@@ -25,6 +28,7 @@ import com.addthis.bundle.value.ValueFactory;
 import com.addthis.hydra.data.query.Query;
 import com.addthis.hydra.data.query.QueryException;
 import com.addthis.hydra.data.query.QueryOpProcessor;
+import com.addthis.hydra.query.QueryResultCache;
 import com.addthis.hydra.query.aggregate.DetailedStatusTask;
 import com.addthis.hydra.query.aggregate.TaskSourceInfo;
 import com.addthis.hydra.query.web.DataChannelOutputToNettyBridge;
@@ -61,6 +65,10 @@ public class TrackerHandler extends ChannelOutboundHandlerAdapter implements Cha
     private final BundleField  sentLinesField;
     private final BundleField  senderField;
 
+    // set if the results of the query should be cached
+    @Nullable private final QueryResultCache resultCache;
+    @Nullable private final String           cacheKey;
+
     // set when added to pipeline
     private DataChannelOutputToNettyBridge queryUser;
     private ChannelHandlerContext          ctx;
@@ -74,8 +82,15 @@ public class TrackerHandler extends ChannelOutboundHandlerAdapter implements Cha
     ChannelPromise            requestPromise;
 
     public TrackerHandler(QueryTracker queryTracker, String[] opsLog) {
+        this(queryTracker, opsLog, null, null);
+    }
+
+    public TrackerHandler(QueryTracker queryTracker, String[] opsLog,
+            @Nullable QueryResultCache resultCache, @Nullable String cacheKey) {
         this.queryTracker = queryTracker;
         this.opsLog = opsLog;
+        this.resultCache = resultCache;
+        this.cacheKey = cacheKey;
         BundleFormat eventFormat = queryTracker.eventLog.createBundle().getFormat();
         typeField = eventFormat.getField("type");
         errorField = eventFormat.getField("error");
@@ -115,8 +130,12 @@ public class TrackerHandler extends ChannelOutboundHandlerAdapter implements Cha
         this.queryUser = new DataChannelOutputToNettyBridge(ctx, promise);
         this.query = msg;
         query.queryPromise = queryPromise;
+        DataChannelOutput output = queryUser;
+        if ((resultCache != null) && (cacheKey != null)) {
+            output = resultCache.record(query.getJob(), cacheKey, queryUser);
+        }
         // create a processor chain based in query ops terminating the query user
-        this.opProcessorConsumer = query.newProcessor(queryUser, opPromise);
+        this.opProcessorConsumer = query.newProcessor(output, opPromise);
         queryEntry = new QueryEntry(query, opsLog, this);
 
         // Check if the uuid is repeated, then make a new one
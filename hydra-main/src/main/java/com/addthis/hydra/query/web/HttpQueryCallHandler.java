@@ -68,6 +68,7 @@ public final class HttpQueryCallHandler {
         }
         query.setParameterIfNotYetSet("allocator", kv.getValue("allocator"));
         query.setParameterIfNotYetSet("allowPartial", kv.getValue("allowPartial"));
+        query.setParameterIfNotYetSet("cache", kv.getValue("cache"));
 
         String filename = kv.getValue("filename", "query");
         String format = kv.getValue("format", "json");
@@ -0,0 +1,230 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.job.minion;
+
+import java.io.File;
+
+import java.util.List;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardCopyOption;
+
+import com.addthis.basis.util.Bytes;
+import com.addthis.basis.util.Files;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TaskManifestTest {
+
+    private static void write(File file, String contents) throws Exception {
+        Files.initDirectory(file.getParentFile());
+        Files.write(file, Bytes.toBytes(contents), false);
+    }
+
+    @Test
+    public void scanSkipsExcludedFiles() throws Exception {
+        File tmpDir = Files.createTempDir();
+        try {
+            write(new File(tmpDir, "data/00000000.jdb"), "abc");
+            write(new File(tmpDir, "data/je.lck"), "");
+            write(new File(tmpDir, "log/log.out"), "hello");
+            write(new File(tmpDir, "gold/00000000.jdb"), "abc");
+            write(new File(tmpDir, "replicate.complete"), "");
+            write(new File(tmpDir, TaskManifest.MANIFEST_NAME), "");
+            TaskManifest manifest = TaskManifest.scan(tmpDir, null);
+            assertEquals(1, manifest.entries().size());
+            TaskManifest.Entry entry = manifest.get("data/00000000.jdb");
+            assertNotNull(entry);
+            assertEquals(3, entry.size);
+            assertEquals("900150983cd24fb0d6963f7d28e17f72", entry.md5);
+        } finally {
+            Files.deleteDir(tmpDir);
+        }
+    }
+
+    @Test
+    public void encodeAndParse() throws Exception {
+        File tmpDir = Files.createTempDir();
+        try {
+            write(new File(tmpDir, "data/00000000.jdb"), "abc");
+            write(new File(tmpDir, "data/00000001.jdb"), "def");
+            TaskManifest manifest = TaskManifest.scan(tmpDir, null);
+            File saved = new File(tmpDir, "saved");
+            manifest.write(saved);
+            TaskManifest read = TaskManifest.read(saved);
+            assertEquals(manifest.encode(), read.encode());
+            assertTrue(manifest.changedSince(read).isEmpty());
+            assertTrue(TaskManifest.read(new File(tmpDir, "missing")).isEmpty());
+        } finally {
+            Files.deleteDir(tmpDir);
+        }
+    }
+
+    /**
+     * Checksums of files with the same size and modification time are not recomputed.
+     */
+    @Test
+    public void scanReusesChecksums() throws Exception {
+        File tmpDir = Files.createTempDir();
+        try {
+            File file = new File(tmpDir, "00000000.jdb");
+            write(file, "abc");
+            TaskManifest previous = TaskManifest.scan(tmpDir, null);
+            long modified = file.lastModified();
+            write(file, "xyz");
+            assertTrue(file.setLastModified(modified));
+            assertEquals(previous.get("00000000.jdb").md5, TaskManifest.scan(tmpDir, previous).get("00000000.jdb").md5);
+            assertTrue(file.setLastModified(modified + 10000));
+            assertFalse(previous.get("00000000.jdb").md5.equals(
+                    TaskManifest.scan(tmpDir, previous).get("00000000.jdb").md5));
+        } finally {
+            Files.deleteDir(tmpDir);
+        }
+    }
+
+    @Test
+    public void changedAndRemoved() {
+        TaskManifest base = TaskManifest.parse("a 1 1 data/0.jdb\nb 2 1 data/1.jdb\nc 3 1 data/2.jdb\n");
+        TaskManifest current = TaskManifest.parse("a 1 1 data/0.jdb\nd 4 2 data/1.jdb\ne 5 2 data/3.jdb\n");
+        List<TaskManifest.Entry> changed = current.changedSince(base);
+        assertEquals(2, changed.size());
+        assertEquals("data/1.jdb", changed.get(0).path);
+        assertEquals("data/3.jdb", changed.get(1).path);
+        List<String> removed = current.removedSince(base);
+        assertEquals(1, removed.size());
+        assertEquals("data/2.jdb", removed.get(0));
+    }
+
+    @Test
+    public void safePaths() {
+        assertTrue(TaskManifest.isSafePath("data/00000000.jdb"));
+        assertFalse(TaskManifest.isSafePath("data/a b"));
+        assertFalse(TaskManifest.isSafePath("data/a'b"));
+        assertFalse(TaskManifest.isSafePath("../data"));
+        assertFalse(TaskManifest.isSafePath("-rf"));
+    }
+
+    /**
+     * A replica without a manifest must be copied in full.
+     */
+    @Test
+    public void prepareWithoutRemoteManifest() throws Exception {
+        File tmpDir = Files.createTempDir();
+        try {
+            File live = new File(tmpDir, "live");
+            write(new File(live, "data/00000000.jdb"), "abc");
+            TaskManifest manifest = TaskManifest.scan(live, null);
+            assertNull(DeltaReplicator.prepare(tmpDir, "replica", manifest, "/data/job/0", ""));
+            File control = DeltaReplicator.prepare(tmpDir, "replica", manifest, "/data/job/0", "x 1 1 data/old.jdb\n");
+            assertNotNull(control);
+            String files = new String(java.nio.file.Files.readAllBytes(new File(control, DeltaReplicator.FILES).toPath()));
+            assertTrue(files.startsWith("live/data/00000000.jdb\n"));
+            String commit = new String(java.nio.file.Files.readAllBytes(new File(control, DeltaReplicator.COMMIT).toPath()));
+            assertTrue(commit.contains(" -f live/data/old.jdb\n"));
+        } finally {
+            Files.deleteDir(tmpDir);
+        }
+    }
+
+    private static String read(File file) throws Exception {
+        return new String(java.nio.file.Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Copy the listed files into the staging directory of the replica and run the commit script there.
+     */
+    private static int commit(File taskRoot, File control, File replica) throws Exception {
+        File staging = new File(replica, DeltaReplicator.STAGING_DIR);
+        for (String path : read(new File(control, DeltaReplicator.FILES)).split("\n")) {
+            File target = new File(staging, path);
+            Files.initDirectory(target.getParentFile());
+            java.nio.file.Files.copy(new File(taskRoot, path).toPath(), target.toPath(),
+                                    StandardCopyOption.COPY_ATTRIBUTES);
+        }
+        File script = new File(staging, taskRoot.toPath().relativize(
+                new File(control, DeltaReplicator.COMMIT).toPath()).toString());
+        Process process = new ProcessBuilder("sh", script.getAbsolutePath()).redirectErrorStream(true).start();
+        return process.waitFor();
+    }
+
+    @Test
+    public void commitOnReplica() throws Exception {
+        File tmpDir = Files.createTempDir();
+        try {
+            File taskRoot = new File(tmpDir, "local");
+            File replica = new File(tmpDir, "replica");
+            File replicaLive = new File(replica, "live");
+            write(new File(replicaLive, "data/00000000.jdb"), "abc");
+            write(new File(replicaLive, "data/00000001.jdb"), "def");
+            write(new File(replicaLive, "data/old.jdb"), "old");
+            String remoteText = TaskManifest.scan(replicaLive, null).encode();
+            write(new File(replicaLive, TaskManifest.MANIFEST_NAME), remoteText);
+            File live = new File(taskRoot, "live");
+            write(new File(live, "data/00000000.jdb"), "abc");
+            write(new File(live, "data/00000001.jdb"), "xyz");
+            write(new File(live, "data/sub/00000002.jdb"), "ghi");
+            write(new File(live, "log/log.out"), "hello");
+            TaskManifest manifest = TaskManifest.scan(live, null);
+            File control = DeltaReplicator.prepare(taskRoot, "replica", manifest, replica.getAbsolutePath(),
+                                                   remoteText);
+            assertNotNull(control);
+            assertEquals(0, commit(taskRoot, control, replica));
+            assertEquals("abc", read(new File(replicaLive, "data/00000000.jdb")));
+            assertEquals("xyz", read(new File(replicaLive, "data/00000001.jdb")));
+            assertEquals("ghi", read(new File(replicaLive, "data/sub/00000002.jdb")));
+            assertEquals("hello", read(new File(replicaLive, "log/log.out")));
+            assertFalse(new File(replicaLive, "data/old.jdb").exists());
+            assertFalse(new File(replica, DeltaReplicator.STAGING_DIR).exists());
+            assertEquals(manifest.encode(), read(new File(replicaLive, TaskManifest.MANIFEST_NAME)));
+            assertEquals(manifest.encode(), TaskManifest.scan(replicaLive, null).encode());
+        } finally {
+            Files.deleteDir(tmpDir);
+        }
+    }
+
+    /**
+     * A staged file that does not match its checksum must leave the replica untouched.
+     */
+    @Test
+    public void commitRejectsCorruptTransfer() throws Exception {
+        File tmpDir = Files.createTempDir();
+        try {
+            File taskRoot = new File(tmpDir, "local");
+            File replica = new File(tmpDir, "replica");
+            File replicaLive = new File(replica, "live");
+            write(new File(replicaLive, "data/00000000.jdb"), "abc");
+            String remoteText = TaskManifest.scan(replicaLive, null).encode();
+            write(new File(replicaLive, TaskManifest.MANIFEST_NAME), remoteText);
+            File live = new File(taskRoot, "live");
+            write(new File(live, "data/00000000.jdb"), "abc");
+            write(new File(live, "data/00000001.jdb"), "def");
+            TaskManifest manifest = TaskManifest.scan(live, null);
+            File control = DeltaReplicator.prepare(taskRoot, "replica", manifest, replica.getAbsolutePath(),
+                                                   remoteText);
+            assertNotNull(control);
+            write(new File(live, "data/00000001.jdb"), "bad");
+            assertTrue(commit(taskRoot, control, replica) != 0);
+            assertFalse(new File(replicaLive, "data/00000001.jdb").exists());
+            assertEquals(remoteText, read(new File(replicaLive, TaskManifest.MANIFEST_NAME)));
+        } finally {
+            Files.deleteDir(tmpDir);
+        }
+    }
+}
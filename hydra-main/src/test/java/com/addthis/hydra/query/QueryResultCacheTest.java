@@ -0,0 +1,198 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.query;
+
+import java.io.File;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.addthis.basis.util.Files;
+
+import com.addthis.bundle.channel.DataChannelOutput;
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.list.ListBundle;
+import com.addthis.bundle.core.list.ListBundleFormat;
+import com.addthis.bundle.value.ValueFactory;
+import com.addthis.hydra.data.query.Query;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class QueryResultCacheTest {
+
+    private static class Collector implements DataChannelOutput {
+
+        private final ListBundleFormat format = new ListBundleFormat();
+        final List<String> rows = new ArrayList<>();
+        boolean complete;
+
+        @Override
+        public void send(Bundle bundle) {
+            rows.add(bundle.getValue(bundle.getFormat().getField("value")).toString());
+        }
+
+        @Override
+        public void send(List<Bundle> bundles) {
+            for (Bundle bundle : bundles) {
+                send(bundle);
+            }
+        }
+
+        @Override
+        public void sendComplete() {
+            complete = true;
+        }
+
+        @Override
+        public void sourceError(Throwable er) {
+        }
+
+        @Override
+        public Bundle createBundle() {
+            return new ListBundle(format);
+        }
+    }
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDir();
+    }
+
+    @After
+    public void tearDown() {
+        Files.deleteDir(dir);
+    }
+
+    private static void send(DataChannelOutput output, int rows) {
+        for (int i = 0; i < rows; i++) {
+            Bundle bundle = output.createBundle();
+            bundle.setValue(bundle.getFormat().getField("value"), ValueFactory.create("row" + i));
+            output.send(bundle);
+        }
+        output.sendComplete();
+    }
+
+    private static List<String> replay(QueryResultCache cache, String key) throws Exception {
+        QueryResultCache.Entry entry = cache.get(key);
+        assertNotNull(entry);
+        Collector collector = new Collector();
+        entry.replay(collector);
+        assertTrue(collector.complete);
+        return collector.rows;
+    }
+
+    @Test
+    public void key() {
+        Query query = new Query("job", new String[]{"+:+hits"}, new String[]{"gather=ks", null});
+        String key = QueryResultCache.key(query, "1:100");
+        assertNotNull(key);
+        assertEquals(key, QueryResultCache.key(
+                new Query("job", new String[]{" +:+hits "}, new String[]{"gather=ks", ""}), "1:100"));
+        assertNotEquals(key, QueryResultCache.key(query, "2:200"));
+        assertNull(QueryResultCache.key(query, null));
+        query.setParameter("allowPartial", "true");
+        assertNull(QueryResultCache.key(query, "1:100"));
+    }
+
+    @Test
+    public void recordAndReplay() throws Exception {
+        QueryResultCache cache = new QueryResultCache(new File(dir, "cache"), 10, 1 << 20, 1 << 20, 256, 1 << 20);
+        Collector small = new Collector();
+        send(cache.record("job", "small", small), 3);
+        Collector large = new Collector();
+        send(cache.record("job", "large", large), 1000);
+        assertEquals(2, cache.size());
+        assertEquals(small.rows, replay(cache, "small"));
+        assertEquals(large.rows, replay(cache, "large"));
+        assertEquals(1, new File(dir, "cache").list().length);
+    }
+
+    @Test
+    public void errorsAreNotCached() throws Exception {
+        QueryResultCache cache = new QueryResultCache(new File(dir, "cache"), 10, 1 << 20, 1 << 20, 256, 1 << 20);
+        DataChannelOutput output = cache.record("job", "key", new Collector());
+        output.send(output.createBundle());
+        output.sourceError(new RuntimeException());
+        assertNull(cache.get("key"));
+    }
+
+    @Test
+    public void eviction() throws Exception {
+        QueryResultCache cache = new QueryResultCache(new File(dir, "cache"), 2, 1 << 20, 1 << 20, 1 << 20, 1 << 20);
+        send(cache.record("job", "a", new Collector()), 1);
+        send(cache.record("job", "b", new Collector()), 1);
+        assertNotNull(cache.get("a"));
+        send(cache.record("job", "c", new Collector()), 1);
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        QueryResultCache limited = new QueryResultCache(new File(dir, "limited"), 10, 1 << 20, 1 << 20, 1 << 20, 256);
+        send(limited.record("job", "huge", new Collector()), 1000);
+        assertNull(limited.get("huge"));
+    }
+
+    @Test
+    public void newVersionInvalidatesJob() throws Exception {
+        QueryResultCache cache = new QueryResultCache(new File(dir, "cache"), 10, 1 << 20, 1 << 20, 1 << 20, 1 << 20);
+        cache.updateVersion("job", "1:100");
+        cache.updateVersion("other", "1:100");
+        send(cache.record("job", "a", new Collector()), 1);
+        send(cache.record("other", "b", new Collector()), 1);
+        cache.updateVersion("job", "1:100");
+        assertEquals(2, cache.size());
+        cache.updateVersion("job", "2:200");
+        assertNull(cache.get("a"));
+        assertNotNull(cache.get("b"));
+    }
+
+    @Test
+    public void pinnedEntrySurvivesEviction() throws Exception {
+        QueryResultCache cache = new QueryResultCache(new File(dir, "cache"), 1, 1 << 20, 1 << 20, 256, 1 << 20);
+        Collector original = new Collector();
+        send(cache.record("job", "a", original), 1000);
+        QueryResultCache.Entry entry = cache.pin("a");
+        assertNotNull(entry);
+        send(cache.record("job", "b", new Collector()), 1000);
+        assertNull(cache.get("a"));
+        assertTrue(entry.file.exists());
+        Collector collector = new Collector();
+        entry.replay(collector);
+        assertEquals(original.rows, collector.rows);
+        cache.unpin(entry);
+        assertFalse(entry.file.exists());
+    }
+
+    @Test
+    public void missingFileFallsBack() throws Exception {
+        QueryResultCache cache = new QueryResultCache(new File(dir, "cache"), 10, 1 << 20, 1 << 20, 256, 1 << 20);
+        send(cache.record("job", "a", new Collector()), 1000);
+        QueryResultCache.Entry entry = cache.get("a");
+        assertNotNull(entry);
+        assertTrue(entry.file.delete());
+        assertNull(cache.replay("a"));
+        assertNull(cache.get("a"));
+        assertEquals(0, entry.pins);
+    }
+}
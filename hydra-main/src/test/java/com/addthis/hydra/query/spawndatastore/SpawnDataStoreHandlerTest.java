@@ -0,0 +1,45 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.query.spawndatastore;
+
+import com.addthis.hydra.job.Job;
+import com.addthis.hydra.job.JobTask;
+import com.addthis.hydra.job.JobTaskState;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class SpawnDataStoreHandlerTest {
+
+    @Test
+    public void dataVersionFollowsTasks() {
+        Job job = new Job("job");
+        JobTask first = new JobTask("host", 0, 1);
+        JobTask second = new JobTask("host", 1, 1);
+        job.addTask(first);
+        job.addTask(second);
+        String version = SpawnDataStoreHandler.dataVersion(job);
+        assertNotEquals("", version);
+        assertEquals(version, SpawnDataStoreHandler.dataVersion(job));
+        second.setByteCount(1000);
+        String grown = SpawnDataStoreHandler.dataVersion(job);
+        assertNotEquals(version, grown);
+        second.setRunCount(2);
+        assertNotEquals(grown, SpawnDataStoreHandler.dataVersion(job));
+        first.setState(JobTaskState.BUSY, true);
+        assertEquals("", SpawnDataStoreHandler.dataVersion(job));
+    }
+}
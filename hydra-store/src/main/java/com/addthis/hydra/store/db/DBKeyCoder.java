@@ -13,10 +13,14 @@
  */
 package com.addthis.hydra.store.db;
 
+import javax.annotation.Nullable;
+
 import com.addthis.codec.Codec;
 import com.addthis.codec.binary.CodecBin2;
 import com.addthis.codec.codables.BytesCodable;
+import com.addthis.hydra.store.kv.DictionaryCodable;
 import com.addthis.hydra.store.kv.KeyCoder;
+import com.addthis.hydra.store.kv.ValueDictionary;
 import com.addthis.hydra.store.util.Raw;
 
 import com.google.common.base.Objects;
@@ -28,6 +32,8 @@ class DBKeyCoder<V extends BytesCodable> implements KeyCoder<DBKey, V> {
     protected final Codec codec;
     protected static final CodecBin2 codecBin2 = CodecBin2.INSTANCE;
     protected final Class<? extends V> clazz;
+    @Nullable
+    protected final ValueDictionary dictionary;
 
     private static final byte[] zero = new byte[0];
 
@@ -36,8 +42,27 @@ class DBKeyCoder<V extends BytesCodable> implements KeyCoder<DBKey, V> {
     }
 
     public DBKeyCoder(Codec codec, Class<? extends V> clazz) {
+        this(codec, clazz, null);
+    }
+
+    /**
+     * @param dictionary if non-null then pages encoded with the dictionary can be decoded.
+     *                   Pages are encoded with the dictionary when it is writable
+     *                   and the values implement {@link DictionaryCodable}.
+     */
+    public DBKeyCoder(Codec codec, Class<? extends V> clazz, @Nullable ValueDictionary dictionary) {
         this.codec = codec;
         this.clazz = clazz;
+        this.dictionary = dictionary;
+    }
+
+    @Override
+    public EncodeType encodeType() {
+        if (dictionary != null && !dictionary.isReadOnly() && DictionaryCodable.class.isAssignableFrom(clazz)) {
+            return EncodeType.DICTIONARY;
+        } else {
+            return EncodeType.SPARSE;
+        }
     }
 
     @Override
@@ -62,6 +87,12 @@ class DBKeyCoder<V extends BytesCodable> implements KeyCoder<DBKey, V> {
                     } else {
                         return value.bytesEncode(encodeType.ordinal());
                     }
+                case DICTIONARY:
+                    if (value == null) {
+                        return zero;
+                    } else {
+                        return ((DictionaryCodable) value).bytesEncode(encodeType.ordinal(), dictionary);
+                    }
                 default:
                     throw new RuntimeException("UNKNOWN ENCODING TYPE: " + encodeType);
             }
@@ -90,6 +121,17 @@ class DBKeyCoder<V extends BytesCodable> implements KeyCoder<DBKey, V> {
                     } else {
                         return null;
                     }
+                case DICTIONARY:
+                    if (dictionary == null) {
+                        throw new IllegalStateException("value dictionary is required to decode " + clazz);
+                    }
+                    if (value.length > 0) {
+                        V v = clazz.newInstance();
+                        ((DictionaryCodable) v).bytesDecode(value, encodeType.ordinal(), dictionary);
+                        return v;
+                    } else {
+                        return null;
+                    }
                 default:
                     throw new RuntimeException("UNKNOWN ENCODING TYPE: " + encodeType);
             }
@@ -108,6 +150,7 @@ class DBKeyCoder<V extends BytesCodable> implements KeyCoder<DBKey, V> {
         return Objects.toStringHelper(this)
                 .add("codec", codec)
                 .add("clazz", clazz)
+                .add("dictionary", dictionary != null ? dictionary.size() : null)
                 .toString();
     }
 }
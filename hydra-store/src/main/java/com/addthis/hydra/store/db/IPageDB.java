@@ -17,6 +17,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 
 import java.util.Map.Entry;
+import java.util.SortedMap;
 
 import com.addthis.basis.util.ClosableIterator;
 
@@ -49,6 +50,11 @@ public interface IPageDB<K extends Key, V extends BytesCodable> {
 
     public V put(K key, V value);
 
+    /**
+     * Store a batch of values. See {@link PagedKeyValueStore#putAll(SortedMap)}.
+     */
+    public void putAll(SortedMap<K, V> entries);
+
     public V remove(K key);
 
     public void remove(K from, K to, boolean inclusive);
@@ -21,6 +21,7 @@ import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
+import java.util.SortedMap;
 import java.util.TreeMap;
 
 import com.addthis.basis.util.Bytes;
@@ -28,11 +29,16 @@ import com.addthis.basis.util.ClosableIterator;
 import com.addthis.basis.util.Files;
 import com.addthis.basis.util.Parameter;
 
+import com.addthis.codec.binary.CodecBin2;
 import com.addthis.codec.codables.BytesCodable;
 import com.addthis.hydra.store.kv.ByteStore;
+import com.addthis.hydra.store.kv.ByteStoreBDB;
 import com.addthis.hydra.store.kv.ConcurrentByteStoreBDB;
 import com.addthis.hydra.store.kv.MapDbByteStore;
+import com.addthis.hydra.store.kv.MappedByteStore;
+import com.addthis.hydra.store.kv.PageCompressionDictionary;
 import com.addthis.hydra.store.kv.PagedKeyValueStore;
+import com.addthis.hydra.store.kv.ValueDictionary;
 import com.addthis.hydra.store.skiplist.Page;
 import com.addthis.hydra.store.skiplist.PageFactory;
 import com.addthis.hydra.store.skiplist.SkipListCache;
@@ -53,6 +59,13 @@ public class PageDB<V extends BytesCodable> implements IPageDB<DBKey, V> {
     static final String defaultDbName = Parameter.value("pagedb.dbname", "db.key");
     static final String DEFAULT_BYTESTORE = Parameter.value("pagedb.bytestore", PAGED_BERK_DB);
 
+    /**
+     * If true then values that support it are written with {@link ValueDictionary}
+     * ids instead of repeated strings. Databases written with the dictionary are
+     * always readable regardless of this setting.
+     */
+    static final boolean VALUE_DICTIONARY = Parameter.boolValue("pagedb.value.dict", false);
+
     private final PagedKeyValueStore<DBKey, V> eps;
     private final DBKeyCoder<V> keyCoder;
     private final HashSet<DR> openRanges = new HashSet<>();
@@ -102,8 +115,13 @@ public class PageDB<V extends BytesCodable> implements IPageDB<DBKey, V> {
 
     public PageDB(File dir, Class<? extends V> clazz, String dbname, int maxPageSize,
                   int maxPages, PageFactory factory) throws IOException {
-        this.keyCoder = new DBKeyCoder<>(clazz);
+        this.keyCoder = new DBKeyCoder<>(CodecBin2.INSTANCE, clazz,
+                                         ValueDictionary.forDirectory(dir, !VALUE_DICTIONARY));
         String dbType = getByteStoreNameForFile(dir);
+        File mappedFile = MappedByteStore.fileFor(dir, dbname);
+        if (mappedFile.exists() && !mappedFile.delete()) {
+            throw new IOException("unable to delete stale mapped store " + mappedFile);
+        }
         ByteStore store;
         switch (dbType) {
             case PAGED_MAP_DB:
@@ -116,10 +134,46 @@ public class PageDB<V extends BytesCodable> implements IPageDB<DBKey, V> {
                 break;
         }
         this.eps =  new SkipListCache.Builder<>(keyCoder, store, maxPageSize, maxPages).
-        pageFactory(factory).build();
+        pageFactory(factory).dictionary(PageCompressionDictionary.forDirectory(dir, false)).build();
         Files.write(new File(dir, "db.type"), Bytes.toBytes(dbType), false);
     }
 
+    /**
+     * Write the pages of a closed database into a {@link MappedByteStore}.
+     * {@link ReadPageDB} serves reads from the mapped store when it is present.
+     * The mapped store is deleted the next time the database is opened for writing.
+     *
+     * @param dir    directory of the database
+     * @param dbname name of the database
+     * @return the number of pages written
+     */
+    public static long compact(File dir, String dbname) throws IOException {
+        ByteStore store;
+        switch (getByteStoreNameForFile(dir)) {
+            case PAGED_MAP_DB:
+                store = new MapDbByteStore(dir, dbname, true);
+                break;
+            case PAGED_BERK_DB:
+            default:
+                store = new ByteStoreBDB(dir, dbname, true);
+                break;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            File mappedFile = MappedByteStore.fileFor(dir, dbname);
+            long pages = MappedByteStore.write(store, mappedFile);
+            log.info("[compact] wrote " + pages + " pages to " + mappedFile + " in " +
+                     (System.currentTimeMillis() - start) + "ms");
+            return pages;
+        } finally {
+            store.close();
+        }
+    }
+
+    public static long compact(File dir) throws IOException {
+        return compact(dir, defaultDbName);
+    }
+
     public static String getByteStoreNameForFile(File dir) throws IOException {
         File typeFile = new File(dir, "db.type");
         if (typeFile.exists()) {
@@ -144,6 +198,11 @@ public class PageDB<V extends BytesCodable> implements IPageDB<DBKey, V> {
         return eps.getPutValue(key, value);
     }
 
+    @Override
+    public void putAll(SortedMap<DBKey, V> entries) {
+        eps.putAll(entries);
+    }
+
     @Override
     public V remove(DBKey key) {
         return eps.getRemoveValue(key);
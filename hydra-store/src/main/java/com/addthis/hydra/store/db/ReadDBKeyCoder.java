@@ -15,6 +15,7 @@ package com.addthis.hydra.store.db;
 
 import com.addthis.codec.Codec;
 import com.addthis.codec.codables.BytesCodable;
+import com.addthis.hydra.store.kv.ValueDictionary;
 
 /**
  */
@@ -24,6 +25,10 @@ public class ReadDBKeyCoder<V extends IReadWeighable & BytesCodable> extends DBK
         super(codec, clazz);
     }
 
+    public ReadDBKeyCoder(Codec codec, Class<? extends V> clazz, ValueDictionary dictionary) {
+        super(codec, clazz, dictionary);
+    }
+
     public ReadDBKeyCoder(Class<? extends V> clazz) {
         super(clazz);
     }
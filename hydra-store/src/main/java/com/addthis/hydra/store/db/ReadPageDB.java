@@ -19,6 +19,7 @@ import java.io.IOException;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.SortedMap;
 import java.util.TreeMap;
 
 import com.addthis.basis.util.Parameter;
@@ -29,8 +30,11 @@ import com.addthis.codec.codables.BytesCodable;
 import com.addthis.hydra.store.kv.ByteStore;
 import com.addthis.hydra.store.kv.ByteStoreBDB;
 import com.addthis.hydra.store.kv.MapDbByteStore;
+import com.addthis.hydra.store.kv.MappedByteStore;
+import com.addthis.hydra.store.kv.PageCompressionDictionary;
 import com.addthis.hydra.store.kv.PagedKeyValueStore;
 import com.addthis.hydra.store.kv.ReadExternalPagedStore;
+import com.addthis.hydra.store.kv.ValueDictionary;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -63,20 +67,29 @@ public class ReadPageDB<V extends IReadWeighable & BytesCodable> implements IPag
                       int maxWeight, boolean metrics) throws IOException {
         this.clazz = clazz;
         String dbType = PageDB.getByteStoreNameForFile(dir);
+        File mappedFile = MappedByteStore.fileFor(dir, defaultDbName);
         ByteStore store;
-        switch (dbType) {
-            case PageDB.PAGED_MAP_DB:
-                store = new MapDbByteStore(dir, defaultDbName, true);
-                break;
-            case PageDB.PAGED_BERK_DB:
-                // fall through -- the previous dbType was always something like 'pagedb' so this
-                // is expected
-            default:
-                store = new ByteStoreBDB(dir, defaultDbName, true);
-                break;
+        if (mappedFile.exists()) {
+            // written by PageDB.compact() after the last write to the database
+            store = new MappedByteStore(mappedFile);
+        } else {
+            switch (dbType) {
+                case PageDB.PAGED_MAP_DB:
+                    store = new MapDbByteStore(dir, defaultDbName, true);
+                    break;
+                case PageDB.PAGED_BERK_DB:
+                    // fall through -- the previous dbType was always something like 'pagedb' so this
+                    // is expected
+                default:
+                    store = new ByteStoreBDB(dir, defaultDbName, true);
+                    break;
+            }
         }
-        this.eps = new ReadExternalPagedStore<>(new ReadDBKeyCoder<>(codec, clazz), store, maxSize,
-                                                maxWeight, metrics);
+        ValueDictionary valueDictionary = ValueDictionary.forDirectory(dir, true);
+        this.eps = new ReadExternalPagedStore<>(new ReadDBKeyCoder<>(codec, clazz, valueDictionary), store, maxSize,
+                                                maxWeight, metrics,
+                                                PageCompressionDictionary.forDirectory(dir, true),
+                                                "pages:" + dir.getPath());
     }
 
     public String toString() {
@@ -214,6 +227,10 @@ public class ReadPageDB<V extends IReadWeighable & BytesCodable> implements IPag
         throw new UnsupportedOperationException();
     }
 
+    @Override public void putAll(SortedMap<DBKey, V> entries) {
+        throw new UnsupportedOperationException();
+    }
+
     @Override public V remove(DBKey key) {
         throw new UnsupportedOperationException();
     }
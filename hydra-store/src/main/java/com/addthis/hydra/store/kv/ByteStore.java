@@ -17,6 +17,10 @@ package com.addthis.hydra.store.kv;
 import java.util.Iterator;
 import java.util.Map;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+
 public interface ByteStore {
 
     public boolean hasKey(byte[] key);
@@ -36,6 +40,30 @@ public interface ByteStore {
 
     public byte[] get(byte[] key);
 
+    /**
+     * Store the readable bytes of {@code val}. The indices of the buffer are not
+     * modified and the caller retains ownership of the buffer. The default
+     * implementation copies the value into a new array. Implementations that
+     * can consume the backing array of a heap buffer should override this method.
+     */
+    public default void put(byte[] key, ByteBuf val) {
+        byte[] bytes = new byte[val.readableBytes()];
+        val.getBytes(val.readerIndex(), bytes);
+        put(key, bytes);
+    }
+
+    /**
+     * Returns the value associated with {@code key} or null if the key is not found.
+     * The caller is responsible for releasing the returned buffer. Implementations
+     * that must copy the value out of their own storage should copy it into a buffer
+     * obtained from {@code allocator}. The default implementation wraps the result of
+     * {@link #get(byte[])} without a copy.
+     */
+    public default ByteBuf get(byte[] key, ByteBufAllocator allocator) {
+        byte[] val = get(key);
+        return (val == null) ? null : Unpooled.wrappedBuffer(val);
+    }
+
     /**
      * return the least key strictly greater than the given key, or null if there is no such key.
      */
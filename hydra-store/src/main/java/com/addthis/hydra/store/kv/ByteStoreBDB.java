@@ -46,6 +46,8 @@ import com.sleepycat.je.OperationStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import io.netty.buffer.ByteBuf;
+
 /**
  * simple byte store that complies with ByteStore for use with
  * ExternalPagedStore
@@ -145,6 +147,24 @@ public class ByteStoreBDB implements ByteStore {
         puts.incrementAndGet();
     }
 
+    /**
+     * Heap buffers are handed to BerkeleyDB without copying the value.
+     */
+    @Override
+    public void put(byte[] key, ByteBuf val) {
+        if (!val.hasArray()) {
+            ByteStore.super.put(key, val);
+            return;
+        }
+        int length = val.readableBytes();
+        DatabaseEntry entry = new DatabaseEntry(val.array(), val.arrayOffset() + val.readerIndex(), length);
+        if (bdb.put(null, new DatabaseEntry(key), entry) != opSuccess) {
+            throw new RuntimeException("put fail");
+        }
+        bytesOut.addAndGet(key.length + length);
+        puts.incrementAndGet();
+    }
+
     @Override
     public byte[] get(byte[] key) {
         final DatabaseEntry dv = new DatabaseEntry();
@@ -16,7 +16,13 @@ package com.addthis.hydra.store.kv;
 
 public interface KeyCoder<K, V> {
 
-    enum EncodeType {LEGACY, SPARSE}
+    /**
+     * The ordinal of the encode type is passed as the version to
+     * {@link com.addthis.codec.codables.BytesCodable} values.
+     * {@link #DICTIONARY} is the sparse encoding with repeated
+     * strings stored in a {@link ValueDictionary}.
+     */
+    enum EncodeType {LEGACY, SPARSE, DICTIONARY}
 
     K negInfinity();
 
@@ -35,4 +41,12 @@ public interface KeyCoder<K, V> {
      * @return true if-and-only-if the input encodes the null value.
      */
     boolean nullRawValueInternal(byte[] value);
+
+    /**
+     * The encoding used for the values of pages that are written.
+     * Must be either {@link EncodeType#SPARSE} or {@link EncodeType#DICTIONARY}.
+     */
+    default EncodeType encodeType() {
+        return EncodeType.SPARSE;
+    }
 }
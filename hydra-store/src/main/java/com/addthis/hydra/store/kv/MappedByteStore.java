@@ -0,0 +1,529 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.kv;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.util.AbstractMap;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardCopyOption;
+
+import com.addthis.basis.util.Parameter;
+
+import com.google.common.primitives.UnsignedBytes;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+
+/**
+ * Read only {@link ByteStore} backed by an immutable file of sorted
+ * (key, value) records that is memory mapped when the store is opened.
+ * The file is written once by {@link #write(ByteStore, File)} from
+ * a closed store, typically when a job has finished writing its tree.
+ * <p/>
+ * The file is laid out as a header, the records in key order, a sparse
+ * index, and a footer. Each record is a four byte key length, a four byte
+ * value length, the key, and the value. The sparse index holds the key and
+ * file offset of every {@code indexInterval}-th record and is the only part
+ * of the file that is read onto the heap when the store is opened.
+ * <p/>
+ * The records are mapped in segments of {@code 2^segmentBits} bytes. A record
+ * never crosses a segment boundary. When a record does not fit in the remainder
+ * of a segment the writer stores a length of -1 (if there is room for it) and
+ * starts the record at the next segment.
+ * <p/>
+ * Keys are ordered by unsigned lexicographic comparison which is the
+ * default ordering of the BerkeleyDB and MapDB stores.
+ * {@link #get(byte[], ByteBufAllocator)} returns a view of the mapped file
+ * and does not copy the value.
+ */
+public class MappedByteStore implements ByteStore {
+
+    private static final Logger log = LoggerFactory.getLogger(MappedByteStore.class);
+
+    static final int defaultSegmentBits = Parameter.intValue("eps.mapped.segment.bits", 30);
+    static final int defaultIndexInterval = Parameter.intValue("eps.mapped.index.interval", 16);
+
+    static final String FILE_SUFFIX = ".sst";
+
+    private static final int MAGIC = 0x48535354; // "HSST"
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 16;
+    private static final int FOOTER_LENGTH = 24;
+    private static final int PADDING = -1;
+
+    private static final Comparator<byte[]> comparator = UnsignedBytes.lexicographicalComparator();
+
+    private final File file;
+    private final int segmentBits;
+    private final int segmentMask;
+    private final int indexInterval;
+    private final long recordCount;
+    private final byte[][] indexKeys;
+    private final long[] indexOffsets;
+
+    private volatile MappedByteBuffer[] segments;
+
+    public MappedByteStore(File file) throws IOException {
+        this.file = file;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long length = raf.length();
+            if (length < HEADER_LENGTH + FOOTER_LENGTH) {
+                throw new IOException("mapped store " + file + " is truncated");
+            }
+            if (raf.readInt() != MAGIC) {
+                throw new IOException("mapped store " + file + " has an invalid header");
+            }
+            int version = raf.readInt();
+            if (version != VERSION) {
+                throw new IOException("mapped store " + file + " has unsupported version " + version);
+            }
+            segmentBits = raf.readInt();
+            indexInterval = raf.readInt();
+            segmentMask = (1 << segmentBits) - 1;
+
+            raf.seek(length - FOOTER_LENGTH);
+            long indexOffset = raf.readLong();
+            int indexCount = raf.readInt();
+            recordCount = raf.readLong();
+            if (raf.readInt() != MAGIC) {
+                throw new IOException("mapped store " + file + " has an invalid footer");
+            }
+
+            indexKeys = new byte[indexCount][];
+            indexOffsets = new long[indexCount];
+            raf.seek(indexOffset);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(raf.getFD()), 1 << 16));
+            for (int i = 0; i < indexCount; i++) {
+                byte[] key = new byte[in.readInt()];
+                in.readFully(key);
+                indexKeys[i] = key;
+                indexOffsets[i] = in.readLong();
+            }
+
+            FileChannel channel = raf.getChannel();
+            int segmentCount = (int) ((indexOffset + segmentMask) >>> segmentBits);
+            MappedByteBuffer[] mapped = new MappedByteBuffer[segmentCount];
+            for (int i = 0; i < segmentCount; i++) {
+                long start = ((long) i) << segmentBits;
+                long size = Math.min(1L << segmentBits, indexOffset - start);
+                mapped[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+            }
+            segments = mapped;
+        }
+        log.info("[init] mapped " + file + " records=" + recordCount + " index=" + indexKeys.length);
+    }
+
+    /**
+     * Returns the file that holds the mapped store for the database
+     * named {@code dbname} in directory {@code dir}.
+     */
+    public static File fileFor(File dir, String dbname) {
+        return new File(dir, dbname + FILE_SUFFIX);
+    }
+
+    /**
+     * Write every (key, value) pair of {@code source} into {@code target}.
+     * The file is written under a temporary name and then renamed so that
+     * a partially written file is never opened.
+     *
+     * @return the number of records written
+     */
+    public static long write(ByteStore source, File target) throws IOException {
+        return write(source, target, defaultSegmentBits, defaultIndexInterval);
+    }
+
+    static long write(ByteStore source, File target, int segmentBits, int indexInterval) throws IOException {
+        if (segmentBits < 10 || segmentBits > 30) {
+            throw new IllegalArgumentException("segmentBits must be between 10 and 30: " + segmentBits);
+        }
+        if (indexInterval < 1) {
+            throw new IllegalArgumentException("indexInterval must be positive: " + indexInterval);
+        }
+        long segmentSize = 1L << segmentBits;
+        File temp = new File(target.getParentFile(), target.getName() + ".tmp");
+        long records = 0;
+        try (FileOutputStream fos = new FileOutputStream(temp)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(segmentBits);
+            out.writeInt(indexInterval);
+            long offset = HEADER_LENGTH;
+            ByteBuf index = Unpooled.buffer();
+            int indexCount = 0;
+            byte[] first = source.firstKey();
+            Iterator<byte[]> keys = (first == null) ? null : source.keyIterator(first);
+            while (keys != null && keys.hasNext()) {
+                byte[] key = keys.next();
+                byte[] value = source.get(key);
+                if (value == null) {
+                    continue;
+                }
+                long length = 8L + key.length + value.length;
+                if (length > segmentSize) {
+                    throw new IOException("record of " + length + " bytes is larger than a segment");
+                }
+                long remaining = segmentSize - (offset & (segmentSize - 1));
+                if (length > remaining) {
+                    if (remaining >= 4) {
+                        out.writeInt(PADDING);
+                        remaining -= 4;
+                    }
+                    for (long i = 0; i < remaining; i++) {
+                        out.write(0);
+                    }
+                    offset = ((offset >>> segmentBits) + 1) << segmentBits;
+                }
+                if (records % indexInterval == 0) {
+                    index.writeInt(key.length);
+                    index.writeBytes(key);
+                    index.writeLong(offset);
+                    indexCount++;
+                }
+                out.writeInt(key.length);
+                out.writeInt(value.length);
+                out.write(key);
+                out.write(value);
+                offset += length;
+                records++;
+            }
+            long indexOffset = offset;
+            out.write(index.array(), index.arrayOffset(), index.readableBytes());
+            out.writeLong(indexOffset);
+            out.writeInt(indexCount);
+            out.writeLong(records);
+            out.writeInt(MAGIC);
+            out.flush();
+            fos.getFD().sync();
+        }
+        java.nio.file.Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        return records;
+    }
+
+    /**
+     * Position of a record inside the mapped segments.
+     */
+    private static final class Cursor {
+
+        long ordinal;
+        long offset;
+        ByteBuffer segment;
+        int position;
+        int keyLength;
+        int valueLength;
+    }
+
+    private MappedByteBuffer[] segments() {
+        MappedByteBuffer[] current = segments;
+        if (current == null) {
+            throw new IllegalStateException("mapped store " + file + " is closed");
+        }
+        return current;
+    }
+
+    /**
+     * Move the cursor to the record that begins at or after {@code offset}.
+     */
+    private void seek(Cursor cursor, long offset) {
+        MappedByteBuffer[] current = segments();
+        while (true) {
+            ByteBuffer segment = current[(int) (offset >>> segmentBits)];
+            int position = (int) (offset & segmentMask);
+            int keyLength = (position + 4 <= segment.limit()) ? segment.getInt(position) : PADDING;
+            if (keyLength == PADDING) {
+                offset = ((offset >>> segmentBits) + 1) << segmentBits;
+                continue;
+            }
+            cursor.offset = offset;
+            cursor.segment = segment;
+            cursor.position = position;
+            cursor.keyLength = keyLength;
+            cursor.valueLength = segment.getInt(position + 4);
+            return;
+        }
+    }
+
+    private void advance(Cursor cursor) {
+        cursor.ordinal++;
+        seek(cursor, cursor.offset + 8 + cursor.keyLength + cursor.valueLength);
+    }
+
+    /**
+     * Position the cursor on the record with the given ordinal.
+     */
+    private Cursor seekOrdinal(long ordinal) {
+        Cursor cursor = new Cursor();
+        int block = (int) (ordinal / indexInterval);
+        cursor.ordinal = ((long) block) * indexInterval;
+        seek(cursor, indexOffsets[block]);
+        while (cursor.ordinal < ordinal) {
+            advance(cursor);
+        }
+        return cursor;
+    }
+
+    private static int compare(ByteBuffer segment, int position, int length, byte[] key) {
+        int min = Math.min(length, key.length);
+        for (int i = 0; i < min; i++) {
+            int a = segment.get(position + i) & 0xff;
+            int b = key[i] & 0xff;
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return length - key.length;
+    }
+
+    private int compareKey(Cursor cursor, byte[] key) {
+        return compare(cursor.segment, cursor.position + 8, cursor.keyLength, key);
+    }
+
+    private byte[] readKey(Cursor cursor) {
+        return copy(cursor.segment, cursor.position + 8, cursor.keyLength);
+    }
+
+    private byte[] readValue(Cursor cursor) {
+        return copy(cursor.segment, cursor.position + 8 + cursor.keyLength, cursor.valueLength);
+    }
+
+    private static byte[] copy(ByteBuffer segment, int position, int length) {
+        byte[] result = new byte[length];
+        ByteBuffer view = segment.duplicate();
+        view.position(position);
+        view.get(result);
+        return result;
+    }
+
+    /**
+     * Returns a cursor positioned on the greatest record whose key is less than
+     * or equal to {@code key}, or null if every key is greater than {@code key}.
+     */
+    private Cursor floor(byte[] key) {
+        int low = 0;
+        int high = indexKeys.length - 1;
+        int block = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (comparator.compare(indexKeys[mid], key) <= 0) {
+                block = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (block < 0) {
+            return null;
+        }
+        Cursor cursor = new Cursor();
+        cursor.ordinal = ((long) block) * indexInterval;
+        seek(cursor, indexOffsets[block]);
+        long end = Math.min(cursor.ordinal + indexInterval, recordCount);
+        Cursor next = new Cursor();
+        while (cursor.ordinal + 1 < end) {
+            next.ordinal = cursor.ordinal + 1;
+            seek(next, cursor.offset + 8 + cursor.keyLength + cursor.valueLength);
+            if (compareKey(next, key) > 0) {
+                break;
+            }
+            Cursor swap = cursor;
+            cursor = next;
+            next = swap;
+        }
+        return cursor;
+    }
+
+    @Override
+    public boolean hasKey(byte[] key) {
+        Cursor cursor = floor(key);
+        return cursor != null && compareKey(cursor, key) == 0;
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+
+    @Override
+    public byte[] firstKey() {
+        return (recordCount == 0) ? null : readKey(seekOrdinal(0));
+    }
+
+    @Override
+    public byte[] lastKey() {
+        return (recordCount == 0) ? null : readKey(seekOrdinal(recordCount - 1));
+    }
+
+    @Override
+    public byte[] delete(byte[] key) {
+        throw new UnsupportedOperationException("mapped store is read only");
+    }
+
+    @Override
+    public void put(byte[] key, byte[] val) {
+        throw new UnsupportedOperationException("mapped store is read only");
+    }
+
+    @Override
+    public byte[] get(byte[] key) {
+        Cursor cursor = floor(key);
+        if (cursor == null || compareKey(cursor, key) != 0) {
+            return null;
+        }
+        return readValue(cursor);
+    }
+
+    /**
+     * Returns a view of the value in the mapped file. The allocator is not
+     * used. The view remains valid until the store is closed.
+     */
+    @Override
+    public ByteBuf get(byte[] key, ByteBufAllocator allocator) {
+        Cursor cursor = floor(key);
+        if (cursor == null || compareKey(cursor, key) != 0) {
+            return null;
+        }
+        ByteBuffer view = cursor.segment.duplicate();
+        int position = cursor.position + 8 + cursor.keyLength;
+        view.limit(position + cursor.valueLength);
+        view.position(position);
+        return Unpooled.wrappedBuffer(view.slice());
+    }
+
+    @Override
+    public byte[] higherKey(byte[] key) {
+        Cursor cursor = floor(key);
+        long ordinal = (cursor == null) ? 0 : cursor.ordinal + 1;
+        if (ordinal >= recordCount) {
+            return null;
+        }
+        if (cursor == null) {
+            return readKey(seekOrdinal(0));
+        }
+        advance(cursor);
+        return readKey(cursor);
+    }
+
+    @Override
+    public byte[] lowerKey(byte[] key) {
+        Cursor cursor = floor(key);
+        if (cursor == null) {
+            return null;
+        }
+        if (compareKey(cursor, key) != 0) {
+            return readKey(cursor);
+        }
+        return (cursor.ordinal == 0) ? null : readKey(seekOrdinal(cursor.ordinal - 1));
+    }
+
+    @Override
+    public byte[] floorKey(byte[] key) {
+        Cursor cursor = floor(key);
+        return (cursor == null) ? null : readKey(cursor);
+    }
+
+    @Override
+    public Map.Entry<byte[], byte[]> floorEntry(byte[] key) {
+        Cursor cursor = floor(key);
+        if (cursor == null) {
+            return null;
+        }
+        return new AbstractMap.SimpleImmutableEntry<>(readKey(cursor), readValue(cursor));
+    }
+
+    @Override
+    public byte[] firstEntry() {
+        return (recordCount == 0) ? null : readValue(seekOrdinal(0));
+    }
+
+    /**
+     * Iterate over the keys beginning with the greatest key less than or equal to
+     * {@code start}, or the first key if there is no such key. This matches
+     * the iterators of the BerkeleyDB stores.
+     */
+    @Override
+    public Iterator<byte[]> keyIterator(byte[] start) {
+        Cursor floor = (start == null || start.length == 0) ? null : floor(start);
+        final Cursor cursor = (floor != null || recordCount == 0) ? floor : seekOrdinal(0);
+        return new Iterator<byte[]>() {
+            private boolean started;
+
+            @Override
+            public boolean hasNext() {
+                if (cursor == null) {
+                    return false;
+                }
+                return started ? cursor.ordinal + 1 < recordCount : cursor.ordinal < recordCount;
+            }
+
+            @Override
+            public byte[] next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                if (started) {
+                    advance(cursor);
+                }
+                started = true;
+                return readKey(cursor);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+        close(false);
+    }
+
+    /**
+     * The mapped segments are released when they are garbage collected.
+     *
+     * @param cleanLog unused in the MappedByteStore implementation.
+     */
+    @Override
+    public void close(boolean cleanLog) {
+        segments = null;
+    }
+
+    @Override
+    public long count() {
+        return recordCount;
+    }
+}
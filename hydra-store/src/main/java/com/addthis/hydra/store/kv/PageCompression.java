@@ -0,0 +1,328 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.kv;
+
+import javax.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import com.addthis.basis.io.GZOut;
+import com.addthis.basis.util.Parameter;
+import com.addthis.basis.util.Varint;
+
+import com.github.luben.zstd.Zstd;
+import com.jcraft.jzlib.InflaterInputStream;
+import com.ning.compress.lzf.LZFInputStream;
+import com.ning.compress.lzf.LZFOutputStream;
+
+import org.xerial.snappy.SnappyInputStream;
+import org.xerial.snappy.SnappyOutputStream;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.Unpooled;
+
+/**
+ * Registry of the compression formats that may be applied to an encoded page.
+ * The id of the format is stored in the low four bits of the first byte of
+ * each page so pages written with different formats may coexist in
+ * the same database. The ids 0 through 4 are the historical values
+ * of {@code eps.gz.type}.
+ * <p/>
+ * Encoding is performed in two steps. The page body is written uncompressed
+ * into a scratch buffer that is owned by the current thread (see {@link #scratch()})
+ * and then the scratch buffer is compressed into the output stream.
+ * The deflate and zstd formats compress with per-thread state so the
+ * eviction threads do not allocate compressors for each page.
+ */
+public enum PageCompression {
+
+    NONE(0) {
+        @Override
+        public void compress(ByteBuf body, ByteBufOutputStream out,
+                @Nullable PageCompressionDictionary dictionary) throws IOException {
+            out.buffer().writeBytes(body, body.readerIndex(), body.readableBytes());
+        }
+
+        @Override
+        public InputStream decompress(ByteBuf page, @Nullable PageCompressionDictionary dictionary) {
+            return new ByteBufInputStream(page);
+        }
+    },
+
+    DEFLATE(1) {
+        @Override
+        public void compress(ByteBuf body, ByteBufOutputStream out,
+                @Nullable PageCompressionDictionary dictionary) throws IOException {
+            CompressState state = compressState.get();
+            Deflater deflater = state.deflater;
+            deflater.reset();
+            deflater.setInput(body.array(), body.arrayOffset() + body.readerIndex(), body.readableBytes());
+            deflater.finish();
+            while (!deflater.finished()) {
+                int count = deflater.deflate(state.chunk);
+                out.write(state.chunk, 0, count);
+            }
+        }
+
+        @Override
+        public InputStream decompress(ByteBuf page, @Nullable PageCompressionDictionary dictionary)
+                throws IOException {
+            return new InflaterInputStream(new ByteBufInputStream(page));
+        }
+    },
+
+    GZIP(2) {
+        @Override
+        public void compress(ByteBuf body, ByteBufOutputStream out,
+                @Nullable PageCompressionDictionary dictionary) throws IOException {
+            GZOut os = new GZOut(out, gzbuf, gzlevel);
+            writeBody(body, os);
+            os.finish();
+            os.close();
+        }
+
+        @Override
+        public InputStream decompress(ByteBuf page, @Nullable PageCompressionDictionary dictionary)
+                throws IOException {
+            return new GZIPInputStream(new ByteBufInputStream(page));
+        }
+    },
+
+    LZF(3) {
+        @Override
+        public void compress(ByteBuf body, ByteBufOutputStream out,
+                @Nullable PageCompressionDictionary dictionary) throws IOException {
+            OutputStream os = new LZFOutputStream(out);
+            writeBody(body, os);
+            os.close();
+        }
+
+        @Override
+        public InputStream decompress(ByteBuf page, @Nullable PageCompressionDictionary dictionary)
+                throws IOException {
+            return new LZFInputStream(new ByteBufInputStream(page));
+        }
+    },
+
+    SNAPPY(4) {
+        @Override
+        public void compress(ByteBuf body, ByteBufOutputStream out,
+                @Nullable PageCompressionDictionary dictionary) throws IOException {
+            OutputStream os = new SnappyOutputStream(out);
+            writeBody(body, os);
+            os.close();
+        }
+
+        @Override
+        public InputStream decompress(ByteBuf page, @Nullable PageCompressionDictionary dictionary)
+                throws IOException {
+            return new SnappyInputStream(new ByteBufInputStream(page));
+        }
+    },
+
+    /**
+     * A single zstd frame preceded by the uncompressed length of the page body.
+     */
+    ZSTD(5) {
+        @Override
+        public void compress(ByteBuf body, ByteBufOutputStream out,
+                @Nullable PageCompressionDictionary dictionary) throws IOException {
+            CompressState state = compressState.get();
+            int length = body.readableBytes();
+            byte[] target = state.zstdTarget(length);
+            long count = Zstd.compressByteArray(target, 0, target.length, body.array(),
+                    body.arrayOffset() + body.readerIndex(), length, zstdLevel);
+            writeFrame(out, length, target, count);
+        }
+
+        @Override
+        public InputStream decompress(ByteBuf page, @Nullable PageCompressionDictionary dictionary)
+                throws IOException {
+            int length = Varint.readUnsignedVarInt(page);
+            ByteBuf frame = heapFrame(page);
+            byte[] target = new byte[length];
+            long count = Zstd.decompressByteArray(target, 0, length, frame.array(),
+                    frame.arrayOffset() + frame.readerIndex(), frame.readableBytes());
+            checkFrame(count, length);
+            return new ByteArrayInputStream(target);
+        }
+    },
+
+    /**
+     * Zstd compression using the dictionary that was trained for the database.
+     * Pages are written with {@link #ZSTD} until a dictionary is available.
+     */
+    ZSTD_DICT(6) {
+        @Override
+        public void compress(ByteBuf body, ByteBufOutputStream out,
+                @Nullable PageCompressionDictionary dictionary) throws IOException {
+            if (dictionary == null || !dictionary.isTrained()) {
+                throw new IllegalStateException("zstd dictionary compression requested without a dictionary");
+            }
+            CompressState state = compressState.get();
+            int length = body.readableBytes();
+            byte[] target = state.zstdTarget(length);
+            long count = Zstd.compressFastDict(target, 0, body.array(),
+                    body.arrayOffset() + body.readerIndex(), length, dictionary.compressDictionary());
+            writeFrame(out, length, target, count);
+        }
+
+        @Override
+        public InputStream decompress(ByteBuf page, @Nullable PageCompressionDictionary dictionary)
+                throws IOException {
+            if (dictionary == null || !dictionary.isTrained()) {
+                throw new IllegalStateException("page was compressed with a zstd dictionary " +
+                                                "but no dictionary is available");
+            }
+            int length = Varint.readUnsignedVarInt(page);
+            ByteBuf frame = heapFrame(page);
+            byte[] target = new byte[length];
+            long count = Zstd.decompressFastDict(target, 0, frame.array(),
+                    frame.arrayOffset() + frame.readerIndex(), frame.readableBytes(),
+                    dictionary.decompressDictionary());
+            checkFrame(count, length);
+            return new ByteArrayInputStream(target);
+        }
+    };
+
+    static final int gzlevel = Parameter.intValue("eps.gz.level", 1);
+    static final int gzbuf = Parameter.intValue("eps.gz.buffer", 1024);
+    static final int zstdLevel = Parameter.intValue("eps.zstd.level", 3);
+
+    private static final PageCompression[] registry = new PageCompression[16];
+
+    static {
+        for (PageCompression compression : values()) {
+            registry[compression.id] = compression;
+        }
+    }
+
+    /**
+     * Per-thread state used when compressing pages. These objects
+     * live as long as the eviction thread (or writer thread) that uses them.
+     */
+    private static final class CompressState {
+
+        final ByteBufOutputStream scratch = new ByteBufOutputStream(Unpooled.buffer());
+        final Deflater deflater = new Deflater(gzlevel);
+        final byte[] chunk = new byte[gzbuf];
+        byte[] zstdTarget = new byte[0];
+
+        byte[] zstdTarget(int length) {
+            int bound = (int) Zstd.compressBound(length);
+            if (zstdTarget.length < bound) {
+                zstdTarget = new byte[bound];
+            }
+            return zstdTarget;
+        }
+    }
+
+    private static final ThreadLocal<CompressState> compressState = new ThreadLocal<CompressState>() {
+        @Override
+        protected CompressState initialValue() {
+            return new CompressState();
+        }
+    };
+
+    public final int id;
+
+    private PageCompression(int id) {
+        this.id = id;
+    }
+
+    /**
+     * Returns the compression format stored in the low four bits of the page flags.
+     *
+     * @throws IllegalStateException if the id is not registered
+     */
+    public static PageCompression fromFlags(int flags) {
+        PageCompression compression = registry[flags & 0x0f];
+        if (compression == null) {
+            throw new IllegalStateException("invalid page compression type: " + (flags & 0x0f));
+        }
+        return compression;
+    }
+
+    /**
+     * Returns an empty scratch stream owned by the current thread. The
+     * uncompressed page body is written into this stream and
+     * then passed to {@link #compress(ByteBuf, ByteBufOutputStream, PageCompressionDictionary)}.
+     * The stream must not be retained after the page has been encoded.
+     */
+    public static ByteBufOutputStream scratch() {
+        ByteBufOutputStream scratch = compressState.get().scratch;
+        scratch.buffer().clear();
+        return scratch;
+    }
+
+    /**
+     * Compress the readable bytes of {@code body} and append them to {@code out}.
+     * The reader index of {@code body} is not modified.
+     */
+    public abstract void compress(ByteBuf body, ByteBufOutputStream out,
+            @Nullable PageCompressionDictionary dictionary) throws IOException;
+
+    /**
+     * Returns a stream of the uncompressed page body. The stream may read
+     * directly from {@code page} so the buffer must not be released until
+     * the stream has been consumed.
+     *
+     * @param page       the encoded page with the reader index positioned after the flags byte
+     * @param dictionary dictionary of the database or null if none is available
+     */
+    public abstract InputStream decompress(ByteBuf page, @Nullable PageCompressionDictionary dictionary)
+            throws IOException;
+
+    private static void writeBody(ByteBuf body, OutputStream os) throws IOException {
+        os.write(body.array(), body.arrayOffset() + body.readerIndex(), body.readableBytes());
+    }
+
+    /**
+     * Returns the readable bytes of {@code page} in a buffer that is backed by an array.
+     * Pages read from the heap are returned as is and other pages are copied.
+     */
+    private static ByteBuf heapFrame(ByteBuf page) {
+        if (page.hasArray()) {
+            return page;
+        }
+        byte[] copy = new byte[page.readableBytes()];
+        page.getBytes(page.readerIndex(), copy);
+        return Unpooled.wrappedBuffer(copy);
+    }
+
+    private static void writeFrame(ByteBufOutputStream out, int length, byte[] frame, long count)
+            throws IOException {
+        if (Zstd.isError(count)) {
+            throw new IOException("zstd compression failed: " + Zstd.getErrorName(count));
+        }
+        Varint.writeUnsignedVarInt(length, out);
+        out.write(frame, 0, (int) count);
+    }
+
+    private static void checkFrame(long count, int length) throws IOException {
+        if (Zstd.isError(count)) {
+            throw new IOException("zstd decompression failed: " + Zstd.getErrorName(count));
+        } else if (count != length) {
+            throw new IOException("zstd decompression produced " + count + " bytes, expected " + length);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.kv;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.addthis.basis.util.Files;
+import com.addthis.basis.util.Parameter;
+
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.github.luben.zstd.ZstdDictTrainer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Zstd dictionary shared by all the pages of a single database. The dictionary
+ * is stored in a file next to the database. When no dictionary file exists
+ * the uncompressed bodies of the first pages that are written are sampled
+ * and a dictionary is trained once enough samples have been collected.
+ * The dictionary is written to disk before any page is compressed with it
+ * and it is never replaced, so every page that references the dictionary
+ * can be decoded for the lifetime of the database.
+ */
+public class PageCompressionDictionary {
+
+    private static final Logger log = LoggerFactory.getLogger(PageCompressionDictionary.class);
+
+    public static final String defaultFileName = Parameter.value("eps.zstd.dict.file", "page.dict");
+
+    static final int dictionarySize = Parameter.intValue("eps.zstd.dict.size", 64 * 1024);
+    static final int trainingBytes = Parameter.intValue("eps.zstd.dict.training", 8 * 1024 * 1024);
+
+    @Nullable
+    private final File file;
+
+    private final boolean readOnly;
+
+    private final ReentrantLock trainingLock = new ReentrantLock();
+
+    @GuardedBy("trainingLock")
+    private ZstdDictTrainer trainer;
+
+    @GuardedBy("trainingLock")
+    private boolean trainingFailed;
+
+    private volatile ZstdDictCompress compressDictionary;
+
+    private volatile ZstdDictDecompress decompressDictionary;
+
+    /**
+     * @param file     location of the dictionary. If null then the dictionary is never trained.
+     * @param readOnly if true then the dictionary is loaded but never trained.
+     */
+    public PageCompressionDictionary(@Nullable File file, boolean readOnly) throws IOException {
+        this.file = file;
+        this.readOnly = readOnly;
+        if (file != null && file.exists()) {
+            install(Files.read(file));
+        }
+    }
+
+    /**
+     * Returns the dictionary stored in the default location within the database directory.
+     */
+    public static PageCompressionDictionary forDirectory(File dir, boolean readOnly) throws IOException {
+        return new PageCompressionDictionary(new File(dir, defaultFileName), readOnly);
+    }
+
+    public boolean isTrained() {
+        return compressDictionary != null;
+    }
+
+    public ZstdDictCompress compressDictionary() {
+        return compressDictionary;
+    }
+
+    public ZstdDictDecompress decompressDictionary() {
+        return decompressDictionary;
+    }
+
+    /**
+     * Offer the uncompressed body of a page as a training sample. This is a
+     * no-op once the dictionary is trained or if another thread is
+     * currently sampling. The readable bytes of {@code body} are not modified.
+     */
+    public void sample(ByteBuf body) {
+        if (readOnly || file == null || isTrained() || !trainingLock.tryLock()) {
+            return;
+        }
+        try {
+            if (isTrained() || trainingFailed) {
+                return;
+            }
+            if (trainer == null) {
+                trainer = new ZstdDictTrainer(trainingBytes, dictionarySize);
+            }
+            byte[] sample = new byte[body.readableBytes()];
+            body.getBytes(body.readerIndex(), sample);
+            if (!trainer.addSample(sample)) {
+                train();
+            }
+        } finally {
+            trainingLock.unlock();
+        }
+    }
+
+    @GuardedBy("trainingLock")
+    private void train() {
+        long start = System.currentTimeMillis();
+        try {
+            byte[] dictionary = trainer.trainSamples();
+            persist(dictionary);
+            install(dictionary);
+            log.info("[train] {} bytes={} ms={}", file, dictionary.length, System.currentTimeMillis() - start);
+        } catch (IOException | RuntimeException ex) {
+            trainingFailed = true;
+            log.warn("Unable to train page compression dictionary {}; pages will use zstd without " +
+                     "a dictionary", file, ex);
+        } finally {
+            trainer = null;
+        }
+    }
+
+    private void persist(byte[] dictionary) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(dictionary);
+            out.getFD().sync();
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Unable to rename " + temp + " to " + file);
+        }
+    }
+
+    private void install(byte[] dictionary) {
+        decompressDictionary = new ZstdDictDecompress(dictionary);
+        compressDictionary = new ZstdDictCompress(dictionary, PageCompression.zstdLevel);
+    }
+}
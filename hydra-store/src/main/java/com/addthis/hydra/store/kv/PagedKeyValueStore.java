@@ -13,6 +13,8 @@
  */
 package com.addthis.hydra.store.kv;
 
+import java.util.SortedMap;
+
 import com.addthis.codec.codables.BytesCodable;
 import com.addthis.hydra.store.db.CloseOperation;
 
@@ -36,6 +38,16 @@ public interface PagedKeyValueStore<K, V extends BytesCodable> extends KeyValueS
 
     public void setMemEstimateInterval(int interval);
 
+    /**
+     * Bind each value of {@code entries} to its key. A null value removes the key.
+     * Consecutive keys that fall on the same page are written while holding
+     * the page lock once, so the cost of locating and locking pages is paid
+     * once per page rather than once per key. The batch is not atomic.
+     *
+     * @param entries (key, value) pairs in the key order of this store
+     */
+    public void putAll(SortedMap<K, V> entries);
+
     public void close();
 
     /**
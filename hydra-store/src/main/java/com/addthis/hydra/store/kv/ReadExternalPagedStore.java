@@ -13,7 +13,6 @@
  */
 package com.addthis.hydra.store.kv;
 
-import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.InputStream;
 
@@ -24,7 +23,6 @@ import java.util.NoSuchElementException;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.concurrent.ExecutionException;
-import java.util.zip.GZIPInputStream;
 
 import com.addthis.basis.util.Bytes;
 import com.addthis.basis.util.ClosableIterator;
@@ -41,12 +39,11 @@ import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.cache.Weigher;
 
-import com.jcraft.jzlib.InflaterInputStream;
-import com.ning.compress.lzf.LZFInputStream;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.xerial.snappy.SnappyInputStream;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
 
 /**
  * read only caching page store intended to play nice with the query system
@@ -80,6 +77,7 @@ public class ReadExternalPagedStore<K extends Comparable<K>, V extends IReadWeig
     private final boolean collectMetrics;
 
     private static final int FLAGS_IS_SPARSE = 1 << 5;
+    private static final int FLAGS_HAS_DICTIONARY = 1 << 6;
 
     /**
      * guava loading cache for storing pages. Get method takes the exact page key, so finding the
@@ -87,24 +85,55 @@ public class ReadExternalPagedStore<K extends Comparable<K>, V extends IReadWeig
      */
     private final LoadingCache<K, TreePage> loadingPageCache;
 
+    /**
+     * used instead of loadingPageCache when the shared cache is enabled
+     */
+    private final SharedReadCache.Segment<K, TreePage> sharedPageCache;
+
     //backing byte store
     private final ByteStore pages;
 
     final KeyCoder<K, V> keyCoder;
 
+    // dictionary for zstd compressed pages. May be null.
+    private final PageCompressionDictionary dictionary;
+
     public ReadExternalPagedStore(KeyCoder<K, V> keyCoder, final ByteStore pages, int maxSize, int maxWeight) {
         this(keyCoder, pages, maxSize, maxWeight, false);
     }
 
     public ReadExternalPagedStore(final KeyCoder<K, V> keyCoder, final ByteStore pages, int maxSize, int maxWeight, boolean collect) {
+        this(keyCoder, pages, maxSize, maxWeight, collect, null);
+    }
+
+    public ReadExternalPagedStore(final KeyCoder<K, V> keyCoder, final ByteStore pages, int maxSize, int maxWeight,
+            boolean collect, PageCompressionDictionary dictionary) {
+        this(keyCoder, pages, maxSize, maxWeight, collect, dictionary, "pages");
+    }
+
+    /**
+     * @param name used to scope the metrics of the page cache when the
+     *             {@link SharedReadCache shared cache} is enabled
+     */
+    public ReadExternalPagedStore(final KeyCoder<K, V> keyCoder, final ByteStore pages, int maxSize, int maxWeight,
+            boolean collect, PageCompressionDictionary dictionary, String name) {
         this.keyCoder = keyCoder;
         this.pages = pages;
-        log.info("[init] maxSize=" + maxSize + " maxWeight=" + maxWeight);
+        this.dictionary = dictionary;
 
         collectMetrics = collectMetricsParameter || collect;
 
         metrics = collectMetrics ? new ExternalPagedStoreMetrics() : null;
 
+        if (SharedReadCache.isEnabled()) {
+            log.info("[init] shared page cache " + name);
+            loadingPageCache = null;
+            sharedPageCache = SharedReadCache.instance().segment(name, this::loadPage, page -> page.originalByteSize);
+            return;
+        }
+        log.info("[init] maxSize=" + maxSize + " maxWeight=" + maxWeight);
+        sharedPageCache = null;
+
         // Prefer evicting on weight instead of page count
         if (maxWeight != 0) {
             loadingPageCache = CacheBuilder.newBuilder()
@@ -118,12 +147,7 @@ public class ReadExternalPagedStore<K extends Comparable<K>, V extends IReadWeig
                     .build(
                             new CacheLoader<K, TreePage>() {
                                 public TreePage load(K key) throws Exception {
-                                    byte[] page = pages.get(keyCoder.keyEncode(key));
-                                    if (page != null) {
-                                        return pageDecode(page);
-                                    } else {
-                                        throw new ExecutionException("Source did not have page", new NullPointerException());
-                                    }
+                                    return loadPage(key);
                                 }
                             });
         } else {
@@ -132,17 +156,32 @@ public class ReadExternalPagedStore<K extends Comparable<K>, V extends IReadWeig
                     .build(
                             new CacheLoader<K, TreePage>() {
                                 public TreePage load(K key) throws Exception {
-                                    byte[] page = pages.get(keyCoder.keyEncode(key));
-                                    if (page != null) {
-                                        return pageDecode(page);
-                                    } else {
-                                        throw new ExecutionException("Source did not have page", new NullPointerException());
-                                    }
+                                    return loadPage(key);
                                 }
                             });
         }
     }
 
+    private TreePage loadPage(K key) throws Exception {
+        ByteBuf page = pages.get(keyCoder.keyEncode(key), PooledByteBufAllocator.DEFAULT);
+        if (page != null) {
+            try {
+                return pageDecode(page);
+            } finally {
+                page.release();
+            }
+        } else {
+            throw new ExecutionException("Source did not have page", new NullPointerException());
+        }
+    }
+
+    private TreePage getPage(K key) throws ExecutionException {
+        if (sharedPageCache != null) {
+            return sharedPageCache.get(key);
+        }
+        return loadingPageCache.get(key);
+    }
+
     public ReadDBKeyCoder<V> getKeyCoder() {
         return (ReadDBKeyCoder) keyCoder;
     }
@@ -160,7 +199,7 @@ public class ReadExternalPagedStore<K extends Comparable<K>, V extends IReadWeig
         K pageKey = keyCoder.keyDecode(getPageKeyForKey(key));
         if (pageKey != null) {
             try {
-                return loadingPageCache.get(pageKey);
+                return getPage(pageKey);
             } catch (ExecutionException e) {
             }
         }
@@ -180,32 +219,23 @@ public class ReadExternalPagedStore<K extends Comparable<K>, V extends IReadWeig
     }
 
     public void close() {
+        if (sharedPageCache != null) {
+            sharedPageCache.close();
+        }
         pages.close();
     }
 
-    //decode pages. Called on the bytes returned by store.get()
-    private TreePage pageDecode(byte[] page) {
+    //decode pages. Called on the buffer returned by store.get(). The buffer is not retained.
+    private TreePage pageDecode(ByteBuf page) {
         try {
-            InputStream in = new ByteArrayInputStream(page);
-            int flags = in.read() & 0xff;
-            int gztype = flags & 0x0f;
+            ByteBuf buffer = page.duplicate();
+            int flags = buffer.readUnsignedByte();
             boolean isSparse = (flags & FLAGS_IS_SPARSE) != 0;
-            switch (gztype) {
-                case 1:
-                    in = new InflaterInputStream(in);
-                    break;
-                case 2:
-                    in = new GZIPInputStream(in);
-                    break;
-                case 3:
-                    in = new LZFInputStream(in);
-                    break;
-                case 4:
-                    in = new SnappyInputStream(in);
-                    break;
-            }
+            InputStream in = PageCompression.fromFlags(flags).decompress(buffer, dictionary);
             TreePage decode;
             if (isSparse) {
+                KeyCoder.EncodeType encodeType = ((flags & FLAGS_HAS_DICTIONARY) != 0) ?
+                                                 KeyCoder.EncodeType.DICTIONARY : KeyCoder.EncodeType.SPARSE;
                 DataInputStream dis = new DataInputStream(in);
                 int entries = Varint.readUnsignedVarInt(dis);
                 if (collectMetrics) {
@@ -224,7 +254,7 @@ public class ReadExternalPagedStore<K extends Comparable<K>, V extends IReadWeig
                     byte[] kb = Bytes.readBytes(in, Varint.readUnsignedVarInt(dis));
                     byte[] vb = Bytes.readBytes(in, Varint.readUnsignedVarInt(dis));
                     K key = keyCoder.keyDecode(kb);
-                    decode.map.put(key, new PageValue(vb, KeyCoder.EncodeType.SPARSE));
+                    decode.map.put(key, new PageValue(vb, encodeType));
                 }
 
             } else {
@@ -248,7 +278,7 @@ public class ReadExternalPagedStore<K extends Comparable<K>, V extends IReadWeig
                 }
             }
 
-            decode.originalByteSize = page.length;
+            decode.originalByteSize = page.readableBytes();
             return decode;
         } catch (RuntimeException ex) {
             throw ex;
@@ -734,7 +764,7 @@ public class ReadExternalPagedStore<K extends Comparable<K>, V extends IReadWeig
             byte[] encodedKey = pages.firstKey();
             K key = keyCoder.keyDecode(encodedKey);
             do {
-                KeyValuePage<K, V> newPage = loadingPageCache.get(key);
+                KeyValuePage<K, V> newPage = getPage(key);
                 byte[] encodedNextKey = pages.higherKey(encodedKey);
                 if (encodedNextKey != null) {
                     K nextKey = keyCoder.keyDecode(encodedNextKey);
@@ -0,0 +1,327 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.kv;
+
+import java.io.Closeable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.addthis.basis.util.Parameter;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+
+/**
+ * Process wide cache of decoded objects from read only stores.
+ * <p/>
+ * Each store (for example the node cache of a read only tree or the
+ * page cache of a read only page db) allocates a {@link Segment}. All
+ * segments share a single weight budget so the most recently used
+ * entries stay resident regardless of which store they belong to.
+ * Weights are the same byte estimates used by the per store caches.
+ * <p/>
+ * The shared cache is disabled unless hydra.tree.cache.sharedBytes is
+ * positive. Each segment publishes hit, miss, eviction, entry and
+ * weight gauges scoped by its name until it is closed.
+ */
+public final class SharedReadCache {
+
+    /**
+     * total weight of all segments. Zero disables the shared cache.
+     */
+    private static final long maxBytes = Parameter.longValue("hydra.tree.cache.sharedBytes", 0);
+
+    public static boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * Returns the total weight of all segments or zero if the shared cache is disabled.
+     */
+    public static long maxWeight() {
+        return maxBytes;
+    }
+
+    /**
+     * Loads the value for a key that is not in the cache. Should throw
+     * an exception (wrapped in an {@link ExecutionException} by the caller)
+     * when the key does not exist.
+     */
+    public interface Loader<K, V> {
+
+        V load(K key) throws Exception;
+    }
+
+    /**
+     * Returns the weight of a cached value. Must not change while the
+     * value is cached.
+     */
+    public interface Weight<V> {
+
+        int weigh(V value);
+    }
+
+    /**
+     * Returns the cache shared by the whole process. Only call this when
+     * {@link #isEnabled()} is true.
+     */
+    public static SharedReadCache instance() {
+        return Holder.instance;
+    }
+
+    private static final class Holder {
+
+        static final SharedReadCache instance = new SharedReadCache(maxBytes);
+
+        static {
+            Metrics.newGauge(SharedReadCache.class, "weight", new Gauge<Long>() {
+                @Override
+                public Long value() {
+                    return instance.totalWeight.get();
+                }
+            });
+            Metrics.newGauge(SharedReadCache.class, "entries", new Gauge<Long>() {
+                @Override
+                public Long value() {
+                    return instance.cache.size();
+                }
+            });
+            Metrics.newGauge(SharedReadCache.class, "hitRatio", new Gauge<Double>() {
+                @Override
+                public Double value() {
+                    return ratio(instance.totalHits.get(), instance.totalMisses.get());
+                }
+            });
+        }
+    }
+
+    private static final AtomicInteger scopeGenerator = new AtomicInteger();
+
+    private final AtomicLong totalWeight = new AtomicLong();
+    private final AtomicLong totalHits = new AtomicLong();
+    private final AtomicLong totalMisses = new AtomicLong();
+    private final Cache<Key<?, ?>, Object> cache;
+
+    SharedReadCache(long maxWeight) {
+        cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxWeight)
+                .weigher(new Weigher<Key<?, ?>, Object>() {
+                    @Override
+                    public int weigh(Key<?, ?> key, Object value) {
+                        return key.segment.weigh(value);
+                    }
+                })
+                .removalListener(new RemovalListener<Key<?, ?>, Object>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<Key<?, ?>, Object> notification) {
+                        Key<?, ?> key = notification.getKey();
+                        if (key != null) {
+                            key.segment.removed(notification.getValue(), notification.wasEvicted());
+                        }
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * Allocates a segment. Its gauges are scoped by {@code name} and a
+     * sequence number so that reopening a store does not share gauges.
+     */
+    public <K, V> Segment<K, V> segment(String name, Loader<K, V> loader, Weight<V> weight) {
+        return new Segment<>(name + "-" + scopeGenerator.getAndIncrement(), loader, weight);
+    }
+
+    public long weight() {
+        return totalWeight.get();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    private static Gauge<Long> gauge(final AtomicLong counter) {
+        return new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return counter.get();
+            }
+        };
+    }
+
+    private static double ratio(long hits, long misses) {
+        long total = hits + misses;
+        return (total == 0) ? 0 : (hits / (double) total);
+    }
+
+    /**
+     * The cache key: a segment and a key within it.
+     */
+    private static final class Key<K, V> {
+
+        private final Segment<K, V> segment;
+        private final K key;
+        private final int hc;
+
+        Key(Segment<K, V> segment, K key) {
+            this.segment = segment;
+            this.key = key;
+            this.hc = (31 * System.identityHashCode(segment)) + key.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key<?, ?> k = (Key<?, ?>) other;
+            return (k.segment == segment) && k.key.equals(key);
+        }
+
+        @Override
+        public int hashCode() {
+            return hc;
+        }
+    }
+
+    /**
+     * The entries of a single store within the shared cache.
+     */
+    public final class Segment<K, V> implements Closeable {
+
+        private final String scope;
+        private final Loader<K, V> loader;
+        private final Weight<V> weight;
+
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+        private final AtomicLong evictions = new AtomicLong();
+        private final AtomicLong entries = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+
+        private volatile boolean closed;
+
+        private Segment(String name, Loader<K, V> loader, Weight<V> weight) {
+            this.scope = name.replaceAll("[^A-Za-z0-9._/-]", "_");
+            this.loader = loader;
+            this.weight = weight;
+            Metrics.newGauge(SharedReadCache.class, "hits", scope, gauge(hits));
+            Metrics.newGauge(SharedReadCache.class, "misses", scope, gauge(misses));
+            Metrics.newGauge(SharedReadCache.class, "evictions", scope, gauge(evictions));
+            Metrics.newGauge(SharedReadCache.class, "entries", scope, gauge(entries));
+            Metrics.newGauge(SharedReadCache.class, "weight", scope, gauge(bytes));
+        }
+
+        @SuppressWarnings("unchecked")
+        private int weigh(Object value) {
+            return weight.weigh((V) value);
+        }
+
+        private void removed(Object value, boolean evicted) {
+            if (evicted) {
+                evictions.incrementAndGet();
+            }
+            entries.decrementAndGet();
+            int w = weigh(value);
+            bytes.addAndGet(-w);
+            totalWeight.addAndGet(-w);
+        }
+
+        /**
+         * Returns the value for {@code key}, loading it if necessary.
+         *
+         * @throws ExecutionException if the loader threw an exception
+         */
+        @SuppressWarnings("unchecked")
+        public V get(final K key) throws ExecutionException {
+            if (closed) {
+                try {
+                    return loader.load(key);
+                } catch (Exception e) {
+                    throw new ExecutionException(e);
+                }
+            }
+            Key<K, V> cacheKey = new Key<>(this, key);
+            Object value = cache.getIfPresent(cacheKey);
+            if (value != null) {
+                hits.incrementAndGet();
+                totalHits.incrementAndGet();
+                return (V) value;
+            }
+            misses.incrementAndGet();
+            totalMisses.incrementAndGet();
+            return (V) cache.get(cacheKey, () -> {
+                V loaded = loader.load(key);
+                if (loaded != null) {
+                    int w = weight.weigh(loaded);
+                    entries.incrementAndGet();
+                    bytes.addAndGet(w);
+                    totalWeight.addAndGet(w);
+                }
+                return loaded;
+            });
+        }
+
+        /**
+         * Returns a snapshot of the keys of this segment that are cached.
+         * This walks the entire shared cache.
+         */
+        @SuppressWarnings("unchecked")
+        public List<K> keys() {
+            List<K> keys = new ArrayList<>();
+            for (Key<?, ?> cacheKey : cache.asMap().keySet()) {
+                if (cacheKey.segment == this) {
+                    keys.add((K) cacheKey.key);
+                }
+            }
+            return keys;
+        }
+
+        public long size() {
+            return entries.get();
+        }
+
+        public long weight() {
+            return bytes.get();
+        }
+
+        public double hitRatio() {
+            return ratio(hits.get(), misses.get());
+        }
+
+        /**
+         * Drops the entries of this segment and its gauges.
+         */
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            cache.asMap().keySet().removeIf(cacheKey -> cacheKey.segment == this);
+            for (String metric : new String[]{"hits", "misses", "evictions", "entries", "weight"}) {
+                Metrics.defaultRegistry().removeMetric(SharedReadCache.class, metric, scope);
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.kv;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import com.addthis.basis.util.Parameter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Strings shared by the values of a single database. Each string is
+ * assigned a small integer id the first time it is seen so that values
+ * can store the id instead of repeating the string. The strings are
+ * appended to a file next to the database and forced to disk before
+ * their id is handed out, so every id that is written into a page can
+ * be resolved for the lifetime of the database. Ids are never reassigned.
+ * <p/>
+ * The file is a sequence of entries. Each entry is a four byte length
+ * followed by the UTF-8 bytes of the string. An incomplete trailing entry
+ * left behind by a crash is ignored when the file is loaded.
+ */
+public class ValueDictionary {
+
+    private static final Logger log = LoggerFactory.getLogger(ValueDictionary.class);
+
+    public static final String defaultFileName = Parameter.value("eps.value.dict.file", "value.dict");
+
+    @Nullable
+    private final File file;
+
+    private final boolean readOnly;
+
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+
+    private final Object appendLock = new Object();
+
+    /**
+     * Length of the complete entries in the file.
+     */
+    @GuardedBy("appendLock")
+    private long length;
+
+    private volatile String[] values = new String[0];
+
+    /**
+     * @param file     location of the dictionary. If null then the dictionary is only held in memory.
+     * @param readOnly if true then strings are resolved but new strings are never added.
+     */
+    public ValueDictionary(@Nullable File file, boolean readOnly) throws IOException {
+        this.file = file;
+        this.readOnly = readOnly;
+        if (file != null && file.exists()) {
+            synchronized (appendLock) {
+                load();
+                if (!readOnly && file.length() > length) {
+                    log.warn("Discarding {} bytes of incomplete entries from {}", file.length() - length, file);
+                    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                        channel.truncate(length);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the dictionary stored in the default location within the database directory.
+     */
+    public static ValueDictionary forDirectory(File dir, boolean readOnly) throws IOException {
+        return new ValueDictionary(new File(dir, defaultFileName), readOnly);
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    /**
+     * Returns the id of {@code value}. If the value has not been
+     * seen before then it is appended to the dictionary.
+     *
+     * @throws IllegalStateException if the value is new and the dictionary is read only
+     */
+    public int idFor(String value) {
+        Integer id = ids.get(value);
+        if (id != null) {
+            return id;
+        }
+        synchronized (appendLock) {
+            id = ids.get(value);
+            if (id != null) {
+                return id;
+            }
+            if (readOnly) {
+                throw new IllegalStateException("Cannot add \"" + value + "\" to read only dictionary " + file);
+            }
+            if (file != null) {
+                try {
+                    append(value);
+                } catch (IOException ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+            return install(value);
+        }
+    }
+
+    /**
+     * Returns the string with the given id.
+     *
+     * @throws IllegalStateException if the id is unknown
+     */
+    public String get(int id) {
+        String[] current = values;
+        if (id >= 0 && id < current.length) {
+            return current[id];
+        }
+        synchronized (appendLock) {
+            // a read only dictionary may be behind the writer of the database
+            if (readOnly && file != null && id >= values.length) {
+                try {
+                    load();
+                } catch (IOException ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+            current = values;
+            if (id < 0 || id >= current.length) {
+                throw new IllegalStateException("Unknown id " + id + " in value dictionary " + file);
+            }
+            return current[id];
+        }
+    }
+
+    @GuardedBy("appendLock")
+    private void load() throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        int count = 0;
+        while (buffer.remaining() >= 4) {
+            int entryLength = buffer.getInt();
+            if (entryLength < 0 || buffer.remaining() < entryLength) {
+                break;
+            }
+            String value = new String(buffer.array(), buffer.position(), entryLength, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + entryLength);
+            // entries that are already installed are skipped when the file is reloaded
+            if (count++ >= values.length) {
+                install(value);
+            }
+            length = buffer.position();
+        }
+    }
+
+    @GuardedBy("appendLock")
+    private void append(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer entry = ByteBuffer.allocate(4 + bytes.length);
+        entry.putInt(bytes.length).put(bytes).flip();
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            channel.position(length);
+            while (entry.hasRemaining()) {
+                channel.write(entry);
+            }
+            channel.force(false);
+        }
+        length += 4 + bytes.length;
+    }
+
+    @GuardedBy("appendLock")
+    private int install(String value) {
+        String[] current = values;
+        String[] next = Arrays.copyOf(current, current.length + 1);
+        next[current.length] = value;
+        ids.put(value, current.length);
+        values = next;
+        return current.length;
+    }
+}
@@ -18,15 +18,10 @@ import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.InputStream;
-import java.io.OutputStream;
 
 import java.util.ArrayList;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.zip.GZIPInputStream;
 
-import com.addthis.basis.io.GZOut;
 import com.addthis.basis.util.Bytes;
 import com.addthis.basis.util.MemoryCounter;
 import com.addthis.basis.util.Parameter;
@@ -34,19 +29,12 @@ import com.addthis.basis.util.Varint;
 
 import com.addthis.codec.codables.BytesCodable;
 import com.addthis.hydra.store.kv.KeyCoder;
+import com.addthis.hydra.store.kv.PageCompression;
+import com.addthis.hydra.store.kv.PageCompressionDictionary;
 
-import com.jcraft.jzlib.Deflater;
-import com.jcraft.jzlib.DeflaterOutputStream;
-import com.jcraft.jzlib.InflaterInputStream;
-import com.ning.compress.lzf.LZFInputStream;
-import com.ning.compress.lzf.LZFOutputStream;
 import com.yammer.metrics.core.Histogram;
 
-import org.xerial.snappy.SnappyInputStream;
-import org.xerial.snappy.SnappyOutputStream;
-
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.ByteBufInputStream;
 import io.netty.buffer.ByteBufOutputStream;
 import io.netty.buffer.Unpooled;
 
@@ -55,6 +43,7 @@ public class Page<K, V extends BytesCodable> {
     static final int gzlevel = Parameter.intValue("eps.gz.level", 1);
     static final int gztype = Parameter.intValue("eps.gz.type", 1);
     static final int gzbuf = Parameter.intValue("eps.gz.buffer", 1024);
+    static final PageCompression defaultCompression = PageCompression.fromFlags(gztype);
     static final int estimateMissingFactor = Parameter.intValue("eps.mem.estimate.missing.factor", 8);
     static final int memEstimationStrategy = Parameter.intValue("eps.mem.estimate.method", 1);
     static final int estimateRollMin = Parameter.intValue("eps.mem.estimate.roll.min", 1000);
@@ -68,7 +57,7 @@ public class Page<K, V extends BytesCodable> {
     K nextFirstKey;
 
     @Nonnull
-    private final ReentrantReadWriteLock lock;
+    private final PageLock lock;
 
     /**
      * This value is incremented each time the write lock
@@ -112,6 +101,7 @@ public class Page<K, V extends BytesCodable> {
 
     protected static final int FLAGS_IS_SPARSE = 1 << 5;
     protected static final int FLAGS_HAS_ESTIMATES = 1 << 4;
+    protected static final int FLAGS_HAS_DICTIONARY = 1 << 6;
 
     protected final KeyCoder<K, V> keyCoder;
 
@@ -120,7 +110,7 @@ public class Page<K, V extends BytesCodable> {
         this.keyCoder = parent != null ? parent.keyCoder : null;
         this.firstKey = firstKey;
         this.nextFirstKey = nextFirstKey;
-        this.lock = new ReentrantReadWriteLock();
+        this.lock = PageLock.create(parent != null && parent.optimisticReads);
         this.timeStamp = SkipListCache.generateTimestamp();
         this.state = ExternalMode.DISK_MEMORY_IDENTICAL;
         this.encodeType = encodeType;
@@ -145,7 +135,7 @@ public class Page<K, V extends BytesCodable> {
         this.keys = keys;
         this.values = values;
         this.rawValues = rawValues;
-        this.lock = new ReentrantReadWriteLock();
+        this.lock = PageLock.create(parent != null && parent.optimisticReads);
         this.timeStamp = SkipListCache.generateTimestamp();
         this.state = ExternalMode.DISK_MEMORY_IDENTICAL;
         this.encodeType = encodeType;
@@ -177,31 +167,36 @@ public class Page<K, V extends BytesCodable> {
     }
 
     public byte[] encode(ByteBufOutputStream out, boolean record) {
+        ByteBuf buffer = encodeToBuffer(out, record);
+        byte[] returnValue = new byte[buffer.readableBytes()];
+        buffer.readBytes(returnValue);
+        buffer.clear();
+        return returnValue;
+    }
+
+    /**
+     * Encode the page into the buffer of {@code out} and return that buffer.
+     * The encoded page is the readable bytes of the buffer. Nothing is copied
+     * out of the buffer so the caller must consume the page and then clear
+     * the buffer before {@code out} is reused.
+     */
+    public ByteBuf encodeToBuffer(ByteBufOutputStream out, boolean record) {
         SkipListCacheMetrics metrics = parent.metrics;
         parent.numPagesEncoded.getAndIncrement();
         try {
-            OutputStream os = out;
-            out.write(gztype | FLAGS_HAS_ESTIMATES | FLAGS_IS_SPARSE);
-            switch (gztype) {
-                case 0:
-                    break;
-                case 1:
-                    os = new DeflaterOutputStream(out, new Deflater(gzlevel));
-                    break;
-                case 2:
-                    os = new GZOut(out, gzbuf, gzlevel);
-                    break;
-                case 3:
-                    os = new LZFOutputStream(out);
-                    break;
-                case 4:
-                    os = new SnappyOutputStream(out);
-                    break;
-                default:
-                    throw new RuntimeException("invalid gztype: " + gztype);
+            PageCompressionDictionary dictionary = parent.dictionary;
+            PageCompression compression = defaultCompression;
+            if (compression == PageCompression.ZSTD_DICT && (dictionary == null || !dictionary.isTrained())) {
+                compression = PageCompression.ZSTD;
             }
+            KeyCoder.EncodeType writeType = keyCoder.encodeType();
+            int flags = compression.id | FLAGS_HAS_ESTIMATES | FLAGS_IS_SPARSE;
+            if (writeType == KeyCoder.EncodeType.DICTIONARY) {
+                flags |= FLAGS_HAS_DICTIONARY;
+            }
+            out.write(flags);
 
-            DataOutputStream dos = new DataOutputStream(os);
+            ByteBufOutputStream dos = PageCompression.scratch();
             byte[] firstKeyEncoded = keyCoder.keyEncode(firstKey);
             byte[] nextFirstKeyEncoded = keyCoder.keyEncode(nextFirstKey);
 
@@ -218,9 +213,9 @@ public class Page<K, V extends BytesCodable> {
                 byte[] keyEncoded = keyCoder.keyEncode(keys.get(i));
                 byte[] rawVal = rawValues.get(i);
 
-                if (rawVal == null || encodeType != KeyCoder.EncodeType.SPARSE) {
+                if (rawVal == null || encodeType != writeType) {
                     fetchValue(i);
-                    rawVal = keyCoder.valueEncode(values.get(i), KeyCoder.EncodeType.SPARSE);
+                    rawVal = keyCoder.valueEncode(values.get(i), writeType);
                 }
 
                 updateHistogram(metrics.encodeKeySize, keyEncoded.length, record);
@@ -234,60 +229,51 @@ public class Page<K, V extends BytesCodable> {
 
             Varint.writeUnsignedVarInt((estimateTotal > 0 ? estimateTotal : 1), dos);
             Varint.writeUnsignedVarInt((estimates > 0 ? estimates : 1), dos);
-            switch (gztype) {
-                case 1:
-                    ((DeflaterOutputStream) os).finish();
-                    break;
-                case 2:
-                    ((GZOut) os).finish();
-                    break;
+
+            ByteBuf body = dos.buffer();
+            compression.compress(body, out, dictionary);
+            // pages are sampled for dictionary training until the dictionary is available
+            if (compression != defaultCompression && dictionary != null) {
+                dictionary.sample(body);
             }
-            os.flush(); // flush should be called by dos.close(), but better safe than sorry
-            dos.close();
 
             ByteBuf buffer = out.buffer();
-
-            byte[] returnValue = new byte[out.writtenBytes()];
-
-            buffer.readBytes(returnValue);
-            buffer.clear();
             updateHistogram(metrics.numberKeysPerPage, size, record);
-            updateHistogram(metrics.encodePageSize, returnValue.length, record);
-            return returnValue;
+            updateHistogram(metrics.encodePageSize, buffer.readableBytes(), record);
+            return buffer;
         } catch (Exception ex) {
             throw new RuntimeException(ex);
         }
     }
 
 
-    public void  decode(byte[] page) {
+    public void decode(byte[] page) {
+        decode(Unpooled.wrappedBuffer(page));
+    }
+
+    /**
+     * Decode the readable bytes of {@code page}. The caller retains
+     * ownership of the buffer. Decoded keys and values do not
+     * share memory with the buffer so it may be released after
+     * this method returns.
+     */
+    public void decode(ByteBuf page) {
         parent.numPagesDecoded.getAndIncrement();
-        ByteBuf buffer = Unpooled.wrappedBuffer(page);
+        ByteBuf buffer = page.duplicate();
         try {
-            InputStream in = new ByteBufInputStream(buffer);
-            int flags = in.read() & 0xff;
-            int gztype = flags & 0x0f;
+            int flags = buffer.readUnsignedByte();
             boolean isSparse = (flags & FLAGS_IS_SPARSE) != 0;
             boolean hasEstimates = (flags & FLAGS_HAS_ESTIMATES) != 0;
             int readEstimateTotal, readEstimates;
-            switch (gztype) {
-                case 1:
-                    in = new InflaterInputStream(in);
-                    break;
-                case 2:
-                    in = new GZIPInputStream(in);
-                    break;
-                case 3:
-                    in = new LZFInputStream(in);
-                    break;
-                case 4:
-                    in = new SnappyInputStream(in);
-                    break;
-            }
+            InputStream in = PageCompression.fromFlags(flags).decompress(buffer, parent.dictionary);
             K firstKey;
             byte[] nextFirstKey;
             if (isSparse) {
-                encodeType = KeyCoder.EncodeType.SPARSE;
+                if ((flags & FLAGS_HAS_DICTIONARY) != 0) {
+                    encodeType = KeyCoder.EncodeType.DICTIONARY;
+                } else {
+                    encodeType = KeyCoder.EncodeType.SPARSE;
+                }
                 DataInputStream dis = new DataInputStream(in);
                 int entries = Varint.readUnsignedVarInt(dis);
 
@@ -367,8 +353,6 @@ public class Page<K, V extends BytesCodable> {
             throw ex;
         } catch (Exception ex) {
             throw new RuntimeException(ex);
-        } finally {
-            buffer.release();
         }
     }
 
@@ -450,33 +434,33 @@ public class Page<K, V extends BytesCodable> {
     }
 
     public void readLock() {
-        lock.readLock().lock();
+        lock.readLock();
     }
 
     public void readUnlock() {
-        lock.readLock().unlock();
+        lock.readUnlock();
     }
 
     public void writeLock() {
-        lock.writeLock().lock();
+        lock.writeLock();
     }
 
     public boolean writeTryLock() {
-        return lock.writeLock().tryLock();
+        return lock.writeTryLock();
     }
 
     public void writeUnlock() {
         writeStamp++;
-        lock.writeLock().unlock();
+        lock.writeUnlock();
     }
 
     public void modeLock(LockMode mode) {
         switch (mode) {
             case READMODE:
-                lock.readLock().lock();
+                lock.readLock();
                 break;
             case WRITEMODE:
-                lock.writeLock().lock();
+                lock.writeLock();
                 break;
         }
     }
@@ -484,7 +468,7 @@ public class Page<K, V extends BytesCodable> {
     public void modeUnlock(LockMode mode) {
         switch (mode) {
             case READMODE:
-                lock.readLock().unlock();
+                lock.readUnlock();
                 break;
             case WRITEMODE:
                 writeUnlock();
@@ -494,14 +478,27 @@ public class Page<K, V extends BytesCodable> {
 
     public void downgradeLock() {
         assert (lock.isWriteLockedByCurrentThread());
-        readLock();
-        writeUnlock();
+        writeStamp++;
+        lock.downgrade();
     }
 
     public boolean isWriteLockedByCurrentThread() {
         return lock.isWriteLockedByCurrentThread();
     }
 
+    /**
+     * Returns a stamp for an optimistic read of this page or zero if
+     * the page is write locked or the cache does not use optimistic reads.
+     * See {@link PageLock} for the rules that optimistic readers must follow.
+     */
+    long tryOptimisticRead() {
+        return lock.tryOptimisticRead();
+    }
+
+    boolean validate(long stamp) {
+        return lock.validate(stamp);
+    }
+
 
     public boolean interval(Comparable<? super K> ckey) {
         assert (ckey.compareTo(firstKey) >= 0);
@@ -0,0 +1,187 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.skiplist;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * The lock that guards the contents of a {@link Page}.
+ * <p/>
+ * The default implementation is a {@link ReentrantReadWriteLock}.
+ * The optimistic implementation is a {@link StampedLock} which allows
+ * readers to inspect a page without writing to the lock word.
+ * An optimistic reader must copy the fields it needs into local variables,
+ * tolerate inconsistent values (including runtime exceptions) while doing so,
+ * and then call {@link #validate(long)} before using the result.
+ * <p/>
+ * A stamped lock is not reentrant. The read lock must not be
+ * acquired by a thread that holds the write lock of the same
+ * page; use {@link #downgrade()} instead.
+ */
+abstract class PageLock {
+
+    static PageLock create(boolean optimistic) {
+        return optimistic ? new Stamped() : new Reentrant();
+    }
+
+    abstract void readLock();
+
+    abstract void readUnlock();
+
+    abstract void writeLock();
+
+    abstract boolean writeTryLock();
+
+    abstract void writeUnlock();
+
+    /**
+     * Atomically convert the write lock held by the current thread into a read lock.
+     */
+    abstract void downgrade();
+
+    abstract boolean isWriteLockedByCurrentThread();
+
+    /**
+     * Returns a stamp for an optimistic read or zero if
+     * the lock is exclusively held or optimistic reads are not supported.
+     */
+    abstract long tryOptimisticRead();
+
+    /**
+     * Returns true if the lock has not been exclusively acquired since
+     * {@code stamp} was returned by {@link #tryOptimisticRead()}.
+     */
+    abstract boolean validate(long stamp);
+
+    private static final class Reentrant extends PageLock {
+
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+        @Override
+        void readLock() {
+            lock.readLock().lock();
+        }
+
+        @Override
+        void readUnlock() {
+            lock.readLock().unlock();
+        }
+
+        @Override
+        void writeLock() {
+            lock.writeLock().lock();
+        }
+
+        @Override
+        boolean writeTryLock() {
+            return lock.writeLock().tryLock();
+        }
+
+        @Override
+        void writeUnlock() {
+            lock.writeLock().unlock();
+        }
+
+        @Override
+        void downgrade() {
+            lock.readLock().lock();
+            lock.writeLock().unlock();
+        }
+
+        @Override
+        boolean isWriteLockedByCurrentThread() {
+            return lock.isWriteLockedByCurrentThread();
+        }
+
+        @Override
+        long tryOptimisticRead() {
+            return 0;
+        }
+
+        @Override
+        boolean validate(long stamp) {
+            return false;
+        }
+    }
+
+    private static final class Stamped extends PageLock {
+
+        private final StampedLock lock = new StampedLock();
+
+        /**
+         * Owner of the write lock and the stamp that was returned
+         * when it was acquired. Only the owner reads these fields
+         * apart from the assertions in {@link #isWriteLockedByCurrentThread()}.
+         */
+        private volatile Thread writeOwner;
+
+        private long writeStamp;
+
+        @Override
+        void readLock() {
+            lock.readLock();
+        }
+
+        @Override
+        void readUnlock() {
+            lock.asReadLock().unlock();
+        }
+
+        @Override
+        void writeLock() {
+            writeStamp = lock.writeLock();
+            writeOwner = Thread.currentThread();
+        }
+
+        @Override
+        boolean writeTryLock() {
+            long stamp = lock.tryWriteLock();
+            if (stamp == 0) {
+                return false;
+            }
+            writeStamp = stamp;
+            writeOwner = Thread.currentThread();
+            return true;
+        }
+
+        @Override
+        void writeUnlock() {
+            writeOwner = null;
+            lock.unlockWrite(writeStamp);
+        }
+
+        @Override
+        void downgrade() {
+            writeOwner = null;
+            long stamp = lock.tryConvertToReadLock(writeStamp);
+            assert (stamp != 0);
+        }
+
+        @Override
+        boolean isWriteLockedByCurrentThread() {
+            return writeOwner == Thread.currentThread();
+        }
+
+        @Override
+        long tryOptimisticRead() {
+            return lock.tryOptimisticRead();
+        }
+
+        @Override
+        boolean validate(long stamp) {
+            return lock.validate(stamp);
+        }
+    }
+}
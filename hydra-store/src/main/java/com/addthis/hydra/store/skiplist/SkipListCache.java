@@ -23,6 +23,7 @@ import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.SortedMap;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ConcurrentSkipListSet;
@@ -41,6 +42,7 @@ import com.addthis.codec.codables.BytesCodable;
 import com.addthis.hydra.store.db.CloseOperation;
 import com.addthis.hydra.store.kv.ByteStore;
 import com.addthis.hydra.store.kv.KeyCoder;
+import com.addthis.hydra.store.kv.PageCompressionDictionary;
 import com.addthis.hydra.store.kv.PagedKeyValueStore;
 import com.addthis.hydra.store.util.MetricsUtil;
 import com.addthis.hydra.store.util.NamedThreadFactory;
@@ -51,9 +53,11 @@ import com.yammer.metrics.core.Gauge;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.ByteBufOutputStream;
 import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
 
 /**
  * ::TWO INVARIANTS TO AVOID DEADLOCK AND MAINTAIN CONSISTENCY::
@@ -95,6 +99,7 @@ public class SkipListCache<K, V extends BytesCodable> implements PagedKeyValueSt
     private static final int defaultEvictionThreads = Parameter.intValue("cache.threadcount.eviction", 1);
     private static final int fixedNumberEvictions = Parameter.intValue("cache.batch.evictions", 10);
     static final boolean trackEncodingByteUsage = Parameter.boolValue("eps.cache.track.encoding", false);
+    private static final boolean defaultOptimisticReads = Parameter.boolValue("eps.cache.optimistic.reads", false);
 
     /**
      * Used as an absolute delta from maxPages when using that upper bound.
@@ -138,6 +143,8 @@ public class SkipListCache<K, V extends BytesCodable> implements PagedKeyValueSt
 
     private static final AtomicInteger scopeGenerator = new AtomicInteger();
 
+    private static final Object OPTIMISTIC_FAILURE = new Object();
+
     final String scope = "SkipListCache" + Integer.toString(scopeGenerator.getAndIncrement());
 
     final SkipListCacheMetrics metrics = new SkipListCacheMetrics(this);
@@ -150,6 +157,19 @@ public class SkipListCache<K, V extends BytesCodable> implements PagedKeyValueSt
 
     final PageFactory pageFactory;
 
+    /**
+     * Dictionary for pages compressed with {@link com.addthis.hydra.store.kv.PageCompression#ZSTD_DICT}.
+     * May be null.
+     */
+    final PageCompressionDictionary dictionary;
+
+    /**
+     * If true then pages are guarded by a {@link java.util.concurrent.locks.StampedLock}
+     * and {@link #get(Object)}, {@link #containsKey(Object)} and iteration first attempt
+     * to read a page without acquiring its read lock.
+     */
+    final boolean optimisticReads;
+
     long softTotalMem;
     long maxTotalMem;
     long maxPageMem;
@@ -181,6 +201,8 @@ public class SkipListCache<K, V extends BytesCodable> implements PagedKeyValueSt
         protected int numEvictionThreads = defaultEvictionThreads;
         protected int maxPages = defaultMaxPages;
         protected PageFactory pageFactory = Page.DefaultPageFactory.singleton;
+        protected PageCompressionDictionary dictionary = null;
+        protected boolean optimisticReads = defaultOptimisticReads;
 
         public Builder(KeyCoder<K, V> keyCoder, ByteStore store, int maxPageSize) {
             this.externalStore = store;
@@ -212,9 +234,21 @@ public class SkipListCache<K, V extends BytesCodable> implements PagedKeyValueSt
             return this;
         }
 
+        @SuppressWarnings("unused")
+        public Builder<K, V> dictionary(PageCompressionDictionary val) {
+            dictionary = val;
+            return this;
+        }
+
+        @SuppressWarnings("unused")
+        public Builder<K, V> optimisticReads(boolean val) {
+            optimisticReads = val;
+            return this;
+        }
+
         public SkipListCache<K, V> build() {
             return new SkipListCache<>(keyCoder, externalStore, maxPageSize,
-                    maxPages, numEvictionThreads, pageFactory);
+                    maxPages, numEvictionThreads, pageFactory, dictionary, optimisticReads);
         }
 
     }
@@ -228,6 +262,19 @@ public class SkipListCache<K, V extends BytesCodable> implements PagedKeyValueSt
 
     public SkipListCache(KeyCoder<K, V> keyCoder, ByteStore externalStore, int maxPageSize,
             int maxPages, int numEvictionThreads, PageFactory pageFactory) {
+        this(keyCoder, externalStore, maxPageSize, maxPages, numEvictionThreads, pageFactory, null);
+    }
+
+    public SkipListCache(KeyCoder<K, V> keyCoder, ByteStore externalStore, int maxPageSize,
+            int maxPages, int numEvictionThreads, PageFactory pageFactory,
+            PageCompressionDictionary dictionary) {
+        this(keyCoder, externalStore, maxPageSize, maxPages, numEvictionThreads, pageFactory,
+                dictionary, defaultOptimisticReads);
+    }
+
+    public SkipListCache(KeyCoder<K, V> keyCoder, ByteStore externalStore, int maxPageSize,
+            int maxPages, int numEvictionThreads, PageFactory pageFactory,
+            PageCompressionDictionary dictionary, boolean optimisticReads) {
         if (externalStore == null) {
             throw new NullPointerException("externalStore must be non-null");
         }
@@ -237,6 +284,8 @@ public class SkipListCache<K, V extends BytesCodable> implements PagedKeyValueSt
         }
 
         this.pageFactory = pageFactory;
+        this.dictionary = dictionary;
+        this.optimisticReads = optimisticReads;
         this.keyCoder = keyCoder;
         this.negInf = keyCoder.negInfinity();
         this.cache = new ConcurrentSkipListMap<>();
@@ -273,7 +322,7 @@ public class SkipListCache<K, V extends BytesCodable> implements PagedKeyValueSt
         }
 
         log.info("[init] ro=" + isReadOnly() + " maxPageSize=" + maxPageSize +
-                 " maxPages=" + maxPages + " gztype=" + Page.gztype + " gzlevel=" +
+                 " maxPages=" + maxPages + " optimisticReads=" + optimisticReads + " compression=" + Page.defaultCompression + " gzlevel=" +
                  Page.gzlevel + " gzbuf=" + Page.gzbuf + " mem[page=" + mem_page + "]");
 
     }
@@ -474,7 +523,7 @@ public class SkipListCache<K, V extends BytesCodable> implements PagedKeyValueSt
         }
 
         private void fixedNumberEviction() {
-            ByteBufOutputStream byteStream = new ByteBufOutputStream(PooledByteBufAllocator.DEFAULT.buffer());
+            ByteBufOutputStream byteStream = new ByteBufOutputStream(PooledByteBufAllocator.DEFAULT.heapBuffer());
             try {
                 for (int i = 0; i < maxEvictions; i++) {
                     doEvictPage(byteStream);
@@ -485,7 +534,7 @@ public class SkipListCache<K, V extends BytesCodable> implements PagedKeyValueSt
         }
 
         private void backgroundEviction() {
-            ByteBufOutputStream byteStream = new ByteBufOutputStream(PooledByteBufAllocator.DEFAULT.buffer());
+            ByteBufOutputStream byteStream = new ByteBufOutputStream(PooledByteBufAllocator.DEFAULT.heapBuffer());
             try {
                 while (!shutdownEvictionThreads.get() && shouldEvictPage() && doEvictPage(byteStream)) ;
             } finally {
@@ -672,7 +721,7 @@ public class SkipListCache<K, V extends BytesCodable> implements PagedKeyValueSt
         K floorKey = keyCoder.keyDecode(entry.getKey());
         if (floorKey.equals(prevPage.firstKey)) {
             if (prevPage.keys == null) {
-                pullPageHelper(prevPage, entry.getValue());
+                pullPageHelper(prevPage, Unpooled.wrappedBuffer(entry.getValue()));
             }
             assert (prevPage.nextFirstKey.equals(targetKey));
             prevPage.nextFirstKey = newNextFirstKey;
@@ -685,7 +734,7 @@ public class SkipListCache<K, V extends BytesCodable> implements PagedKeyValueSt
             assert (diskPage.nextFirstKey.equals(targetKey));
             assert (compareKeys(prevPage.firstKey, diskPage.firstKey) <= 0);
             diskPage.nextFirstKey = newNextFirstKey;
-            ByteBufOutputStream byteBufOutputStream = new ByteBufOutputStream(PooledByteBufAllocator.DEFAULT.buffer());
+            ByteBufOutputStream byteBufOutputStream = new ByteBufOutputStream(PooledByteBufAllocator.DEFAULT.heapBuffer());
             try {
                 externalStore.put(entry.getKey(), diskPage.encode(byteBufOutputStream));
             } finally {
@@ -947,7 +996,7 @@ public class SkipListCache<K, V extends BytesCodable> implements PagedKeyValueSt
         ByteBufOutputStream byteBufOutputStream = null;
         try {
             if (encodedFirstKey == null) { // effectively externalStore.isEmpty() but more efficient than using count()
-                byteBufOutputStream = new ByteBufOutputStream(PooledByteBufAllocator.DEFAULT.buffer());
+                byteBufOutputStream = new ByteBufOutputStream(PooledByteBufAllocator.DEFAULT.heapBuffer());
                 leftSentinel.initialize();
                 byte[] encodeKey = keyCoder.keyEncode(negInf);
                 byte[] encodePage = leftSentinel.encode(byteBufOutputStream);
@@ -960,7 +1009,7 @@ public class SkipListCache<K, V extends BytesCodable> implements PagedKeyValueSt
                     leftSentinel.decode(page);
                     updateMemoryEstimate(leftSentinel.getMemoryEstimate());
                 } else {
-                    byteBufOutputStream = new ByteBufOutputStream(PooledByteBufAllocator.DEFAULT.buffer());
+                    byteBufOutputStream = new ByteBufOutputStream(PooledByteBufAllocator.DEFAULT.heapBuffer());
                     leftSentinel.initialize();
                     leftSentinel.nextFirstKey = firstKey;
 
@@ -1021,7 +1070,14 @@ public class SkipListCache<K, V extends BytesCodable> implements PagedKeyValueSt
      * Locate the page that stores the (key, value) pair
      * and retrieve the current value.
      */
+    @SuppressWarnings("unchecked")
     private V doGet(K key) {
+        if (optimisticReads) {
+            Object value = optimisticGet(key);
+            if (value != OPTIMISTIC_FAILURE) {
+                return (V) value;
+            }
+        }
         Page<K, V> page = locatePage(key, LockMode.READMODE);
         try {
             if (page.size == 0) {
@@ -1040,6 +1096,49 @@ public class SkipListCache<K, V extends BytesCodable> implements PagedKeyValueSt
         }
     }
 
+    /**
+     * Attempt to retrieve the value without acquiring the read lock of the page.
+     * Returns {@link #OPTIMISTIC_FAILURE} if the page is not in memory, the page
+     * was written during the read, or the value has not been decoded. The
+     * caller must then fall back to {@link #locatePage(Object, LockMode)}.
+     */
+    private Object optimisticGet(K key) {
+        Map.Entry<K, Page<K, V>> cacheEntry = cache.floorEntry(key);
+        if (cacheEntry == null) {
+            return OPTIMISTIC_FAILURE;
+        }
+        Page<K, V> page = cacheEntry.getValue();
+        long stamp = page.tryOptimisticRead();
+        if (stamp == 0) {
+            return OPTIMISTIC_FAILURE;
+        }
+        V value = null;
+        try {
+            ArrayList<K> keys = page.keys;
+            ArrayList<V> values = page.values;
+            if (keys == null || values == null || page.inTransientState() ||
+                !page.interval(comparable(key))) {
+                return OPTIMISTIC_FAILURE;
+            }
+            int offset = binarySearch(keys, key, comparator);
+            if (offset >= 0) {
+                value = values.get(offset);
+                if (value == null) {
+                    // decoding the raw value would mutate the page
+                    return OPTIMISTIC_FAILURE;
+                }
+            }
+        } catch (RuntimeException ex) {
+            // the page was modified during the read
+            return OPTIMISTIC_FAILURE;
+        }
+        if (!page.validate(stamp)) {
+            return OPTIMISTIC_FAILURE;
+        }
+        page.timeStamp = generateTimestamp();
+        return value;
+    }
+
     /**
      * Associates the specified value with the specified key in this map.
      * If the map previously contained a mapping for the key, the old
@@ -1139,6 +1238,53 @@ public class SkipListCache<K, V extends BytesCodable> implements PagedKeyValueSt
         return prev;
     }
 
+    @Override
+    public void putAll(SortedMap<K, V> entries) {
+        Iterator<Map.Entry<K, V>> iterator = entries.entrySet().iterator();
+        Map.Entry<K, V> entry = iterator.hasNext() ? iterator.next() : null;
+        while (entry != null) {
+            if (entry.getValue() == null) {
+                doRemove(entry.getKey());
+                entry = iterator.hasNext() ? iterator.next() : null;
+                continue;
+            }
+
+            if (mustEvictPage()) {
+                BackgroundEvictionTask task = getEvictionTask();
+                task.run();
+                putEvictionTask(task);
+            }
+
+            Page<K, V> page = locatePage(entry.getKey(), LockMode.WRITEMODE);
+
+            try {
+                int prevMem = page.getMemoryEstimate();
+
+                /**
+                 * Write entries into the page until the next key belongs to a
+                 * different page or the page must be split. The remaining
+                 * entries are written after the page has been released.
+                 */
+                do {
+                    putIntoPage(page, entry.getKey(), entry.getValue());
+                    entry = iterator.hasNext() ? iterator.next() : null;
+                } while (entry != null && entry.getValue() != null &&
+                         page.interval(comparable(entry.getKey())) && !page.splitCondition());
+
+                page.updateMemoryEstimate();
+                updateMemoryEstimate(page.getMemoryEstimate() - prevMem);
+
+                if (page.splitCondition()) {
+                    splitPage(page);
+                } else if (page.state == ExternalMode.DISK_MEMORY_IDENTICAL) {
+                    page.state = ExternalMode.DISK_MEMORY_DIRTY;
+                }
+            } finally {
+                page.writeUnlock();
+            }
+        }
+    }
+
     void doRemove(K start, K end, boolean inclusive) {
         while (true) {
             if (mustEvictPage()) {
@@ -1316,7 +1462,7 @@ public class SkipListCache<K, V extends BytesCodable> implements PagedKeyValueSt
      * Helper method for loadPage().
      */
     private Page<K, V> constructNewPage(Page<K, V> current, Page<K, V> next,
-            K externalKey, byte[] floorPageEncoded) {
+            K externalKey, ByteBuf floorPageEncoded) {
         Page<K, V> newPage = pageFactory.generateEmptyPage(this, externalKey, current.getEncodeType());
         newPage.decode(floorPageEncoded);
         newPage.writeLock();
@@ -1414,7 +1560,7 @@ public class SkipListCache<K, V extends BytesCodable> implements PagedKeyValueSt
                     return cachePage;
                 }
 
-                byte[] floorPageEncoded = externalStore.get(externalKeyEncoded);
+                ByteBuf floorPageEncoded = externalStore.get(externalKeyEncoded, PooledByteBufAllocator.DEFAULT);
 
                 if (floorPageEncoded == null) {
                     current = writeUnlockAndNull(current);
@@ -1422,7 +1568,11 @@ public class SkipListCache<K, V extends BytesCodable> implements PagedKeyValueSt
                     continue;
                 }
 
-                return constructNewPage(current, next, externalKey, floorPageEncoded);
+                try {
+                    return constructNewPage(current, next, externalKey, floorPageEncoded);
+                } finally {
+                    floorPageEncoded.release();
+                }
             }
         } finally {
             writeUnlockAndNull(current);
@@ -1770,6 +1920,9 @@ public class SkipListCache<K, V extends BytesCodable> implements PagedKeyValueSt
 
         private void nextHelper(K target, boolean inclusive, boolean acquireLock) {
             if (acquireLock) {
+                if (optimisticReads && optimisticNext()) {
+                    return;
+                }
                 page.readLock();
             }
 
@@ -1824,6 +1977,53 @@ public class SkipListCache<K, V extends BytesCodable> implements PagedKeyValueSt
             }
         }
 
+        /**
+         * Advance to the next entry of the current page without acquiring
+         * the read lock. Succeeds only when the page has not been written
+         * since the iterator last positioned itself on it and the next
+         * entry is already decoded. Otherwise the iterator is unmodified.
+         */
+        private boolean optimisticNext() {
+            long optimisticStamp = page.tryOptimisticRead();
+            if (optimisticStamp == 0) {
+                return false;
+            }
+            int nextPosition = position + 1;
+            K key;
+            V value;
+            try {
+                ArrayList<K> keys = page.keys;
+                ArrayList<V> values = page.values;
+                ArrayList<byte[]> rawValues = page.rawValues;
+                int size = page.size;
+                if (keys == null || values == null || rawValues == null ||
+                    page.inTransientState() || stamp != page.writeStamp) {
+                    return false;
+                }
+                while (nextPosition < size && values.get(nextPosition) == null
+                       && nullRawValue(rawValues.get(nextPosition))) {
+                    nextPosition++;
+                }
+                if (nextPosition >= size) {
+                    return false;
+                }
+                key = keys.get(nextPosition);
+                value = values.get(nextPosition);
+                if (value == null) {
+                    return false;
+                }
+            } catch (RuntimeException ex) {
+                return false;
+            }
+            if (!page.validate(optimisticStamp)) {
+                return false;
+            }
+            position = nextPosition;
+            nextKey = key;
+            nextValue = value;
+            return true;
+        }
+
         /**
          * Finds the next key greater than or equal to the targetKey.
          * If inclusive is false then find the next key greater than
@@ -1939,6 +2139,12 @@ public class SkipListCache<K, V extends BytesCodable> implements PagedKeyValueSt
 
     }
 
+    /**
+     * The page is encoded directly into the buffer of {@code byteStream}
+     * and passed to the external store without an intermediate array.
+     * Callers allocate {@code byteStream} from the pooled heap arena so
+     * that stores may write the backing array of the buffer in place.
+     */
     private void pushPageToDisk(Page<K, V> current, ByteBufOutputStream byteStream) {
 
         assert (current.isWriteLockedByCurrentThread());
@@ -1950,9 +2156,12 @@ public class SkipListCache<K, V extends BytesCodable> implements PagedKeyValueSt
 
             // flush to external storage
             byte[] encodeKey = keyCoder.keyEncode(current.firstKey);
-            byte[] encodePage = current.encode(byteStream);
-
-            externalStore.put(encodeKey, encodePage);
+            ByteBuf encodePage = current.encodeToBuffer(byteStream, true);
+            try {
+                externalStore.put(encodeKey, encodePage);
+            } finally {
+                encodePage.clear();
+            }
 
             current.state = ExternalMode.DISK_MEMORY_IDENTICAL;
         }
@@ -1967,7 +2176,7 @@ public class SkipListCache<K, V extends BytesCodable> implements PagedKeyValueSt
         numPagesInMemory.getAndDecrement();
     }
 
-    private void pullPageHelper(Page<K, V> current, byte[] page) {
+    private void pullPageHelper(Page<K, V> current, ByteBuf page) {
         assert (current.isWriteLockedByCurrentThread());
 
         current.decode(page);
@@ -1994,9 +2203,12 @@ public class SkipListCache<K, V extends BytesCodable> implements PagedKeyValueSt
             if (current.keys == null) {
 
                 byte[] encodeKey = keyCoder.keyEncode(current.firstKey);
-                byte[] page = externalStore.get(encodeKey);
-
-                pullPageHelper(current, page);
+                ByteBuf page = externalStore.get(encodeKey, PooledByteBufAllocator.DEFAULT);
+                try {
+                    pullPageHelper(current, page);
+                } finally {
+                    page.release();
+                }
             }
         } finally {
             if (mode == LockMode.READMODE) {
@@ -2115,7 +2327,7 @@ public class SkipListCache<K, V extends BytesCodable> implements PagedKeyValueSt
     }
 
     private void pushAllPagesToDisk() {
-        final ByteBufOutputStream byteStream = new ByteBufOutputStream(PooledByteBufAllocator.DEFAULT.buffer());
+        final ByteBufOutputStream byteStream = new ByteBufOutputStream(PooledByteBufAllocator.DEFAULT.heapBuffer());
         try {
 
             for (Page<K, V> page : evictionQueue) {
@@ -2243,7 +2455,7 @@ public class SkipListCache<K, V extends BytesCodable> implements PagedKeyValueSt
         if (repair) {
             log.info("Repairing nextFirstKey on page {}.", counter);
             page.nextFirstKey = nextKey;
-            ByteBufOutputStream byteBufOutputStream = new ByteBufOutputStream(PooledByteBufAllocator.DEFAULT.buffer());
+            ByteBufOutputStream byteBufOutputStream = new ByteBufOutputStream(PooledByteBufAllocator.DEFAULT.heapBuffer());
             try {
                 byte[] pageEncoded = page.encode(byteBufOutputStream);
                 externalStore.put(keyCoder.keyEncode(key), pageEncoded);
@@ -2280,7 +2492,7 @@ public class SkipListCache<K, V extends BytesCodable> implements PagedKeyValueSt
                 i--;
             }
         }
-        ByteBufOutputStream byteBufOutputStream = new ByteBufOutputStream(PooledByteBufAllocator.DEFAULT.buffer());
+        ByteBufOutputStream byteBufOutputStream = new ByteBufOutputStream(PooledByteBufAllocator.DEFAULT.heapBuffer());
         try {
             byte[] pageEncoded = page.encode(byteBufOutputStream);
             externalStore.put(keyCoder.keyEncode(key), pageEncoded);
@@ -0,0 +1,125 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.kv;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import com.addthis.basis.util.Files;
+
+import com.google.common.primitives.UnsignedBytes;
+
+import org.junit.Test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MappedByteStoreTest {
+
+    private static byte[] createBytes(int input) {
+        return String.format("%05d", input).getBytes();
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        File tempDir = Files.createTempDir();
+        try {
+            ByteStore source = new ConcurrentByteStoreBDB(tempDir, "test");
+            File target = MappedByteStore.fileFor(tempDir, "test");
+            assertEquals(0, MappedByteStore.write(source, target, 10, 4));
+            source.close();
+            MappedByteStore store = new MappedByteStore(target);
+            assertEquals(0, store.count());
+            assertNull(store.firstKey());
+            assertNull(store.lastKey());
+            assertNull(store.get(createBytes(1)));
+            assertNull(store.floorKey(createBytes(1)));
+            assertNull(store.higherKey(createBytes(1)));
+            assertFalse(store.keyIterator(createBytes(1)).hasNext());
+            store.close();
+        } finally {
+            Files.deleteDir(tempDir);
+        }
+    }
+
+    @Test
+    public void testReadBack() throws IOException {
+        File tempDir = Files.createTempDir();
+        try {
+            Random random = new Random(7);
+            TreeMap<byte[], byte[]> expected = new TreeMap<>(UnsignedBytes.lexicographicalComparator());
+            ByteStore source = new ConcurrentByteStoreBDB(tempDir, "test");
+            for (int i = 0; i < 500; i += 2) {
+                byte[] key = createBytes(i);
+                byte[] value = new byte[random.nextInt(200)];
+                random.nextBytes(value);
+                source.put(key, value);
+                expected.put(key, value);
+            }
+            File target = MappedByteStore.fileFor(tempDir, "test");
+            // small segments force records to be padded to segment boundaries
+            assertEquals(expected.size(), MappedByteStore.write(source, target, 10, 4));
+            source.close();
+            MappedByteStore store = new MappedByteStore(target);
+            assertEquals(expected.size(), store.count());
+            assertArrayEquals(expected.firstKey(), store.firstKey());
+            assertArrayEquals(expected.lastKey(), store.lastKey());
+            assertArrayEquals(expected.firstEntry().getValue(), store.firstEntry());
+            for (int i = -1; i < 502; i++) {
+                byte[] key = createBytes(i);
+                assertArrayEquals(expected.get(key), store.get(key));
+                assertEquals(expected.containsKey(key), store.hasKey(key));
+                assertArrayEquals(expected.floorKey(key), store.floorKey(key));
+                assertArrayEquals(expected.higherKey(key), store.higherKey(key));
+                assertArrayEquals(expected.lowerKey(key), store.lowerKey(key));
+                Map.Entry<byte[], byte[]> entry = store.floorEntry(key);
+                Map.Entry<byte[], byte[]> expectedEntry = expected.floorEntry(key);
+                if (expectedEntry == null) {
+                    assertNull(entry);
+                } else {
+                    assertArrayEquals(expectedEntry.getKey(), entry.getKey());
+                    assertArrayEquals(expectedEntry.getValue(), entry.getValue());
+                }
+            }
+            ByteBuf buffer = store.get(createBytes(100), PooledByteBufAllocator.DEFAULT);
+            try {
+                byte[] bytes = new byte[buffer.readableBytes()];
+                buffer.readBytes(bytes);
+                assertArrayEquals(expected.get(createBytes(100)), bytes);
+            } finally {
+                buffer.release();
+            }
+            Iterator<byte[]> iterator = store.keyIterator(createBytes(101));
+            for (byte[] key : expected.tailMap(createBytes(100)).keySet()) {
+                assertTrue(iterator.hasNext());
+                assertArrayEquals(key, iterator.next());
+            }
+            assertFalse(iterator.hasNext());
+            store.close();
+        } finally {
+            Files.deleteDir(tempDir);
+        }
+    }
+}
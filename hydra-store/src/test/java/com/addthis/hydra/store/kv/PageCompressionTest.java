@@ -0,0 +1,112 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.kv;
+
+import java.io.IOException;
+
+import java.util.Random;
+
+import com.google.common.io.ByteStreams;
+
+import org.junit.Test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.Unpooled;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class PageCompressionTest {
+
+    private static byte[] generateBody(int length) {
+        Random random = new Random(length);
+        byte[] body = new byte[length];
+        for (int i = 0; i < length; i++) {
+            // a small alphabet so that the body is compressible
+            body[i] = (byte) ('a' + random.nextInt(8));
+        }
+        return body;
+    }
+
+    private static byte[] encode(PageCompression compression, byte[] body) throws IOException {
+        ByteBufOutputStream out = new ByteBufOutputStream(Unpooled.buffer());
+        out.write(compression.id);
+        ByteBufOutputStream scratch = PageCompression.scratch();
+        scratch.write(body);
+        compression.compress(scratch.buffer(), out, null);
+        ByteBuf buffer = out.buffer();
+        byte[] page = new byte[buffer.readableBytes()];
+        buffer.readBytes(page);
+        return page;
+    }
+
+    private static byte[] decode(ByteBuf page) throws IOException {
+        PageCompression compression = PageCompression.fromFlags(page.readUnsignedByte());
+        return ByteStreams.toByteArray(compression.decompress(page, null));
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        for (PageCompression compression : PageCompression.values()) {
+            if (compression == PageCompression.ZSTD_DICT) {
+                continue;
+            }
+            for (int length : new int[]{0, 1, 100, 100000}) {
+                byte[] body = generateBody(length);
+                byte[] page = encode(compression, body);
+                assertEquals(compression, PageCompression.fromFlags(page[0]));
+                assertArrayEquals(compression + " " + length, body, decode(Unpooled.wrappedBuffer(page)));
+            }
+        }
+    }
+
+    @Test
+    public void roundTripDirect() throws IOException {
+        for (PageCompression compression : PageCompression.values()) {
+            if (compression == PageCompression.ZSTD_DICT) {
+                continue;
+            }
+            byte[] body = generateBody(10000);
+            byte[] page = encode(compression, body);
+            ByteBuf direct = Unpooled.directBuffer(page.length);
+            try {
+                direct.writeBytes(page);
+                assertArrayEquals(compression.toString(), body, decode(direct));
+            } finally {
+                direct.release();
+            }
+        }
+    }
+
+    @Test
+    public void flagsIgnoreHighBits() {
+        assertEquals(PageCompression.SNAPPY, PageCompression.fromFlags(4 | 1 << 4 | 1 << 5));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void invalidFlags() {
+        PageCompression.fromFlags(15);
+    }
+
+    @Test
+    public void dictionaryRequired() throws IOException {
+        try {
+            encode(PageCompression.ZSTD_DICT, generateBody(100));
+            fail("compression without a dictionary should fail");
+        } catch (IllegalStateException ignored) {
+        }
+    }
+}
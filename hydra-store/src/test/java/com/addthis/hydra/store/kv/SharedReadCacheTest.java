@@ -0,0 +1,69 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.kv;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SharedReadCacheTest {
+
+    @Test
+    public void sharedBudget() throws Exception {
+        SharedReadCache cache = new SharedReadCache(1000);
+        AtomicInteger loads = new AtomicInteger();
+        SharedReadCache.Segment<Integer, String> hot = cache.segment("hot", key -> {
+            loads.incrementAndGet();
+            return "h" + key;
+        }, value -> 10);
+        SharedReadCache.Segment<Integer, String> cold = cache.segment("cold", key -> "c" + key, value -> 10);
+
+        assertEquals("h1", hot.get(1));
+        assertEquals("h1", hot.get(1));
+        assertEquals(1, loads.get());
+        assertEquals(0.5, hot.hitRatio(), 0);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("c" + i, cold.get(i));
+        }
+        assertTrue(cache.weight() <= 1000);
+        assertEquals(cache.weight(), hot.weight() + cold.weight());
+        assertEquals(cache.size(), hot.size() + cold.size());
+        assertEquals(cold.size(), cold.keys().size());
+
+        cold.close();
+        assertEquals(0, cold.size());
+        assertEquals(0, cold.weight());
+        assertEquals(cache.weight(), hot.weight());
+    }
+
+    @Test
+    public void missingKey() throws Exception {
+        SharedReadCache cache = new SharedReadCache(1000);
+        SharedReadCache.Segment<Integer, String> segment = cache.segment("missing", key -> {
+            throw new ExecutionException("Source did not have page", new NullPointerException());
+        }, value -> 1);
+        try {
+            segment.get(1);
+            fail();
+        } catch (ExecutionException expected) {
+        }
+        assertEquals(0, segment.size());
+        segment.close();
+    }
+}
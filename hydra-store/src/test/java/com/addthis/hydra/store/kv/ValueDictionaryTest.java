@@ -0,0 +1,78 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.kv;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import com.addthis.basis.util.Files;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ValueDictionaryTest {
+
+    @Test
+    public void testReload() throws IOException {
+        File tempDir = Files.createTempDir();
+        try {
+            ValueDictionary dictionary = ValueDictionary.forDirectory(tempDir, false);
+            assertEquals(0, dictionary.idFor("time"));
+            assertEquals(1, dictionary.idFor("com.addthis.hydra.data.tree.prop.DataTime"));
+            assertEquals(0, dictionary.idFor("time"));
+            ValueDictionary reader = ValueDictionary.forDirectory(tempDir, true);
+            assertEquals(2, reader.size());
+            assertEquals("time", reader.get(0));
+            // ids added after the reader was opened are picked up on demand
+            assertEquals(2, dictionary.idFor("\u00e9t\u00e9"));
+            assertEquals("\u00e9t\u00e9", reader.get(2));
+        } finally {
+            Files.deleteDir(tempDir);
+        }
+    }
+
+    @Test
+    public void testIncompleteEntry() throws IOException {
+        File tempDir = Files.createTempDir();
+        try {
+            ValueDictionary dictionary = ValueDictionary.forDirectory(tempDir, false);
+            dictionary.idFor("a");
+            dictionary.idFor("b");
+            File file = new File(tempDir, ValueDictionary.defaultFileName);
+            try (FileOutputStream out = new FileOutputStream(file, true)) {
+                out.write(new byte[]{0, 0, 0, 10, 'c'});
+            }
+            dictionary = ValueDictionary.forDirectory(tempDir, false);
+            assertEquals(2, dictionary.size());
+            assertEquals(2, dictionary.idFor("d"));
+            dictionary = ValueDictionary.forDirectory(tempDir, true);
+            assertEquals(3, dictionary.size());
+            assertEquals("d", dictionary.get(2));
+        } finally {
+            Files.deleteDir(tempDir);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReadOnly() throws IOException {
+        File tempDir = Files.createTempDir();
+        try {
+            ValueDictionary.forDirectory(tempDir, true).idFor("a");
+        } finally {
+            Files.deleteDir(tempDir);
+        }
+    }
+}
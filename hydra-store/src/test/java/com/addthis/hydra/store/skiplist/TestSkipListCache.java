@@ -22,7 +22,9 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.TreeMap;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.addthis.basis.test.SlowTest;
 import com.addthis.basis.util.Files;
@@ -784,6 +786,143 @@ public class TestSkipListCache {
 
     }
 
+    @Test
+    public void testPutAll() {
+        File directory = null;
+
+        try {
+            directory = makeTemporaryDirectory();
+            ByteStore externalStore = new ConcurrentByteStoreBDB(directory, "db");
+            SkipListCache<Integer, DBIntValue> cache =
+                    new SkipListCache.Builder<>(new SimpleIntKeyCoder(), externalStore, 8, 50).build();
+
+            int numElements = fastNumElements;
+            for (int i = 0; i < numElements; i += 2) {
+                cache.put(i, new DBIntValue(-i));
+            }
+
+            // overwrite the even keys, insert the odd keys, and remove every tenth key
+            TreeMap<Integer, DBIntValue> batch = new TreeMap<>();
+            for (int i = 0; i < numElements; i++) {
+                batch.put(i, (i % 10 == 0) ? null : new DBIntValue(i));
+            }
+            cache.putAll(batch);
+
+            for (int i = 0; i < numElements; i++) {
+                if (i % 10 == 0) {
+                    assertNull(cache.get(i));
+                } else {
+                    assertEquals(new Integer(i), cache.get(i).getVal());
+                }
+            }
+
+            Iterator<Map.Entry<Integer, DBIntValue>> iterator = cache.range(0, true);
+            for (int i = 0; i < numElements; i++) {
+                if (i % 10 != 0) {
+                    Map.Entry<Integer, DBIntValue> entry = iterator.next();
+                    assertEquals(new Integer(i), entry.getKey());
+                    assertEquals(new Integer(i), entry.getValue().getVal());
+                }
+            }
+            assertFalse(iterator.hasNext());
+
+            cache.putAll(new TreeMap<Integer, DBIntValue>());
+
+            consistentWaitShutdown(cache);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            fail();
+        } finally {
+            if (directory != null) {
+                if (!Files.deleteDir(directory)) {
+                    fail();
+                }
+            }
+        }
+    }
+
+    /**
+     * Readers use the optimistic path while a writer rewrites
+     * every entry and the eviction threads push pages to disk.
+     */
+    private void optimisticReads(int numElements, int numThreads, int pageSize, int maxPages) {
+        File directory = null;
+
+        try {
+            directory = makeTemporaryDirectory();
+            ByteStore externalStore = new ConcurrentByteStoreBDB(directory, "db");
+            final SkipListCache<Integer, DBIntValue> cache =
+                    new SkipListCache.Builder<>(new SimpleIntKeyCoder(), externalStore, pageSize, maxPages)
+                            .optimisticReads(true).build();
+
+            for (int i = 0; i < numElements; i++) {
+                cache.put(i, new DBIntValue(numElements - i));
+            }
+
+            final CyclicBarrier barrier = new CyclicBarrier(numThreads + 1);
+            final AtomicBoolean failed = new AtomicBoolean();
+            Thread[] readers = new Thread[numThreads];
+            for (int i = 0; i < numThreads; i++) {
+                readers[i] = new Thread(() -> {
+                    try {
+                        barrier.await();
+                        for (int j = 0; j < numElements; j++) {
+                            DBIntValue value = cache.get(j);
+                            if (value == null || value.getVal() != numElements - j) {
+                                failed.set(true);
+                            }
+                        }
+                        Iterator<Map.Entry<Integer, DBIntValue>> iterator = cache.range(0, true);
+                        for (int j = 0; j < numElements; j++) {
+                            Map.Entry<Integer, DBIntValue> entry = iterator.next();
+                            if (entry == null || entry.getKey() != j ||
+                                entry.getValue().getVal() != numElements - j) {
+                                failed.set(true);
+                            }
+                        }
+                        if (iterator.hasNext()) {
+                            failed.set(true);
+                        }
+                    } catch (Exception ex) {
+                        ex.printStackTrace();
+                        failed.set(true);
+                    }
+                }, "OptimisticReader" + i);
+                readers[i].start();
+            }
+
+            barrier.await();
+            for (int i = numElements - 1; i >= 0; i--) {
+                cache.put(i, new DBIntValue(numElements - i));
+            }
+
+            for (int i = 0; i < numThreads; i++) {
+                readers[i].join();
+            }
+
+            assertFalse(failed.get());
+            assertNull(cache.get(numElements));
+            assertFalse(cache.containsKey(-1));
+            assertTrue(cache.containsKey(0));
+
+            consistentWaitShutdown(cache);
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            fail();
+        } finally {
+            if (directory != null) {
+                if (!Files.deleteDir(directory)) {
+                    fail();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testOptimisticReads() {
+        optimisticReads(fastNumElements, fastNumThreads, 16, 50);
+    }
+
     @Test
     public void testExternalStorePersistance() {
         doTestExternalStorePersistance(fastNumElements);
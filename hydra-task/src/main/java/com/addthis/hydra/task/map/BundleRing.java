@@ -0,0 +1,129 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.task.map;
+
+import javax.annotation.Nullable;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import com.addthis.bundle.core.Bundle;
+
+/**
+ * Bounded ring of bundle batches between the {@link MapFeeder} and one mapper thread.
+ * There is exactly one producer. The owning mapper thread consumes from the ring and
+ * other mapper threads may steal batches when work stealing is enabled, so the consumer
+ * side claims slots with a compare and set on the head index. Batches are handed off
+ * whole so a stolen batch keeps the order of the bundles within it.
+ * <p/>
+ * Neither side blocks on a lock. A thread that finds the ring full (producer) or
+ * empty (consumer) spins, then yields and then parks for a short interval.
+ */
+final class BundleRing {
+
+    private final AtomicReferenceArray<Bundle[]> slots;
+    private final int mask;
+    private final int spins;
+    private final long parkNanos;
+
+    /** next slot to consume. */
+    private final AtomicLong head = new AtomicLong();
+
+    /** next slot to publish. only written by the producer. */
+    private volatile long tail;
+
+    private volatile boolean closed;
+
+    BundleRing(int capacity, int spins, long parkMicros) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.spins = spins;
+        this.parkNanos = TimeUnit.MICROSECONDS.toNanos(parkMicros);
+    }
+
+    /** Returns the number of batches waiting in the ring. */
+    int size() {
+        return (int) (tail - head.get());
+    }
+
+    /**
+     * Publish a batch, waiting for space if the ring is full. Must
+     * only be called by the producer.
+     */
+    void put(Bundle[] batch) {
+        long t = tail;
+        for (int attempt = 0; (t - head.get()) > mask; attempt++) {
+            backoff(attempt);
+        }
+        slots.set((int) (t & mask), batch);
+        tail = t + 1;
+    }
+
+    /**
+     * Signal that no more batches will be published. Must only be called by the producer.
+     */
+    void close() {
+        closed = true;
+    }
+
+    /**
+     * Returns the next batch or null if the ring is empty.
+     */
+    @Nullable Bundle[] poll() {
+        while (true) {
+            long h = head.get();
+            if (h >= tail) {
+                return null;
+            }
+            int index = (int) (h & mask);
+            Bundle[] batch = slots.get(index);
+            if (head.compareAndSet(h, h + 1)) {
+                // release the reference unless the producer has already reused the slot
+                slots.compareAndSet(index, batch, null);
+                return batch;
+            }
+        }
+    }
+
+    /**
+     * Returns the next batch, waiting until one is published,
+     * or null if the ring is empty and closed.
+     */
+    @Nullable Bundle[] take() {
+        for (int attempt = 0; ; attempt++) {
+            // read closed before polling so that a batch published before close is never missed
+            boolean wasClosed = closed;
+            Bundle[] batch = poll();
+            if (batch != null) {
+                return batch;
+            } else if (wasClosed) {
+                return null;
+            }
+            backoff(attempt);
+        }
+    }
+
+    private void backoff(int attempt) {
+        if (attempt < spins) {
+            return;
+        } else if (attempt < spins * 2) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(parkNanos);
+        }
+    }
+}
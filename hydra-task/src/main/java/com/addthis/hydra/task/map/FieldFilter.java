@@ -13,6 +13,8 @@
  */
 package com.addthis.hydra.task.map;
 
+import java.util.List;
+
 import com.addthis.bundle.core.Bundle;
 import com.addthis.bundle.util.AutoField;
 import com.addthis.bundle.util.CachingField;
@@ -82,6 +84,13 @@ public final class FieldFilter {
         this.to   = CachingField.newAutoField(copyFieldName);
     }
 
+    /** Map this field for each pair of bundles. {@code in} and {@code out} must have the same size. */
+    public void mapField(List<Bundle> in, List<Bundle> out) {
+        for (int i = 0; i < in.size(); i++) {
+            mapField(in.get(i), out.get(i));
+        }
+    }
+
     public void mapField(Bundle in, Bundle out) {
         ValueObject inVal = from.getValue(in);
         if (filter != null) {
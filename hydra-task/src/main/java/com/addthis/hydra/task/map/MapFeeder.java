@@ -15,6 +15,7 @@ package com.addthis.hydra.task.map;
 
 import javax.annotation.Nullable;
 
+import java.util.Arrays;
 import java.util.NoSuchElementException;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
@@ -53,6 +54,14 @@ public final class MapFeeder implements Runnable {
     private static final int stealThreshold = Parameter.intValue("task.queue.worksteal.threshold", 50);
     private static final boolean shouldSteal = Parameter.boolValue("task.worksteal", false);
 
+    /**
+     * If positive then bundles are handed to the mapper threads in batches of this size
+     * through lock free rings instead of one at a time through blocking queues.
+     */
+    private static final int BATCH_SIZE = Parameter.intValue("task.queue.batch", 0);
+    private static final int RING_SPINS = Parameter.intValue("task.queue.ring.spins", 100);
+    private static final int RING_PARK_MICROS = Parameter.intValue("task.queue.ring.park", 50);
+
     // state control
     private final AtomicBoolean errored = new AtomicBoolean(false);
     private boolean hasClosedStreams = false; // not shared with MapperTasks
@@ -66,6 +75,11 @@ public final class MapFeeder implements Runnable {
     private final BundleField shardField;
     private final Thread[] threads;
     private final BlockingQueue<Bundle>[] queues;
+    private final BundleRing[] rings;
+
+    // batches being filled for each ring. only used by the feeder thread
+    private final Bundle[][] batches;
+    private final int[] batchSizes;
 
     // metrics
     private final long start = System.currentTimeMillis();
@@ -88,10 +102,25 @@ public final class MapFeeder implements Runnable {
 
         shardField = source.getShardField();
         threads = new Thread[feeders];
-        queues = new LinkedBlockingQueue[feeders];
+        if (BATCH_SIZE > 0) {
+            queues = null;
+            rings = new BundleRing[feeders];
+            batches = new Bundle[feeders][];
+            batchSizes = new int[feeders];
+        } else {
+            queues = new LinkedBlockingQueue[feeders];
+            rings = null;
+            batches = null;
+            batchSizes = null;
+        }
 
         for (int i = 0; i < threads.length; i++) {
-            queues[i] = new LinkedBlockingQueue<>(QUEUE_DEPTH);
+            if (rings != null) {
+                rings[i] = new BundleRing((QUEUE_DEPTH + BATCH_SIZE - 1) / BATCH_SIZE, RING_SPINS, RING_PARK_MICROS);
+                batches[i] = new Bundle[BATCH_SIZE];
+            } else {
+                queues[i] = new LinkedBlockingQueue<>(QUEUE_DEPTH);
+            }
             threads[i] = new Thread(new MapperTask(this, i), "MapProcessor #" + i);
         }
     }
@@ -151,8 +180,12 @@ public final class MapFeeder implements Runnable {
                     hash = PluggableHashFunction.hash(val);
                 }
             }
-            int mod = Math.abs(hash % queues.length);
-            pushQueue(mod, p);
+            int mod = Math.abs(hash % feeders);
+            if (rings != null) {
+                pushBatch(mod, p);
+            } else {
+                pushQueue(mod, p);
+            }
             return true;
         } catch (NoSuchElementException ignored) {
             log.info("exiting on premature stream termination");
@@ -165,10 +198,35 @@ public final class MapFeeder implements Runnable {
         Uninterruptibles.putUninterruptibly(queue, item);
     }
 
+    private void pushBatch(int ringNum, Bundle item) {
+        batches[ringNum][batchSizes[ringNum]++] = item;
+        if (batchSizes[ringNum] == BATCH_SIZE) {
+            publishBatch(ringNum);
+        }
+    }
+
+    private void publishBatch(int ringNum) {
+        int size = batchSizes[ringNum];
+        Bundle[] batch = batches[ringNum];
+        rings[ringNum].put((size == batch.length) ? batch : Arrays.copyOf(batch, size));
+        batches[ringNum] = new Bundle[BATCH_SIZE];
+        batchSizes[ringNum] = 0;
+    }
+
     private void joinProcessors() {
-        log.debug("pushing terminating bundles to {} processors", queues.length);
-        for (int i = 0; i < queues.length; i++) {
-            pushQueue(i, TERM_BUNDLE);
+        if (rings != null) {
+            log.debug("flushing and closing {} processor rings", rings.length);
+            for (int i = 0; i < rings.length; i++) {
+                if (batchSizes[i] > 0) {
+                    publishBatch(i);
+                }
+                rings[i].close();
+            }
+        } else {
+            log.debug("pushing terminating bundles to {} processors", queues.length);
+            for (int i = 0; i < queues.length; i++) {
+                pushQueue(i, TERM_BUNDLE);
+            }
         }
         for (Thread thread : threads) {
             Uninterruptibles.joinUninterruptibly(thread);
@@ -195,6 +253,10 @@ public final class MapFeeder implements Runnable {
 
         @Override
         public void run() {
+            if (mapFeeder.rings != null) {
+                runBatches();
+                return;
+            }
             while (true) {
                 try {
                     Bundle next = popQueue();
@@ -208,6 +270,41 @@ public final class MapFeeder implements Runnable {
             }
         }
 
+        private void runBatches() {
+            BundleRing ring = mapFeeder.rings[processorID];
+            while (true) {
+                try {
+                    Bundle[] batch = ring.poll();
+                    if ((batch == null) && shouldSteal) {
+                        batch = stealBatch(ring);
+                    }
+                    if (batch == null) {
+                        batch = ring.take();
+                    }
+                    if (batch == null) {
+                        return;
+                    }
+                    mapFeeder.task.process(Arrays.asList(batch));
+                } catch (Throwable t) {
+                    mapFeeder.handleUncaughtThrowable(t);
+                }
+            }
+        }
+
+        @Nullable private Bundle[] stealBatch(BundleRing primaryRing) {
+            mapFeeder.stealAttemptMeter.mark();
+            for (BundleRing ring : mapFeeder.rings) {
+                if ((ring != primaryRing) && ((ring.size() * BATCH_SIZE) >= stealThreshold)) {
+                    Bundle[] batch = ring.poll();
+                    if (batch != null) {
+                        mapFeeder.stealSuccessMeter.mark();
+                        return batch;
+                    }
+                }
+            }
+            return null;
+        }
+
         @Nullable private Bundle popQueue() throws InterruptedException {
             BlockingQueue<Bundle> queue = mapFeeder.queues[processorID];
             Bundle item = null;
@@ -20,6 +20,9 @@ import java.io.IOException;
 
 import java.net.ServerSocket;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.LongAdder;
@@ -202,6 +205,80 @@ public class StreamMapper implements StreamEmitter, TaskRunnable {
         }
     }
 
+    /**
+     * Process a batch of bundles. Each stage runs over the whole batch before the next one
+     * starts, and timing and meters are updated once per batch instead of once per bundle.
+     */
+    public void process(List<Bundle> inputBundles) {
+        int inputCount = inputBundles.size();
+        List<Bundle> bundles = new ArrayList<>(inputBundles);
+        try {
+            long filterBefore = System.nanoTime();
+            if (map.filterIn != null) {
+                map.filterIn.filter(bundles);
+            }
+            bundles = mapBundles(bundles);
+            if (map.filterOut != null) {
+                map.filterOut.filter(bundles);
+            }
+            long filterAfter = System.nanoTime();
+            filterTime.add(filterAfter - filterBefore);
+            if (!bundles.isEmpty()) {
+                if (builder != null) {
+                    for (Bundle bundle : bundles) {
+                        builder.process(bundle, this);
+                    }
+                } else {
+                    output.send(bundles);
+                }
+                outputTime.add(System.nanoTime() - filterAfter);
+                outputMeter.mark(bundles.size());
+            }
+
+            // inputs are counted after outputs to prevent spurious drop reporting
+            inputMeter.mark(inputCount);
+
+            // print metrics if it has been long enough
+            long time = System.nanoTime();
+            if (stats && ((time - lastTick) > metricTick) && metricGate.compareAndSet(false, true)) {
+                // lastTick is not volatile, so double check after fencing on "metricGate"
+                if ((time - lastTick) > metricTick) {
+                    printMetrics(time);
+                }
+                metricGate.set(false);
+            }
+        } catch (DataChannelError ex) {
+            output.sourceError(ex);
+            throw ex;
+        } catch (RuntimeException ex) {
+            log.warn("runtime error in batch of {} bundles", inputCount);
+            output.sourceError(DataChannelError.promote(ex));
+            throw ex;
+        } catch (Exception ex) {
+            log.warn("handling error in batch of {} bundles", inputCount);
+            DataChannelError err = DataChannelError.promote(ex);
+            output.sourceError(err);
+            throw err;
+        }
+    }
+
+    private List<Bundle> mapBundles(List<Bundle> in) {
+        List<Bundle> out = new ArrayList<>(in.size());
+        if (map.fields != null) {
+            for (int i = 0; i < in.size(); i++) {
+                out.add(output.createBundle());
+            }
+            for (FieldFilter fieldFilter : map.fields) {
+                fieldFilter.mapField(in, out);
+            }
+        } else {
+            for (Bundle bundle : in) {
+                out.add(mapBundle(bundle));
+            }
+        }
+        return out;
+    }
+
     private Bundle mapBundle(Bundle in) {
         Bundle out = output.createBundle();
         if (map.fields != null) {
@@ -78,9 +78,9 @@ public abstract class AbstractOutputWrapper implements OutputWrapper{
                 }
             }
             if (rawout != null) {
-                if (compress && compressType == 0) {
+                if (compress && ((compressType == 0) || (compressType == 5))) {
                     try {
-                        ((GZIPOutputStream) rawout).finish();
+                        finish(rawout);
                     } catch (Exception ex)  {
                         log.warn("", ex);
                     }
@@ -107,6 +107,18 @@ public abstract class AbstractOutputWrapper implements OutputWrapper{
 
     protected abstract void renameTempTargetFile();
 
+    /**
+     * Finishes the gzip or zstd stream returned by {@link DefaultOutputWrapperFactory#wrapOutputStream}
+     * without closing the underlying stream.
+     */
+    static void finish(OutputStream outputStream) throws IOException {
+        if (outputStream instanceof ParallelBlockOutputStream) {
+            ((ParallelBlockOutputStream) outputStream).finish();
+        } else if (outputStream instanceof GZIPOutputStream) {
+            ((GZIPOutputStream) outputStream).finish();
+        }
+    }
+
     private void closeStream(OutputStream outputStream) {
         try {
             outputStream.flush();
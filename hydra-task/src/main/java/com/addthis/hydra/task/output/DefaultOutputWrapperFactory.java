@@ -33,6 +33,7 @@ import com.google.common.annotations.VisibleForTesting;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.github.luben.zstd.ZstdOutputStream;
 import com.ning.compress.lzf.LZFOutputStream;
 
 import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
@@ -99,7 +100,9 @@ public class DefaultOutputWrapperFactory implements OutputWrapperFactory {
                                          OutputStream outputStream) throws IOException {
         OutputStream wrappedStream;
         if (outputFlags.isCompress()) {
-            if (outputFlags.getCompressType() == 0) {
+            if ((outputFlags.getCompressType() == 0) && (outputFlags.getCompressBlockSize() > 0)) {
+                wrappedStream = new ParallelGZIPOutputStream(outputStream, outputFlags.getCompressBlockSize());
+            } else if (outputFlags.getCompressType() == 0) {
                 wrappedStream = IOWrap.gz(outputStream, BUFFER_SIZE);
             } else if (outputFlags.getCompressType() == 1) {
                 wrappedStream = new LZFOutputStream(outputStream);
@@ -109,6 +112,10 @@ public class DefaultOutputWrapperFactory implements OutputWrapperFactory {
                 wrappedStream = new BZip2CompressorOutputStream(outputStream);
             } else if (outputFlags.getCompressType() == 4) {
                 wrappedStream = new LzmaOutputStream.Builder(outputStream).useMediumDictionarySize().build();
+            } else if ((outputFlags.getCompressType() == 5) && (outputFlags.getCompressBlockSize() > 0)) {
+                wrappedStream = new ParallelZstdOutputStream(outputStream, outputFlags.getCompressBlockSize());
+            } else if (outputFlags.getCompressType() == 5) {
+                wrappedStream = new ZstdOutputStream(outputStream, ParallelZstdOutputStream.LEVEL);
             } else {
                 throw new IOException("Unknown compression type: " + outputFlags.getCompressType());
             }
@@ -150,6 +157,8 @@ public class DefaultOutputWrapperFactory implements OutputWrapperFactory {
                     result = result.concat(".bz2");
                 } else if (outputFlags.getCompressType() == 4) {
                     result = result.concat(".lzma");
+                } else if (outputFlags.getCompressType() == 5) {
+                    result = result.concat(".zst");
                 } else {
                     throw new RuntimeException("unexpected compressionType: " + outputFlags.getCompressType());
                 }
@@ -167,6 +176,8 @@ public class DefaultOutputWrapperFactory implements OutputWrapperFactory {
                 result = result.concat(".bz2");
             } else if (outputFlags.getCompressType() == 4 && !result.endsWith(".lzma")) {
                 result = result.concat(".lzma");
+            } else if (outputFlags.getCompressType() == 5 && !result.endsWith(".zst")) {
+                result = result.concat(".zst");
             }
         }
         log.debug("[file] compress={} compressType:{} na={} for {}",
@@ -13,6 +13,7 @@
  */
 package com.addthis.hydra.task.output;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import com.addthis.bundle.channel.DataChannelError;
@@ -76,8 +77,10 @@ public class FilteredDataOutput extends TaskDataOutput {
 
     @Override
     public void send(List<Bundle> bundles) {
-        for (Bundle bundle : bundles) {
-            send(bundle);
+        List<Bundle> passed = new ArrayList<>(bundles);
+        filter.filter(passed);
+        if (!passed.isEmpty()) {
+            output.send(passed);
         }
     }
 }
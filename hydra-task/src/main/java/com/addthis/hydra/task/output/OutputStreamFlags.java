@@ -48,11 +48,20 @@ public class OutputStreamFlags implements SuperCodable {
 
     /**
      * If compress is true then specify the compression type.
-     * 0 for gzip, 1 for lzf, 2 for snappy, 3 for bzip2, or 4 for lzma.
+     * 0 for gzip, 1 for lzf, 2 for snappy, 3 for bzip2, 4 for lzma, or 5 for zstd.
      */
     @FieldConfig(codable = true)
     private int compressType;
 
+    /**
+     * If compress is true and compressType is 0 or 5 then optionally compress the output
+     * in blocks of this many bytes on a shared pool of threads. Each block is written as
+     * a separate gzip member or zstd frame so the output can be read by any gzip or zstd
+     * reader. Default is 0 which compresses on the writing thread.
+     */
+    @FieldConfig(codable = true)
+    private int compressBlockSize;
+
     /**
      * If true then do not append output to existing files. Default is false.
      */
@@ -115,6 +124,10 @@ public class OutputStreamFlags implements SuperCodable {
         return compressType;
     }
 
+    public int getCompressBlockSize() {
+        return compressBlockSize;
+    }
+
     public boolean isNoAppend() {
         return noAppend;
     }
@@ -157,6 +170,9 @@ public class OutputStreamFlags implements SuperCodable {
         if (compressType != that.compressType) {
             return false;
         }
+        if (compressBlockSize != that.compressBlockSize) {
+            return false;
+        }
 
         return true;
     }
@@ -0,0 +1,154 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.task.output;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.addthis.basis.util.Parameter;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Output stream that compresses fixed size blocks on a shared pool of
+ * threads in the manner of pigz. Every block is compressed independently
+ * by {@link #compress(byte[], int)} and the results are written to the
+ * underlying stream in order. Subclasses choose a format whose
+ * concatenated blocks are a valid stream.
+ * <p/>
+ * Each {@link #flush()} ends the current block. At most a small
+ * multiple of the pool size blocks are outstanding for each stream.
+ */
+abstract class ParallelBlockOutputStream extends FilterOutputStream {
+
+    private static final int THREADS = Parameter.intValue("hydra.output.compress.threads",
+                                                          Runtime.getRuntime().availableProcessors());
+
+    private static final class CompressPool {
+
+        static final ExecutorService pool = Executors.newFixedThreadPool(
+                THREADS, new ThreadFactoryBuilder().setNameFormat("parallelCompress-%d").setDaemon(true).build());
+    }
+
+    private final int blockSize;
+    private final int maxPending;
+    private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+
+    private byte[] block;
+    private int blockLength;
+    private boolean written;
+    private boolean closed;
+
+    ParallelBlockOutputStream(OutputStream out, int blockSize) {
+        super(out);
+        this.blockSize = blockSize;
+        this.maxPending = THREADS * 2;
+        this.block = new byte[blockSize];
+    }
+
+    /**
+     * Returns {@code length} bytes of {@code data} compressed as one
+     * self-contained unit of the output format. Called on pool threads.
+     */
+    abstract byte[] compress(byte[] data, int length) throws IOException;
+
+    @Override
+    public void write(int b) throws IOException {
+        block[blockLength++] = (byte) b;
+        if (blockLength == blockSize) {
+            submitBlock();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int count = Math.min(len, blockSize - blockLength);
+            System.arraycopy(b, off, block, blockLength, count);
+            blockLength += count;
+            off += count;
+            len -= count;
+            if (blockLength == blockSize) {
+                submitBlock();
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (blockLength > 0) {
+            submitBlock();
+        }
+        while (!pending.isEmpty()) {
+            writeNext();
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes all buffered data to the underlying stream without closing it.
+     */
+    public void finish() throws IOException {
+        if (!written && (blockLength == 0)) {
+            // an empty stream is still a valid compressed file
+            out.write(compress(block, 0));
+            written = true;
+        }
+        flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void submitBlock() throws IOException {
+        byte[] data = block;
+        int length = blockLength;
+        pending.add(CompressPool.pool.submit(() -> compress(data, length)));
+        written = true;
+        block = new byte[blockSize];
+        blockLength = 0;
+        while (pending.size() > maxPending) {
+            writeNext();
+        }
+    }
+
+    private void writeNext() throws IOException {
+        try {
+            out.write(pending.poll().get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.task.output;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import com.addthis.basis.util.Parameter;
+
+/**
+ * Gzip output stream that compresses fixed size blocks on a shared pool of
+ * threads. Every block is written as an independent gzip member.
+ * Concatenated members are a valid gzip file so any gzip reader, including
+ * {@link java.util.zip.GZIPInputStream}, can stream the output.
+ */
+final class ParallelGZIPOutputStream extends ParallelBlockOutputStream {
+
+    private static final int LEVEL = Parameter.intValue("hydra.output.compress.level", Deflater.DEFAULT_COMPRESSION);
+
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private static final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater(LEVEL, true));
+
+    ParallelGZIPOutputStream(OutputStream out, int blockSize) {
+        super(out, blockSize);
+    }
+
+    @Override
+    byte[] compress(byte[] data, int length) {
+        ByteArrayOutputStream member = new ByteArrayOutputStream(length / 2 + 64);
+        member.write(HEADER, 0, HEADER.length);
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(data, 0, length);
+        deflater.finish();
+        byte[] buffer = new byte[Math.max(1024, length / 4)];
+        while (!deflater.finished()) {
+            int count = deflater.deflate(buffer);
+            member.write(buffer, 0, count);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        writeIntLE(member, (int) crc.getValue());
+        writeIntLE(member, length);
+        return member.toByteArray();
+    }
+
+    private static void writeIntLE(ByteArrayOutputStream out, int value) {
+        out.write(value);
+        out.write(value >>> 8);
+        out.write(value >>> 16);
+        out.write(value >>> 24);
+    }
+}
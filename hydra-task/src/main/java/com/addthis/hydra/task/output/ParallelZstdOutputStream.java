@@ -0,0 +1,48 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.task.output;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.util.Arrays;
+
+import com.addthis.basis.util.Parameter;
+
+import com.github.luben.zstd.Zstd;
+
+/**
+ * Zstd output stream that compresses fixed size blocks on a shared pool of
+ * threads. Every block is written as an independent zstd frame. Concatenated
+ * frames are a valid zstd stream, so the output can be read by the zstd
+ * command line tool or by {@link com.github.luben.zstd.ZstdInputStream}.
+ */
+final class ParallelZstdOutputStream extends ParallelBlockOutputStream {
+
+    static final int LEVEL = Parameter.intValue("hydra.output.compress.zstd.level", 3);
+
+    ParallelZstdOutputStream(OutputStream out, int blockSize) {
+        super(out, blockSize);
+    }
+
+    @Override
+    byte[] compress(byte[] data, int length) throws IOException {
+        byte[] target = new byte[(int) Zstd.compressBound(length)];
+        long count = Zstd.compressByteArray(target, 0, target.length, data, 0, length, LEVEL);
+        if (Zstd.isError(count)) {
+            throw new IOException("zstd compression failed: " + Zstd.getErrorName(count));
+        }
+        return Arrays.copyOf(target, (int) count);
+    }
+}
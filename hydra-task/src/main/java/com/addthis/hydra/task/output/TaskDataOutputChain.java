@@ -13,6 +13,7 @@
  */
 package com.addthis.hydra.task.output;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import com.addthis.bundle.channel.DataChannelError;
@@ -105,10 +106,28 @@ public class TaskDataOutputChain extends DataOutputTypeList {
     }
 
     @Override public void send(List<Bundle> bundles) {
-        if (bundles != null && !bundles.isEmpty()) {
-            for (Bundle bundle : bundles) {
-                send(bundle);
+        if (bundles == null || bundles.isEmpty()) {
+            return;
+        }
+        List<Bundle> withPreviousFormat = bundles;
+        for (TaskDataOutput output : outputs) {
+            List<Bundle> copies = new ArrayList<>(bundles.size());
+            if (!copy && !immutableCopy) {
+                // same as the single bundle path: each output sees the mutations of the previous outputs
+                for (Bundle row : withPreviousFormat) {
+                    copies.add(Bundles.shallowCopyBundle(row, output.createBundle()));
+                }
+                withPreviousFormat = copies;
+            } else if (immutableCopy) {
+                for (Bundle row : bundles) {
+                    copies.add(Bundles.deepCopyBundle(row, output.createBundle()));
+                }
+            } else {
+                for (Bundle row : bundles) {
+                    copies.add(Bundles.shallowCopyBundle(row, output.createBundle()));
+                }
             }
+            output.send(copies);
         }
     }
 
@@ -48,6 +48,7 @@ import com.addthis.hydra.data.tree.DataTree;
 import com.addthis.hydra.data.tree.concurrent.TreeCommonParameters;
 import com.addthis.hydra.data.util.TimeField;
 import com.addthis.hydra.store.db.CloseOperation;
+import com.addthis.hydra.store.db.PageDB;
 import com.addthis.hydra.task.output.DataOutputTypeList;
 import com.addthis.hydra.task.run.TaskRunConfig;
 import com.addthis.meshy.MeshyServer;
@@ -149,6 +150,15 @@ public final class TreeMapper extends DataOutputTypeList implements Codable {
      */
     @FieldConfig private boolean repairTree = false;
 
+    /**
+     * If true then after the tree has been closed its pages are
+     * written into a read only memory mapped file. Query workers
+     * read the tree from this file instead of the page database.
+     * The file is discarded the next time the task runs.
+     * Default is false.
+     */
+    @FieldConfig private boolean compactTree = false;
+
     /**
      * Optional sample rate for applying
      * the {@link #post post} paths. If greater
@@ -464,9 +474,17 @@ public final class TreeMapper extends DataOutputTypeList implements Codable {
     @Override
     public void send(List<Bundle> bundles) {
         if (bundles != null && !bundles.isEmpty()) {
+            // timing and counters are updated once per batch
+            long markBefore = System.nanoTime();
+            streamWaitime.addAndGet(markBefore - lastBundleTime.getAndSet(markBefore));
             for (Bundle bundle : bundles) {
-                send(bundle);
+                processBundle(bundle, root);
             }
+            long markAfter = System.nanoTime();
+            mapWriteTime.addAndGet(markAfter - markBefore);
+            streamReadCount.addAndGet(bundles.size());
+            bench.addEvents(BENCH.STREAM, bundles.size());
+            lastBundleTime.set(markAfter);
         }
     }
 
@@ -529,6 +547,10 @@ public final class TreeMapper extends DataOutputTypeList implements Codable {
                 closeOperation = repairTree ? CloseOperation.REPAIR : CloseOperation.TEST;
             }
             tree.close(false, closeOperation);
+            if (compactTree) {
+                log.info("[close] compacting tree storage");
+                PageDB.compact(Paths.get(config.dir, "data").toFile());
+            }
         } catch (Exception ex) {
             throw new RuntimeException(ex);
         }
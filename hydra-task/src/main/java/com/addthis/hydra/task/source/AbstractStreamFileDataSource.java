@@ -60,6 +60,7 @@ import com.google.common.base.Throwables;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.github.luben.zstd.ZstdInputStream;
 import com.ning.compress.lzf.LZFInputStream;
 import com.yammer.metrics.Metrics;
 import com.yammer.metrics.core.Counter;
@@ -505,6 +506,8 @@ public abstract class AbstractStreamFileDataSource extends TaskDataSource implem
                 in = new BZip2CompressorInputStream(in, true);
             } else if (name.endsWith(".lzma")) {
                 in = new LzmaInputStream(in, new Decoder());
+            } else if (name.endsWith(".zst")) {
+                in = new ZstdInputStream(in);
             }
             return in;
         }
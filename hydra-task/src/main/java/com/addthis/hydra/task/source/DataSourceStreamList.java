@@ -48,6 +48,7 @@ import com.addthis.hydra.task.stream.StreamSourceHashed;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+import com.github.luben.zstd.ZstdInputStream;
 import com.ning.compress.lzf.LZFInputStream;
 
 import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
@@ -479,6 +480,8 @@ public abstract class DataSourceStreamList extends TaskDataSource implements Sup
                 in = new BZip2CompressorInputStream(in, true);
             } else if (name.endsWith(".lzma")) {
                 in = new LzmaInputStream(in, new Decoder());
+            } else if (name.endsWith(".zst")) {
+                in = new ZstdInputStream(in);
             }
             return in;
         }
@@ -25,6 +25,8 @@ import com.addthis.codec.codables.Codable;
  * <ul>
  * <li>{@link ChannelBundleizer channel}</li>
  * <li>{@link ColumnBundleizer column}</li>
+ * <li>{@link DelimitedBundleizer delimited}</li>
+ * <li>{@link JacksonBundleizer jackson}</li>
  * <li>{@link KVBundleizer kv}</li>
  * </ul>
  *
@@ -0,0 +1,369 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.task.source.bundleizer;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.util.Arrays;
+import java.util.List;
+
+import java.nio.charset.StandardCharsets;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleFactory;
+import com.addthis.bundle.core.BundleField;
+import com.addthis.bundle.core.BundleFormat;
+import com.addthis.bundle.value.ValueFactory;
+import com.addthis.bundle.value.ValueObject;
+import com.addthis.codec.annotations.FieldConfig;
+import com.addthis.hydra.data.filter.value.ValueFilter;
+import com.addthis.hydra.data.util.Tokenizer;
+
+/**
+ * Splits lines of delimited text (such as tsv or csv) into columns
+ * using the separator, grouping and escape rules of a {@link Tokenizer}.
+ * <p/>
+ * Unlike {@link ColumnBundleizer column} the input is scanned as raw
+ * bytes. Lines are not turned into strings and there is no intermediate
+ * list of tokens. A value is created directly from the bytes of each
+ * cell, and the bundle fields for the columns are looked up once per
+ * format. Blank lines are skipped. The input must be UTF-8. When the
+ * separator, grouping or escape characters are not ASCII, or the
+ * tokenizer is a subclass, each line is decoded and handed to the
+ * tokenizer instead.
+ *
+ * @hydra-name delimited
+ */
+public class DelimitedBundleizer extends BundleizerFactory {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /* byte classes for the scanner */
+    private static final byte NORMAL = 0;
+    private static final byte SEPARATOR = 1;
+    private static final byte ESCAPE = 2;
+    private static final byte OPEN = 3;
+
+    @FieldConfig(codable = true, required = true)
+    private String[] columns;
+    @FieldConfig(codable = true, required = true)
+    private Tokenizer tokens;
+    @FieldConfig(codable = true)
+    private ValueFilter tokenFilter;
+
+    @Override
+    public Bundleizer createBundleizer(final InputStream inputArg, final BundleFactory factoryArg) {
+        return new DelimitedReader(inputArg, factoryArg);
+    }
+
+    private final class DelimitedReader implements Bundleizer {
+
+        private final InputStream input;
+        private final BundleFactory factory;
+
+        private final byte[] classes = new byte[256];
+        private final byte[] groupIndex = new byte[256];
+        private final byte[] groupClose;
+        private final boolean pack;
+        private final boolean useTokenizer;
+
+        private byte[] buf = new byte[BUFFER_SIZE];
+        private int start;
+        private int limit;
+        private boolean eof;
+        private boolean skipLineFeed;
+
+        private final BundleField[] fields = new BundleField[columns.length];
+        private BundleFormat fieldFormat;
+
+        /* current token: a slice of buf until it must be copied to scratch */
+        private byte[] scratch = new byte[256];
+        private int tokenStart;
+        private int tokenLength;
+        private boolean copied;
+
+        DelimitedReader(InputStream input, BundleFactory factory) {
+            this.input = input;
+            this.factory = factory;
+            String separator = tokens.getSeparator();
+            String[] group = tokens.getGrouping();
+            char escape = tokens.getEscape().charAt(0);
+            this.pack = tokens.isPacked();
+            boolean ascii = escape < 0x80;
+            for (int i = 0; i < separator.length(); i++) {
+                char ch = separator.charAt(i);
+                ascii &= ch < 0x80;
+                if (ascii) {
+                    classes[ch] = SEPARATOR;
+                }
+            }
+            groupClose = new byte[(group != null) ? group.length : 0];
+            for (int i = groupClose.length - 1; i >= 0; i--) {
+                String q = group[i];
+                if ((q.length() < 1) || (q.length() > 2)) {
+                    throw new RuntimeException("invalid match " + q);
+                }
+                char open = q.charAt(0);
+                char close = q.charAt(q.length() - 1);
+                ascii &= (open < 0x80) && (close < 0x80);
+                if (ascii) {
+                    // the first group listed wins, as with String.indexOf in Tokenizer
+                    classes[open] = OPEN;
+                    groupIndex[open] = (byte) i;
+                    groupClose[i] = (byte) close;
+                }
+            }
+            if (ascii) {
+                classes[escape] = ESCAPE;
+            }
+            this.useTokenizer = !ascii || (tokens.getClass() != Tokenizer.class);
+        }
+
+        @Override
+        public Bundle next() throws IOException {
+            while (true) {
+                int end = nextLine();
+                if (end < 0) {
+                    return null;
+                }
+                int lineStart = start;
+                consumeLine(end);
+                if (isBlank(lineStart, end)) {
+                    continue;
+                }
+                Bundle next = factory.createBundle();
+                bindFields(next.getFormat());
+                if (useTokenizer) {
+                    tokenizeLine(next, new String(buf, lineStart, end - lineStart, StandardCharsets.UTF_8));
+                } else {
+                    scanLine(next, lineStart, end);
+                }
+                return next;
+            }
+        }
+
+        private void bindFields(BundleFormat format) {
+            if (format != fieldFormat) {
+                for (int i = 0; i < columns.length; i++) {
+                    fields[i] = format.getField(columns[i]);
+                }
+                fieldFormat = format;
+            }
+        }
+
+        /**
+         * Returns the end of the next line, which starts at {@code start},
+         * or -1 at the end of the input.
+         */
+        private int nextLine() throws IOException {
+            int scan = start;
+            while (true) {
+                if (skipLineFeed && (start < limit)) {
+                    skipLineFeed = false;
+                    if (buf[start] == '\n') {
+                        start++;
+                        scan++;
+                    }
+                }
+                for (; scan < limit; scan++) {
+                    byte b = buf[scan];
+                    if ((b == '\n') || (b == '\r')) {
+                        return scan;
+                    }
+                }
+                if (eof) {
+                    return (start < limit) ? limit : -1;
+                }
+                scan -= start;
+                fill();
+                scan += start;
+            }
+        }
+
+        /* moves the unread bytes to the front of buf, growing it if full, and reads more */
+        private void fill() throws IOException {
+            int remaining = limit - start;
+            if (remaining == buf.length) {
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            } else if (start > 0) {
+                System.arraycopy(buf, start, buf, 0, remaining);
+            }
+            start = 0;
+            limit = remaining;
+            int read = input.read(buf, limit, buf.length - limit);
+            if (read < 0) {
+                eof = true;
+            } else {
+                limit += read;
+            }
+        }
+
+        private void consumeLine(int end) {
+            if (end < limit) {
+                start = end + 1;
+                if (buf[end] == '\r') {
+                    skipLineFeed = true;
+                }
+            } else {
+                start = end;
+            }
+        }
+
+        /* matches the trim() check in Tokenizer */
+        private boolean isBlank(int from, int to) {
+            for (int i = from; i < to; i++) {
+                if ((buf[i] & 0xff) > ' ') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void tokenizeLine(Bundle next, String line) {
+            List<String> row = tokens.tokenize(line);
+            if (row == null) {
+                return;
+            }
+            int pos = 0;
+            for (String col : row) {
+                if (pos >= columns.length) {
+                    break;
+                }
+                setValue(next, pos++, ValueFactory.create(col));
+            }
+        }
+
+        /**
+         * Mirrors the state machine of {@link Tokenizer#tokenize(String)}
+         * over the bytes of a line. Runs of ordinary bytes are appended to
+         * the current token in a single step.
+         */
+        private void scanLine(Bundle next, int from, int to) {
+            int column = 0;
+            int inGroup = -1;
+            boolean escaped = false;
+            boolean separator = false;
+            int pos = from;
+            resetToken(pos);
+            while (true) {
+                boolean eol = pos == to;
+                if ((separator && (inGroup < 0)) || eol) {
+                    if ((tokenLength > 0) || !pack) {
+                        emit(next, column++);
+                        resetToken(pos);
+                        if (separator && eol && !pack) {
+                            emit(next, column++);
+                        }
+                    }
+                }
+                if (eol) {
+                    break;
+                }
+                if (column >= columns.length) {
+                    return;
+                }
+                byte b = buf[pos];
+                if (escaped) {
+                    append(pos++);
+                    escaped = false;
+                    continue;
+                }
+                byte type = classes[b & 0xff];
+                if (type == ESCAPE) {
+                    escaped = true;
+                    separator = false;
+                    pos++;
+                    continue;
+                }
+                if (inGroup >= 0) {
+                    if (b == groupClose[inGroup]) {
+                        inGroup = -1;
+                    } else {
+                        append(pos);
+                    }
+                    pos++;
+                    continue;
+                }
+                if (type == OPEN) {
+                    separator = false;
+                    inGroup = groupIndex[b & 0xff];
+                    pos++;
+                    continue;
+                }
+                if (separator = (type == SEPARATOR)) {
+                    pos++;
+                    continue;
+                }
+                int run = pos + 1;
+                while ((run < to) && (classes[buf[run] & 0xff] == NORMAL)) {
+                    run++;
+                }
+                appendRun(pos, run);
+                pos = run;
+            }
+        }
+
+        private void resetToken(int pos) {
+            tokenStart = pos;
+            tokenLength = 0;
+            copied = false;
+        }
+
+        private void append(int pos) {
+            appendRun(pos, pos + 1);
+        }
+
+        private void appendRun(int from, int to) {
+            int length = to - from;
+            if (!copied) {
+                if (tokenLength == 0) {
+                    tokenStart = from;
+                }
+                if ((tokenStart + tokenLength) == from) {
+                    tokenLength += length;
+                    return;
+                }
+                ensureScratch(tokenLength);
+                System.arraycopy(buf, tokenStart, scratch, 0, tokenLength);
+                copied = true;
+            }
+            ensureScratch(tokenLength + length);
+            System.arraycopy(buf, from, scratch, tokenLength, length);
+            tokenLength += length;
+        }
+
+        private void ensureScratch(int length) {
+            if (length > scratch.length) {
+                scratch = Arrays.copyOf(scratch, Math.max(length, scratch.length * 2));
+            }
+        }
+
+        private void emit(Bundle next, int column) {
+            if (column >= columns.length) {
+                return;
+            }
+            String value = copied ? new String(scratch, 0, tokenLength, StandardCharsets.UTF_8)
+                                  : new String(buf, tokenStart, tokenLength, StandardCharsets.UTF_8);
+            setValue(next, column, ValueFactory.create(value));
+        }
+
+        private void setValue(Bundle next, int column, ValueObject value) {
+            if (tokenFilter != null) {
+                value = tokenFilter.filter(value);
+            }
+            next.setValue(fields[column], value);
+        }
+    }
+}
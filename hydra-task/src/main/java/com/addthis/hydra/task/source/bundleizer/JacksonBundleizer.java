@@ -0,0 +1,138 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.task.source.bundleizer;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.util.HashMap;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleFactory;
+import com.addthis.bundle.core.BundleField;
+import com.addthis.bundle.core.BundleFormat;
+import com.addthis.bundle.value.ValueArray;
+import com.addthis.bundle.value.ValueFactory;
+import com.addthis.bundle.value.ValueMap;
+import com.addthis.bundle.value.ValueObject;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Pull parses a stream of json objects directly from bytes.
+ * <p/>
+ * The input is either a sequence of objects separated by whitespace
+ * (such as newline delimited json) or a single array of objects.
+ * No intermediate strings are created for lines or documents and the
+ * bundle field for each key is looked up once per format. Nested objects
+ * become value maps and nested arrays become value arrays. Integers are
+ * stored as longs, other numbers as doubles, and booleans and nulls as
+ * strings to match the output of {@link JSONBundleizer json}.
+ *
+ * @hydra-name jackson
+ */
+public class JacksonBundleizer extends BundleizerFactory {
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    @Override
+    public Bundleizer createBundleizer(final InputStream inputArg, final BundleFactory factoryArg) {
+        return new Bundleizer() {
+            private final BundleFactory factory = factoryArg;
+            private final HashMap<String, BundleField> fields = new HashMap<>();
+            private BundleFormat fieldFormat;
+            private JsonParser parser;
+            private boolean inArray;
+
+            @Override
+            public Bundle next() throws IOException {
+                if (parser == null) {
+                    parser = jsonFactory.createParser(inputArg);
+                }
+                JsonToken token = parser.nextToken();
+                if ((token == JsonToken.START_ARRAY) && !inArray) {
+                    inArray = true;
+                    token = parser.nextToken();
+                }
+                if ((token == JsonToken.END_ARRAY) && inArray) {
+                    inArray = false;
+                    token = parser.nextToken();
+                }
+                if (token == null) {
+                    parser.close();
+                    return null;
+                }
+                if (token != JsonToken.START_OBJECT) {
+                    throw new JsonParseException("expected a json object but found " + token,
+                                                 parser.getCurrentLocation());
+                }
+                Bundle next = factory.createBundle();
+                BundleFormat format = next.getFormat();
+                if (format != fieldFormat) {
+                    fields.clear();
+                    fieldFormat = format;
+                }
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = parser.getCurrentName();
+                    BundleField field = fields.get(name);
+                    if (field == null) {
+                        field = format.getField(name);
+                        fields.put(name, field);
+                    }
+                    next.setValue(field, readValue(parser, parser.nextToken()));
+                }
+                return next;
+            }
+        };
+    }
+
+    private static ValueObject readValue(JsonParser parser, JsonToken token) throws IOException {
+        switch (token) {
+            case VALUE_STRING:
+                return ValueFactory.create(parser.getText());
+            case VALUE_NUMBER_INT:
+                if (parser.getNumberType() == JsonParser.NumberType.BIG_INTEGER) {
+                    return ValueFactory.create(parser.getText());
+                }
+                return ValueFactory.create(parser.getLongValue());
+            case VALUE_NUMBER_FLOAT:
+                return ValueFactory.create(parser.getDoubleValue());
+            case VALUE_TRUE:
+                return ValueFactory.create("true");
+            case VALUE_FALSE:
+                return ValueFactory.create("false");
+            case VALUE_NULL:
+                return ValueFactory.create("null");
+            case START_OBJECT:
+                ValueMap map = ValueFactory.createMap();
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = parser.getCurrentName();
+                    map.put(name, readValue(parser, parser.nextToken()));
+                }
+                return map;
+            case START_ARRAY:
+                ValueArray array = ValueFactory.createArray(4);
+                JsonToken element;
+                while ((element = parser.nextToken()) != JsonToken.END_ARRAY) {
+                    array.add(readValue(parser, element));
+                }
+                return array;
+            default:
+                throw new JsonParseException("unexpected json token " + token, parser.getCurrentLocation());
+        }
+    }
+}
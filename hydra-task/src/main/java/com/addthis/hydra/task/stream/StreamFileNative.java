@@ -23,6 +23,7 @@ import com.addthis.basis.io.IOWrap;
 import com.addthis.codec.annotations.FieldConfig;
 import com.addthis.codec.codables.Codable;
 
+import com.github.luben.zstd.ZstdInputStream;
 import com.ning.compress.lzf.util.LZFFileInputStream;
 
 import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
@@ -119,6 +120,8 @@ public class StreamFileNative implements StreamFile, Codable {
             in = new BZip2CompressorInputStream(new FileInputStream(new File(name)));
         } else if (name().endsWith(".lzma")) {
             in = new LzmaInputStream(new FileInputStream(new File(name)), new Decoder());
+        } else if (name().endsWith(".zst")) {
+            in = new ZstdInputStream(new FileInputStream(new File(name)));
         } else {
             in = IOWrap.fileIn(new File(name), 4096, name.endsWith(".gz"));
         }
@@ -0,0 +1,78 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.task.map;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.list.ListBundle;
+import com.addthis.bundle.core.list.ListBundleFormat;
+import com.addthis.bundle.value.ValueFactory;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class BundleRingTest {
+
+    @Test
+    public void testSingleConsumerOrder() {
+        BundleRing ring = new BundleRing(4, 10, 10);
+        Bundle[] first = new Bundle[1];
+        Bundle[] second = new Bundle[2];
+        ring.put(first);
+        ring.put(second);
+        assertEquals(2, ring.size());
+        assertEquals(first, ring.poll());
+        assertEquals(second, ring.poll());
+        assertNull(ring.poll());
+        ring.close();
+        assertNull(ring.take());
+    }
+
+    @Test
+    public void testStealingConsumers() throws InterruptedException {
+        BundleRing ring = new BundleRing(2, 10, 10);
+        ListBundleFormat format = new ListBundleFormat();
+        AtomicLong sum = new AtomicLong();
+        Thread[] consumers = new Thread[3];
+        for (int i = 0; i < consumers.length; i++) {
+            consumers[i] = new Thread(() -> {
+                Bundle[] batch;
+                while ((batch = ring.take()) != null) {
+                    for (Bundle bundle : batch) {
+                        sum.addAndGet(bundle.getValue(format.getField("v")).asLong().getLong());
+                    }
+                }
+            });
+            consumers[i].start();
+        }
+        long expected = 0;
+        for (int i = 0; i < 10000; i++) {
+            Bundle[] batch = new Bundle[4];
+            for (int j = 0; j < batch.length; j++) {
+                batch[j] = new ListBundle(format);
+                batch[j].setValue(format.getField("v"), ValueFactory.create(i));
+                expected += i;
+            }
+            ring.put(batch);
+        }
+        ring.close();
+        for (Thread consumer : consumers) {
+            consumer.join();
+        }
+        assertEquals(expected, sum.get());
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.task.map;
+
+import java.lang.reflect.Field;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleField;
+import com.addthis.bundle.core.BundleFormat;
+import com.addthis.bundle.core.list.ListBundle;
+import com.addthis.bundle.core.list.ListBundleFormat;
+import com.addthis.bundle.value.ValueFactory;
+import com.addthis.codec.config.Configs;
+import com.addthis.hydra.task.output.TaskDataOutput;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class StreamMapperTest {
+
+    private static final String MAP = "filterIn: {op: field, from: keep}, " +
+                                      "fields: [{from: id}, {from: name, to: label}], " +
+                                      "filterOut: {op: field, from: label}";
+
+    /**
+     * Records the contents of every bundle it receives.
+     */
+    static class RecordingOutput extends TaskDataOutput {
+
+        final List<String> sent = new ArrayList<>();
+        int batches;
+
+        @Override protected void open() {}
+
+        @Override public void send(Bundle bundle) {
+            StringBuilder sb = new StringBuilder();
+            for (BundleField field : bundle) {
+                sb.append(field.getName()).append('=').append(bundle.getValue(field)).append(';');
+            }
+            sent.add(sb.toString());
+        }
+
+        @Override public void send(List<Bundle> bundles) {
+            batches++;
+            super.send(bundles);
+        }
+
+        @Override public void sendComplete() {}
+
+        @Override public void sourceError(Throwable err) {}
+    }
+
+    private static List<Bundle> rows() {
+        BundleFormat format = new ListBundleFormat();
+        BundleField id = format.getField("id");
+        BundleField name = format.getField("name");
+        BundleField keep = format.getField("keep");
+        List<Bundle> rows = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Bundle row = new ListBundle(format);
+            row.setValue(id, ValueFactory.create(i));
+            if ((i % 3) != 0) {
+                row.setValue(name, ValueFactory.create("n" + i));
+            }
+            if ((i % 5) != 0) {
+                row.setValue(keep, ValueFactory.create(1));
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private static StreamMapper mapper(RecordingOutput output) throws Exception {
+        StreamMapper mapper = new StreamMapper();
+        set(mapper, "map", Configs.decodeObject(MapDef.class, MAP));
+        set(mapper, "output", output);
+        return mapper;
+    }
+
+    private static void set(StreamMapper mapper, String name, Object value) throws Exception {
+        Field field = StreamMapper.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(mapper, value);
+    }
+
+    @Test
+    public void batchMatchesSingle() throws Exception {
+        RecordingOutput single = new RecordingOutput();
+        StreamMapper singleMapper = mapper(single);
+        for (Bundle row : rows()) {
+            singleMapper.process(row);
+        }
+        RecordingOutput batch = new RecordingOutput();
+        StreamMapper batchMapper = mapper(batch);
+        List<Bundle> rows = rows();
+        batchMapper.process(rows.subList(0, 37));
+        batchMapper.process(rows.subList(37, 100));
+        assertEquals(2, batch.batches);
+        assertEquals(53, single.sent.size());
+        assertEquals(single.sent, batch.sent);
+    }
+
+    @Test
+    public void batchWithoutFields() throws Exception {
+        RecordingOutput single = new RecordingOutput();
+        StreamMapper singleMapper = mapper(single);
+        set(singleMapper, "map", Configs.decodeObject(MapDef.class, "filterIn: {op: field, from: name}"));
+        for (Bundle row : rows()) {
+            singleMapper.process(row);
+        }
+        RecordingOutput batch = new RecordingOutput();
+        StreamMapper batchMapper = mapper(batch);
+        set(batchMapper, "map", Configs.decodeObject(MapDef.class, "filterIn: {op: field, from: name}"));
+        batchMapper.process(rows());
+        assertEquals(66, single.sent.size());
+        assertEquals(single.sent, batch.sent);
+    }
+}
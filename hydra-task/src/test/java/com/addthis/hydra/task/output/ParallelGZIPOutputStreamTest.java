@@ -0,0 +1,98 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.task.output;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import com.addthis.basis.util.Bytes;
+import com.addthis.basis.util.Files;
+
+import com.google.common.io.ByteStreams;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ParallelGZIPOutputStreamTest {
+
+    private static byte[] decompress(byte[] compressed) throws IOException {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            return ByteStreams.toByteArray(in);
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        byte[] data = new byte[1_000_000];
+        Random random = new Random(1);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ('a' + random.nextInt(8));
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ParallelGZIPOutputStream out = new ParallelGZIPOutputStream(bytes, 4096)) {
+            out.write(data, 0, 1000);
+            out.write(data[1000]);
+            out.flush();
+            out.write(data, 1001, data.length - 1001);
+        }
+        assertArrayEquals(data, decompress(bytes.toByteArray()));
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new ParallelGZIPOutputStream(bytes, 4096).close();
+        assertArrayEquals(new byte[0], decompress(bytes.toByteArray()));
+    }
+
+    @Test
+    public void testFinish() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ParallelGZIPOutputStream out = new ParallelGZIPOutputStream(bytes, 4096);
+        out.write(Bytes.toBytes("hello world"));
+        AbstractOutputWrapper.finish(out);
+        assertArrayEquals(Bytes.toBytes("hello world"), decompress(bytes.toByteArray()));
+    }
+
+    /**
+     * Closing an output wrapper finishes the parallel stream and renames the temporary file.
+     */
+    @Test
+    public void testWrapperClose() throws IOException {
+        File tmpDir = Files.createTempDir();
+        try {
+            File target = new File(tmpDir, "out.gz");
+            File temp = new File(tmpDir, "out.gz.tmp");
+            ParallelGZIPOutputStream out = new ParallelGZIPOutputStream(new FileOutputStream(temp), 16);
+            DefaultOutputWrapper wrapper = new DefaultOutputWrapper(out, null, target, temp, true, 0, "out");
+            wrapper.write(Bytes.toBytes("a line that spans more than one block\n"));
+            wrapper.close();
+            assertTrue(wrapper.isClosed());
+            assertFalse(temp.exists());
+            assertArrayEquals(Bytes.toBytes("a line that spans more than one block\n"),
+                              decompress(java.nio.file.Files.readAllBytes(target.toPath())));
+        } finally {
+            Files.deleteDir(tmpDir);
+        }
+    }
+}
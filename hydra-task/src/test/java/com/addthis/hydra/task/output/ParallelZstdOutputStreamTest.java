@@ -0,0 +1,98 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.task.output;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.util.Random;
+
+import com.addthis.basis.util.Files;
+
+import com.addthis.hydra.task.stream.StreamFileNative;
+
+import com.google.common.io.ByteStreams;
+
+import com.github.luben.zstd.ZstdInputStream;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class ParallelZstdOutputStreamTest {
+
+    private static byte[] decompress(byte[] compressed) throws IOException {
+        try (ZstdInputStream in = new ZstdInputStream(new ByteArrayInputStream(compressed))) {
+            return ByteStreams.toByteArray(in);
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        byte[] data = new byte[1_000_000];
+        Random random = new Random(1);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ('a' + random.nextInt(8));
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ParallelZstdOutputStream out = new ParallelZstdOutputStream(bytes, 4096)) {
+            out.write(data, 0, 1000);
+            out.write(data[1000]);
+            out.flush();
+            out.write(data, 1001, data.length - 1001);
+        }
+        assertArrayEquals(data, decompress(bytes.toByteArray()));
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new ParallelZstdOutputStream(bytes, 4096).close();
+        assertArrayEquals(new byte[0], decompress(bytes.toByteArray()));
+    }
+
+    @Test
+    public void testFinish() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ParallelZstdOutputStream out = new ParallelZstdOutputStream(bytes, 4);
+        out.write(new byte[]{1, 2, 3, 4, 5, 6});
+        AbstractOutputWrapper.finish(out);
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6}, decompress(bytes.toByteArray()));
+    }
+
+    @Test
+    public void testReadThroughSource() throws IOException {
+        byte[] data = new byte[100_000];
+        Random random = new Random(2);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ('a' + random.nextInt(8));
+        }
+        File dir = Files.createTempDir();
+        try {
+            File file = new File(dir, "data.zst");
+            try (ParallelZstdOutputStream out = new ParallelZstdOutputStream(new FileOutputStream(file), 4096)) {
+                out.write(data);
+            }
+            try (InputStream in = new StreamFileNative(file).getInputStream()) {
+                assertArrayEquals(data, ByteStreams.toByteArray(in));
+            }
+        } finally {
+            Files.deleteDir(dir);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.task.output;
+
+import java.lang.reflect.Field;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleField;
+import com.addthis.bundle.core.BundleFormat;
+import com.addthis.bundle.core.list.ListBundle;
+import com.addthis.bundle.core.list.ListBundleFormat;
+import com.addthis.bundle.value.ValueFactory;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+public class TaskDataOutputChainTest {
+
+    /**
+     * Records the bundles it receives and optionally marks them.
+     */
+    static class RecordingOutput extends TaskDataOutput {
+
+        final List<Bundle> sent = new ArrayList<>();
+        final List<String> seen = new ArrayList<>();
+        final boolean mark;
+
+        RecordingOutput(boolean mark) {
+            this.mark = mark;
+        }
+
+        @Override protected void open() {}
+
+        @Override public void send(Bundle bundle) {
+            seen.add(describe(bundle));
+            if (mark) {
+                bundle.setValue(bundle.getFormat().getField("marked"), ValueFactory.create("yes"));
+            }
+            sent.add(bundle);
+        }
+
+        @Override public void sendComplete() {}
+
+        @Override public void sourceError(Throwable err) {}
+    }
+
+    private static String describe(Bundle bundle) {
+        StringBuilder sb = new StringBuilder();
+        for (BundleField field : bundle) {
+            if (bundle.getValue(field) != null) {
+                sb.append(field.getName()).append('=').append(bundle.getValue(field)).append(';');
+            }
+        }
+        return sb.toString();
+    }
+
+    private static List<Bundle> rows() {
+        BundleFormat format = new ListBundleFormat();
+        BundleField id = format.getField("id");
+        List<Bundle> rows = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Bundle row = new ListBundle(format);
+            row.setValue(id, ValueFactory.create(i));
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private static TaskDataOutputChain chain(boolean copy, TaskDataOutput... outputs) throws Exception {
+        TaskDataOutputChain chain = new TaskDataOutputChain();
+        set(chain, "outputs", outputs);
+        set(chain, "copy", copy);
+        return chain;
+    }
+
+    private static void set(TaskDataOutputChain chain, String name, Object value) throws Exception {
+        Field field = TaskDataOutputChain.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(chain, value);
+    }
+
+    /**
+     * With copies enabled every output gets its own bundle and does not see the changes of earlier outputs.
+     */
+    @Test
+    public void copyPerOutput() throws Exception {
+        for (boolean batch : new boolean[]{false, true}) {
+            RecordingOutput first = new RecordingOutput(true);
+            RecordingOutput second = new RecordingOutput(false);
+            List<Bundle> rows = rows();
+            send(chain(true, first, second), rows, batch);
+            assertEquals(10, second.sent.size());
+            for (int i = 0; i < 10; i++) {
+                assertNotSame(rows.get(i), first.sent.get(i));
+                assertNotSame(rows.get(i), second.sent.get(i));
+                assertNotSame(first.sent.get(i), second.sent.get(i));
+                assertEquals("id=" + i + ";", second.seen.get(i));
+                assertEquals("id=" + i + ";", describe(rows.get(i)));
+            }
+        }
+    }
+
+    /**
+     * Without copies later outputs see the changes made by earlier outputs.
+     */
+    @Test
+    public void sharedChanges() throws Exception {
+        for (boolean batch : new boolean[]{false, true}) {
+            RecordingOutput first = new RecordingOutput(true);
+            RecordingOutput second = new RecordingOutput(false);
+            send(chain(false, first, second), rows(), batch);
+            assertEquals(10, second.sent.size());
+            for (int i = 0; i < 10; i++) {
+                assertEquals("id=" + i + ";", first.seen.get(i));
+                assertEquals("id=" + i + ";marked=yes;", second.seen.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void batchMatchesSingle() throws Exception {
+        for (boolean copy : new boolean[]{false, true}) {
+            RecordingOutput singleFirst = new RecordingOutput(true);
+            RecordingOutput singleSecond = new RecordingOutput(false);
+            send(chain(copy, singleFirst, singleSecond), rows(), false);
+            RecordingOutput batchFirst = new RecordingOutput(true);
+            RecordingOutput batchSecond = new RecordingOutput(false);
+            send(chain(copy, batchFirst, batchSecond), rows(), true);
+            assertEquals(singleFirst.seen, batchFirst.seen);
+            assertEquals(singleSecond.seen, batchSecond.seen);
+        }
+    }
+
+    private static void send(TaskDataOutputChain chain, List<Bundle> rows, boolean batch) {
+        if (batch) {
+            chain.send(rows);
+        } else {
+            for (Bundle row : rows) {
+                chain.send(row);
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.task.output.tree;
+
+import java.io.File;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.addthis.basis.util.ClosableIterator;
+import com.addthis.basis.util.Files;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleField;
+import com.addthis.bundle.core.BundleFormat;
+import com.addthis.bundle.core.list.ListBundle;
+import com.addthis.bundle.core.list.ListBundleFormat;
+import com.addthis.bundle.value.ValueFactory;
+import com.addthis.codec.config.Configs;
+import com.addthis.hydra.data.tree.DataTreeNode;
+import com.addthis.hydra.data.tree.ReadTree;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TreeMapperSendTest {
+
+    private static List<Bundle> rows() {
+        BundleFormat format = new ListBundleFormat();
+        BundleField cat = format.getField("CAT");
+        BundleField id = format.getField("ID");
+        List<Bundle> rows = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            Bundle row = new ListBundle(format);
+            row.setValue(cat, ValueFactory.create("c" + (i % 3)));
+            row.setValue(id, ValueFactory.create(i % 17));
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /**
+     * Build a tree from {@link #rows()} and return a listing of its nodes and counts.
+     */
+    private static String build(File dir, boolean batch) throws Exception {
+        TreeMapper mapper = Configs.decodeObject(TreeMapper.class,
+                "stats: false, config.dir: \"" + dir.getAbsolutePath() + "\", " +
+                "root: [{type: const, value: root}, {type: value, key: CAT}, {type: value, key: ID}]");
+        mapper.open();
+        List<Bundle> rows = rows();
+        if (batch) {
+            mapper.send(rows.subList(0, 64));
+            mapper.send(rows.subList(64, 200));
+        } else {
+            for (Bundle row : rows) {
+                mapper.send(row);
+            }
+        }
+        mapper.sendComplete();
+        ReadTree tree = new ReadTree(new File(dir, "data"));
+        try {
+            StringBuilder sb = new StringBuilder();
+            list(tree.getRootNode(), "", sb);
+            return sb.toString();
+        } finally {
+            tree.close();
+        }
+    }
+
+    private static void list(DataTreeNode node, String prefix, StringBuilder sb) {
+        ClosableIterator<DataTreeNode> children = node.getIterator();
+        try {
+            while (children.hasNext()) {
+                DataTreeNode child = children.next();
+                String path = prefix + "/" + child.getName();
+                sb.append(path).append(' ').append(child.getCounter()).append('\n');
+                list(child, path, sb);
+            }
+        } finally {
+            children.close();
+        }
+    }
+
+    @Test
+    public void batchMatchesSingle() throws Exception {
+        File tmpDir = Files.createTempDir();
+        try {
+            String single = build(new File(tmpDir, "single"), false);
+            String batch = build(new File(tmpDir, "batch"), true);
+            assertTrue(single.startsWith("/root 200\n"));
+            assertTrue(single.contains("/root/c0/0 "));
+            assertEquals(single, batch);
+        } finally {
+            Files.deleteDir(tmpDir);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.task.source.bundleizer;
+
+import java.io.ByteArrayInputStream;
+
+import java.util.List;
+
+import java.nio.charset.StandardCharsets;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.list.ListBundle;
+import com.addthis.bundle.value.ValueObject;
+import com.addthis.codec.config.Configs;
+import com.addthis.hydra.data.util.Tokenizer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class DelimitedBundleizerTest {
+
+    private static final String[] LINES = {
+            "a,b,c",
+            "a,,c,",
+            ",a",
+            "'a,b',c\\,d,e",
+            "x'a,b'y,[c,d],\\'e",
+            "café,üß,'é,é'",
+            "a,b,c,d,e,f,g",
+            "'unterminated,group",
+            "trailing escape\\",
+    };
+
+    private static void compare(String config, boolean pack, String newline) throws Exception {
+        DelimitedBundleizer factory = Configs.decodeObject(DelimitedBundleizer.class, config);
+        Tokenizer tokenizer = new Tokenizer(",", new String[]{"''", "[]"}, pack);
+        String input = String.join(newline, LINES) + newline + "  " + newline;
+        Bundleizer bundleizer = factory.createBundleizer(
+                new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), new ListBundle());
+        for (String line : LINES) {
+            Bundle bundle = bundleizer.next();
+            List<String> expected = tokenizer.tokenize(line);
+            for (int i = 0; i < 5; i++) {
+                ValueObject value = bundle.getValue(bundle.getFormat().getField("c" + i));
+                if (i < expected.size()) {
+                    assertEquals(line, expected.get(i), value.toString());
+                } else {
+                    assertNull(line, value);
+                }
+            }
+        }
+        assertNull(bundleizer.next());
+    }
+
+    @Test
+    public void matchesTokenizer() throws Exception {
+        String config = "columns = [c0, c1, c2, c3, c4], tokens {separator = \",\", group = [\"''\", \"[]\"]}";
+        compare(config, false, "\n");
+        compare(config, false, "\r\n");
+        compare(config + ", tokens.pack = true", true, "\r");
+    }
+}
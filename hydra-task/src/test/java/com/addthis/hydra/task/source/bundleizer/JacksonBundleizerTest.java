@@ -0,0 +1,73 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.task.source.bundleizer;
+
+import java.io.ByteArrayInputStream;
+
+import java.nio.charset.StandardCharsets;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleFormat;
+import com.addthis.bundle.core.list.ListBundle;
+import com.addthis.bundle.value.ValueArray;
+import com.addthis.bundle.value.ValueMap;
+import com.addthis.bundle.value.ValueObject;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class JacksonBundleizerTest {
+
+    private static Bundleizer bundleizer(String json) {
+        return new JacksonBundleizer().createBundleizer(
+                new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), new ListBundle());
+    }
+
+    @Test
+    public void newlineDelimited() throws Exception {
+        Bundleizer bundleizer = bundleizer("{\"a\":1,\"b\":\"x\",\"c\":1.5,\"d\":true,\"e\":null}\n" +
+                                           "{\"a\":2,\"b\":\"y\"}\n");
+        Bundle first = bundleizer.next();
+        BundleFormat format = first.getFormat();
+        assertEquals(ValueObject.TYPE.INT, first.getValue(format.getField("a")).getObjectType());
+        assertEquals(1L, first.getValue(format.getField("a")).asLong().getLong());
+        assertEquals("x", first.getValue(format.getField("b")).toString());
+        assertEquals(1.5, first.getValue(format.getField("c")).asDouble().getDouble(), 0);
+        assertEquals("true", first.getValue(format.getField("d")).toString());
+        assertEquals("null", first.getValue(format.getField("e")).toString());
+        Bundle second = bundleizer.next();
+        assertEquals(2L, second.getValue(second.getFormat().getField("a")).asLong().getLong());
+        assertEquals("y", second.getValue(second.getFormat().getField("b")).toString());
+        assertNull(bundleizer.next());
+    }
+
+    @Test
+    public void nestedValues() throws Exception {
+        Bundleizer bundleizer = bundleizer("[{\"m\":{\"k\":\"v\",\"n\":{\"x\":3}},\"l\":[1,[2,3],{\"y\":\"z\"},null]}]");
+        Bundle bundle = bundleizer.next();
+        BundleFormat format = bundle.getFormat();
+        ValueMap map = bundle.getValue(format.getField("m")).asMap();
+        assertEquals("v", map.get("k").toString());
+        assertEquals(3L, map.get("n").asMap().get("x").asLong().getLong());
+        ValueArray array = bundle.getValue(format.getField("l")).asArray();
+        assertEquals(4, array.size());
+        assertEquals(1L, array.get(0).asLong().getLong());
+        assertEquals(2, array.get(1).asArray().size());
+        assertEquals("z", array.get(2).asMap().get("y").toString());
+        assertEquals("null", array.get(3).toString());
+        assertNull(bundleizer.next());
+    }
+}